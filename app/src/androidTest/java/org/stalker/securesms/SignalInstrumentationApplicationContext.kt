@@ -4,11 +4,11 @@ import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.AndroidLogger
 import org.signal.core.util.logging.Log
 import org.signal.libsignal.protocol.logging.SignalProtocolLoggerProvider
-import org.stalker.securesms.database.LogDatabase
 import org.stalker.securesms.dependencies.ApplicationDependencies
 import org.stalker.securesms.dependencies.ApplicationDependencyProvider
 import org.stalker.securesms.dependencies.InstrumentationApplicationDependencyProvider
 import org.stalker.securesms.logging.CustomSignalProtocolLogger
+import org.stalker.securesms.logging.LogFileStore
 import org.stalker.securesms.logging.PersistentLogger
 import org.stalker.securesms.testing.InMemoryLogger
 
@@ -32,7 +32,7 @@ class SignalInstrumentationApplicationContext : ApplicationContext() {
 
     SignalExecutors.UNBOUNDED.execute {
       Log.blockUntilAllWritesFinished()
-      LogDatabase.getInstance(this).logs.trimToSize()
+      LogFileStore.getInstance(this).trimToSize()
     }
   }
 
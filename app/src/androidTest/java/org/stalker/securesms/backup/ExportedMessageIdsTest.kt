@@ -0,0 +1,91 @@
+package org.stalker.securesms.backup
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.update
+import org.stalker.securesms.database.MessageTable
+import org.stalker.securesms.database.MmsHelper
+import org.stalker.securesms.database.SignalDatabase
+import org.stalker.securesms.recipients.Recipient
+import org.stalker.securesms.testing.SignalActivityRule
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class ExportedMessageIdsTest {
+
+  @get:Rule
+  val harness = SignalActivityRule()
+
+  private val now = System.currentTimeMillis()
+  private val expiringBefore = now + TimeUnit.DAYS.toMillis(1)
+
+  @Test
+  fun givenMessagesWithAndWithoutTimers_whenIQuery_thenOnlyMessagesNotAboutToExpireAreIncluded() {
+    val noTimer = insert()
+    val expiringSoon = insert(expiresIn = TimeUnit.HOURS.toMillis(1), expireStarted = now)
+    val expiringLater = insert(expiresIn = TimeUnit.DAYS.toMillis(7), expireStarted = now)
+    val timerNotStarted = insert(expiresIn = TimeUnit.HOURS.toMillis(1))
+
+    val ids = ExportedMessageIds.query(SignalDatabase.rawDatabase, expiringBefore)
+
+    assertTrue(ids.contains(noTimer))
+    assertFalse(ids.contains(expiringSoon))
+    assertTrue(ids.contains(expiringLater))
+    assertTrue(ids.contains(timerNotStarted))
+  }
+
+  @Test
+  fun givenEditedMessages_whenIQuery_thenOldRevisionsFollowTheirLatestRevision() {
+    val latest = insert()
+    val oldRevision = insert(latestRevisionId = latest)
+
+    val expiringLatest = insert(expiresIn = TimeUnit.HOURS.toMillis(1), expireStarted = now)
+    val oldRevisionOfExpiring = insert(latestRevisionId = expiringLatest)
+
+    val ids = ExportedMessageIds.query(SignalDatabase.rawDatabase, expiringBefore)
+
+    assertTrue(ids.contains(latest))
+    assertTrue(ids.contains(oldRevision))
+    assertFalse(ids.contains(expiringLatest))
+    assertFalse(ids.contains(oldRevisionOfExpiring))
+  }
+
+  @Test
+  fun givenManyMessages_whenIQuery_thenEveryOneIsFound() {
+    val inserted = (1..1100).map { insert(sentTimeMillis = it.toLong()) }
+
+    val ids = ExportedMessageIds.query(SignalDatabase.rawDatabase, expiringBefore)
+
+    assertTrue(ids.size() >= inserted.size)
+    assertTrue(inserted.all { ids.contains(it) })
+    assertFalse(ids.contains(inserted.max() + 1))
+    assertFalse(ids.contains(0))
+  }
+
+  private fun insert(
+    sentTimeMillis: Long = System.currentTimeMillis(),
+    expiresIn: Long = 0,
+    expireStarted: Long = 0,
+    latestRevisionId: Long? = null
+  ): Long {
+    val messageId = MmsHelper.insert(recipient = Recipient.resolved(harness.others[0]), sentTimeMillis = sentTimeMillis, expiresIn = expiresIn)
+
+    if (expireStarted > 0) {
+      SignalDatabase.messages.markExpireStarted(messageId, expireStarted)
+    }
+
+    if (latestRevisionId != null) {
+      SignalDatabase.rawDatabase
+        .update(MessageTable.TABLE_NAME)
+        .values(MessageTable.LATEST_REVISION_ID to latestRevisionId)
+        .where("${MessageTable.ID} = ?", messageId)
+        .run()
+    }
+
+    return messageId
+  }
+}
@@ -15,7 +15,9 @@ import org.signal.core.util.getIndexes
 import org.signal.core.util.readToList
 import org.signal.core.util.requireNonNullString
 import org.stalker.securesms.database.helpers.SignalDatabaseMigrations
+import org.stalker.securesms.database.model.ParentStoryId
 import org.stalker.securesms.dependencies.ApplicationDependencies
+import org.stalker.securesms.mms.IncomingMessage
 import org.stalker.securesms.testing.SignalActivityRule
 
 /**
@@ -85,6 +87,65 @@ class DatabaseConsistencyTest {
     assertTrue("Missing indexes to cover: $notFound", notFound.isEmpty())
   }
 
+  @Test
+  fun testThreadUnreadCountConsistency() {
+    val threadIds = harness.others.take(2).map { SignalDatabase.threads.getOrCreateThreadIdFor(it, isGroup = false) }
+    val messageIds = mutableListOf<Long>()
+
+    for ((index, threadId) in threadIds.withIndex()) {
+      for (i in 1L..10L) {
+        MmsHelper.insert(
+          IncomingMessage(
+            type = MessageType.NORMAL,
+            from = harness.others[index],
+            sentTimeMillis = i,
+            serverTimeMillis = i,
+            receivedTimeMillis = i,
+            body = "Message $i"
+          ),
+          threadId
+        ).ifPresent { messageIds += it.messageId }
+      }
+    }
+
+    // Update messages like this one aren't NORMAL, but still count as unread
+    MmsHelper.insert(
+      IncomingMessage(
+        type = MessageType.PAYMENTS_ACTIVATED,
+        from = harness.others[1],
+        sentTimeMillis = 11L,
+        serverTimeMillis = 11L,
+        receivedTimeMillis = 11L
+      ),
+      threadIds[1]
+    )
+
+    // Direct replies to a story are stored with a negative parent story id and count as unread too
+    MmsHelper.insert(
+      IncomingMessage(
+        type = MessageType.NORMAL,
+        from = harness.others[0],
+        sentTimeMillis = 11L,
+        serverTimeMillis = 11L,
+        receivedTimeMillis = 11L,
+        body = "Reply",
+        parentStoryId = ParentStoryId.DirectReply(messageIds[0])
+      ),
+      threadIds[0]
+    )
+
+    assertTrue(SignalDatabase.threads.getThreadIdsWithIncorrectUnreadCounts().isEmpty())
+
+    // Newest message (the snippet), an older unread one, and one that was already read
+    SignalDatabase.threads.setReadSince(threadIds[0], false, 3L)
+    SignalDatabase.messages.deleteMessage(messageIds[9])
+    SignalDatabase.messages.deleteMessage(messageIds[5])
+    SignalDatabase.messages.deleteMessage(messageIds[1])
+    SignalDatabase.threads.setRead(threadIds[1], false)
+
+    assertTrue(SignalDatabase.threads.getThreadIdsWithIncorrectUnreadCounts().isEmpty())
+  }
+
   private fun List<Index>.hasPrimaryIndexFor(table: String, column: String): Boolean {
     return this.any { index -> index.table == table && index.columns[0] == column }
   }
@@ -8,7 +8,12 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.signal.core.util.concurrent.SignalExecutors
+import org.stalker.securesms.database.model.MessageId
+import org.stalker.securesms.database.model.ReactionRecord
 import org.stalker.securesms.dependencies.ApplicationDependencies
+import org.stalker.securesms.recipients.Recipient
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
@@ -154,4 +159,122 @@ class DatabaseObserverTest {
     assertEquals(1, thread1Count.get())
     assertEquals(1, thread2Count.get())
   }
+
+  @Test
+  fun notifyConversationListeners_coalescesNotificationsAcrossTransactions() {
+    val count = AtomicInteger(0)
+    observer.registerConversationObserver(1) { count.incrementAndGet() }
+    observer.flush()
+
+    for (i in 0 until 10) {
+      db.beginTransaction()
+      observer.notifyConversationListeners(1)
+      db.setTransactionSuccessful()
+      db.endTransaction()
+    }
+
+    observer.flush()
+    assertEquals(1, count.get())
+  }
+
+  @Test
+  fun notifyConversationListeners_changeObserverReceivesMergedMessageIds() {
+    val changes = mutableListOf<DatabaseObserver.ConversationChanges>()
+    observer.registerConversationChangeObserver(1) { changes += it }
+    observer.flush()
+
+    observer.notifyConversationListeners(1, MessageId(10))
+    observer.notifyConversationListeners(1, MessageId(11))
+    observer.notifyConversationListeners(1, MessageId(10))
+    observer.flush()
+
+    assertEquals(1, changes.size)
+    assertFalse(changes[0].isFullInvalidation)
+    assertEquals(setOf(MessageId(10), MessageId(11)), changes[0].messageIds)
+  }
+
+  @Test
+  fun notifyConversationListeners_changeObserverIsFullyInvalidatedByUntargetedChange() {
+    val changes = mutableListOf<DatabaseObserver.ConversationChanges>()
+    observer.registerConversationChangeObserver(1) { changes += it }
+    observer.flush()
+
+    observer.notifyConversationListeners(1, MessageId(10))
+    observer.notifyConversationListeners(1)
+    observer.flush()
+
+    assertEquals(1, changes.size)
+    assertTrue(changes[0].isFullInvalidation)
+  }
+
+  @Test
+  fun setAllThreadsRead_tellsConversationWriteListeners() {
+    val written = AtomicInteger(0)
+    val listener = object : DatabaseObserver.ConversationWriteListener {
+      override fun onConversationWritten(threadId: Long) = Unit
+      override fun onAllConversationsWritten() {
+        written.incrementAndGet()
+      }
+    }
+
+    observer.registerConversationWriteListener(listener)
+    try {
+      SignalDatabase.threads.setAllThreadsRead()
+      assertEquals(1, written.get())
+    } finally {
+      observer.unregisterConversationWriteListener(listener)
+    }
+  }
+
+  @Test
+  fun notifyConversationWriteListeners_onlyTellsWriteListeners() {
+    val written = mutableListOf<Long>()
+    val hasRun = AtomicBoolean(false)
+    val listener = object : DatabaseObserver.ConversationWriteListener {
+      override fun onConversationWritten(threadId: Long) {
+        written += threadId
+      }
+      override fun onAllConversationsWritten() = Unit
+    }
+
+    observer.registerConversationWriteListener(listener)
+    observer.registerConversationObserver(1) { hasRun.set(true) }
+    try {
+      observer.notifyConversationWriteListeners(1)
+      observer.flush()
+
+      assertEquals(listOf(1L), written)
+      assertFalse(hasRun.get())
+    } finally {
+      observer.unregisterConversationWriteListener(listener)
+    }
+  }
+
+  @Test
+  fun addAndDeleteReaction_tellConversationWriteListeners() {
+    val recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+    val threadId = SignalDatabase.threads.getOrCreateThreadIdFor(recipient)
+    val messageId = MessageId(MmsHelper.insert(recipient = recipient, threadId = threadId))
+
+    val written = mutableListOf<Long>()
+    val listener = object : DatabaseObserver.ConversationWriteListener {
+      override fun onConversationWritten(threadId: Long) {
+        written += threadId
+      }
+      override fun onAllConversationsWritten() = Unit
+    }
+
+    observer.registerConversationWriteListener(listener)
+    try {
+      SignalDatabase.reactions.addReaction(messageId, ReactionRecord("a", recipient.id, 1, 1))
+      observer.flush()
+      assertEquals(listOf(threadId), written)
+
+      SignalDatabase.reactions.deleteReaction(messageId, recipient.id)
+      observer.flush()
+      assertEquals(listOf(threadId, threadId), written)
+    } finally {
+      observer.unregisterConversationWriteListener(listener)
+    }
+  }
 }
@@ -0,0 +1,81 @@
+package org.stalker.securesms.database
+
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.signal.core.util.readToList
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireString
+import org.stalker.securesms.recipients.Recipient
+import org.stalker.securesms.testing.SignalDatabaseRule
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+
+class SearchTableTest {
+
+  @Rule
+  @JvmField
+  val databaseRule = SignalDatabaseRule()
+
+  private lateinit var recipient: Recipient
+
+  @Before
+  fun setUp() {
+    recipient = Recipient.resolved(SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID())))
+  }
+
+  @Test
+  fun queryMatchingMessages_returnsNewestInsertedFirst() {
+    val first = MmsHelper.insert(recipient = recipient, body = "see you at dinner")
+    MmsHelper.insert(recipient = recipient, body = "something else")
+    val second = MmsHelper.insert(recipient = recipient, body = "dinnertime!")
+
+    val ids = SignalDatabase.messageSearch.queryMatchingMessages("dinner", null)!!.readToList { it.requireLong(SearchTable.MESSAGE_ID) }
+
+    assertEquals(listOf(second, first), ids)
+  }
+
+  @Test
+  fun queryMatchingMessages_findsAtMostMaxResults() {
+    repeat(SearchTable.MAX_MESSAGE_RESULTS + 1) {
+      MmsHelper.insert(recipient = recipient, body = "hello $it")
+    }
+
+    val ids = SignalDatabase.messageSearch.queryMatchingMessages("hello", null)!!.readToList { it.requireLong(SearchTable.MESSAGE_ID) }
+
+    assertEquals(SearchTable.MAX_MESSAGE_RESULTS, ids.size)
+  }
+
+  @Test(expected = OperationCanceledException::class)
+  fun queryMatchingMessages_whenCanceled_throws() {
+    MmsHelper.insert(recipient = recipient, body = "hello")
+
+    val cancellationSignal = CancellationSignal()
+    cancellationSignal.cancel()
+
+    SignalDatabase.messageSearch.queryMatchingMessages("hello", cancellationSignal)?.use { it.count }
+  }
+
+  @Test
+  fun queryMessageSnippets_onlyReadsTheGivenMessages() {
+    val ids = (0 until 10).map { MmsHelper.insert(recipient = recipient, body = "hello number $it") }
+    val page = ids.subList(3, 6)
+
+    val snippets = SignalDatabase.messageSearch.queryMessageSnippets("hello", page)!!.readToList { it.requireLong(SearchTable.MESSAGE_ID) to it.requireString(SearchTable.SNIPPET) }
+
+    assertEquals(page.toSet(), snippets.map { it.first }.toSet())
+    assertEquals("hello number 4", snippets.first { it.first == ids[4] }.second)
+  }
+
+  @Test
+  fun queryMatchingMessages_byId_returnsTheGivenMessages() {
+    val ids = (0 until 3).map { MmsHelper.insert(recipient = recipient, body = "message $it") }
+
+    val found = SignalDatabase.messageSearch.queryMatchingMessages(listOf(ids[0], ids[2]))!!.readToList { it.requireLong(SearchTable.MESSAGE_ID) }
+
+    assertEquals(setOf(ids[0], ids[2]), found.toSet())
+  }
+}
@@ -0,0 +1,41 @@
+package org.stalker.securesms.database
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.core.util.concurrent.SignalExecutors
+import org.signal.core.util.readToSingleLong
+import org.stalker.securesms.recipients.RecipientId
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class SignalDatabaseTest_snapshot {
+
+  @Test
+  fun givenASnapshot_whenAnotherThreadWrites_thenTheWriteIsNotBlockedOrVisible() {
+    val countBefore = getRecipientCount()
+
+    val countsWithinSnapshot = SignalDatabase.runWithinSnapshot {
+      val first = getRecipientCount()
+
+      // Would time out if the snapshot held a lock writers need
+      SignalExecutors.BOUNDED.submit<RecipientId> {
+        SignalDatabase.recipients.getOrInsertFromServiceId(ACI.from(UUID.randomUUID()))
+      }.get(5, TimeUnit.SECONDS)
+
+      first to getRecipientCount()
+    }
+
+    assertEquals(countBefore to countBefore, countsWithinSnapshot)
+    assertEquals(countBefore + 1, getRecipientCount())
+  }
+
+  private fun getRecipientCount(): Long {
+    return SignalDatabase.instance!!.signalReadableDatabase
+      .rawQuery("SELECT COUNT(*) FROM ${RecipientTable.TABLE_NAME}", null)
+      .readToSingleLong()
+  }
+}
@@ -7,13 +7,22 @@ import org.signal.benchmark.setup.TestUsers
 import org.stalker.securesms.BaseActivity
 import org.stalker.securesms.database.SignalDatabase
 import org.stalker.securesms.recipients.Recipient
+import org.stalker.securesms.util.AppStartup
+import java.io.File
 
 class BenchmarkSetupActivity : BaseActivity() {
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
 
     when (intent.extras!!.getString("setup-type")) {
-      "cold-start" -> setupColdStart()
+      "cold-start" -> {
+        setupColdStart()
+        setSerialStartup(false)
+      }
+      "cold-start-serial" -> {
+        setupColdStart()
+        setSerialStartup(true)
+      }
       "conversation-open" -> setupConversationOpen()
     }
 
@@ -39,6 +48,19 @@ class BenchmarkSetupActivity : BaseActivity() {
     }
   }
 
+  /**
+   * Picked up by [org.stalker.securesms.ApplicationContext] on the next launch.
+   */
+  private fun setSerialStartup(serial: Boolean) {
+    val marker = File(noBackupFilesDir, AppStartup.SERIAL_BLOCKING_MARKER)
+
+    if (serial) {
+      marker.createNewFile()
+    } else {
+      marker.delete()
+    }
+  }
+
   private fun setupConversationOpen() {
     TestUsers.setupSelf()
     TestUsers.setupTestRecipient().let {
@@ -45,6 +45,7 @@ import org.stalker.securesms.avatar.AvatarPickerStorage;
 import org.stalker.securesms.crypto.AttachmentSecretProvider;
 import org.stalker.securesms.crypto.DatabaseSecretProvider;
 import org.stalker.securesms.database.LogDatabase;
+import org.stalker.securesms.database.QueryProfiler;
 import org.stalker.securesms.database.SignalDatabase;
 import org.stalker.securesms.database.SqlCipherLibraryLoader;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
@@ -74,6 +75,7 @@ import org.stalker.securesms.jobs.SubscriptionKeepAliveJob;
 import org.stalker.securesms.keyvalue.KeepMessagesDuration;
 import org.stalker.securesms.keyvalue.SignalStore;
 import org.stalker.securesms.logging.CustomSignalProtocolLogger;
+import org.stalker.securesms.logging.LogFileStore;
 import org.stalker.securesms.logging.PersistentLogger;
 import org.stalker.securesms.messageprocessingalarm.RoutineMessageFetchReceiver;
 import org.stalker.securesms.migrations.ApplicationMigrations;
@@ -105,6 +107,7 @@ import org.stalker.securesms.util.Util;
 import org.stalker.securesms.util.VersionTracker;
 import org.stalker.securesms.util.dynamiclanguage.DynamicLanguageContextWrapper;
 
+import java.io.File;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.security.Security;
@@ -119,6 +122,8 @@ import io.reactivex.rxjava3.schedulers.Schedulers;
 import kotlin.Unit;
 import rxdogtag2.RxDogTag;
 
+import static org.stalker.securesms.util.AppStartup.after;
+
 /**
  * Will be called once when the TextSecure process is created.
  *
@@ -147,40 +152,48 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
       Tracer.getInstance().setMaxBufferSize(35_000);
     }
 
+    QueryProfiler.setEnabled(BuildConfig.DEBUG);
+
     super.onCreate();
 
-    AppStartup.getInstance().addBlocking("sqlcipher-init", () -> {
+    if (BuildConfig.BUILD_VARIANT_TYPE.equals("Benchmark")) {
+      AppStartup.getInstance().setSerialBlocking(new File(getNoBackupFilesDir(), AppStartup.SERIAL_BLOCKING_MARKER).exists());
+    }
+
+    AppStartup.getInstance().addBlockingInBackground("sqlcipher-init", after(), () -> {
                               SqlCipherLibraryLoader.load();
                               SignalDatabase.init(this,
                                                   DatabaseSecretProvider.getOrCreateDatabaseSecret(this),
                                                   AttachmentSecretProvider.getInstance(this).getOrCreateAttachmentSecret());
                             })
-                            .addBlocking("logging", () -> {
+                            .addBlockingOnMainThread("logging", after("sqlcipher-init"), () -> {
                               initializeLogging();
                               Log.i(TAG, "onCreate()");
                             })
-                            .addBlocking("anr-detector", this::startAnrDetector)
-                            .addBlocking("security-provider", this::initializeSecurityProvider)
-                            .addBlocking("crash-handling", this::initializeCrashHandling)
-                            .addBlocking("rx-init", this::initializeRx)
-                            .addBlocking("event-bus", () -> EventBus.builder().logNoSubscriberMessages(false).installDefaultEventBus())
-                            .addBlocking("app-dependencies", this::initializeAppDependencies)
-                            .addBlocking("scrubber", () -> Scrubber.setIdentifierHmacKeyProvider(() -> SignalStore.svr().getOrCreateMasterKey().deriveLoggingKey()))
-                            .addBlocking("first-launch", this::initializeFirstEverAppLaunch)
+                            .addBlockingInBackground("security-provider", after("logging"), this::initializeSecurityProvider)
+                            .addBlockingOnMainThread("anr-detector", after("logging"), this::startAnrDetector)
+                            .addBlockingOnMainThread("crash-handling", after("logging"), this::initializeCrashHandling)
+                            .addBlockingOnMainThread("rx-init", after("crash-handling"), this::initializeRx)
+                            .addBlockingOnMainThread("event-bus", after("crash-handling"), () -> EventBus.builder().logNoSubscriberMessages(false).installDefaultEventBus())
+                            .addBlockingOnMainThread("glide", after("crash-handling"), () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
+                            // Everything from here on may use crypto, so it has to wait for our security provider to be installed
+                            .addBlockingOnMainThread("app-dependencies", after("security-provider", "crash-handling", "rx-init", "event-bus"), this::initializeAppDependencies)
+                            .addBlockingOnMainThread("scrubber", after("app-dependencies"), () -> Scrubber.setIdentifierHmacKeyProvider(() -> SignalStore.svr().getOrCreateMasterKey().deriveLoggingKey()))
+                            .addBlockingOnMainThread("first-launch", after("app-dependencies"), this::initializeFirstEverAppLaunch)
+                            .addBlockingOnMainThread("blob-provider", after("security-provider"), this::initializeBlobProvider)
                             .addBlocking("app-migrations", this::initializeApplicationMigrations)
-                            .addBlocking("lifecycle-observer", () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
-                            .addBlocking("message-retriever", this::initializeMessageRetrieval)
-                            .addBlocking("dynamic-theme", () -> DynamicTheme.setDefaultDayNightMode(this))
-                            .addBlocking("proxy-init", () -> {
+                            .addBlockingOnMainThread("feature-flags", after("app-migrations"), FeatureFlags::init)
+                            .addBlockingOnMainThread("query-profiler", after("feature-flags"), () -> QueryProfiler.setEnabled(BuildConfig.DEBUG || FeatureFlags.internalUser()))
+                            .addBlockingInBackground("ring-rtc", after("feature-flags"), this::initializeRingRtc)
+                            .addBlockingOnMainThread("lifecycle-observer", after("app-migrations"), () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
+                            .addBlockingOnMainThread("message-retriever", after("app-migrations"), this::initializeMessageRetrieval)
+                            .addBlockingOnMainThread("dynamic-theme", after("app-migrations"), () -> DynamicTheme.setDefaultDayNightMode(this))
+                            .addBlockingOnMainThread("proxy-init", after("app-migrations"), () -> {
                               if (SignalStore.proxy().isProxyEnabled()) {
                                 Log.w(TAG, "Proxy detected. Enabling Conscrypt.setUseEngineSocketByDefault()");
                                 ConscryptSignal.setUseEngineSocketByDefault(true);
                               }
                             })
-                            .addBlocking("blob-provider", this::initializeBlobProvider)
-                            .addBlocking("feature-flags", FeatureFlags::init)
-                            .addBlocking("ring-rtc", this::initializeRingRtc)
-                            .addBlocking("glide", () -> SignalGlideModule.setRegisterGlideComponents(new SignalGlideComponents()))
                             .addNonBlocking(() -> RegistrationUtil.maybeMarkRegistrationComplete())
                             .addNonBlocking(() -> Glide.get(this))
                             .addNonBlocking(this::cleanAvatarStorage)
@@ -319,7 +332,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
 
     SignalExecutors.UNBOUNDED.execute(() -> {
       Log.blockUntilAllWritesFinished();
-      LogDatabase.getInstance(this).logs().trimToSize();
+      LogFileStore.getInstance(this).trimToSize();
       LogDatabase.getInstance(this).crashes().trimToSize();
     });
   }
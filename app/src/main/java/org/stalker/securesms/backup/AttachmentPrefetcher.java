@@ -0,0 +1,195 @@
+package org.stalker.securesms.backup;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.CursorUtil;
+import org.signal.core.util.logging.Log;
+import org.stalker.securesms.attachments.AttachmentId;
+import org.stalker.securesms.crypto.AttachmentSecret;
+import org.stalker.securesms.database.AttachmentTable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and decrypts attachments on a worker pool ahead of the backup writer.
+ *
+ * Walks its own cursor over the attachment table in row id order and keeps up to {@code window} attachments in flight. Attachments that
+ * are already in the base of a delta backup are skipped, since the writer only references them. The writer asks
+ * for each attachment in the same order it writes the rows, so the frame order is unchanged. Anything that isn't ready in a usable form
+ * (too large to buffer, failed to read, or the two cursors disagree) is left for the writer to stream itself, exactly as it did before.
+ */
+final class AttachmentPrefetcher implements Closeable {
+
+  private static final String TAG = Log.tag(AttachmentPrefetcher.class);
+
+  static final String QUERY = "SELECT " + AttachmentTable.ID + ", " + AttachmentTable.MESSAGE_ID + ", " + AttachmentTable.DATA_FILE + ", " + AttachmentTable.DATA_RANDOM + ", " + AttachmentTable.DATA_SIZE + ", " + AttachmentTable.DATA_HASH_END + " " +
+                              "FROM " + AttachmentTable.TABLE_NAME + " " +
+                              "ORDER BY " + AttachmentTable.ID;
+
+  private final AttachmentSecret              attachmentSecret;
+  private final Cursor                        cursor;
+  private final ExportedMessageIds            messageIds;
+  private final BackupManifest                base;
+  private final ExecutorService               executor;
+  private final int                           window;
+  private final long                          maxBufferedSize;
+  private final ArrayDeque<PendingAttachment> pending;
+
+  /**
+   * @param cursor Results of {@link #QUERY}. Owned by the prefetcher from here on.
+   */
+  AttachmentPrefetcher(@NonNull AttachmentSecret attachmentSecret,
+                       @NonNull Cursor cursor,
+                       @NonNull ExportedMessageIds messageIds,
+                       @Nullable BackupManifest base,
+                       @NonNull ExecutorService executor,
+                       int window,
+                       long maxBufferedSize)
+  {
+    this.attachmentSecret = attachmentSecret;
+    this.cursor           = cursor;
+    this.messageIds       = messageIds;
+    this.base             = base;
+    this.executor         = executor;
+    this.window           = window;
+    this.maxBufferedSize  = maxBufferedSize;
+    this.pending          = new ArrayDeque<>(window);
+  }
+
+  /**
+   * Returns the prefetched attachment for the given row, or null if the writer needs to handle it itself. Must be called in ascending
+   * row id order.
+   */
+  @Nullable Prefetched take(long rowId) throws InterruptedIOException {
+    fill();
+
+    while (!pending.isEmpty() && pending.peek().rowId < rowId) {
+      pending.poll().future.cancel(true);
+      fill();
+    }
+
+    if (pending.isEmpty() || pending.peek().rowId != rowId) {
+      return null;
+    }
+
+    PendingAttachment next = pending.poll();
+    fill();
+
+    try {
+      return next.future.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Failed to prefetch " + new AttachmentId(rowId), e);
+      return null;
+    }
+  }
+
+  @Override
+  public void close() {
+    for (PendingAttachment attachment : pending) {
+      attachment.future.cancel(true);
+    }
+    pending.clear();
+    cursor.close();
+  }
+
+  private void fill() {
+    while (pending.size() < window && cursor.moveToNext()) {
+      long messageId = CursorUtil.requireLong(cursor, AttachmentTable.MESSAGE_ID);
+
+      if (!messageIds.contains(messageId)) {
+        continue;
+      }
+
+      if (base != null && base.containsAttachment(CursorUtil.requireString(cursor, AttachmentTable.DATA_HASH_END))) {
+        continue;
+      }
+
+      long   rowId  = CursorUtil.requireLong(cursor, AttachmentTable.ID);
+      long   size   = CursorUtil.requireLong(cursor, AttachmentTable.DATA_SIZE);
+      String data   = CursorUtil.requireString(cursor, AttachmentTable.DATA_FILE);
+      byte[] random = CursorUtil.requireBlob(cursor, AttachmentTable.DATA_RANDOM);
+
+      pending.add(new PendingAttachment(rowId, executor.submit(() -> read(rowId, data, random, size))));
+    }
+  }
+
+  private @NonNull Prefetched read(long rowId, @Nullable String data, @Nullable byte[] random, long dbSize) {
+    if (TextUtils.isEmpty(data)) {
+      return new Prefetched(dbSize, null, false);
+    }
+
+    long size       = dbSize;
+    long fileLength = new File(data).length();
+
+    if (size <= 0 || fileLength != dbSize) {
+      size = FullBackupExporter.calculateVeryOldStreamLength(attachmentSecret, random, data);
+      Log.w(TAG, "Needed size calculation! Manual: " + size + " File: " + fileLength + "  DB: " + dbSize + " ID: " + new AttachmentId(rowId));
+    }
+
+    if (size <= 0 || size > maxBufferedSize) {
+      return new Prefetched(size, null, false);
+    }
+
+    try (InputStream inputStream = FullBackupExporter.openAttachmentStream(attachmentSecret, random, data)) {
+      byte[] plaintext = new byte[(int) size];
+      int    offset    = 0;
+      int    read;
+
+      while (offset < plaintext.length && (read = inputStream.read(plaintext, offset, plaintext.length - offset)) != -1) {
+        offset += read;
+      }
+
+      if (offset != plaintext.length || inputStream.read() != -1) {
+        Log.w(TAG, "Prefetched length doesn't match for " + new AttachmentId(rowId) + ", leaving it to the writer.");
+        return new Prefetched(size, null, false);
+      }
+
+      return new Prefetched(size, plaintext, false);
+    } catch (FileNotFoundException e) {
+      return new Prefetched(size, null, true);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to prefetch " + new AttachmentId(rowId) + ", leaving it to the writer.", e);
+      return new Prefetched(size, null, false);
+    }
+  }
+
+  static final class Prefetched {
+    /** The plaintext length, already corrected for very old attachments. */
+    final long    size;
+    /** The full plaintext, or null if the writer should open the file itself. */
+    final byte[]  data;
+    /** True if the file is gone. */
+    final boolean missing;
+
+    private Prefetched(long size, @Nullable byte[] data, boolean missing) {
+      this.size    = size;
+      this.data    = data;
+      this.missing = missing;
+    }
+  }
+
+  private static final class PendingAttachment {
+    final long               rowId;
+    final Future<Prefetched> future;
+
+    private PendingAttachment(long rowId, @NonNull Future<Prefetched> future) {
+      this.rowId  = rowId;
+      this.future = future;
+    }
+  }
+}
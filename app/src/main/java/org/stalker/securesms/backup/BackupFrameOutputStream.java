@@ -6,6 +6,7 @@
 package org.stalker.securesms.backup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.signal.core.util.Conversions;
 import org.signal.core.util.logging.Log;
@@ -35,6 +36,7 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -42,6 +44,8 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
 
   private static final String TAG = Log.tag(BackupFrameOutputStream.class);
 
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   private final OutputStream outputStream;
   private final Cipher       cipher;
   private final Mac          mac;
@@ -50,9 +54,20 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
   private final byte[] iv;
   private       int    counter;
 
+  /** Reused across every streamed frame, since they're all written from the same thread. */
+  private final byte[] streamBuffer     = new byte[STREAM_BUFFER_SIZE];
+  private final byte[] ciphertextBuffer = new byte[STREAM_BUFFER_SIZE + 16];
+
   private int frames;
 
   BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
+    this(output, passphrase, null);
+  }
+
+  /**
+   * @param manifest If present, its backup id goes into the header, and if it has a base, the header marks this as a delta against it.
+   */
+  BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase, @Nullable BackupManifest.Builder manifest) throws IOException {
     try {
       byte[]   salt    = Util.getSecretBytes(32);
       byte[]   key     = getBackupKey(passphrase, salt);
@@ -70,11 +85,23 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
 
       mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
 
-      byte[] header = new BackupFrame.Builder().header_(new Header.Builder()
-                                                            .iv(new okio.ByteString(iv))
-                                                            .salt(new okio.ByteString(salt))
-                                                            .version(BackupVersions.CURRENT_VERSION)
-                                                            .build())
+      Header.Builder headerBuilder = new Header.Builder()
+                                               .iv(new okio.ByteString(iv))
+                                               .salt(new okio.ByteString(salt))
+                                               .version(BackupVersions.CURRENT_VERSION);
+
+      if (manifest != null) {
+        headerBuilder.backupId(new okio.ByteString(manifest.getBackupId()));
+
+        BackupManifest base = manifest.getBase();
+        if (base != null) {
+          headerBuilder.version(BackupVersions.DELTA_VERSION)
+                       .baseBackupId(new okio.ByteString(base.getBackupId()))
+                       .baseFileName(base.getFileName());
+        }
+      }
+
+      byte[] header = new BackupFrame.Builder().header_(headerBuilder.build())
                                                .build()
                                                .encode();
 
@@ -115,12 +142,13 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
     }
   }
 
-  public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
+  public void write(@NonNull AttachmentId attachmentId, @Nullable String hash, @NonNull InputStream in, long size) throws IOException {
     try {
       write(outputStream, new BackupFrame.Builder()
           .attachment(new Attachment.Builder()
                           .rowId(attachmentId.id)
                           .length(Util.toIntExact(size))
+                          .hash(hash)
                           .build())
           .build());
     } catch (ArithmeticException e) {
@@ -133,6 +161,25 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
     }
   }
 
+  /**
+   * Writes a reference to the attachment with the same hash in the base backup. No data follows it.
+   */
+  public void writeBaseReference(@NonNull AttachmentId attachmentId, @NonNull String hash, long size) throws IOException {
+    try {
+      write(outputStream, new BackupFrame.Builder()
+          .attachment(new Attachment.Builder()
+                          .rowId(attachmentId.id)
+                          .length(Util.toIntExact(size))
+                          .hash(hash)
+                          .inBase(true)
+                          .build())
+          .build());
+    } catch (ArithmeticException e) {
+      Log.w(TAG, "Unable to write " + attachmentId + " to backup", e);
+      throw new FullBackupExporter.InvalidBackupStreamException();
+    }
+  }
+
   public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
     try {
       write(outputStream, new BackupFrame.Builder()
@@ -170,17 +217,16 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
       cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
       mac.update(iv);
 
-      byte[] buffer = new byte[8192];
-      long   total  = 0;
+      long total = 0;
 
       int read;
 
-      while ((read = inputStream.read(buffer)) != -1) {
-        byte[] ciphertext = cipher.update(buffer, 0, read);
+      while ((read = inputStream.read(streamBuffer)) != -1) {
+        int written = cipher.update(streamBuffer, 0, read, ciphertextBuffer);
 
-        if (ciphertext != null) {
-          outputStream.write(ciphertext);
-          mac.update(ciphertext);
+        if (written > 0) {
+          outputStream.write(ciphertextBuffer, 0, written);
+          mac.update(ciphertextBuffer, 0, written);
         }
 
         total += read;
@@ -194,7 +240,7 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
       outputStream.write(attachmentDigest, 0, 10);
 
       return total;
-    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException e) {
       throw new AssertionError(e);
     }
   }
@@ -217,7 +263,7 @@ class BackupFrameOutputStream extends FullBackupBase.BackupStream {
         length = encryptedLength;
       }
 
-      byte[] frameCiphertext = cipher.doFinal(frame.encode());
+      byte[] frameCiphertext = cipher.doFinal(encodedFrame);
       if (frameCiphertext.length != encodedFrame.length) {
         throw new IOException("Stream cipher assumption has been violated!");
       }
@@ -0,0 +1,192 @@
+package org.stalker.securesms.backup;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+import org.stalker.securesms.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Describes the last base backup written on this device: which file it is, and the content hashes of the attachments in it.
+ *
+ * Delta backups are written against a manifest, and only carry the attachments whose hash isn't in it. The manifest lives in app
+ * storage rather than in the backup directory, so a delta never has to read the base backup back in.
+ */
+public final class BackupManifest {
+
+  private static final String TAG = Log.tag(BackupManifest.class);
+
+  private static final String FILE_NAME      = "backup_manifest";
+  private static final int    FORMAT_VERSION = 1;
+
+  private final byte[]      backupId;
+  private final String      fileName;
+  private final long        createdAt;
+  private final Set<String> attachmentHashes;
+
+  BackupManifest(@NonNull byte[] backupId, @NonNull String fileName, long createdAt, @NonNull Set<String> attachmentHashes) {
+    this.backupId         = backupId;
+    this.fileName         = fileName;
+    this.createdAt        = createdAt;
+    this.attachmentHashes = Collections.unmodifiableSet(attachmentHashes);
+  }
+
+  public static @Nullable BackupManifest read(@NonNull Context context) {
+    return read(getFile(context));
+  }
+
+  public static void clear(@NonNull Context context) {
+    File file = getFile(context);
+
+    if (file.exists() && !file.delete()) {
+      Log.w(TAG, "Failed to delete the backup manifest.");
+    }
+  }
+
+  static @Nullable BackupManifest read(@NonNull File file) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = in.readInt();
+      if (version != FORMAT_VERSION) {
+        Log.w(TAG, "Unknown manifest version " + version);
+        return null;
+      }
+
+      byte[] backupId = new byte[in.readInt()];
+      in.readFully(backupId);
+
+      String      fileName  = in.readUTF();
+      long        createdAt = in.readLong();
+      int         count     = in.readInt();
+      Set<String> hashes    = new HashSet<>(count);
+
+      for (int i = 0; i < count; i++) {
+        hashes.add(in.readUTF());
+      }
+
+      return new BackupManifest(backupId, fileName, createdAt, hashes);
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read the backup manifest.", e);
+      return null;
+    }
+  }
+
+  public void write(@NonNull Context context) throws IOException {
+    write(getFile(context));
+  }
+
+  void write(@NonNull File file) throws IOException {
+    File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(backupId.length);
+      out.write(backupId);
+      out.writeUTF(fileName);
+      out.writeLong(createdAt);
+      out.writeInt(attachmentHashes.size());
+
+      for (String hash : attachmentHashes) {
+        out.writeUTF(hash);
+      }
+    }
+
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IOException("Failed to replace the backup manifest!");
+    }
+  }
+
+  public @NonNull byte[] getBackupId() {
+    return backupId;
+  }
+
+  /**
+   * The name of the base backup file in the backup directory.
+   */
+  public @NonNull String getFileName() {
+    return fileName;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public boolean containsAttachment(@Nullable String hash) {
+    return hash != null && attachmentHashes.contains(hash);
+  }
+
+  int getAttachmentCount() {
+    return attachmentHashes.size();
+  }
+
+  boolean isBaseOf(@Nullable byte[] baseBackupId) {
+    return baseBackupId != null && Arrays.equals(backupId, baseBackupId);
+  }
+
+  private static @NonNull File getFile(@NonNull Context context) {
+    return new File(context.getFilesDir(), FILE_NAME);
+  }
+
+  /**
+   * Collects what goes into a backup as it's written. If it's given a base, the backup is a delta against that base, otherwise it's a
+   * new base and {@link #build()} describes it.
+   */
+  public static final class Builder {
+
+    private final byte[]         backupId;
+    private final String         fileName;
+    private final BackupManifest base;
+    private final Set<String>    attachmentHashes;
+
+    public Builder(@NonNull String fileName, @Nullable BackupManifest base) {
+      this.backupId         = Util.getSecretBytes(16);
+      this.fileName         = fileName;
+      this.base             = base;
+      this.attachmentHashes = new HashSet<>();
+    }
+
+    @NonNull byte[] getBackupId() {
+      return backupId;
+    }
+
+    @Nullable BackupManifest getBase() {
+      return base;
+    }
+
+    void addAttachment(@Nullable String hash) {
+      if (hash != null) {
+        attachmentHashes.add(hash);
+      }
+    }
+
+    public boolean isDelta() {
+      return base != null;
+    }
+
+    public @NonNull BackupManifest build() {
+      if (base != null) {
+        throw new IllegalStateException("A delta backup can't be used as a base!");
+      }
+
+      return new BackupManifest(backupId, fileName, System.currentTimeMillis(), attachmentHashes);
+    }
+  }
+}
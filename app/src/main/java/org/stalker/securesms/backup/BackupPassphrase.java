@@ -40,6 +40,9 @@ public final class BackupPassphrase {
   }
 
   public static void set(@NonNull Context context, @Nullable String passphrase) {
+    // Deltas are read with the same passphrase as their base, so a new passphrase needs a new base.
+    BackupManifest.clear(context);
+
     if (passphrase == null || Build.VERSION.SDK_INT < 23) {
       TextSecurePreferences.setBackupPassphrase(context, passphrase);
       TextSecurePreferences.setEncryptedBackupPassphrase(context, null);
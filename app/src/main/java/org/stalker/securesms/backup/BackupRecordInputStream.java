@@ -1,6 +1,7 @@
 package org.stalker.securesms.backup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
@@ -37,6 +38,9 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
   private final Mac         mac;
 
   private final byte[] cipherKey;
+  private final byte[] backupId;
+  private final byte[] baseBackupId;
+  private final String baseFileName;
 
   private final byte[] iv;
   private       int    counter;
@@ -45,20 +49,7 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
     try {
       this.in = in;
 
-      byte[] headerLengthBytes = new byte[4];
-      StreamUtil.readFully(in, headerLengthBytes);
-
-      int    headerLength = Conversions.byteArrayToInt(headerLengthBytes);
-      byte[] headerFrame  = new byte[headerLength];
-      StreamUtil.readFully(in, headerFrame);
-
-      BackupFrame frame = BackupFrame.ADAPTER.decode(headerFrame);
-
-      if (frame.header_ == null) {
-        throw new IOException("Backup stream does not start with header!");
-      }
-
-      Header header = frame.header_;
+      Header header = readHeader(in);
 
       if (header.iv == null) {
         throw new IOException("Missing IV!");
@@ -75,6 +66,10 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
         throw new IOException("Invalid backup version: " + version);
       }
 
+      this.backupId     = header.backupId != null ? header.backupId.toByteArray() : null;
+      this.baseBackupId = header.baseBackupId != null ? header.baseBackupId.toByteArray() : null;
+      this.baseFileName = header.baseFileName;
+
       byte[]   key     = getBackupKey(passphrase, header.salt != null ? header.salt.toByteArray() : null);
       byte[]   derived = HKDF.deriveSecrets(key, "Backup Export".getBytes(), 64);
       byte[][] split   = ByteUtil.split(derived, 32, 32);
@@ -92,6 +87,45 @@ class BackupRecordInputStream extends FullBackupBase.BackupStream {
     }
   }
 
+  /**
+   * Reads the header at the start of a backup, which isn't encrypted, so no passphrase is needed.
+   */
+  static @NonNull Header readHeader(@NonNull InputStream in) throws IOException {
+    byte[] headerLengthBytes = new byte[4];
+    StreamUtil.readFully(in, headerLengthBytes);
+
+    int    headerLength = Conversions.byteArrayToInt(headerLengthBytes);
+    byte[] headerFrame  = new byte[headerLength];
+    StreamUtil.readFully(in, headerFrame);
+
+    BackupFrame frame = BackupFrame.ADAPTER.decode(headerFrame);
+
+    if (frame.header_ == null) {
+      throw new IOException("Backup stream does not start with header!");
+    }
+
+    return frame.header_;
+  }
+
+  @Nullable byte[] getBackupId() {
+    return backupId;
+  }
+
+  /**
+   * True if this is a delta backup, and attachments may need to be read from its base.
+   */
+  boolean isDelta() {
+    return baseBackupId != null;
+  }
+
+  @Nullable byte[] getBaseBackupId() {
+    return baseBackupId;
+  }
+
+  @Nullable String getBaseFileName() {
+    return baseFileName;
+  }
+
   BackupFrame readFrame() throws IOException {
     return readFrame(in);
   }
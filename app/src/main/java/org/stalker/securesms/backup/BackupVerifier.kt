@@ -20,14 +20,41 @@ object BackupVerifier {
   @JvmStatic
   @Throws(IOException::class, FullBackupExporter.BackupCanceledException::class)
   fun verifyFile(cipherStream: InputStream, passphrase: String, expectedCount: Long, cancellationSignal: FullBackupExporter.BackupCancellationSignal): Boolean {
+    return verifyFile(cipherStream, passphrase, expectedCount, null, cancellationSignal)
+  }
+
+  /**
+   * Verifies a backup file, and if it's a delta, that it was written against [base] and only references attachments that are in it.
+   * This doesn't read the base itself, the references are checked against the hashes in [base].
+   */
+  @JvmStatic
+  @Throws(IOException::class, FullBackupExporter.BackupCanceledException::class)
+  fun verifyFile(cipherStream: InputStream, passphrase: String, expectedCount: Long, base: BackupManifest?, cancellationSignal: FullBackupExporter.BackupCancellationSignal): Boolean {
     val inputStream = BackupRecordInputStream(cipherStream, passphrase)
 
+    if (inputStream.isDelta && (base == null || !base.isBaseOf(inputStream.baseBackupId))) {
+      Log.w(TAG, "Delta backup doesn't match the expected base ${inputStream.baseFileName}")
+      cipherStream.close()
+      return false
+    }
+
+    return verifyFrames(cipherStream, inputStream, expectedCount, cancellationSignal) { hash -> base?.containsAttachment(hash) == true }
+  }
+
+  private fun verifyFrames(
+    cipherStream: InputStream,
+    inputStream: BackupRecordInputStream,
+    expectedCount: Long,
+    cancellationSignal: FullBackupExporter.BackupCancellationSignal,
+    isInBase: (String?) -> Boolean
+  ): Boolean {
     var count = 0L
     var frame: BackupFrame = inputStream.readFrame()
 
     cipherStream.use {
       while (frame.end != true && !cancellationSignal.isCanceled) {
         val verified = when {
+          frame.attachment?.inBase == true -> verifyBaseReference(frame.attachment!!, isInBase)
           frame.attachment != null -> verifyAttachment(frame.attachment!!, inputStream)
           frame.sticker != null -> verifySticker(frame.sticker!!, inputStream)
           frame.avatar != null -> verifyAvatar(frame.avatar!!, inputStream)
@@ -59,6 +86,15 @@ object BackupVerifier {
     return true
   }
 
+  private fun verifyBaseReference(attachment: Attachment, isInBase: (String?) -> Boolean): Boolean {
+    if (!isInBase(attachment.hash)) {
+      Log.w(TAG, "Attachment id: ${attachment.rowId} references an attachment that isn't in the base")
+      return false
+    }
+
+    return true
+  }
+
   private fun verifyAttachment(attachment: Attachment, inputStream: BackupRecordInputStream): Boolean {
     try {
       inputStream.readAttachmentTo(NullOutputStream, attachment.length ?: 0)
@@ -66,7 +102,6 @@ object BackupVerifier {
       Log.w(TAG, "Bad attachment id: ${attachment.attachmentId} len: ${attachment.length}", e)
       return false
     }
-
     return true
   }
 
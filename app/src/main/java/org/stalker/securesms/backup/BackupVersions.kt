@@ -9,9 +9,14 @@ object BackupVersions {
   const val CURRENT_VERSION = 1
   const val MINIMUM_VERSION = 0
 
+  /**
+   * Delta backups may refer to attachments in their base backup instead of carrying the data, so older versions can't read them.
+   */
+  const val DELTA_VERSION = 2
+
   @JvmStatic
   fun isCompatible(version: Int): Boolean {
-    return version in MINIMUM_VERSION..CURRENT_VERSION
+    return version in MINIMUM_VERSION..DELTA_VERSION
   }
 
   @JvmStatic
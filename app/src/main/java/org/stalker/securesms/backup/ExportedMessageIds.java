@@ -0,0 +1,74 @@
+package org.stalker.securesms.backup;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import net.zetetic.database.sqlcipher.SQLiteDatabase;
+
+import org.stalker.securesms.database.MessageTable;
+
+import java.util.Arrays;
+
+/**
+ * The ids of every message that will be included in a backup, i.e. every message that isn't about to expire.
+ *
+ * Built with a single query up front, so that the rows of tables that hang off of a message (reactions, mentions, receipts, attachments)
+ * can be filtered without a message lookup per row. Rows that point at a message that doesn't exist are excluded, same as the messages
+ * that are expiring.
+ */
+final class ExportedMessageIds {
+
+  private static final String M = "m";
+  private static final String L = "l";
+
+  private final long[] ids;
+  private final int    size;
+
+  private ExportedMessageIds(@NonNull long[] sortedIds, int size) {
+    this.ids  = sortedIds;
+    this.size = size;
+  }
+
+  /**
+   * @param expiringBefore Messages whose expiration timer ends at or before this time are considered expiring.
+   */
+  static @NonNull ExportedMessageIds query(@NonNull SQLiteDatabase db, long expiringBefore) {
+    // An edited message is only backed up if its latest revision is.
+    String query = "SELECT " + M + "." + MessageTable.ID + " " +
+                   "FROM " + MessageTable.TABLE_NAME + " AS " + M + " " +
+                   "LEFT JOIN " + MessageTable.TABLE_NAME + " AS " + L + " ON " + M + "." + MessageTable.LATEST_REVISION_ID + " = " + L + "." + MessageTable.ID + " " +
+                   "WHERE CASE WHEN " + M + "." + MessageTable.LATEST_REVISION_ID + " > 0 AND " + M + "." + MessageTable.LATEST_REVISION_ID + " != " + M + "." + MessageTable.ID + " " +
+                   "THEN " + L + "." + MessageTable.ID + " IS NOT NULL AND NOT (" + isExpiring(L) + ") " +
+                   "ELSE NOT (" + isExpiring(M) + ") END " +
+                   "ORDER BY " + M + "." + MessageTable.ID;
+
+    long[] ids  = new long[1024];
+    int    size = 0;
+
+    // Bound as longs, since the expiration sum has no column affinity and would otherwise compare against text.
+    try (Cursor cursor = db.rawQuery(query, new Object[] { expiringBefore, expiringBefore })) {
+      while (cursor.moveToNext()) {
+        if (size == ids.length) {
+          ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[size++] = cursor.getLong(0);
+      }
+    }
+
+    return new ExportedMessageIds(ids, size);
+  }
+
+  boolean contains(long messageId) {
+    return Arrays.binarySearch(ids, 0, size, messageId) >= 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private static @NonNull String isExpiring(@NonNull String alias) {
+    return "IFNULL(" + alias + "." + MessageTable.EXPIRE_STARTED + ", 0) > 0 AND " +
+           alias + "." + MessageTable.EXPIRE_STARTED + " + IFNULL(" + alias + "." + MessageTable.EXPIRES_IN + ", 0) <= ?";
+  }
+}
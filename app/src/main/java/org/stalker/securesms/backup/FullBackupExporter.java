@@ -20,6 +20,8 @@ import org.signal.core.util.CursorUtil;
 import org.signal.core.util.SetUtil;
 import org.signal.core.util.SqlUtil;
 import org.signal.core.util.Stopwatch;
+import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.stalker.securesms.attachments.AttachmentId;
 import org.stalker.securesms.backup.proto.KeyValue;
@@ -49,8 +51,10 @@ import org.stalker.securesms.dependencies.ApplicationDependencies;
 import org.stalker.securesms.keyvalue.KeyValueDataSet;
 import org.stalker.securesms.keyvalue.SignalStore;
 import org.stalker.securesms.profiles.AvatarHelper;
+import org.stalker.securesms.util.ByteUnit;
 import org.stalker.securesms.util.TextSecurePreferences;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -65,6 +69,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -80,6 +85,10 @@ public class FullBackupExporter extends FullBackupBase {
   private static final long FINAL_MESSAGE_COUNT              = 1L;
   private static final long EXPIRATION_BACKUP_THRESHOLD      = TimeUnit.DAYS.toMillis(1);
 
+  private static final int  ATTACHMENT_PREFETCH_THREADS      = 3;
+  private static final int  ATTACHMENT_PREFETCH_WINDOW       = 8;
+  private static final long ATTACHMENT_PREFETCH_MAX_SIZE     = ByteUnit.MEGABYTES.toBytes(1);
+
   /**
    * Tables in list will still have their *schema* exported (so the tables will be created),
    * but we will not export the actual contents.
@@ -105,9 +114,24 @@ public class FullBackupExporter extends FullBackupBase {
                             @NonNull String passphrase,
                             @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
+  {
+    return export(context, attachmentSecret, input, output, passphrase, null, cancellationSignal);
+  }
+
+  /**
+   * @param manifest Collects the attachments written. If it has a base, a delta against that base is written instead of a full backup.
+   */
+  public static BackupEvent export(@NonNull Context context,
+                            @NonNull AttachmentSecret attachmentSecret,
+                            @NonNull SQLiteDatabase input,
+                            @NonNull File output,
+                            @NonNull String passphrase,
+                            @Nullable BackupManifest.Builder manifest,
+                            @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
   {
     try (OutputStream outputStream = new FileOutputStream(output)) {
-      return internalExport(context, attachmentSecret, input, outputStream, passphrase, true, cancellationSignal);
+      return internalExport(context, attachmentSecret, input, outputStream, passphrase, true, manifest, cancellationSignal);
     }
   }
 
@@ -119,9 +143,22 @@ public class FullBackupExporter extends FullBackupBase {
                             @NonNull String passphrase,
                             @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
+  {
+    return export(context, attachmentSecret, input, output, passphrase, null, cancellationSignal);
+  }
+
+  @RequiresApi(29)
+  public static BackupEvent export(@NonNull Context context,
+                            @NonNull AttachmentSecret attachmentSecret,
+                            @NonNull SQLiteDatabase input,
+                            @NonNull DocumentFile output,
+                            @NonNull String passphrase,
+                            @Nullable BackupManifest.Builder manifest,
+                            @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
   {
     try (OutputStream outputStream = Objects.requireNonNull(context.getContentResolver().openOutputStream(output.getUri()))) {
-      return internalExport(context, attachmentSecret, input, outputStream, passphrase, true, cancellationSignal);
+      return internalExport(context, attachmentSecret, input, outputStream, passphrase, true, manifest, cancellationSignal);
     }
   }
 
@@ -132,7 +169,7 @@ public class FullBackupExporter extends FullBackupBase {
                               @NonNull String passphrase)
       throws IOException
   {
-    EventBus.getDefault().post(internalExport(context, attachmentSecret, input, outputStream, passphrase, false, () -> false));
+    EventBus.getDefault().post(internalExport(context, attachmentSecret, input, outputStream, passphrase, false, null, () -> false));
   }
 
   private static BackupEvent internalExport(@NonNull Context context,
@@ -141,10 +178,11 @@ public class FullBackupExporter extends FullBackupBase {
                                             @NonNull OutputStream fileOutputStream,
                                             @NonNull String passphrase,
                                             boolean closeOutputStream,
+                                            @Nullable BackupManifest.Builder manifest,
                                             @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
   {
-    BackupFrameOutputStream outputStream          = new BackupFrameOutputStream(fileOutputStream, passphrase);
+    BackupFrameOutputStream outputStream          = new BackupFrameOutputStream(fileOutputStream, passphrase, manifest);
     int                     count                 = 0;
     long                    estimatedCountOutside;
 
@@ -160,18 +198,22 @@ public class FullBackupExporter extends FullBackupBase {
 
       Stopwatch stopwatch = new Stopwatch("Backup");
 
+      ExportedMessageIds messageIds = ExportedMessageIds.query(input, System.currentTimeMillis() + EXPIRATION_BACKUP_THRESHOLD);
+
+      stopwatch.split("message_ids");
+
       for (String table : tables) {
         throwIfCanceled(cancellationSignal);
         if (table.equals(MessageTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isNonExpiringMessage(input, cursor), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> messageIds.contains(CursorUtil.requireLong(cursor, MessageTable.ID)), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(ReactionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> messageIds.contains(CursorUtil.requireLong(cursor, ReactionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(MentionTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> messageIds.contains(CursorUtil.requireLong(cursor, MentionTable.MESSAGE_ID)), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(GroupReceiptTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, estimatedCount, cancellationSignal);
+          count = exportTable(table, input, outputStream, cursor -> messageIds.contains(cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptTable.MMS_ID))), null, count, estimatedCount, cancellationSignal);
         } else if (table.equals(AttachmentTable.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MESSAGE_ID))), (cursor, innerCount) -> exportAttachment(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
+          count = exportAttachmentTable(attachmentSecret, input, outputStream, messageIds, manifest, count, estimatedCount, cancellationSignal);
         } else if (table.equals(StickerTable.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> true, (cursor, innerCount) -> exportSticker(attachmentSecret, cursor, outputStream, innerCount, estimatedCount), count, estimatedCount, cancellationSignal);
         } else if (!TABLE_CONTENT_BLOCKLIST.contains(table)) {
@@ -378,6 +420,44 @@ public class FullBackupExporter extends FullBackupBase {
            !isEmojiFtsSecretTable;
   }
 
+  /**
+   * The attachment files are read and decrypted ahead of the writer by an {@link AttachmentPrefetcher}. Rows are exported in row id order,
+   * which is the order the prefetcher walks them in.
+   */
+  private static int exportAttachmentTable(@NonNull AttachmentSecret attachmentSecret,
+                                           @NonNull SQLiteDatabase input,
+                                           @NonNull BackupFrameOutputStream outputStream,
+                                           @NonNull ExportedMessageIds messageIds,
+                                           @Nullable BackupManifest.Builder manifest,
+                                           int count,
+                                           long estimatedCount,
+                                           @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
+  {
+    ExecutorService executor = SignalExecutors.newCachedBoundedExecutor("signal-backup-attachments", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, ATTACHMENT_PREFETCH_THREADS, 5);
+
+    try (AttachmentPrefetcher prefetcher = new AttachmentPrefetcher(attachmentSecret,
+                                                                    input.rawQuery(AttachmentPrefetcher.QUERY, null),
+                                                                    messageIds,
+                                                                    manifest != null ? manifest.getBase() : null,
+                                                                    executor,
+                                                                    ATTACHMENT_PREFETCH_WINDOW,
+                                                                    ATTACHMENT_PREFETCH_MAX_SIZE))
+    {
+      return exportTable(AttachmentTable.TABLE_NAME,
+                         input,
+                         outputStream,
+                         AttachmentTable.ID,
+                         cursor -> messageIds.contains(cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentTable.MESSAGE_ID))),
+                         (cursor, innerCount) -> exportAttachment(attachmentSecret, prefetcher, manifest, cursor, outputStream, innerCount, estimatedCount),
+                         count,
+                         estimatedCount,
+                         cancellationSignal);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private static int exportTable(@NonNull String table,
                                  @NonNull SQLiteDatabase input,
                                  @NonNull BackupFrameOutputStream outputStream,
@@ -387,12 +467,27 @@ public class FullBackupExporter extends FullBackupBase {
                                  long estimatedCount,
                                  @NonNull BackupCancellationSignal cancellationSignal)
       throws IOException
+  {
+    return exportTable(table, input, outputStream, null, predicate, postProcess, count, estimatedCount, cancellationSignal);
+  }
+
+  private static int exportTable(@NonNull String table,
+                                 @NonNull SQLiteDatabase input,
+                                 @NonNull BackupFrameOutputStream outputStream,
+                                 @Nullable String orderBy,
+                                 @Nullable Predicate<Cursor> predicate,
+                                 @Nullable PostProcessor postProcess,
+                                 int count,
+                                 long estimatedCount,
+                                 @NonNull BackupCancellationSignal cancellationSignal)
+      throws IOException
   {
     Log.d(TAG, "Exporting table: " + table);
 
     String template = "INSERT INTO " + table + " VALUES ";
+    String query    = "SELECT * FROM " + table + (orderBy != null ? " ORDER BY " + orderBy : "");
 
-    try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+    try (Cursor cursor = input.rawQuery(query, null)) {
       while (cursor != null && cursor.moveToNext()) {
         throwIfCanceled(cancellationSignal);
 
@@ -442,6 +537,8 @@ public class FullBackupExporter extends FullBackupBase {
   }
 
   private static int exportAttachment(@NonNull AttachmentSecret attachmentSecret,
+                                      @NonNull AttachmentPrefetcher prefetcher,
+                                      @Nullable BackupManifest.Builder manifest,
                                       @NonNull Cursor cursor,
                                       @NonNull BackupFrameOutputStream outputStream,
                                       int count,
@@ -453,8 +550,21 @@ public class FullBackupExporter extends FullBackupBase {
 
     String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentTable.DATA_FILE));
     byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentTable.DATA_RANDOM));
+    String hash   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentTable.DATA_HASH_END));
+
+    BackupManifest base = manifest != null ? manifest.getBase() : null;
+
+    if (base != null && !TextUtils.isEmpty(data) && base.containsAttachment(hash)) {
+      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
+      outputStream.writeBaseReference(new AttachmentId(rowId), hash, Math.max(size, 0));
+      return count;
+    }
 
-    if (!TextUtils.isEmpty(data)) {
+    AttachmentPrefetcher.Prefetched prefetched = prefetcher.take(rowId);
+
+    if (prefetched != null) {
+      size = prefetched.size;
+    } else if (!TextUtils.isEmpty(data)) {
       long fileLength = new File(data).length();
       long dbLength   = size;
 
@@ -465,9 +575,15 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count, estimatedCount));
-    if (!TextUtils.isEmpty(data) && size > 0) {
+    if (prefetched != null && prefetched.missing) {
+      Log.w(TAG, "Missing attachment " + new AttachmentId(rowId));
+    } else if (prefetched != null && prefetched.data != null) {
+      outputStream.write(new AttachmentId(rowId), hash, new ByteArrayInputStream(prefetched.data), size);
+      if (manifest != null) manifest.addAttachment(hash);
+    } else if (!TextUtils.isEmpty(data) && size > 0) {
       try (InputStream inputStream = openAttachmentStream(attachmentSecret, random, data)) {
-        outputStream.write(new AttachmentId(rowId), inputStream, size);
+        outputStream.write(new AttachmentId(rowId), hash, inputStream, size);
+        if (manifest != null) manifest.addAttachment(hash);
       } catch (FileNotFoundException e) {
         Log.w(TAG, "Missing attachment", e);
       }
@@ -501,7 +617,7 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static long calculateVeryOldStreamLength(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) {
+  static long calculateVeryOldStreamLength(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) {
     long result = 0;
 
     try (InputStream inputStream = openAttachmentStream(attachmentSecret, random, data)) {
@@ -522,7 +638,7 @@ public class FullBackupExporter extends FullBackupBase {
     return result;
   }
 
-  private static InputStream openAttachmentStream(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
+  static InputStream openAttachmentStream(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
     if (random != null && random.length == 32) {
       return ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
     } else {
@@ -582,40 +698,6 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static boolean isNonExpiringMessage(@NonNull SQLiteDatabase db, @NonNull Cursor cursor) {
-    long id                = CursorUtil.requireLong(cursor, MessageTable.ID);
-    long expireStarted     = CursorUtil.requireLong(cursor, MessageTable.EXPIRE_STARTED);
-    long expiresIn         = CursorUtil.requireLong(cursor, MessageTable.EXPIRES_IN);
-    long latestRevisionId  = CursorUtil.requireLong(cursor, MessageTable.LATEST_REVISION_ID);
-
-    long expiresAt     = expireStarted + expiresIn;
-    long timeRemaining = expiresAt - System.currentTimeMillis();
-
-    if (latestRevisionId > 0 && latestRevisionId != id ) {
-      return isForNonExpiringMessage(db, latestRevisionId);
-    }
-
-    if (expireStarted > 0 && timeRemaining <= EXPIRATION_BACKUP_THRESHOLD) {
-      return false;
-    }
-
-    return true;
-  }
-
-  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long messageId) {
-    String[] columns = new String[] { MessageTable.ID, MessageTable.EXPIRE_STARTED, MessageTable.EXPIRES_IN, MessageTable.LATEST_REVISION_ID };
-    String   where   = MessageTable.ID + " = ?";
-    String[] args    = SqlUtil.buildArgs(messageId);
-
-    try (Cursor mmsCursor = db.query(MessageTable.TABLE_NAME, columns, where, args, null, null, null)) {
-      if (mmsCursor != null && mmsCursor.moveToFirst()) {
-        return isNonExpiringMessage(db, mmsCursor);
-      }
-    }
-
-    return false;
-  }
-
   public interface PostProcessor {
     int postProcess(@NonNull Cursor cursor, int count) throws IOException;
   }
@@ -9,7 +9,9 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.documentfile.provider.DocumentFile;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
@@ -20,6 +22,7 @@ import org.stalker.securesms.backup.proto.Attachment;
 import org.stalker.securesms.backup.proto.Avatar;
 import org.stalker.securesms.backup.proto.BackupFrame;
 import org.stalker.securesms.backup.proto.DatabaseVersion;
+import org.stalker.securesms.backup.proto.Header;
 import org.stalker.securesms.backup.proto.KeyValue;
 import org.stalker.securesms.backup.proto.SharedPreference;
 import org.stalker.securesms.backup.proto.SqlStatement;
@@ -49,7 +52,9 @@ import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -84,21 +89,46 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  /**
+   * @return The file name of the base backup if the backup in {@code is} is a delta, or null if it's a full backup. Only reads the header.
+   */
+  public static @Nullable String readBaseFileName(@NonNull InputStream is) throws IOException {
+    Header header = BackupRecordInputStream.readHeader(is);
+    return header.baseBackupId != null ? header.baseFileName : null;
+  }
+
+  /**
+   * Imports the backup at the given uri. If it's a delta backup, its base is looked for next to it, or in the backup directory.
+   */
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull String passphrase)
       throws IOException
   {
     try (InputStream is = getInputStream(context, uri)) {
-      importFile(context, attachmentSecret, db, is, passphrase);
+      importFile(context, attachmentSecret, db, is, passphrase, baseFileName -> openBaseBackup(context, uri, baseFileName));
     }
   }
 
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase)
       throws IOException
+  {
+    importFile(context, attachmentSecret, db, is, passphrase, null);
+  }
+
+  /**
+   * A delta backup only has the attachments that weren't in its base. The rest are referenced by hash, and are read out of the base
+   * once everything else has been imported.
+   */
+  private static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                 @NonNull SQLiteDatabase db, @NonNull InputStream is, @NonNull String passphrase,
+                                 @Nullable BaseBackupOpener baseBackupOpener)
+      throws IOException
   {
     int count = 0;
 
+    Map<String, List<Long>> baseAttachments = new HashMap<>();
+
     SQLiteDatabase keyValueDatabase = KeyValueDatabase.getInstance(ApplicationDependencies.getApplication()).getSqlCipherDatabase();
 
     db.setForeignKeyConstraintsEnabled(false);
@@ -107,6 +137,10 @@ public class FullBackupImporter extends FullBackupBase {
     try {
       BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
 
+      if (inputStream.isDelta() && baseBackupOpener == null) {
+        throw new MissingBaseBackupException(inputStream.getBaseFileName());
+      }
+
       dropAllTables(db);
 
       BackupFrame frame;
@@ -118,6 +152,7 @@ public class FullBackupImporter extends FullBackupBase {
         if      (frame.version != null)    processVersion(db, frame.version);
         else if (frame.statement != null)  processStatement(db, frame.statement);
         else if (frame.preference != null) processPreference(context, frame.preference);
+        else if (isBaseReference(frame))   addBaseReference(baseAttachments, frame.attachment);
         else if (frame.attachment != null) processAttachment(context, attachmentSecret, db, frame.attachment, inputStream);
         else if (frame.sticker != null)    processSticker(context, attachmentSecret, db, frame.sticker, inputStream);
         else if (frame.avatar != null)     processAvatar(context, db, frame.avatar, inputStream);
@@ -125,6 +160,10 @@ public class FullBackupImporter extends FullBackupBase {
         else                            count--;
       }
 
+      if (inputStream.isDelta()) {
+        importBaseAttachments(context, attachmentSecret, db, inputStream, Objects.requireNonNull(baseBackupOpener), passphrase, baseAttachments);
+      }
+
       db.setTransactionSuccessful();
       keyValueDatabase.setTransactionSuccessful();
     } finally {
@@ -155,6 +194,111 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  private static @NonNull InputStream openBaseBackup(@NonNull Context context, @NonNull Uri deltaUri, @NonNull String baseFileName) throws IOException {
+    if (baseFileName.contains(File.separator)) {
+      throw new MissingBaseBackupException(baseFileName);
+    }
+
+    if ("file".equals(deltaUri.getScheme())) {
+      File base = new File(new File(Objects.requireNonNull(deltaUri.getPath())).getParentFile(), baseFileName);
+      if (base.exists()) {
+        return new FileInputStream(base);
+      }
+    }
+
+    Uri backupDirectoryUri = SignalStore.settings().getSignalBackupDirectory();
+    if (backupDirectoryUri != null) {
+      DocumentFile backupDirectory = DocumentFile.fromTreeUri(context, backupDirectoryUri);
+      DocumentFile base            = backupDirectory != null && backupDirectory.canRead() ? backupDirectory.findFile(baseFileName) : null;
+
+      if (base != null && base.isFile()) {
+        return Objects.requireNonNull(context.getContentResolver().openInputStream(base.getUri()));
+      }
+    }
+
+    throw new MissingBaseBackupException(baseFileName);
+  }
+
+  private static boolean isBaseReference(@NonNull BackupFrame frame) {
+    return frame.attachment != null && frame.attachment.inBase == Boolean.TRUE;
+  }
+
+  private static void addBaseReference(@NonNull Map<String, List<Long>> baseAttachments, @NonNull Attachment attachment) throws IOException {
+    if (attachment.hash == null || attachment.rowId == null) {
+      throw new IOException("Base reference is missing its hash or row!");
+    }
+
+    List<Long> rowIds = baseAttachments.get(attachment.hash);
+    if (rowIds == null) {
+      rowIds = new ArrayList<>(1);
+      baseAttachments.put(attachment.hash, rowIds);
+    }
+
+    rowIds.add(attachment.rowId);
+  }
+
+  /**
+   * Reads through the base backup, and for every attachment the delta references, writes the data and points the referencing rows at it.
+   * Nothing else in the base is applied, the delta already has the full database.
+   */
+  private static void importBaseAttachments(@NonNull Context context,
+                                            @NonNull AttachmentSecret attachmentSecret,
+                                            @NonNull SQLiteDatabase db,
+                                            @NonNull BackupRecordInputStream delta,
+                                            @NonNull BaseBackupOpener baseBackupOpener,
+                                            @NonNull String passphrase,
+                                            @NonNull Map<String, List<Long>> baseAttachments)
+      throws IOException
+  {
+    if (baseAttachments.isEmpty()) {
+      return;
+    }
+
+    String baseFileName = Objects.requireNonNull(delta.getBaseFileName());
+
+    Log.i(TAG, "Importing " + baseAttachments.size() + " attachments from base backup " + baseFileName);
+
+    try (InputStream is = baseBackupOpener.open(baseFileName)) {
+      BackupRecordInputStream base = new BackupRecordInputStream(is, passphrase);
+
+      if (!Arrays.equals(base.getBackupId(), delta.getBaseBackupId())) {
+        throw new MissingBaseBackupException(baseFileName);
+      }
+
+      BackupFrame frame;
+
+      while ((frame = base.readFrame()).end != Boolean.TRUE && !baseAttachments.isEmpty()) {
+        if (frame.attachment != null) {
+          List<Long> rowIds = frame.attachment.hash != null ? baseAttachments.remove(frame.attachment.hash) : null;
+
+          if (rowIds != null) {
+            writeAttachment(context, attachmentSecret, db, frame.attachment, base, rowIds);
+          } else {
+            base.readAttachmentTo(NullOutputStream.INSTANCE, frame.attachment.length);
+          }
+        } else if (frame.sticker != null) {
+          base.readAttachmentTo(NullOutputStream.INSTANCE, frame.sticker.length);
+        } else if (frame.avatar != null) {
+          base.readAttachmentTo(NullOutputStream.INSTANCE, frame.avatar.length);
+        }
+      }
+    }
+
+    if (!baseAttachments.isEmpty()) {
+      Log.w(TAG, baseAttachments.size() + " referenced attachments weren't in the base backup! Can't restore them.");
+
+      ContentValues contentValues = new ContentValues();
+      contentValues.put(AttachmentTable.DATA_FILE, (String) null);
+      contentValues.put(AttachmentTable.DATA_RANDOM, (String) null);
+
+      for (List<Long> rowIds : baseAttachments.values()) {
+        for (long rowId : rowIds) {
+          db.update(AttachmentTable.TABLE_NAME, contentValues, AttachmentTable.ID + " = ?", SqlUtil.buildArgs(rowId));
+        }
+      }
+    }
+  }
+
   private static void processVersion(@NonNull SQLiteDatabase db, DatabaseVersion version) throws IOException {
     if (version.version == null || version.version > db.getVersion()) {
       throw new DatabaseDowngradeException(db.getVersion(), version.version != null ? version.version : -1);
@@ -194,6 +338,15 @@ public class FullBackupImporter extends FullBackupBase {
 
   private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
       throws IOException
+  {
+    writeAttachment(context, attachmentSecret, db, attachment, inputStream, Collections.singletonList(attachment.rowId));
+  }
+
+  /**
+   * Reads the attachment data that follows the frame and points all of the given rows at it.
+   */
+  private static void writeAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream, @NonNull List<Long> rowIds)
+      throws IOException
   {
     File                       dataFile      = AttachmentTable.newDataFile(context);
     Pair<byte[], OutputStream> output        = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
@@ -218,10 +371,12 @@ public class FullBackupImporter extends FullBackupBase {
       contentValues.put(dataRandomColumnName, (String) null);
     }
 
-    db.update(tableName,
-              contentValues,
-              idColumnName + " = ?",
-              SqlUtil.buildArgs(attachment.rowId));
+    for (Long rowId : rowIds) {
+      db.update(tableName,
+                contentValues,
+                idColumnName + " = ?",
+                SqlUtil.buildArgs(rowId));
+    }
   }
 
   private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
@@ -384,6 +539,26 @@ public class FullBackupImporter extends FullBackupBase {
     return new ArrayList<>(dropOrder);
   }
 
+  private interface BaseBackupOpener {
+    @NonNull InputStream open(@NonNull String baseFileName) throws IOException;
+  }
+
+  private static final class NullOutputStream extends OutputStream {
+    static final NullOutputStream INSTANCE = new NullOutputStream();
+
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] b, int off, int len) {}
+  }
+
+  public static class MissingBaseBackupException extends IOException {
+    MissingBaseBackupException(@Nullable String baseFileName) {
+      super("Couldn't find the base backup " + baseFileName + " for this delta backup");
+    }
+  }
+
   public static class DatabaseDowngradeException extends IOException {
     DatabaseDowngradeException(int currentVersion, int backupVersion) {
       super("Tried to import a backup with version " + backupVersion + " into a database with version " + currentVersion);
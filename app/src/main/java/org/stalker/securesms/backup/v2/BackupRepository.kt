@@ -7,6 +7,8 @@ package org.stalker.securesms.backup.v2
 
 import org.signal.core.util.Base64
 import org.signal.core.util.EventTimer
+import org.signal.core.util.ThreadUtil
+import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.logging.Log
 import org.signal.core.util.withinTransaction
 import org.signal.libsignal.messagebackup.MessageBackup
@@ -28,10 +30,13 @@ import org.stalker.securesms.backup.v2.processor.ChatItemBackupProcessor
 import org.stalker.securesms.backup.v2.processor.RecipientBackupProcessor
 import org.stalker.securesms.backup.v2.proto.BackupInfo
 import org.stalker.securesms.backup.v2.stream.BackupExportWriter
+import org.stalker.securesms.backup.v2.stream.EncodedBackupExportWriter
 import org.stalker.securesms.backup.v2.stream.EncryptedBackupReader
 import org.stalker.securesms.backup.v2.stream.EncryptedBackupWriter
 import org.stalker.securesms.backup.v2.stream.PlainTextBackupReader
+import org.stalker.securesms.backup.v2.stream.PipelinedBackupExportWriter
 import org.stalker.securesms.backup.v2.stream.PlainTextBackupWriter
+import org.stalker.securesms.backup.v2.stream.ReadAheadBackupImportReader
 import org.stalker.securesms.database.SignalDatabase
 import org.stalker.securesms.dependencies.ApplicationDependencies
 import org.stalker.securesms.groups.GroupId
@@ -64,6 +69,7 @@ object BackupRepository {
 
   private val TAG = Log.tag(BackupRepository::class.java)
   private const val VERSION = 1L
+  private const val ENCODE_THREADS = 3
 
   private val resetInitializedStateErrorAction: StatusCodeErrorAction = { error ->
     when (error.code) {
@@ -78,9 +84,13 @@ object BackupRepository {
     }
   }
 
-  fun export(outputStream: OutputStream, append: (ByteArray) -> Unit, plaintext: Boolean = false) {
+  /**
+   * @param snapshot If true, the export reads from a snapshot of the database, so other threads can keep writing while it runs.
+   *                 Otherwise the export holds a transaction, which gives the same consistency but blocks every writer until it's done.
+   */
+  fun export(outputStream: OutputStream, append: (ByteArray) -> Unit, plaintext: Boolean = false, snapshot: Boolean = true) {
     val eventTimer = EventTimer()
-    val writer: BackupExportWriter = if (plaintext) {
+    val frameWriter: EncodedBackupExportWriter = if (plaintext) {
       PlainTextBackupWriter(outputStream)
     } else {
       EncryptedBackupWriter(
@@ -91,8 +101,27 @@ object BackupRepository {
       )
     }
 
+    val encodeExecutor = SignalExecutors.newCachedBoundedExecutor("signal-backup-encode", ThreadUtil.PRIORITY_BACKGROUND_THREAD, 1, ENCODE_THREADS, 5)
+    val writer: BackupExportWriter = PipelinedBackupExportWriter(frameWriter, encodeExecutor)
+
     val exportState = ExportState(backupTime = System.currentTimeMillis(), allowMediaBackup = true)
 
+    try {
+      exportFrames(writer, exportState, eventTimer, snapshot)
+    } finally {
+      encodeExecutor.shutdown()
+    }
+
+    Log.d(TAG, "export() ${eventTimer.stop().summary}")
+  }
+
+  fun export(plaintext: Boolean = false): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+    export(outputStream = outputStream, append = { mac -> outputStream.write(mac) }, plaintext = plaintext)
+    return outputStream.toByteArray()
+  }
+
+  private fun exportFrames(writer: BackupExportWriter, exportState: ExportState, eventTimer: EventTimer, snapshot: Boolean) {
     writer.use {
       writer.write(
         BackupInfo(
@@ -100,9 +129,9 @@ object BackupRepository {
           backupTimeMs = exportState.backupTime
         )
       )
-      // Note: Without a transaction, we may export inconsistent state. But because we have a transaction,
-      // writes from other threads are blocked. This is something to think more about.
-      SignalDatabase.rawDatabase.withinTransaction {
+
+      // Note: Without a snapshot or a transaction, we may export inconsistent state.
+      withinExportIsolation(snapshot) {
         AccountDataProcessor.export {
           writer.write(it)
           eventTimer.emit("account")
@@ -129,14 +158,14 @@ object BackupRepository {
         }
       }
     }
-
-    Log.d(TAG, "export() ${eventTimer.stop().summary}")
   }
 
-  fun export(plaintext: Boolean = false): ByteArray {
-    val outputStream = ByteArrayOutputStream()
-    export(outputStream = outputStream, append = { mac -> outputStream.write(mac) }, plaintext = plaintext)
-    return outputStream.toByteArray()
+  private fun withinExportIsolation(snapshot: Boolean, block: () -> Unit) {
+    if (snapshot) {
+      SignalDatabase.runWithinSnapshot(block)
+    } else {
+      SignalDatabase.rawDatabase.withinTransaction { block() }
+    }
   }
 
   fun validate(length: Long, inputStreamFactory: () -> InputStream, selfData: SelfData): ValidationResult {
@@ -151,24 +180,49 @@ object BackupRepository {
 
     val backupKey = SignalStore.svr().getOrCreateMasterKey().deriveBackupKey()
 
-    val frameReader = if (plaintext) {
-      PlainTextBackupReader(inputStreamFactory())
-    } else {
-      EncryptedBackupReader(
-        key = backupKey,
-        aci = selfData.aci,
-        streamLength = length,
-        dataStream = inputStreamFactory
-      )
+    val frameReader = ReadAheadBackupImportReader(
+      if (plaintext) {
+        PlainTextBackupReader(inputStreamFactory())
+      } else {
+        EncryptedBackupReader(
+          key = backupKey,
+          aci = selfData.aci,
+          streamLength = length,
+          dataStream = inputStreamFactory
+        )
+      }
+    )
+
+    val imported = frameReader.use {
+      importFrames(frameReader, selfData, backupKey, eventTimer)
     }
 
+    if (!imported) {
+      return
+    }
+
+    val groups = SignalDatabase.groups.getGroups()
+    while (groups.hasNext()) {
+      val group = groups.next()
+      if (group.id.isV2) {
+        ApplicationDependencies.getJobManager().add(RequestGroupV2InfoJob(group.id as GroupId.V2))
+      }
+    }
+
+    Log.d(TAG, "import() ${eventTimer.stop().summary}")
+  }
+
+  /**
+   * @return False if the backup was rejected before anything was written, otherwise true.
+   */
+  private fun importFrames(frameReader: ReadAheadBackupImportReader, selfData: SelfData, backupKey: BackupKey, eventTimer: EventTimer): Boolean {
     val header = frameReader.getHeader()
     if (header == null) {
       Log.e(TAG, "Backup is missing header!")
-      return
+      return false
     } else if (header.version > VERSION) {
       Log.e(TAG, "Backup version is newer than we understand: ${header.version}")
-      return
+      return false
     }
 
     // Note: Without a transaction, bad imports could lead to lost data. But because we have a transaction,
@@ -190,7 +244,12 @@ object BackupRepository {
       val backupState = BackupState(backupKey)
       val chatItemInserter: ChatItemImportInserter = ChatItemBackupProcessor.beginImport(backupState)
 
+      val framesStart = System.nanoTime()
+      var frameCount = 0L
+
       for (frame in frameReader) {
+        frameCount++
+
         when {
           frame.account != null -> {
             AccountDataProcessor.import(frame.account, selfId)
@@ -226,20 +285,20 @@ object BackupRepository {
         eventTimer.emit("chatItem")
       }
 
+      val insertNanos = System.nanoTime() - framesStart - frameReader.waitNanos
+      eventTimer.count("read-frames-per-sec", framesPerSecond(frameReader.framesRead, frameReader.readNanos))
+      eventTimer.count("insert-frames-per-sec", framesPerSecond(frameCount, insertNanos))
+
       backupState.chatIdToLocalThreadId.values.forEach {
         SignalDatabase.threads.update(it, unarchive = false, allowDeletion = false)
       }
     }
 
-    val groups = SignalDatabase.groups.getGroups()
-    while (groups.hasNext()) {
-      val group = groups.next()
-      if (group.id.isV2) {
-        ApplicationDependencies.getJobManager().add(RequestGroupV2InfoJob(group.id as GroupId.V2))
-      }
-    }
+    return true
+  }
 
-    Log.d(TAG, "import() ${eventTimer.stop().summary}")
+  private fun framesPerSecond(frames: Long, nanos: Long): Long {
+    return if (nanos > 0) frames * 1_000_000_000L / nanos else 0
   }
 
   fun listRemoteMediaObjects(limit: Int, cursor: String? = null): NetworkResult<ArchiveGetMediaItemsResponse> {
@@ -33,6 +33,7 @@ import org.stalker.securesms.backup.v2.proto.StandardMessage
 import org.stalker.securesms.database.AttachmentTable
 import org.stalker.securesms.database.CallTable
 import org.stalker.securesms.database.GroupReceiptTable
+import org.stalker.securesms.database.MentionTable
 import org.stalker.securesms.database.MessageTable
 import org.stalker.securesms.database.MessageTypes
 import org.stalker.securesms.database.ReactionTable
@@ -115,6 +116,14 @@ class ChatItemImportInserter(
       ReactionTable.DATE_RECEIVED
     )
 
+    private val MENTION_COLUMNS = arrayOf(
+      MentionTable.THREAD_ID,
+      MentionTable.MESSAGE_ID,
+      MentionTable.RECIPIENT_ID,
+      MentionTable.RANGE_START,
+      MentionTable.RANGE_LENGTH
+    )
+
     private val GROUP_RECEIPT_COLUMNS = arrayOf(
       GroupReceiptTable.MMS_ID,
       GroupReceiptTable.RECIPIENT_ID,
@@ -173,15 +182,17 @@ class ChatItemImportInserter(
     if (buffer.size == 0) {
       return false
     }
+
+    val calls: MutableList<ContentValues> = mutableListOf()
+    val mentions: MutableList<ContentValues> = mutableListOf()
+    val attachments: MutableList<ContentValues> = mutableListOf()
+
     buildBulkInsert(MessageTable.TABLE_NAME, MESSAGE_COLUMNS, buffer.messages).forEach {
       db.rawQuery("${it.query.where} RETURNING ${MessageTable.ID}", it.query.whereArgs).use { cursor ->
         var index = 0
         while (cursor.moveToNext()) {
           val rowId = cursor.requireLong(MessageTable.ID)
-          val followup = it.inserts[index].followUp
-          if (followup != null) {
-            followup(rowId)
-          }
+          it.inserts[index].collectRelatedRows(rowId, calls, mentions, attachments)
           index++
         }
       }
@@ -195,6 +206,17 @@ class ChatItemImportInserter(
       db.execSQL(it.where, it.whereArgs)
     }
 
+    SqlUtil.buildBulkInsert(MentionTable.TABLE_NAME, MENTION_COLUMNS, mentions).forEach {
+      db.execSQL(it.where, it.whereArgs)
+    }
+
+    bulkInsertInRuns(AttachmentTable.TABLE_NAME, attachments)
+
+    // Calls can collide with ones that were already restored, and bulk inserts can't ignore conflicts. There are few enough to do one at a time.
+    for (call in calls) {
+      db.insert(CallTable.TABLE_NAME, SQLiteDatabase.CONFLICT_IGNORE, call)
+    }
+
     messageId = SqlUtil.getNextAutoIncrementId(db, MessageTable.TABLE_NAME)
 
     buffer.reset()
@@ -202,6 +224,29 @@ class ChatItemImportInserter(
     return true
   }
 
+  /**
+   * Bulk inserts rows that don't all set the same columns. Consecutive rows that set the same columns are inserted together, so that a
+   * column a row leaves out still gets its default, rather than the null a shared column list would give it, and rows keep their order.
+   */
+  private fun bulkInsertInRuns(tableName: String, rows: List<ContentValues>) {
+    var start = 0
+
+    while (start < rows.size) {
+      val columns: Set<String> = rows[start].keySet()
+      var end = start + 1
+
+      while (end < rows.size && rows[end].keySet() == columns) {
+        end++
+      }
+
+      SqlUtil.buildBulkInsert(tableName, columns.toTypedArray(), rows.subList(start, end)).forEach {
+        db.execSQL(it.where, it.whereArgs)
+      }
+
+      start = end
+    }
+  }
+
   private fun buildBulkInsert(tableName: String, columns: Array<String>, messageInserts: List<MessageInsert>, maxQueryArgs: Int = 999): List<BatchInsert> {
     val batchSize = maxQueryArgs / columns.size
 
@@ -214,62 +259,58 @@ class ChatItemImportInserter(
   private fun ChatItem.toMessageInsert(fromRecipientId: RecipientId, chatRecipientId: RecipientId, threadId: Long): MessageInsert {
     val contentValues = this.toMessageContentValues(fromRecipientId, chatRecipientId, threadId)
 
-    var followUp: ((Long) -> Unit)? = null
+    var call: ContentValues? = null
+    var mentions: List<Mention> = emptyList()
+    var attachments: List<Attachment> = emptyList()
+    var quoteAttachments: List<Attachment> = emptyList()
+
     if (this.updateMessage != null) {
       if (this.updateMessage.individualCall != null && this.updateMessage.individualCall.callId != null) {
-        followUp = { messageRowId ->
-          val values = contentValuesOf(
-            CallTable.CALL_ID to updateMessage.individualCall.callId,
-            CallTable.MESSAGE_ID to messageRowId,
-            CallTable.PEER to chatRecipientId.serialize(),
-            CallTable.TYPE to CallTable.Type.serialize(if (updateMessage.individualCall.type == IndividualCall.Type.VIDEO_CALL) CallTable.Type.VIDEO_CALL else CallTable.Type.AUDIO_CALL),
-            CallTable.DIRECTION to CallTable.Direction.serialize(if (updateMessage.individualCall.direction == IndividualCall.Direction.OUTGOING) CallTable.Direction.OUTGOING else CallTable.Direction.INCOMING),
-            CallTable.EVENT to CallTable.Event.serialize(
-              when (updateMessage.individualCall.state) {
-                IndividualCall.State.MISSED -> CallTable.Event.MISSED
-                IndividualCall.State.MISSED_NOTIFICATION_PROFILE -> CallTable.Event.MISSED_NOTIFICATION_PROFILE
-                IndividualCall.State.ACCEPTED -> CallTable.Event.ACCEPTED
-                IndividualCall.State.NOT_ACCEPTED -> CallTable.Event.NOT_ACCEPTED
-                else -> CallTable.Event.MISSED
-              }
-            ),
-            CallTable.TIMESTAMP to updateMessage.individualCall.startedCallTimestamp,
-            CallTable.READ to CallTable.ReadState.serialize(CallTable.ReadState.UNREAD)
-          )
-          db.insert(CallTable.TABLE_NAME, SQLiteDatabase.CONFLICT_IGNORE, values)
-        }
+        call = contentValuesOf(
+          CallTable.CALL_ID to updateMessage.individualCall.callId,
+          CallTable.PEER to chatRecipientId.serialize(),
+          CallTable.TYPE to CallTable.Type.serialize(if (updateMessage.individualCall.type == IndividualCall.Type.VIDEO_CALL) CallTable.Type.VIDEO_CALL else CallTable.Type.AUDIO_CALL),
+          CallTable.DIRECTION to CallTable.Direction.serialize(if (updateMessage.individualCall.direction == IndividualCall.Direction.OUTGOING) CallTable.Direction.OUTGOING else CallTable.Direction.INCOMING),
+          CallTable.EVENT to CallTable.Event.serialize(
+            when (updateMessage.individualCall.state) {
+              IndividualCall.State.MISSED -> CallTable.Event.MISSED
+              IndividualCall.State.MISSED_NOTIFICATION_PROFILE -> CallTable.Event.MISSED_NOTIFICATION_PROFILE
+              IndividualCall.State.ACCEPTED -> CallTable.Event.ACCEPTED
+              IndividualCall.State.NOT_ACCEPTED -> CallTable.Event.NOT_ACCEPTED
+              else -> CallTable.Event.MISSED
+            }
+          ),
+          CallTable.TIMESTAMP to updateMessage.individualCall.startedCallTimestamp,
+          CallTable.READ to CallTable.ReadState.serialize(CallTable.ReadState.UNREAD)
+        )
       } else if (this.updateMessage.groupCall != null && this.updateMessage.groupCall.callId != null) {
-        followUp = { messageRowId ->
-          val values = contentValuesOf(
-            CallTable.CALL_ID to updateMessage.groupCall.callId,
-            CallTable.MESSAGE_ID to messageRowId,
-            CallTable.PEER to chatRecipientId.serialize(),
-            CallTable.TYPE to CallTable.Type.serialize(CallTable.Type.GROUP_CALL),
-            CallTable.DIRECTION to CallTable.Direction.serialize(if (backupState.backupToLocalRecipientId[updateMessage.groupCall.ringerRecipientId] == selfId) CallTable.Direction.OUTGOING else CallTable.Direction.INCOMING),
-            CallTable.EVENT to CallTable.Event.serialize(
-              when (updateMessage.groupCall.state) {
-                GroupCall.State.ACCEPTED -> CallTable.Event.ACCEPTED
-                GroupCall.State.MISSED -> CallTable.Event.MISSED
-                GroupCall.State.MISSED_NOTIFICATION_PROFILE -> CallTable.Event.MISSED_NOTIFICATION_PROFILE
-                GroupCall.State.GENERIC -> CallTable.Event.GENERIC_GROUP_CALL
-                GroupCall.State.JOINED -> CallTable.Event.JOINED
-                GroupCall.State.RINGING -> CallTable.Event.RINGING
-                GroupCall.State.OUTGOING_RING -> CallTable.Event.OUTGOING_RING
-                GroupCall.State.DECLINED -> CallTable.Event.DECLINED
-                else -> CallTable.Event.GENERIC_GROUP_CALL
-              }
-            ),
-            CallTable.TIMESTAMP to updateMessage.groupCall.startedCallTimestamp,
-            CallTable.READ to CallTable.ReadState.serialize(CallTable.ReadState.UNREAD)
-          )
-          db.insert(CallTable.TABLE_NAME, SQLiteDatabase.CONFLICT_IGNORE, values)
-        }
+        call = contentValuesOf(
+          CallTable.CALL_ID to updateMessage.groupCall.callId,
+          CallTable.PEER to chatRecipientId.serialize(),
+          CallTable.TYPE to CallTable.Type.serialize(CallTable.Type.GROUP_CALL),
+          CallTable.DIRECTION to CallTable.Direction.serialize(if (backupState.backupToLocalRecipientId[updateMessage.groupCall.ringerRecipientId] == selfId) CallTable.Direction.OUTGOING else CallTable.Direction.INCOMING),
+          CallTable.EVENT to CallTable.Event.serialize(
+            when (updateMessage.groupCall.state) {
+              GroupCall.State.ACCEPTED -> CallTable.Event.ACCEPTED
+              GroupCall.State.MISSED -> CallTable.Event.MISSED
+              GroupCall.State.MISSED_NOTIFICATION_PROFILE -> CallTable.Event.MISSED_NOTIFICATION_PROFILE
+              GroupCall.State.GENERIC -> CallTable.Event.GENERIC_GROUP_CALL
+              GroupCall.State.JOINED -> CallTable.Event.JOINED
+              GroupCall.State.RINGING -> CallTable.Event.RINGING
+              GroupCall.State.OUTGOING_RING -> CallTable.Event.OUTGOING_RING
+              GroupCall.State.DECLINED -> CallTable.Event.DECLINED
+              else -> CallTable.Event.GENERIC_GROUP_CALL
+            }
+          ),
+          CallTable.TIMESTAMP to updateMessage.groupCall.startedCallTimestamp,
+          CallTable.READ to CallTable.ReadState.serialize(CallTable.ReadState.UNREAD)
+        )
       }
     }
     if (this.standardMessage != null) {
       val bodyRanges = this.standardMessage.text?.bodyRanges
       if (!bodyRanges.isNullOrEmpty()) {
-        val mentions = bodyRanges.filter { it.mentionAci != null && it.start != null && it.length != null }
+        mentions = bodyRanges.filter { it.mentionAci != null && it.start != null && it.length != null }
           .mapNotNull {
             val aci = ServiceId.ACI.parseOrNull(it.mentionAci!!)
 
@@ -280,25 +321,15 @@ class ChatItemImportInserter(
               null
             }
           }
-        if (mentions.isNotEmpty()) {
-          followUp = { messageId ->
-            SignalDatabase.mentions.insert(threadId, messageId, mentions)
-          }
-        }
       }
-      val attachments = this.standardMessage.attachments.mapNotNull { attachment ->
+      attachments = this.standardMessage.attachments.mapNotNull { attachment ->
         attachment.toLocalAttachment()
       }
-      val quoteAttachments = this.standardMessage.quote?.attachments?.mapNotNull {
+      quoteAttachments = this.standardMessage.quote?.attachments?.mapNotNull {
         it.toLocalAttachment()
       } ?: emptyList()
-      if (attachments.isNotEmpty()) {
-        followUp = { messageRowId ->
-          SignalDatabase.attachments.insertAttachmentsForMessage(messageRowId, attachments, quoteAttachments)
-        }
-      }
     }
-    return MessageInsert(contentValues, followUp)
+    return MessageInsert(contentValues, threadId, call, mentions, attachments, quoteAttachments)
   }
 
   private class BatchInsert(val inserts: List<MessageInsert>, val query: SqlUtil.Query)
@@ -680,7 +711,41 @@ class ChatItemImportInserter(
       ?: if (this.contentType == null) null else PointerAttachment.forPointer(quotedAttachment = DataMessage.Quote.QuotedAttachment(contentType = this.contentType, fileName = this.fileName, thumbnail = null)).orNull()
   }
 
-  private class MessageInsert(val contentValues: ContentValues, val followUp: ((Long) -> Unit)?)
+  /**
+   * A message to insert, along with the rows in other tables that hang off of it. Those can only be built once the message has a row id.
+   */
+  private class MessageInsert(
+    val contentValues: ContentValues,
+    val threadId: Long,
+    val call: ContentValues?,
+    val mentions: List<Mention>,
+    val attachments: List<Attachment>,
+    val quoteAttachments: List<Attachment>
+  ) {
+    fun collectRelatedRows(messageRowId: Long, calls: MutableList<ContentValues>, mentionRows: MutableList<ContentValues>, attachmentRows: MutableList<ContentValues>) {
+      if (call != null) {
+        calls += ContentValues(call).apply { put(CallTable.MESSAGE_ID, messageRowId) }
+      }
+
+      for (mention in mentions) {
+        mentionRows += contentValuesOf(
+          MentionTable.THREAD_ID to threadId,
+          MentionTable.MESSAGE_ID to messageRowId,
+          MentionTable.RECIPIENT_ID to mention.recipientId.toLong(),
+          MentionTable.RANGE_START to mention.start,
+          MentionTable.RANGE_LENGTH to mention.length
+        )
+      }
+
+      for (attachment in attachments) {
+        attachmentRows += SignalDatabase.attachments.buildUndownloadedAttachmentContentValuesForRestore(messageRowId, attachment, attachment.quote)
+      }
+
+      for (attachment in quoteAttachments) {
+        attachmentRows += SignalDatabase.attachments.buildUndownloadedAttachmentContentValuesForRestore(messageRowId, attachment, true)
+      }
+    }
+  }
 
   private class Buffer(
     val messages: MutableList<MessageInsert> = mutableListOf(),
@@ -0,0 +1,16 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+/**
+ * A [BackupExportWriter] that can also be handed frames that were already encoded somewhere else, like [PipelinedBackupExportWriter] does.
+ */
+interface EncodedBackupExportWriter : BackupExportWriter {
+  /**
+   * Writes one or more varint length-delimited messages, exactly as they'd have been written by [write].
+   */
+  fun writeEncoded(bytes: ByteArray)
+}
@@ -5,6 +5,7 @@
 
 package org.stalker.securesms.backup.v2.stream
 
+import androidx.annotation.VisibleForTesting
 import org.signal.core.util.stream.MacOutputStream
 import org.signal.core.util.writeVarInt32
 import org.stalker.securesms.backup.v2.proto.BackupInfo
@@ -26,12 +27,20 @@ import javax.crypto.spec.SecretKeySpec
  * are gzipped, that gzipped data is encrypted, and then an HMAC of the encrypted data is appended
  * to the end of the [outputStream].
  */
-class EncryptedBackupWriter(
+class EncryptedBackupWriter @VisibleForTesting internal constructor(
   key: BackupKey,
   aci: ACI,
   private val outputStream: OutputStream,
-  private val append: (ByteArray) -> Unit
-) : BackupExportWriter {
+  private val append: (ByteArray) -> Unit,
+  iv: ByteArray
+) : EncodedBackupExportWriter {
+
+  constructor(
+    key: BackupKey,
+    aci: ACI,
+    outputStream: OutputStream,
+    append: (ByteArray) -> Unit
+  ) : this(key, aci, outputStream, append, Util.getSecretBytes(16))
 
   private val mainStream: PaddedGzipOutputStream
   private val macStream: MacOutputStream
@@ -39,7 +48,6 @@ class EncryptedBackupWriter(
   init {
     val keyMaterial = key.deriveBackupSecrets(aci)
 
-    val iv: ByteArray = Util.getSecretBytes(16)
     outputStream.write(iv)
     outputStream.flush()
 
@@ -73,6 +81,11 @@ class EncryptedBackupWriter(
     mainStream.write(frameBytes)
   }
 
+  @Throws(IOException::class)
+  override fun writeEncoded(bytes: ByteArray) {
+    mainStream.write(bytes)
+  }
+
   @Throws(IOException::class)
   override fun close() {
     // We need to close the main stream in order for the gzip and all the cipher operations to fully finish before
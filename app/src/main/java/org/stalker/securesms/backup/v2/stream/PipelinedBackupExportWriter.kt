@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+import com.squareup.wire.Message
+import org.signal.core.util.writeVarInt32
+import org.stalker.securesms.backup.v2.proto.BackupInfo
+import org.stalker.securesms.backup.v2.proto.Frame
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+
+/**
+ * Splits writing a backup into stages so that building frames, encoding them, and compressing + encrypting them can all happen at once.
+ *
+ * 1. The caller reads the database and builds frames, same as with any other writer.
+ * 2. Frames are encoded in batches of [batchSize] on [encodeExecutor], in parallel.
+ * 3. A single writer thread hands the encoded batches to [delegate] in the order they were written, which compresses and encrypts them.
+ *
+ * At most [maxPendingBatches] batches are in flight at once. Past that, [write] blocks until the writer thread catches up, so a slow
+ * disk can't make us buffer the whole backup in memory. Since the batches are written in order and encode to exactly the bytes [delegate]
+ * would have produced itself, the output is byte-for-byte the same as writing to [delegate] directly.
+ *
+ * Not thread safe. Like any other writer, it should only be written to from one thread.
+ */
+class PipelinedBackupExportWriter(
+  private val delegate: EncodedBackupExportWriter,
+  private val encodeExecutor: Executor,
+  private val batchSize: Int = DEFAULT_BATCH_SIZE,
+  maxPendingBatches: Int = DEFAULT_MAX_PENDING_BATCHES
+) : BackupExportWriter {
+
+  companion object {
+    const val DEFAULT_BATCH_SIZE = 100
+    const val DEFAULT_MAX_PENDING_BATCHES = 16
+
+    private val END: Future<ByteArray> = FutureTask { ByteArray(0) }.apply { run() }
+  }
+
+  private val pending: BlockingQueue<Future<ByteArray>> = ArrayBlockingQueue(maxPendingBatches)
+  private val writerThread: Thread = Thread(::writeBatches, "backup-export-writer")
+
+  private var batch: MutableList<Message<*, *>> = ArrayList(batchSize)
+  private var closed = false
+
+  @Volatile
+  private var failure: Throwable? = null
+
+  init {
+    writerThread.start()
+  }
+
+  override fun write(header: BackupInfo) {
+    add(header)
+  }
+
+  @Throws(IOException::class)
+  override fun write(frame: Frame) {
+    add(frame)
+  }
+
+  @Throws(IOException::class)
+  override fun close() {
+    if (closed) {
+      return
+    }
+    closed = true
+
+    try {
+      if (batch.isNotEmpty()) {
+        submitBatch()
+      }
+    } finally {
+      pending.put(END)
+      writerThread.join()
+      delegate.close()
+    }
+
+    throwIfFailed()
+  }
+
+  private fun add(message: Message<*, *>) {
+    check(!closed) { "Writer is closed!" }
+
+    batch += message
+
+    if (batch.size >= batchSize) {
+      submitBatch()
+    }
+  }
+
+  private fun submitBatch() {
+    throwIfFailed()
+
+    val messages: List<Message<*, *>> = batch
+    batch = ArrayList(batchSize)
+
+    val task = FutureTask { encode(messages) }
+    pending.put(task)
+    encodeExecutor.execute(task)
+  }
+
+  /**
+   * Runs on [writerThread] until it sees [END]. After a failure, batches are still taken off of the queue (but dropped), so the caller never
+   * blocks on a full queue. The caller will see the failure on its next write.
+   */
+  private fun writeBatches() {
+    while (true) {
+      val next: Future<ByteArray> = pending.take()
+
+      if (next === END) {
+        return
+      }
+
+      if (failure != null) {
+        next.cancel(false)
+        continue
+      }
+
+      try {
+        delegate.writeEncoded(next.get())
+      } catch (e: ExecutionException) {
+        failure = e.cause ?: e
+      } catch (e: Throwable) {
+        failure = e
+      }
+    }
+  }
+
+  private fun throwIfFailed() {
+    val failure: Throwable = failure ?: return
+
+    if (failure is IOException) {
+      throw IOException(failure)
+    } else {
+      throw IllegalStateException(failure)
+    }
+  }
+
+  private fun encode(messages: List<Message<*, *>>): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+
+    for (message in messages) {
+      val bytes: ByteArray = message.encode()
+      outputStream.writeVarInt32(bytes.size)
+      outputStream.write(bytes)
+    }
+
+    return outputStream.toByteArray()
+  }
+}
@@ -14,7 +14,7 @@ import java.io.OutputStream
 /**
  * Writes backup frames to the wrapped stream in plain text. Only for testing!
  */
-class PlainTextBackupWriter(private val outputStream: OutputStream) : BackupExportWriter {
+class PlainTextBackupWriter(private val outputStream: OutputStream) : EncodedBackupExportWriter {
 
   @Throws(IOException::class)
   override fun write(header: BackupInfo) {
@@ -32,6 +32,11 @@ class PlainTextBackupWriter(private val outputStream: OutputStream) : BackupExpo
     outputStream.write(frameBytes)
   }
 
+  @Throws(IOException::class)
+  override fun writeEncoded(bytes: ByteArray) {
+    outputStream.write(bytes)
+  }
+
   override fun close() {
     outputStream.close()
   }
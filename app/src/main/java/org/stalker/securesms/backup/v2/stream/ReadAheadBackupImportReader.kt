@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+import org.stalker.securesms.backup.v2.proto.BackupInfo
+import org.stalker.securesms.backup.v2.proto.Frame
+import java.io.IOException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+
+/**
+ * Reads frames out of [delegate] on a background thread, ahead of the caller, so that decrypting, decompressing and parsing the next frames
+ * overlaps with the caller inserting the current ones.
+ *
+ * Frames are handed over in batches of [batchSize], and at most [maxPendingBatches] are buffered. Past that, the reading thread waits
+ * for the caller to catch up. The reading thread is started by the first call to [hasNext], so [getHeader] can be read from the caller's
+ * thread first. A failure on the reading thread is thrown from [hasNext] once the frames read before it have been consumed.
+ */
+class ReadAheadBackupImportReader(
+  private val delegate: BackupImportReader,
+  private val batchSize: Int = DEFAULT_BATCH_SIZE,
+  maxPendingBatches: Int = DEFAULT_MAX_PENDING_BATCHES
+) : BackupImportReader {
+
+  companion object {
+    const val DEFAULT_BATCH_SIZE = 100
+    const val DEFAULT_MAX_PENDING_BATCHES = 16
+
+    private val END: List<Frame> = emptyList()
+  }
+
+  private val pending: BlockingQueue<List<Frame>> = ArrayBlockingQueue(maxPendingBatches)
+  private val readerThread: Thread = Thread(::readBatches, "backup-import-reader")
+
+  private var batch: List<Frame> = emptyList()
+  private var batchIndex = 0
+  private var started = false
+  private var finished = false
+
+  @Volatile
+  private var failure: Throwable? = null
+
+  /** Frames read by the reading thread so far. */
+  @Volatile
+  var framesRead: Long = 0
+    private set
+
+  /** Time the reading thread has spent reading frames, not counting time spent waiting for the caller. */
+  @Volatile
+  var readNanos: Long = 0
+    private set
+
+  /** Time the caller has spent waiting for the reading thread. */
+  var waitNanos: Long = 0
+    private set
+
+  override fun getHeader(): BackupInfo? {
+    return delegate.getHeader()
+  }
+
+  override fun hasNext(): Boolean {
+    if (batchIndex < batch.size) {
+      return true
+    }
+
+    if (finished) {
+      return false
+    }
+
+    if (!started) {
+      started = true
+      readerThread.start()
+    }
+
+    val start = System.nanoTime()
+    batch = pending.take()
+    batchIndex = 0
+    waitNanos += System.nanoTime() - start
+
+    if (batch === END) {
+      finished = true
+      failure?.let { throw IOException("Failed to read backup!", it) }
+      return false
+    }
+
+    return true
+  }
+
+  override fun next(): Frame {
+    if (!hasNext()) {
+      throw NoSuchElementException()
+    }
+
+    return batch[batchIndex++]
+  }
+
+  override fun close() {
+    if (started) {
+      readerThread.interrupt()
+      readerThread.join()
+    }
+
+    delegate.close()
+  }
+
+  private fun readBatches() {
+    try {
+      while (true) {
+        val start = System.nanoTime()
+        val frames: MutableList<Frame> = ArrayList(batchSize)
+
+        while (frames.size < batchSize && delegate.hasNext()) {
+          frames += delegate.next()
+        }
+
+        readNanos += System.nanoTime() - start
+        framesRead += frames.size
+
+        if (frames.isEmpty()) {
+          break
+        }
+
+        pending.put(frames)
+      }
+    } catch (e: InterruptedException) {
+      return
+    } catch (e: Throwable) {
+      failure = e
+    }
+
+    try {
+      pending.put(END)
+    } catch (e: InterruptedException) {
+      // Closed before the caller read to the end, nobody is waiting for it.
+    }
+  }
+}
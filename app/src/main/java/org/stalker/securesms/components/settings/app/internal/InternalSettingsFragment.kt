@@ -48,6 +48,7 @@ import org.stalker.securesms.jobs.StorageForcePushJob
 import org.stalker.securesms.jobs.SubscriptionKeepAliveJob
 import org.stalker.securesms.jobs.SubscriptionReceiptRequestResponseJob
 import org.stalker.securesms.keyvalue.SignalStore
+import org.stalker.securesms.logging.LogFileStore
 import org.stalker.securesms.megaphone.MegaphoneRepository
 import org.stalker.securesms.megaphone.Megaphones
 import org.stalker.securesms.payments.DataExportUtil
@@ -178,6 +179,15 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
         }
       )
 
+      switchPref(
+        title = DSLSettingsText.from("Delta local backups"),
+        summary = DSLSettingsText.from("Write a full local backup weekly, and in between only write the attachments that aren't in it."),
+        isChecked = state.localBackupDeltas,
+        onClick = {
+          viewModel.setLocalBackupDeltas(!state.localBackupDeltas)
+        }
+      )
+
       switchPref(
         title = DSLSettingsText.from("'Internal Details' button"),
         summary = DSLSettingsText.from("Show a button in conversation settings that lets you see more information about a user."),
@@ -242,7 +252,7 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
         title = DSLSettingsText.from("Clear all logs"),
         onClick = {
           SimpleTask.run({
-            LogDatabase.getInstance(requireActivity().application).logs.clearAll()
+            LogFileStore.getInstance(requireActivity().application).clearAll()
           }) {
             Toast.makeText(requireContext(), "Cleared all logs", Toast.LENGTH_SHORT).show()
           }
@@ -402,6 +412,18 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
         }
       )
 
+      clickPref(
+        title = DSLSettingsText.from("Repair unread counts"),
+        summary = DSLSettingsText.from("Recount unread messages for any conversation whose count has drifted"),
+        onClick = {
+          SimpleTask.run({
+            SignalDatabase.threads.repairUnreadCounts()
+          }) { repaired ->
+            Toast.makeText(requireContext(), "Repaired $repaired conversation(s)", Toast.LENGTH_SHORT).show()
+          }
+        }
+      )
+
       dividerPref()
 
       sectionHeaderPref(DSLSettingsText.from("Emoji"))
@@ -986,7 +1008,7 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
 
   private fun clearKeepLongerLogs() {
     SimpleTask.run({
-      LogDatabase.getInstance(requireActivity().application).logs.clearKeepLonger()
+      LogFileStore.getInstance(requireActivity().application).clearKeepLonger()
     }) {
       Toast.makeText(requireContext(), "Cleared keep longer logs", Toast.LENGTH_SHORT).show()
     }
@@ -24,5 +24,6 @@ data class InternalSettingsState(
   val canClearOnboardingState: Boolean,
   val pnpInitialized: Boolean,
   val useConversationItemV2ForMedia: Boolean,
+  val localBackupDeltas: Boolean,
   val hasPendingOneTimeDonation: Boolean
 )
@@ -124,6 +124,11 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     refresh()
   }
 
+  fun setLocalBackupDeltas(enabled: Boolean) {
+    SignalStore.internalValues().setLocalBackupDeltas(enabled)
+    refresh()
+  }
+
   fun addSampleReleaseNote() {
     repository.addSampleReleaseNote()
   }
@@ -161,6 +166,7 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     canClearOnboardingState = SignalStore.storyValues().hasDownloadedOnboardingStory && Stories.isFeatureEnabled(),
     pnpInitialized = SignalStore.misc().hasPniInitializedDevices,
     useConversationItemV2ForMedia = SignalStore.internalValues().useConversationItemV2Media(),
+    localBackupDeltas = SignalStore.internalValues().localBackupDeltas(),
     hasPendingOneTimeDonation = SignalStore.donationsValues().getPendingOneTimeDonation() != null
   )
 
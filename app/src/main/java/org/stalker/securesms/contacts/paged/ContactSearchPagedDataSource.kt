@@ -1,6 +1,9 @@
 package org.stalker.securesms.contacts.paged
 
 import android.database.Cursor
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import org.signal.core.util.logging.Log
 import org.signal.core.util.requireLong
 import org.signal.paging.PagedDataSource
 import org.stalker.securesms.contacts.ContactRepository
@@ -35,7 +38,12 @@ class ContactSearchPagedDataSource(
 ) : PagedDataSource<ContactSearchKey, ContactSearchData> {
 
   companion object {
+    private val TAG = Log.tag(ContactSearchPagedDataSource::class.java)
+
     private val ACTIVE_STORY_CUTOFF_DURATION = TimeUnit.DAYS.toMillis(1)
+
+    /** How many message search results are read at a time. Enough to cover a load of the first page and its buffer in one go. */
+    private const val MESSAGE_PAGE_SIZE = 50
   }
 
   private val latestStorySends: List<StorySend> = contactSearchPagedDataSourceRepository.getLatestStorySends(ACTIVE_STORY_CUTOFF_DURATION)
@@ -43,6 +51,8 @@ class ContactSearchPagedDataSource(
   private val activeStoryCount = latestStorySends.size
 
   private var searchCache = SearchCache()
+  private val loadedMessages: MutableMap<Long, MessageResult> = HashMap()
+  private val cancellationSignal = CancellationSignal()
   private var searchSize = -1
   private var displayEmptyState: Boolean = false
 
@@ -119,6 +129,13 @@ class ContactSearchPagedDataSource(
 
   data class Index(val category: ContactSearchConfiguration.Section, val offset: Int)
 
+  /**
+   * Cancels the searches this data source is running, for when it is replaced by another one, e.g. because the query changed.
+   */
+  fun cancel() {
+    cancellationSignal.cancel()
+  }
+
   override fun load(key: ContactSearchKey?): ContactSearchData? {
     throw UnsupportedOperationException()
   }
@@ -441,11 +458,18 @@ class ContactSearchPagedDataSource(
     check(searchRepository != null)
 
     if (searchCache.messageSearchResult == null && query != null) {
-      searchCache = searchCache.copy(messageSearchResult = searchRepository.queryMessagesSync(query))
+      val messageSearchResult = try {
+        searchRepository.queryMessagesSync(query, cancellationSignal)
+      } catch (e: OperationCanceledException) {
+        Log.d(TAG, "Message search was canceled.")
+        MessageSearchResult(emptyList(), query)
+      }
+
+      searchCache = searchCache.copy(messageSearchResult = messageSearchResult)
     }
 
     return if (query != null) {
-      ListSearchIterator(searchCache.messageSearchResult!!.results)
+      MessageSearchIterator(searchCache.messageSearchResult!!)
     } else {
       ListSearchIterator(emptyList())
     }
@@ -534,6 +558,38 @@ class ContactSearchPagedDataSource(
     }
   }
 
+  /**
+   * Reads message search results a page at a time as they are reached, so that snippets are only built for the messages that get shown.
+   */
+  private inner class MessageSearchIterator(private val result: MessageSearchResult) : ContactSearchIterator<MessageResult> {
+
+    private var position = -1
+
+    override fun moveToPosition(n: Int) {
+      position = n
+    }
+
+    override fun getCount(): Int = result.matches.size
+
+    override fun hasNext(): Boolean = position < result.matches.lastIndex
+
+    override fun next(): MessageResult {
+      val match = result.matches[++position]
+
+      if (match.messageId !in loadedMessages) {
+        val page = result.matches
+          .subList(position, minOf(position + MESSAGE_PAGE_SIZE, result.matches.size))
+          .filterNot { it.messageId in loadedMessages }
+
+        searchRepository!!.loadMessages(result.query, page).forEach { loadedMessages[it.messageId] = it }
+      }
+
+      return loadedMessages[match.messageId]!!
+    }
+
+    override fun close() = Unit
+  }
+
   private class ListSearchIterator<T>(val list: List<T>) : ContactSearchIterator<T> {
 
     private var position = -1
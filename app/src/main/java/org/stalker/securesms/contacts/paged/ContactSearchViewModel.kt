@@ -48,6 +48,7 @@ class ContactSearchViewModel(
   private val configurationStore = Store(ContactSearchState())
   private val selectionStore = Store<Set<ContactSearchKey>>(emptySet())
   private val errorEvents = PublishSubject.create<ContactSearchError>()
+  private var pagedDataSource: ContactSearchPagedDataSource? = null
 
   val controller: LiveData<PagingController<ContactSearchKey>> = pagedData.map { it.controller }
   val data: LiveData<List<ContactSearchData>> = pagedData.switchMap { it.data }
@@ -58,18 +59,22 @@ class ContactSearchViewModel(
   private var selectionSize = 0
   override fun onCleared() {
     disposables.clear()
+    pagedDataSource?.cancel()
   }
 
   fun getSelectedMembersSize(): Int {
     return selectionSize
   }
   fun setConfiguration(contactSearchConfiguration: ContactSearchConfiguration) {
+    this.pagedDataSource?.cancel()
+
     val pagedDataSource = ContactSearchPagedDataSource(
       contactSearchConfiguration,
       arbitraryRepository = arbitraryRepository,
       searchRepository = searchRepository,
       contactSearchPagedDataSourceRepository = contactSearchPagedDataSourceRepository
     )
+    this.pagedDataSource = pagedDataSource
     pagedData.value = PagedData.createForLiveData(pagedDataSource, pagingConfig)
   }
 
@@ -11,6 +11,7 @@ import org.signal.core.util.Stopwatch
 import org.signal.core.util.StringUtil
 import org.signal.core.util.logging.Log
 import org.stalker.securesms.database.RecipientTable
+import org.stalker.securesms.database.RecipientTable.SystemContactInfo
 import org.stalker.securesms.database.SignalDatabase
 import org.stalker.securesms.dependencies.ApplicationDependencies
 import org.stalker.securesms.jobs.SyncSystemContactLinksJob
@@ -239,7 +240,8 @@ object ContactDiscovery {
     clearInfoForMissingContacts: Boolean
   ) {
     val localNumber: String = SignalStore.account().e164 ?: ""
-    val handle = SignalDatabase.recipients.beginBulkSystemContactUpdate(clearInfoForMissingContacts)
+    val contacts: MutableList<SystemContactInfo> = ArrayList()
+
     try {
       contactsProvider().use { iterator ->
         while (iterator.hasNext()) {
@@ -259,20 +261,25 @@ object ContactDiscovery {
               ProfileName.EMPTY
             }
 
-            handle.setSystemContactInfo(
-              Recipient.externalContact(realNumber).id,
-              profileName,
-              phoneDetails.displayName,
-              phoneDetails.photoUri,
-              phoneDetails.label,
-              phoneDetails.type,
-              phoneDetails.contactUri.toString()
+            contacts += SystemContactInfo(
+              identifier = realNumber,
+              profileName = profileName,
+              displayName = phoneDetails.displayName,
+              photoUri = phoneDetails.photoUri,
+              phoneLabel = phoneDetails.label,
+              phoneType = phoneDetails.type,
+              contactUri = phoneDetails.contactUri.toString()
             )
           }
         }
       }
     } catch (e: IllegalStateException) {
       Log.w(TAG, "Hit an issue with the cursor while reading!", e)
+    }
+
+    val handle = SignalDatabase.recipients.beginBulkSystemContactUpdate(clearInfoForMissingContacts)
+    try {
+      handle.setSystemContactInfo(contacts)
     } finally {
       handle.finish()
     }
@@ -195,13 +195,16 @@ class ConversationViewModel(
         val messageInsertObserver = DatabaseObserver.MessageObserver {
           controller.onDataItemInserted(ConversationElementKey.forMessage(it.id), 0)
         }
-        val conversationObserver = DatabaseObserver.Observer {
-          controller.onDataInvalidated()
+        val conversationObserver = DatabaseObserver.ConversationChangeObserver { changes ->
+          // Changes limited to specific messages are already handled by messageUpdateObserver
+          if (changes.isFullInvalidation) {
+            controller.onDataInvalidated()
+          }
         }
 
         ApplicationDependencies.getDatabaseObserver().registerMessageUpdateObserver(messageUpdateObserver)
         ApplicationDependencies.getDatabaseObserver().registerMessageInsertObserver(threadId, messageInsertObserver)
-        ApplicationDependencies.getDatabaseObserver().registerConversationObserver(threadId, conversationObserver)
+        ApplicationDependencies.getDatabaseObserver().registerConversationChangeObserver(threadId, conversationObserver)
 
         emitter.setCancellable {
           ApplicationDependencies.getDatabaseObserver().unregisterObserver(messageUpdateObserver)
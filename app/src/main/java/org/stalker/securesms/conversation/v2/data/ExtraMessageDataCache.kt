@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.conversation.v2.data
+
+import org.stalker.securesms.attachments.DatabaseAttachment
+import org.stalker.securesms.database.CallTable
+import org.stalker.securesms.database.model.Mention
+import org.stalker.securesms.database.model.ReactionRecord
+import org.stalker.securesms.payments.Payment
+
+/**
+ * LRU of the extra data [MessageDataFetcher] looks up for each message, keyed by message id. Entries are only valid until the message or
+ * its conversation changes, so callers are responsible for evicting them when notified.
+ *
+ * Because a lookup can race with a change being committed, results are only stored if nothing has been evicted since the lookup started,
+ * as identified by [generation].
+ */
+class ExtraMessageDataCache(private val maxSize: Int) {
+
+  private val entries: LinkedHashMap<Long, Entry> = object : LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Entry>?): Boolean {
+      return size > maxSize
+    }
+  }
+
+  private var generation: Long = 0
+
+  @Synchronized
+  fun generation(): Long {
+    return generation
+  }
+
+  @Synchronized
+  fun getAll(messageIds: Collection<Long>): Map<Long, Entry> {
+    val output = HashMap<Long, Entry>(messageIds.size)
+    for (id in messageIds) {
+      entries[id]?.let { output[id] = it }
+    }
+    return output
+  }
+
+  @Synchronized
+  fun putAll(values: Map<Long, Entry>, expectedGeneration: Long) {
+    if (generation == expectedGeneration) {
+      entries.putAll(values)
+    }
+  }
+
+  @Synchronized
+  fun remove(messageId: Long) {
+    generation++
+    entries.remove(messageId)
+  }
+
+  @Synchronized
+  fun removeThread(threadId: Long) {
+    generation++
+    entries.values.removeAll { it.threadId == threadId }
+  }
+
+  @Synchronized
+  fun removeIf(predicate: (Entry) -> Boolean) {
+    generation++
+    entries.values.removeAll(predicate)
+  }
+
+  @Synchronized
+  fun clear() {
+    generation++
+    entries.clear()
+  }
+
+  @Synchronized
+  fun size(): Int {
+    return entries.size
+  }
+
+  data class Entry(
+    val threadId: Long,
+    val mentions: List<Mention>?,
+    val reactions: List<ReactionRecord>?,
+    val attachments: List<DatabaseAttachment>?,
+    val payment: Payment?,
+    val call: CallTable.Call?,
+    val isPaymentNotification: Boolean = false,
+    val isCallLog: Boolean = false
+  )
+}
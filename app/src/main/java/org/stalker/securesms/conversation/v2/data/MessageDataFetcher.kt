@@ -6,10 +6,12 @@
 package org.stalker.securesms.conversation.v2.data
 
 import androidx.annotation.WorkerThread
+import org.signal.core.util.ThreadUtil
 import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.roundedString
 import org.stalker.securesms.attachments.DatabaseAttachment
 import org.stalker.securesms.database.CallTable
+import org.stalker.securesms.database.MentionUtil
 import org.stalker.securesms.database.SignalDatabase
 import org.stalker.securesms.database.model.Mention
 import org.stalker.securesms.database.model.MessageRecord
@@ -32,14 +34,27 @@ import kotlin.time.DurationUnit
 
 /**
  * Fetches various pieces of associated message data in parallel and returns the result.
+ *
+ * Work runs on an executor reserved for conversation loads so that it doesn't queue up behind unrelated background work. Lookups are
+ * skipped entirely when none of the messages could have the data (e.g. calls for a page without call messages), and per-message data is
+ * cached across page loads until the database tells us the message or its conversation changed.
  */
 object MessageDataFetcher {
 
+  private const val CACHE_SIZE = 1000
+
+  private val executor: ExecutorService = SignalExecutors.newCachedBoundedExecutor("signal-conversation-data", ThreadUtil.PRIORITY_IMPORTANT_BACKGROUND_THREAD, 1, 4, 30)
+
+  private val cache = ExtraMessageDataCache(CACHE_SIZE)
+
+  @Volatile
+  private var observersRegistered = false
+
   /**
-   * Singular version of [fetch].
+   * Singular version of [fetch]. This is used when an individual message has changed, so it always skips the cache.
    */
   fun fetch(messageRecord: MessageRecord): ExtraMessageData {
-    return fetch(listOf(messageRecord))
+    return fetch(listOf(messageRecord), useCache = false)
   }
 
   /**
@@ -50,48 +65,57 @@ object MessageDataFetcher {
    * so this should be called on a background thread.
    */
   @WorkerThread
-  fun fetch(messageRecords: List<MessageRecord>): ExtraMessageData {
+  fun fetch(messageRecords: List<MessageRecord>, useCache: Boolean = true): ExtraMessageData {
     val startTimeNanos = System.nanoTime()
     val context = ApplicationDependencies.getApplication()
 
-    val messageIds: List<Long> = messageRecords.map { it.id }
-    val executor = SignalExecutors.BOUNDED
+    registerObserversIfNecessary()
+
+    val cacheGeneration = cache.generation()
+    val cached: Map<Long, ExtraMessageDataCache.Entry> = if (useCache) cache.getAll(messageRecords.map { it.id }) else emptyMap()
+    val toFetch: List<MessageRecord> = messageRecords.filterNot { cached.containsKey(it.id) }
+    val messageIds: List<Long> = toFetch.map { it.id }
 
-    val mentionsFuture = executor.submitTimed {
-      SignalDatabase.mentions.getMentionsForMessages(messageIds)
+    val mentionsFuture = executor.submitTimed(toFetch.isNotEmpty(), emptyMap()) {
+      val mayHaveMentions = toFetch.filter { it.body.contains(MentionUtil.MENTION_PLACEHOLDER) }.map { it.id }
+      if (mayHaveMentions.isNotEmpty()) SignalDatabase.mentions.getMentionsForMessages(mayHaveMentions) else emptyMap()
     }
 
-    val hasBeenQuotedFuture = executor.submitTimed {
+    val hasBeenQuotedFuture = executor.submitTimed(messageRecords.isNotEmpty(), emptySet()) {
       SignalDatabase.messages.isQuoted(messageRecords)
     }
 
-    val reactionsFuture = executor.submitTimed {
+    val reactionsFuture = executor.submitTimed(messageIds.isNotEmpty(), emptyMap()) {
       SignalDatabase.reactions.getReactionsForMessages(messageIds)
     }
 
-    val attachmentsFuture = executor.submitTimed {
+    val attachmentsFuture = executor.submitTimed(messageIds.isNotEmpty(), emptyMap()) {
       SignalDatabase.attachments.getAttachmentsForMessages(messageIds)
     }
 
-    val paymentsFuture = executor.submitTimed {
-      val paymentUuidToMessageId: Map<UUID, Long> = messageRecords
-        .filter { it.isMms && it.isPaymentNotification }
-        .map { UuidUtil.parseOrNull(it.body) to it.id }
-        .filter { it.first != null }
-        .associate { it.first to it.second }
+    val paymentUuidToMessageId: Map<UUID, Long> = toFetch
+      .filter { it.isMms && it.isPaymentNotification }
+      .map { UuidUtil.parseOrNull(it.body) to it.id }
+      .filter { it.first != null }
+      .associate { it.first to it.second }
 
+    val paymentsFuture = executor.submitTimed(paymentUuidToMessageId.isNotEmpty(), emptyMap()) {
       SignalDatabase
         .payments
         .getPayments(paymentUuidToMessageId.keys)
         .associateBy { paymentUuidToMessageId[it.uuid]!! }
     }
 
-    val callsFuture = executor.submitTimed {
-      SignalDatabase.calls.getCalls(messageIds)
+    val callMessageIds: List<Long> = toFetch.filter { it.isCallLog }.map { it.id }
+
+    val callsFuture = executor.submitTimed(callMessageIds.isNotEmpty(), emptyMap()) {
+      SignalDatabase.calls.getCalls(callMessageIds)
     }
 
-    val recipientsFuture = executor.submitTimed {
-      messageRecords.forEach { record ->
+    val updateRecords: List<MessageRecord> = messageRecords.filter { it.isUpdate }
+
+    val recipientsFuture = executor.submitTimed(updateRecords.isNotEmpty(), Unit) {
+      updateRecords.forEach { record ->
         record.getUpdateDisplayBody(context, null)?.let { description ->
           val ids = description.mentioned.map { RecipientId.from(it) }
           Recipient.resolvedList(ids)
@@ -107,19 +131,36 @@ object MessageDataFetcher {
     val callsResult = callsFuture.get()
     val recipientsResult = recipientsFuture.get()
 
+    cache.putAll(
+      toFetch.associate { record ->
+        record.id to ExtraMessageDataCache.Entry(
+          threadId = record.threadId,
+          mentions = mentionsResult.result[record.id],
+          reactions = reactionsResult.result[record.id],
+          attachments = attachmentsResult.result[record.id],
+          payment = paymentsResult.result[record.id],
+          call = callsResult.result[record.id],
+          isPaymentNotification = record.isPaymentNotification,
+          isCallLog = record.isCallLog
+        )
+      },
+      cacheGeneration
+    )
+
     val wallTimeMs = (System.nanoTime() - startTimeNanos).nanoseconds.toDouble(DurationUnit.MILLISECONDS)
 
-    val cpuTimeNanos = arrayOf(mentionsResult, hasBeenQuotedResult, reactionsResult, attachmentsResult, paymentsResult, callsResult, recipientsResult).sumOf { it.durationNanos }
-    val cpuTimeMs = cpuTimeNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS)
+    val results = arrayOf(mentionsResult, hasBeenQuotedResult, reactionsResult, attachmentsResult, paymentsResult, callsResult, recipientsResult)
+    val cpuTimeMs = results.sumOf { it.durationNanos }.nanoseconds.toDouble(DurationUnit.MILLISECONDS)
+    val maxQueueTimeMs = results.maxOf { it.queueNanos }.nanoseconds.toDouble(DurationUnit.MILLISECONDS)
 
     return ExtraMessageData(
-      mentionsById = mentionsResult.result,
+      mentionsById = mentionsResult.result + cached.mapNotNullValues { it.mentions },
       hasBeenQuoted = hasBeenQuotedResult.result,
-      reactions = reactionsResult.result,
-      attachments = attachmentsResult.result,
-      payments = paymentsResult.result,
-      calls = callsResult.result,
-      timeLog = "mentions: ${mentionsResult.duration}, is-quoted: ${hasBeenQuotedResult.duration}, reactions: ${reactionsResult.duration}, attachments: ${attachmentsResult.duration}, payments: ${paymentsResult.duration}, calls: ${callsResult.duration} >> cpuTime: ${cpuTimeMs.roundedString(2)}, wallTime: ${wallTimeMs.roundedString(2)}"
+      reactions = reactionsResult.result + cached.mapNotNullValues { it.reactions },
+      attachments = attachmentsResult.result + cached.mapNotNullValues { it.attachments },
+      payments = paymentsResult.result + cached.mapNotNullValues { it.payment },
+      calls = callsResult.result + cached.mapNotNullValues { it.call },
+      timeLog = "cached: ${cached.size}/${messageRecords.size}, mentions: $mentionsResult, is-quoted: $hasBeenQuotedResult, reactions: $reactionsResult, attachments: $attachmentsResult, payments: $paymentsResult, calls: $callsResult, recipients: $recipientsResult >> cpuTime: ${cpuTimeMs.roundedString(2)}, maxQueueTime: ${maxQueueTimeMs.roundedString(2)}, wallTime: ${wallTimeMs.roundedString(2)}"
     )
   }
 
@@ -160,24 +201,89 @@ object MessageDataFetcher {
     return output
   }
 
-  private fun <T> ExecutorService.submitTimed(callable: Callable<T>): Future<TimedResult<T>> {
+  /**
+   * Reactions, mentions and message edits notify either the message or its conversation, so we evict just those. Attachment, payment and
+   * call notifications don't say which message they're for, so they evict everything that could be affected.
+   */
+  private fun registerObserversIfNecessary() {
+    if (observersRegistered) {
+      return
+    }
+
+    synchronized(this) {
+      if (observersRegistered) {
+        return
+      }
+
+      val observer = ApplicationDependencies.getDatabaseObserver()
+      observer.registerMessageUpdateObserver { cache.remove(it.id) }
+      observer.registerAllConversationsChangeObserver { changes ->
+        if (changes.isFullInvalidation) {
+          cache.removeThread(changes.threadId)
+        } else {
+          changes.messageIds.forEach { cache.remove(it.id) }
+        }
+      }
+      observer.registerAttachmentObserver { cache.clear() }
+      observer.registerAllPaymentsObserver { cache.removeIf { it.isPaymentNotification } }
+      observer.registerCallUpdateObserver { cache.removeIf { it.isCallLog } }
+
+      observersRegistered = true
+    }
+  }
+
+  private fun <V> Map<Long, ExtraMessageDataCache.Entry>.mapNotNullValues(transform: (ExtraMessageDataCache.Entry) -> V?): Map<Long, V> {
+    val output = HashMap<Long, V>(size)
+    for ((id, entry) in this) {
+      transform(entry)?.let { output[id] = it }
+    }
+    return output
+  }
+
+  /**
+   * Submits the [callable] unless there's nothing for it to do, in which case [default] is returned immediately without hopping threads.
+   */
+  private fun <T> ExecutorService.submitTimed(needed: Boolean, default: T, callable: Callable<T>): Future<TimedResult<T>> {
+    if (!needed) {
+      return SkippedFuture(TimedResult(result = default, durationNanos = 0, queueNanos = 0, skipped = true))
+    }
+
+    val submitTime = System.nanoTime()
+
     return this.submit(
       Callable {
         val start = System.nanoTime()
         val result = callable.call()
         val end = System.nanoTime()
 
-        TimedResult(result = result, durationNanos = end - start)
+        TimedResult(result = result, durationNanos = end - start, queueNanos = start - submitTime)
       }
     )
   }
 
+  private class SkippedFuture<T>(private val value: T) : Future<T> {
+    override fun cancel(mayInterruptIfRunning: Boolean): Boolean = false
+    override fun isCancelled(): Boolean = false
+    override fun isDone(): Boolean = true
+    override fun get(): T = value
+    override fun get(timeout: Long, unit: java.util.concurrent.TimeUnit): T = value
+  }
+
   data class TimedResult<T>(
     val result: T,
-    val durationNanos: Long
+    val durationNanos: Long,
+    val queueNanos: Long,
+    val skipped: Boolean = false
   ) {
     val duration: String
       get() = durationNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS).roundedString(2)
+
+    val queueDuration: String
+      get() = queueNanos.nanoseconds.toDouble(DurationUnit.MILLISECONDS).roundedString(2)
+
+    override fun toString(): String {
+      return if (skipped) "skipped" else "$duration (queued $queueDuration)"
+    }
   }
 
   data class ExtraMessageData(
@@ -1,22 +1,65 @@
 package org.stalker.securesms.crypto;
 
+import androidx.annotation.NonNull;
+
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.whispersystems.signalservice.api.SignalSessionLock;
+import org.whispersystems.signalservice.api.StripedSessionLock;
+import org.whispersystems.signalservice.api.push.ServiceId;
 
+import java.util.Collection;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * An implementation of {@link SignalSessionLock} that is backed by a {@link ReentrantLock}.
+ * The app-wide {@link SignalSessionLock}, backed by a {@link StripedSessionLock}.
+ *
+ * {@link #acquire()} is the global lock and excludes all other session work. Use it for anything that touches many addresses at once,
+ * like identity changes, archiving every session, or decrypting a batch of messages into a buffered store. Work on a single recipient
+ * should use one of the address-scoped variants, so that sends to different recipients can encrypt in parallel.
+ *
+ * Prekeys aren't tied to an address, so they have their own lock. Nothing else may be acquired while holding it. Anything that removes
+ * prekeys in bulk, like rotation cleanup, should hold the global lock as well, since that's the lock messages are decrypted under.
  */
 public enum ReentrantSessionLock implements SignalSessionLock {
 
   INSTANCE;
 
-  private static final ReentrantLock LOCK = new ReentrantLock();
+  private static final StripedSessionLock LOCK         = new StripedSessionLock();
+  private static final ReentrantLock      PRE_KEY_LOCK = new ReentrantLock();
 
   @Override
   public Lock acquire() {
-    LOCK.lock();
-    return LOCK::unlock;
+    return LOCK.acquire();
+  }
+
+  @Override
+  public Lock acquire(@NonNull SignalProtocolAddress address) {
+    return LOCK.acquire(address);
+  }
+
+  @Override
+  public Lock acquire(@NonNull Collection<SignalProtocolAddress> addresses) {
+    return LOCK.acquire(addresses);
+  }
+
+  public Lock acquire(@NonNull ServiceId serviceId) {
+    return LOCK.acquire(serviceId.toString());
+  }
+
+  /**
+   * Acquires the lock for an address name, covering every device of that recipient.
+   */
+  public Lock acquire(@NonNull String addressName) {
+    return LOCK.acquire(addressName);
+  }
+
+  public Lock acquireAll(@NonNull Collection<String> addressNames) {
+    return LOCK.acquireAll(addressNames);
+  }
+
+  public Lock acquirePreKeys() {
+    PRE_KEY_LOCK.lock();
+    return PRE_KEY_LOCK::unlock;
   }
 
   public boolean isHeldByCurrentThread() {
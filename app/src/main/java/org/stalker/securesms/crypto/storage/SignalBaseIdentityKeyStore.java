@@ -68,7 +68,7 @@ public class SignalBaseIdentityKeyStore {
   }
 
   public @NonNull SaveResult saveIdentity(SignalProtocolAddress address, IdentityKey identityKey, boolean nonBlockingApproval) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       IdentityStoreRecord identityRecord   = cache.get(address.getName());
       RecipientId         recipientId      = RecipientId.from(ServiceId.fromLibSignal(address.getServiceId()));
 
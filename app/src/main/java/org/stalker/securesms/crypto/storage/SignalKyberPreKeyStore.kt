@@ -21,61 +21,61 @@ class SignalKyberPreKeyStore(private val selfServiceId: ServiceId) : SignalServi
 
   @Throws(InvalidKeyIdException::class)
   override fun loadKyberPreKey(kyberPreKeyId: Int): KyberPreKeyRecord {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.get(selfServiceId, kyberPreKeyId)?.record ?: throw InvalidKeyIdException("Missing kyber prekey with ID: $kyberPreKeyId")
     }
   }
 
   override fun loadKyberPreKeys(): List<KyberPreKeyRecord> {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.getAll(selfServiceId).map { it.record }
     }
   }
 
   override fun loadLastResortKyberPreKeys(): List<KyberPreKeyRecord> {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.getAllLastResort(selfServiceId).map { it.record }
     }
   }
 
   override fun storeKyberPreKey(kyberPreKeyId: Int, record: KyberPreKeyRecord) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.insert(selfServiceId, kyberPreKeyId, record, false)
     }
   }
 
   override fun storeLastResortKyberPreKey(kyberPreKeyId: Int, kyberPreKeyRecord: KyberPreKeyRecord) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.insert(selfServiceId, kyberPreKeyId, kyberPreKeyRecord, true)
     }
   }
 
   override fun containsKyberPreKey(kyberPreKeyId: Int): Boolean {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       return SignalDatabase.kyberPreKeys.contains(selfServiceId, kyberPreKeyId)
     }
   }
 
   override fun markKyberPreKeyUsed(kyberPreKeyId: Int) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       SignalDatabase.kyberPreKeys.deleteIfNotLastResort(selfServiceId, kyberPreKeyId)
     }
   }
 
   override fun removeKyberPreKey(kyberPreKeyId: Int) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       SignalDatabase.kyberPreKeys.delete(selfServiceId, kyberPreKeyId)
     }
   }
 
   override fun markAllOneTimeKyberPreKeysStaleIfNecessary(staleTime: Long) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       SignalDatabase.kyberPreKeys.markAllStaleIfNecessary(selfServiceId, staleTime)
     }
   }
 
   override fun deleteAllStaleOneTimeKyberPreKeys(threshold: Long, minCount: Int) {
-    ReentrantSessionLock.INSTANCE.acquire().use {
+    ReentrantSessionLock.INSTANCE.acquirePreKeys().use {
       SignalDatabase.kyberPreKeys.deleteAllStaleBefore(selfServiceId, threshold, minCount)
     }
   }
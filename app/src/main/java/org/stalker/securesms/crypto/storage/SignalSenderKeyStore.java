@@ -33,14 +33,14 @@ public final class SignalSenderKeyStore implements SignalServiceSenderKeyStore {
 
   @Override
   public void storeSenderKey(@NonNull SignalProtocolAddress sender, @NonNull UUID distributionId, @NonNull SenderKeyRecord record) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(sender)) {
       SignalDatabase.senderKeys().store(sender, DistributionId.from(distributionId), record);
     }
   }
 
   @Override
   public @Nullable SenderKeyRecord loadSenderKey(@NonNull SignalProtocolAddress sender, @NonNull UUID distributionId) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(sender)) {
       return SignalDatabase.senderKeys().load(sender, DistributionId.from(distributionId));
     }
   }
@@ -54,14 +54,14 @@ public final class SignalSenderKeyStore implements SignalServiceSenderKeyStore {
 
   @Override
   public void markSenderKeySharedWith(DistributionId distributionId, Collection<SignalProtocolAddress> addresses) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(addresses)) {
       SignalDatabase.senderKeyShared().markAsShared(distributionId, addresses);
     }
   }
 
   @Override
   public void clearSenderKeySharedWith(Collection<SignalProtocolAddress> addresses) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(addresses)) {
       SignalDatabase.senderKeyShared().deleteAllFor(addresses);
     }
   }
@@ -70,7 +70,7 @@ public final class SignalSenderKeyStore implements SignalServiceSenderKeyStore {
    * Removes all sender key session state for all devices for the provided recipient-distributionId pair.
    */
   public void deleteAllFor(@NonNull String addressName, @NonNull DistributionId distributionId) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(addressName)) {
       SignalDatabase.senderKeys().deleteAllFor(addressName, distributionId);
     }
   }
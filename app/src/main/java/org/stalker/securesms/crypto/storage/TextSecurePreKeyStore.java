@@ -29,7 +29,7 @@ public class TextSecurePreKeyStore implements SignalServicePreKeyStore, SignedPr
 
   @Override
   public PreKeyRecord loadPreKey(int preKeyId) throws InvalidKeyIdException {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquirePreKeys()) {
       PreKeyRecord preKeyRecord = SignalDatabase.oneTimePreKeys().get(accountId, preKeyId);
 
       if (preKeyRecord == null) throw new InvalidKeyIdException("No such key: " + preKeyId);
@@ -39,7 +39,7 @@ public class TextSecurePreKeyStore implements SignalServicePreKeyStore, SignedPr
 
   @Override
   public SignedPreKeyRecord loadSignedPreKey(int signedPreKeyId) throws InvalidKeyIdException {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquirePreKeys()) {
       SignedPreKeyRecord signedPreKeyRecord = SignalDatabase.signedPreKeys().get(accountId, signedPreKeyId);
 
       if (signedPreKeyRecord == null) throw new InvalidKeyIdException("No such signed prekey: " + signedPreKeyId);
@@ -49,21 +49,21 @@ public class TextSecurePreKeyStore implements SignalServicePreKeyStore, SignedPr
 
   @Override
   public List<SignedPreKeyRecord> loadSignedPreKeys() {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquirePreKeys()) {
       return SignalDatabase.signedPreKeys().getAll(accountId);
     }
   }
 
   @Override
   public void storePreKey(int preKeyId, PreKeyRecord record) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquirePreKeys()) {
       SignalDatabase.oneTimePreKeys().insert(accountId, preKeyId, record);
     }
   }
 
   @Override
   public void storeSignedPreKey(int signedPreKeyId, SignedPreKeyRecord record) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquirePreKeys()) {
       SignalDatabase.signedPreKeys().insert(accountId, signedPreKeyId, record);
     }
   }
@@ -34,7 +34,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       SessionRecord sessionRecord = SignalDatabase.sessions().load(accountId, address);
 
       if (sessionRecord == null) {
@@ -48,7 +48,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public List<SessionRecord> loadExistingSessions(List<SignalProtocolAddress> addresses) throws NoSessionException {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(addresses)) {
       List<SessionRecord> sessionRecords = SignalDatabase.sessions().load(accountId, addresses);
 
       if (sessionRecords.size() != addresses.size()) {
@@ -67,14 +67,14 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       SignalDatabase.sessions().store(accountId, address, record);
     }
   }
 
   @Override
   public boolean containsSession(SignalProtocolAddress address) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       SessionRecord sessionRecord = SignalDatabase.sessions().load(accountId, address);
 
       return sessionRecord != null && sessionRecord.hasSenderChain();
@@ -83,7 +83,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       Log.w(TAG, "Deleting session for " + address);
       SignalDatabase.sessions().delete(accountId, address);
     }
@@ -91,7 +91,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public void deleteAllSessions(String name) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(name)) {
       Log.w(TAG, "Deleting all sessions for " + name);
       SignalDatabase.sessions().deleteAllFor(accountId, name);
     }
@@ -99,14 +99,14 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public List<Integer> getSubDeviceSessions(String name) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(name)) {
       return SignalDatabase.sessions().getSubDevices(accountId, name);
     }
   }
 
   @Override
   public Map<SignalProtocolAddress, SessionRecord> getAllAddressesWithActiveSessions(List<String> addressNames) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquireAll(addressNames)) {
       return SignalDatabase.sessions()
                            .getAllFor(accountId, addressNames)
                            .stream()
@@ -117,7 +117,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
 
   @Override
   public void archiveSession(SignalProtocolAddress address) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       SessionRecord session = SignalDatabase.sessions().load(accountId, address);
       if (session != null) {
         session.archiveCurrentState();
@@ -127,7 +127,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
   }
   
   public void archiveSession(@NonNull ServiceId serviceId, int deviceId) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(serviceId)) {
       archiveSession(new SignalProtocolAddress(serviceId.toString(), deviceId));
     }
   }
@@ -151,7 +151,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
   }
 
   public void archiveSiblingSessions(@NonNull SignalProtocolAddress address) {
-    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire(address)) {
       List<SessionTable.SessionRow> sessions = SignalDatabase.sessions().getAllFor(accountId, address.getName());
 
       for (SessionTable.SessionRow row : sessions) {
@@ -72,6 +72,7 @@ import org.stalker.securesms.crypto.ModernEncryptingPartOutputStream
 import org.stalker.securesms.database.SignalDatabase.Companion.messages
 import org.stalker.securesms.database.SignalDatabase.Companion.stickers
 import org.stalker.securesms.database.SignalDatabase.Companion.threads
+import org.stalker.securesms.database.model.MessageId
 import org.stalker.securesms.database.model.databaseprotos.AudioWaveFormData
 import org.stalker.securesms.dependencies.ApplicationDependencies
 import org.stalker.securesms.jobs.AttachmentDownloadJob
@@ -610,7 +611,7 @@ class AttachmentTable(
 
       val threadId = messages.getThreadIdForMessage(messageId)
       if (threadId > 0) {
-        notifyConversationListeners(threadId)
+        notifyConversationListeners(threadId, MessageId(messageId))
       }
     }
   }
@@ -733,7 +734,7 @@ class AttachmentTable(
       .run()
 
     val threadId = messages.getThreadIdForMessage(messageId)
-    notifyConversationListeners(threadId)
+    notifyConversationListeners(threadId, MessageId(messageId))
   }
 
   @Throws(MmsException::class)
@@ -744,7 +745,7 @@ class AttachmentTable(
       .where("$ID = ? AND $TRANSFER_STATE < $TRANSFER_PROGRESS_PERMANENT_FAILURE", attachmentId.id)
       .run()
 
-    notifyConversationListeners(messages.getThreadIdForMessage(mmsId))
+    notifyConversationListeners(messages.getThreadIdForMessage(mmsId), MessageId(mmsId))
   }
 
   @Throws(MmsException::class)
@@ -755,7 +756,7 @@ class AttachmentTable(
       .where("$ID = ?", attachmentId.id)
       .run()
 
-    notifyConversationListeners(messages.getThreadIdForMessage(mmsId))
+    notifyConversationListeners(messages.getThreadIdForMessage(mmsId), MessageId(mmsId))
   }
 
   /**
@@ -825,7 +826,7 @@ class AttachmentTable(
       threads.updateSnippetUriSilently(threadId, PartAuthority.getAttachmentDataUri(attachmentId))
     }
 
-    notifyConversationListeners(threadId)
+    notifyConversationListeners(threadId, MessageId(mmsId))
     notifyConversationListListeners()
     notifyAttachmentListeners()
 
@@ -1330,7 +1331,7 @@ class AttachmentTable(
       .run()
 
     val threadId = messages.getThreadIdForMessage(messageId)
-    notifyConversationListeners(threadId)
+    notifyConversationListeners(threadId, MessageId(messageId))
   }
 
   fun getAttachments(cursor: Cursor): List<DatabaseAttachment> {
@@ -1677,36 +1678,7 @@ class AttachmentTable(
     Log.d(TAG, "[insertAttachment] Inserting attachment for messageId $messageId.")
 
     val attachmentId: AttachmentId = writableDatabase.withinTransaction { db ->
-      val contentValues = ContentValues().apply {
-        put(MESSAGE_ID, messageId)
-        put(CONTENT_TYPE, attachment.contentType)
-        put(TRANSFER_STATE, attachment.transferState)
-        put(CDN_NUMBER, attachment.cdn.serialize())
-        put(REMOTE_LOCATION, attachment.remoteLocation)
-        put(REMOTE_DIGEST, attachment.remoteDigest)
-        put(REMOTE_INCREMENTAL_DIGEST, attachment.incrementalDigest)
-        put(REMOTE_INCREMENTAL_DIGEST_CHUNK_SIZE, attachment.incrementalMacChunkSize)
-        put(REMOTE_KEY, attachment.remoteKey)
-        put(FILE_NAME, StorageUtil.getCleanFileName(attachment.fileName))
-        put(DATA_SIZE, attachment.size)
-        put(FAST_PREFLIGHT_ID, attachment.fastPreflightId)
-        put(VOICE_NOTE, attachment.voiceNote.toInt())
-        put(BORDERLESS, attachment.borderless.toInt())
-        put(VIDEO_GIF, attachment.videoGif.toInt())
-        put(WIDTH, attachment.width)
-        put(HEIGHT, attachment.height)
-        put(QUOTE, quote)
-        put(CAPTION, attachment.caption)
-        put(UPLOAD_TIMESTAMP, attachment.uploadTimestamp)
-        put(BLUR_HASH, attachment.blurHash?.hash)
-
-        attachment.stickerLocator?.let { sticker ->
-          put(STICKER_PACK_ID, sticker.packId)
-          put(STICKER_PACK_KEY, sticker.packKey)
-          put(STICKER_ID, sticker.stickerId)
-          put(STICKER_EMOJI, sticker.emoji)
-        }
-      }
+      val contentValues = buildUndownloadedAttachmentContentValues(messageId, attachment, quote)
 
       val rowId = db.insert(TABLE_NAME, null, contentValues)
       AttachmentId(rowId)
@@ -1728,39 +1700,7 @@ class AttachmentTable(
     Log.d(TAG, "[insertAttachment] Inserting attachment for messageId $messageId.")
 
     val attachmentId: AttachmentId = writableDatabase.withinTransaction { db ->
-      val contentValues = ContentValues().apply {
-        put(MESSAGE_ID, messageId)
-        put(CONTENT_TYPE, attachment.contentType)
-        put(TRANSFER_STATE, attachment.transferState)
-        put(CDN_NUMBER, attachment.cdn.serialize())
-        put(REMOTE_LOCATION, attachment.remoteLocation)
-        put(REMOTE_DIGEST, attachment.remoteDigest)
-        put(REMOTE_INCREMENTAL_DIGEST, attachment.incrementalDigest)
-        put(REMOTE_INCREMENTAL_DIGEST_CHUNK_SIZE, attachment.incrementalMacChunkSize)
-        put(REMOTE_KEY, attachment.remoteKey)
-        put(FILE_NAME, StorageUtil.getCleanFileName(attachment.fileName))
-        put(DATA_SIZE, attachment.size)
-        put(FAST_PREFLIGHT_ID, attachment.fastPreflightId)
-        put(VOICE_NOTE, attachment.voiceNote.toInt())
-        put(BORDERLESS, attachment.borderless.toInt())
-        put(VIDEO_GIF, attachment.videoGif.toInt())
-        put(WIDTH, attachment.width)
-        put(HEIGHT, attachment.height)
-        put(QUOTE, quote)
-        put(CAPTION, attachment.caption)
-        put(UPLOAD_TIMESTAMP, attachment.uploadTimestamp)
-        put(ARCHIVE_CDN, attachment.archiveCdn)
-        put(ARCHIVE_MEDIA_NAME, attachment.archiveMediaName)
-        put(ARCHIVE_MEDIA_ID, attachment.archiveMediaId)
-        put(ARCHIVE_THUMBNAIL_MEDIA_ID, attachment.archiveThumbnailMediaId)
-
-        attachment.stickerLocator?.let { sticker ->
-          put(STICKER_PACK_ID, sticker.packId)
-          put(STICKER_PACK_KEY, sticker.packKey)
-          put(STICKER_ID, sticker.stickerId)
-          put(STICKER_EMOJI, sticker.emoji)
-        }
-      }
+      val contentValues = buildArchivedAttachmentContentValues(messageId, attachment, quote)
 
       val rowId = db.insert(TABLE_NAME, null, contentValues)
       AttachmentId(rowId)
@@ -1770,6 +1710,89 @@ class AttachmentTable(
     return attachmentId
   }
 
+  /**
+   * Builds the row for an attachment that doesn't have any local data yet, exactly as [insertAttachmentsForMessage] would insert it. Lets
+   * a backup restore insert the attachments for a whole batch of messages at once.
+   */
+  fun buildUndownloadedAttachmentContentValuesForRestore(messageId: Long, attachment: Attachment, quote: Boolean): ContentValues {
+    require(attachment.uri == null) { "Attachment has data!" }
+
+    return if (attachment is ArchivedAttachment) {
+      buildArchivedAttachmentContentValues(messageId, attachment, quote)
+    } else {
+      buildUndownloadedAttachmentContentValues(messageId, attachment, quote)
+    }
+  }
+
+  private fun buildUndownloadedAttachmentContentValues(messageId: Long, attachment: Attachment, quote: Boolean): ContentValues {
+    return ContentValues().apply {
+      put(MESSAGE_ID, messageId)
+      put(CONTENT_TYPE, attachment.contentType)
+      put(TRANSFER_STATE, attachment.transferState)
+      put(CDN_NUMBER, attachment.cdn.serialize())
+      put(REMOTE_LOCATION, attachment.remoteLocation)
+      put(REMOTE_DIGEST, attachment.remoteDigest)
+      put(REMOTE_INCREMENTAL_DIGEST, attachment.incrementalDigest)
+      put(REMOTE_INCREMENTAL_DIGEST_CHUNK_SIZE, attachment.incrementalMacChunkSize)
+      put(REMOTE_KEY, attachment.remoteKey)
+      put(FILE_NAME, StorageUtil.getCleanFileName(attachment.fileName))
+      put(DATA_SIZE, attachment.size)
+      put(FAST_PREFLIGHT_ID, attachment.fastPreflightId)
+      put(VOICE_NOTE, attachment.voiceNote.toInt())
+      put(BORDERLESS, attachment.borderless.toInt())
+      put(VIDEO_GIF, attachment.videoGif.toInt())
+      put(WIDTH, attachment.width)
+      put(HEIGHT, attachment.height)
+      put(QUOTE, quote)
+      put(CAPTION, attachment.caption)
+      put(UPLOAD_TIMESTAMP, attachment.uploadTimestamp)
+      put(BLUR_HASH, attachment.blurHash?.hash)
+
+      attachment.stickerLocator?.let { sticker ->
+        put(STICKER_PACK_ID, sticker.packId)
+        put(STICKER_PACK_KEY, sticker.packKey)
+        put(STICKER_ID, sticker.stickerId)
+        put(STICKER_EMOJI, sticker.emoji)
+      }
+    }
+  }
+
+  private fun buildArchivedAttachmentContentValues(messageId: Long, attachment: ArchivedAttachment, quote: Boolean): ContentValues {
+    return ContentValues().apply {
+      put(MESSAGE_ID, messageId)
+      put(CONTENT_TYPE, attachment.contentType)
+      put(TRANSFER_STATE, attachment.transferState)
+      put(CDN_NUMBER, attachment.cdn.serialize())
+      put(REMOTE_LOCATION, attachment.remoteLocation)
+      put(REMOTE_DIGEST, attachment.remoteDigest)
+      put(REMOTE_INCREMENTAL_DIGEST, attachment.incrementalDigest)
+      put(REMOTE_INCREMENTAL_DIGEST_CHUNK_SIZE, attachment.incrementalMacChunkSize)
+      put(REMOTE_KEY, attachment.remoteKey)
+      put(FILE_NAME, StorageUtil.getCleanFileName(attachment.fileName))
+      put(DATA_SIZE, attachment.size)
+      put(FAST_PREFLIGHT_ID, attachment.fastPreflightId)
+      put(VOICE_NOTE, attachment.voiceNote.toInt())
+      put(BORDERLESS, attachment.borderless.toInt())
+      put(VIDEO_GIF, attachment.videoGif.toInt())
+      put(WIDTH, attachment.width)
+      put(HEIGHT, attachment.height)
+      put(QUOTE, quote)
+      put(CAPTION, attachment.caption)
+      put(UPLOAD_TIMESTAMP, attachment.uploadTimestamp)
+      put(ARCHIVE_CDN, attachment.archiveCdn)
+      put(ARCHIVE_MEDIA_NAME, attachment.archiveMediaName)
+      put(ARCHIVE_MEDIA_ID, attachment.archiveMediaId)
+      put(ARCHIVE_THUMBNAIL_MEDIA_ID, attachment.archiveThumbnailMediaId)
+
+      attachment.stickerLocator?.let { sticker ->
+        put(STICKER_PACK_ID, sticker.packId)
+        put(STICKER_PACK_KEY, sticker.packKey)
+        put(STICKER_ID, sticker.stickerId)
+        put(STICKER_EMOJI, sticker.emoji)
+      }
+    }
+  }
+
   /**
    * Inserts an attachment with existing data. This is likely an outgoing attachment that we're in the process of sending.
    */
@@ -1,22 +1,30 @@
 package org.stalker.securesms.database
 
 import android.content.ContentValues
+import net.zetetic.database.sqlcipher.SQLiteDatabase
 
 object DatabaseMonitor {
   private var queryMonitor: QueryMonitor? = null
 
+  private val statementCache = StatementCacheTracker(SQLiteDatabase.MAX_SQL_CACHE_SIZE)
+
   fun initialize(queryMonitor: QueryMonitor?) {
     DatabaseMonitor.queryMonitor = queryMonitor
+    statementCache.reset()
   }
 
   @JvmStatic
   fun onSql(sql: String, args: Array<Any>?) {
-    queryMonitor?.onSql(sql, args)
+    val monitor = queryMonitor ?: return
+    monitor.onSql(sql, args)
+    onStatement(monitor, sql)
   }
 
   @JvmStatic
   fun onQuery(distinct: Boolean, table: String, projection: Array<String>?, selection: String?, args: Array<Any>?, groupBy: String?, having: String?, orderBy: String?, limit: String?) {
-    queryMonitor?.onQuery(distinct, table, projection, selection, args, groupBy, having, orderBy, limit)
+    val monitor = queryMonitor ?: return
+    monitor.onQuery(distinct, table, projection, selection, args, groupBy, having, orderBy, limit)
+    onStatement(monitor, "$distinct|$table|${projection?.joinToString(",")}|$selection|$groupBy|$having|$orderBy|$limit")
   }
 
   @JvmStatic
@@ -28,4 +36,9 @@ object DatabaseMonitor {
   fun onUpdate(table: String, values: ContentValues, selection: String?, args: Array<Any>?) {
     queryMonitor?.onUpdate(table, values, selection, args)
   }
+
+  private fun onStatement(monitor: QueryMonitor, key: String) {
+    val hit = statementCache.record(key)
+    monitor.onStatementCacheLookup(hit, statementCache.hitRate)
+  }
 }
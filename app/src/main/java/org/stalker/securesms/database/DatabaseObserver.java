@@ -1,11 +1,13 @@
 package org.stalker.securesms.database;
 
 import android.app.Application;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
 import org.jetbrains.annotations.NotNull;
+import org.signal.core.util.ThreadUtil;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.stalker.securesms.database.model.MessageId;
 import org.stalker.securesms.recipients.Recipient;
@@ -14,11 +16,14 @@ import org.stalker.securesms.service.webrtc.links.CallLinkRoomId;
 import org.stalker.securesms.util.concurrent.SerialExecutor;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 
@@ -26,6 +31,9 @@ import java.util.concurrent.Executor;
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link DatabaseTable}. We should move to this over time.
+ *
+ * Notifications are deduplicated by key within a transaction, and then again across a short window after it commits, so a burst of
+ * writes results in each observer being told once.
  */
 public class DatabaseObserver {
 
@@ -42,54 +50,78 @@ public class DatabaseObserver {
   private static final String KEY_MESSAGE_INSERT        = "MessageInsert:";
   private static final String KEY_NOTIFICATION_PROFILES = "NotificationProfiles";
   private static final String KEY_RECIPIENT             = "Recipient";
-  private static final String KEY_STORY_OBSERVER        = "Story";
+  private static final String KEY_STORY_OBSERVER        = "Story:";
   private static final String KEY_SCHEDULED_MESSAGES    = "ScheduledMessages";
   private static final String KEY_CONVERSATION_DELETES  = "ConversationDeletes";
+  private static final String KEY_ALL_CONVERSATIONS     = "AllConversations";
+  private static final String KEY_CONVERSATION_WRITE    = "ConversationWrite:";
+  private static final String KEY_RECIPIENT_WRITE       = "RecipientWrite";
 
   private static final String KEY_CALL_UPDATES          = "CallUpdates";
-  private static final String KEY_CALL_LINK_UPDATES     = "CallLinkUpdates";
+  private static final String KEY_CALL_LINK_UPDATES     = "CallLinkUpdates:";
+
+  /** How long to wait after the first notification for more to arrive before delivering them all. About one frame. */
+  private static final long COALESCE_WINDOW_MS = 16;
 
   private final Application application;
   private final Executor    executor;
-
-  private final Set<Observer>                      conversationListObservers;
-  private final Map<Long, Set<Observer>>           conversationObservers;
-  private final Map<Long, Set<Observer>>           verboseConversationObservers;
-  private final Map<Long, Set<Observer>>           conversationDeleteObservers;
-  private final Map<UUID, Set<Observer>>           paymentObservers;
-  private final Map<Long, Set<Observer>>           scheduledMessageObservers;
-  private final Set<Observer>                      allPaymentsObservers;
-  private final Set<Observer>                      chatColorsObservers;
-  private final Set<Observer>                      stickerObservers;
-  private final Set<Observer>                      stickerPackObservers;
-  private final Set<Observer>                      attachmentObservers;
-  private final Set<MessageObserver>               messageUpdateObservers;
-  private final Map<Long, Set<MessageObserver>>    messageInsertObservers;
-  private final Set<Observer>                      notificationProfileObservers;
-  private final Map<RecipientId, Set<Observer>>    storyObservers;
-  private final Set<Observer>                      callUpdateObservers;
-  private final Map<CallLinkRoomId, Set<Observer>> callLinkObservers;
+  private final Handler     coalesceHandler;
+  private final Runnable    coalesceFlush;
+
+  private final Object                                     pendingLock = new Object();
+  private       Map<String, Runnable>                      pendingNotifications;
+  private final Map<Long, ConversationChanges>             pendingConversationChanges;
+
+  private final Set<Observer>                              conversationListObservers;
+  private final Map<Long, Set<Observer>>                   conversationObservers;
+  private final Map<Long, Set<ConversationChangeObserver>> conversationChangeObservers;
+  private final Set<ConversationChangeObserver>            allConversationChangeObservers;
+  private final Map<Long, Set<Observer>>                   verboseConversationObservers;
+  private final Map<Long, Set<Observer>>                   conversationDeleteObservers;
+  private final Map<UUID, Set<Observer>>                   paymentObservers;
+  private final Map<Long, Set<Observer>>                   scheduledMessageObservers;
+  private final Set<Observer>                              allPaymentsObservers;
+  private final Set<Observer>                              chatColorsObservers;
+  private final Set<Observer>                              stickerObservers;
+  private final Set<Observer>                              stickerPackObservers;
+  private final Set<Observer>                              attachmentObservers;
+  private final Set<MessageObserver>                       messageUpdateObservers;
+  private final Map<Long, Set<MessageObserver>>            messageInsertObservers;
+  private final Set<Observer>                              notificationProfileObservers;
+  private final Map<RecipientId, Set<Observer>>            storyObservers;
+  private final Set<Observer>                              callUpdateObservers;
+  private final Map<CallLinkRoomId, Set<Observer>>         callLinkObservers;
+  private final Set<ConversationWriteListener>             conversationWriteListeners;
+  private final Set<RecipientWriteListener>                recipientWriteListeners;
 
   public DatabaseObserver(Application application) {
-    this.application                  = application;
-    this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
-    this.conversationListObservers    = new HashSet<>();
-    this.conversationObservers        = new HashMap<>();
-    this.verboseConversationObservers = new HashMap<>();
-    this.conversationDeleteObservers  = new HashMap<>();
-    this.paymentObservers             = new HashMap<>();
-    this.allPaymentsObservers         = new HashSet<>();
-    this.chatColorsObservers          = new HashSet<>();
-    this.stickerObservers             = new HashSet<>();
-    this.stickerPackObservers         = new HashSet<>();
-    this.attachmentObservers          = new HashSet<>();
-    this.messageUpdateObservers       = new HashSet<>();
-    this.messageInsertObservers       = new HashMap<>();
-    this.notificationProfileObservers = new HashSet<>();
-    this.storyObservers               = new HashMap<>();
-    this.scheduledMessageObservers    = new HashMap<>();
-    this.callUpdateObservers          = new HashSet<>();
-    this.callLinkObservers            = new HashMap<>();
+    this.application                    = application;
+    this.executor                       = new SerialExecutor(SignalExecutors.BOUNDED);
+    this.coalesceHandler                = new Handler(SignalExecutors.getAndStartHandlerThread("signal-db-observer", ThreadUtil.PRIORITY_BACKGROUND_THREAD).getLooper());
+    this.coalesceFlush                  = () -> executor.execute(this::deliverPendingNotifications);
+    this.pendingNotifications           = new LinkedHashMap<>();
+    this.pendingConversationChanges     = new HashMap<>();
+    this.conversationListObservers      = new HashSet<>();
+    this.conversationObservers          = new HashMap<>();
+    this.conversationChangeObservers    = new HashMap<>();
+    this.allConversationChangeObservers = new HashSet<>();
+    this.verboseConversationObservers   = new HashMap<>();
+    this.conversationDeleteObservers    = new HashMap<>();
+    this.paymentObservers               = new HashMap<>();
+    this.allPaymentsObservers           = new HashSet<>();
+    this.chatColorsObservers            = new HashSet<>();
+    this.stickerObservers               = new HashSet<>();
+    this.stickerPackObservers           = new HashSet<>();
+    this.attachmentObservers            = new HashSet<>();
+    this.messageUpdateObservers         = new HashSet<>();
+    this.messageInsertObservers         = new HashMap<>();
+    this.notificationProfileObservers   = new HashSet<>();
+    this.storyObservers                 = new HashMap<>();
+    this.scheduledMessageObservers      = new HashMap<>();
+    this.callUpdateObservers            = new HashSet<>();
+    this.callLinkObservers              = new HashMap<>();
+    this.conversationWriteListeners     = new CopyOnWriteArraySet<>();
+    this.recipientWriteListeners        = new CopyOnWriteArraySet<>();
   }
 
   public void registerConversationListObserver(@NonNull Observer listener) {
@@ -104,6 +136,43 @@ public class DatabaseObserver {
     });
   }
 
+  /**
+   * Like {@link #registerConversationObserver(long, Observer)}, but is told which messages changed when a change was limited to specific
+   * messages, so that callers can refresh just those items rather than everything.
+   */
+  public void registerConversationChangeObserver(long threadId, @NonNull ConversationChangeObserver listener) {
+    executor.execute(() -> {
+      registerMapped(conversationChangeObservers, threadId, listener);
+    });
+  }
+
+  /**
+   * Like {@link #registerConversationChangeObserver(long, ConversationChangeObserver)}, but for every conversation. These observers are
+   * always told about a change before any conversation-specific observers, so they're suitable for invalidating caches those observers
+   * may read from.
+   */
+  public void registerAllConversationsChangeObserver(@NonNull ConversationChangeObserver listener) {
+    executor.execute(() -> {
+      allConversationChangeObservers.add(listener);
+    });
+  }
+
+  /**
+   * Unlike the other observers, these are told synchronously on the thread that made the change, as soon as its transaction commits, and
+   * without any coalescing across transactions. That makes them suitable for invalidating caches that may be read right after a write, but
+   * they have to be very cheap.
+   */
+  public void registerConversationWriteListener(@NonNull ConversationWriteListener listener) {
+    conversationWriteListeners.add(listener);
+  }
+
+  /**
+   * Told synchronously like {@link ConversationWriteListener}s, so the same rules apply.
+   */
+  public void registerRecipientWriteListener(@NonNull RecipientWriteListener listener) {
+    recipientWriteListeners.add(listener);
+  }
+
   public void registerVerboseConversationObserver(long threadId, @NonNull Observer listener) {
     executor.execute(() -> {
       registerMapped(verboseConversationObservers, threadId, listener);
@@ -221,6 +290,21 @@ public class DatabaseObserver {
     });
   }
 
+  public void unregisterObserver(@NonNull ConversationChangeObserver listener) {
+    executor.execute(() -> {
+      unregisterMapped(conversationChangeObservers, listener);
+      allConversationChangeObservers.remove(listener);
+    });
+  }
+
+  public void unregisterConversationWriteListener(@NonNull ConversationWriteListener listener) {
+    conversationWriteListeners.remove(listener);
+  }
+
+  public void unregisterRecipientWriteListener(@NonNull RecipientWriteListener listener) {
+    recipientWriteListeners.remove(listener);
+  }
+
   public void notifyConversationListeners(Set<Long> threadIds) {
     for (long threadId : threadIds) {
       notifyConversationListeners(threadId);
@@ -228,16 +312,37 @@ public class DatabaseObserver {
   }
 
   public void notifyConversationListeners(long threadId) {
-    runPostSuccessfulTransaction(KEY_CONVERSATION + threadId, () -> {
-      notifyMapped(conversationObservers, threadId);
-      notifyMapped(verboseConversationObservers, threadId);
+    SignalDatabase.runPostSuccessfulTransaction(KEY_CONVERSATION + threadId, () -> {
+      notifyConversationWritten(threadId);
+      synchronized (pendingLock) {
+        getPendingConversationChanges(threadId).fullInvalidation = true;
+      }
+      enqueueNotification(KEY_CONVERSATION + threadId, () -> deliverConversationChanges(threadId));
+    });
+  }
+
+  /**
+   * For changes to a conversation that only affect a single existing message (its status, attachments, etc.), rather than the set or order
+   * of messages. Message update observers are notified for the message as well, so there's no need to also call
+   * {@link #notifyMessageUpdateObservers(MessageId)}.
+   */
+  public void notifyConversationListeners(long threadId, @NonNull MessageId messageId) {
+    notifyMessageUpdateObservers(messageId);
+
+    SignalDatabase.runPostSuccessfulTransaction(KEY_CONVERSATION + threadId + ":" + messageId, () -> {
+      notifyConversationWritten(threadId);
+      synchronized (pendingLock) {
+        getPendingConversationChanges(threadId).messageIds.add(messageId);
+      }
+      enqueueNotification(KEY_CONVERSATION + threadId, () -> deliverConversationChanges(threadId));
     });
   }
 
   public void notifyVerboseConversationListeners(Set<Long> threadIds) {
     for (long threadId : threadIds) {
-      runPostSuccessfulTransaction(KEY_VERBOSE_CONVERSATION + threadId, () -> {
-        notifyMapped(verboseConversationObservers, threadId);
+      SignalDatabase.runPostSuccessfulTransaction(KEY_VERBOSE_CONVERSATION + threadId, () -> {
+        notifyConversationWritten(threadId);
+        enqueueNotification(KEY_VERBOSE_CONVERSATION + threadId, () -> notifyMapped(verboseConversationObservers, threadId));
       });
     }
   }
@@ -249,8 +354,21 @@ public class DatabaseObserver {
   }
 
   public void notifyConversationDeleteListeners(long threadId) {
-    runPostSuccessfulTransaction(KEY_CONVERSATION_DELETES + threadId, () -> {
-      notifyMapped(conversationDeleteObservers, threadId);
+    SignalDatabase.runPostSuccessfulTransaction(KEY_CONVERSATION_DELETES + threadId, () -> {
+      notifyConversationWritten(threadId);
+      enqueueNotification(KEY_CONVERSATION_DELETES + threadId, () -> notifyMapped(conversationDeleteObservers, threadId));
+    });
+  }
+
+  /**
+   * For bulk writes that may have changed any conversation without saying which, like deleting all of them. Only
+   * {@link ConversationWriteListener}s are told.
+   */
+  public void notifyAllConversationsWritten() {
+    SignalDatabase.runPostSuccessfulTransaction(KEY_ALL_CONVERSATIONS, () -> {
+      for (ConversationWriteListener listener : conversationWriteListeners) {
+        listener.onAllConversationsWritten();
+      }
     });
   }
 
@@ -324,21 +442,30 @@ public class DatabaseObserver {
 
   public void notifyRecipientChanged(@NonNull RecipientId recipientId) {
     SignalDatabase.runPostSuccessfulTransaction(KEY_RECIPIENT + recipientId.serialize(), () -> {
+      notifyRecipientWritten(recipientId);
       Recipient.live(recipientId).refresh();
     });
   }
 
+  /**
+   * For writes to a recipient's data that live outside of the recipient table, like a group's title, where the caller refreshes the
+   * recipient itself. Only {@link RecipientWriteListener}s are told.
+   */
+  public void notifyRecipientWriteListeners(@NonNull RecipientId recipientId) {
+    SignalDatabase.runPostSuccessfulTransaction(KEY_RECIPIENT_WRITE + recipientId.serialize(), () -> {
+      notifyRecipientWritten(recipientId);
+    });
+  }
+
   public void notifyStoryObservers(@NonNull RecipientId recipientId) {
-    runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
+    runPostSuccessfulTransaction(KEY_STORY_OBSERVER + recipientId.serialize(), () -> {
       notifyMapped(storyObservers, recipientId);
     });
   }
 
   public void notifyStoryObservers(@NonNull Collection<RecipientId> recipientIds) {
     for (RecipientId recipientId : recipientIds) {
-      runPostSuccessfulTransaction(KEY_STORY_OBSERVER, () -> {
-        notifyMapped(storyObservers, recipientId);
-      });
+      notifyStoryObservers(recipientId);
     }
   }
 
@@ -352,16 +479,105 @@ public class DatabaseObserver {
     runPostSuccessfulTransaction(KEY_CALL_UPDATES, () -> notifySet(callUpdateObservers));
   }
 
+  /**
+   * For writes to a conversation that nothing showing it cares about, like whether a message has been notified. Only
+   * {@link ConversationWriteListener}s are told.
+   */
+  public void notifyConversationWriteListeners(long threadId) {
+    SignalDatabase.runPostSuccessfulTransaction(KEY_CONVERSATION_WRITE + threadId, () -> notifyConversationWritten(threadId));
+  }
+
   public void notifyCallLinkObservers(@NonNull CallLinkRoomId callLinkRoomId) {
-    runPostSuccessfulTransaction(KEY_CALL_LINK_UPDATES, () -> notifyMapped(callLinkObservers, callLinkRoomId));
+    runPostSuccessfulTransaction(KEY_CALL_LINK_UPDATES + callLinkRoomId, () -> notifyMapped(callLinkObservers, callLinkRoomId));
+  }
+
+  private void notifyConversationWritten(long threadId) {
+    for (ConversationWriteListener listener : conversationWriteListeners) {
+      listener.onConversationWritten(threadId);
+    }
+  }
+
+  private void notifyRecipientWritten(@NonNull RecipientId recipientId) {
+    for (RecipientWriteListener listener : recipientWriteListeners) {
+      listener.onRecipientWritten(recipientId);
+    }
   }
 
   private void runPostSuccessfulTransaction(@NonNull String dedupeKey, @NonNull Runnable runnable) {
     SignalDatabase.runPostSuccessfulTransaction(dedupeKey, () -> {
-      executor.execute(runnable);
+      enqueueNotification(dedupeKey, runnable);
     });
   }
 
+  /**
+   * Queues a notification for delivery at the end of the current coalescing window. If a notification with the same key is already queued,
+   * this one is dropped.
+   */
+  private void enqueueNotification(@NonNull String key, @NonNull Runnable runnable) {
+    synchronized (pendingLock) {
+      boolean wasEmpty = pendingNotifications.isEmpty();
+
+      if (!pendingNotifications.containsKey(key)) {
+        pendingNotifications.put(key, runnable);
+      }
+
+      if (wasEmpty) {
+        coalesceHandler.postDelayed(coalesceFlush, COALESCE_WINDOW_MS);
+      }
+    }
+  }
+
+  private void deliverPendingNotifications() {
+    Map<String, Runnable> notifications;
+
+    synchronized (pendingLock) {
+      coalesceHandler.removeCallbacks(coalesceFlush);
+      notifications        = pendingNotifications;
+      pendingNotifications = new LinkedHashMap<>();
+    }
+
+    for (Runnable notification : notifications.values()) {
+      notification.run();
+    }
+  }
+
+  private @NonNull ConversationChanges getPendingConversationChanges(long threadId) {
+    ConversationChanges changes = pendingConversationChanges.get(threadId);
+
+    if (changes == null) {
+      changes = new ConversationChanges(threadId);
+      pendingConversationChanges.put(threadId, changes);
+    }
+
+    return changes;
+  }
+
+  private void deliverConversationChanges(long threadId) {
+    ConversationChanges changes;
+
+    synchronized (pendingLock) {
+      changes = pendingConversationChanges.remove(threadId);
+    }
+
+    if (changes == null) {
+      return;
+    }
+
+    for (ConversationChangeObserver listener : allConversationChangeObservers) {
+      listener.onConversationChanged(changes);
+    }
+
+    notifyMapped(conversationObservers, threadId);
+    notifyMapped(verboseConversationObservers, threadId);
+
+    Set<ConversationChangeObserver> listeners = conversationChangeObservers.get(threadId);
+    if (listeners != null) {
+      for (ConversationChangeObserver listener : listeners) {
+        listener.onConversationChanged(changes);
+      }
+    }
+  }
+
   private <K, V> void registerMapped(@NonNull Map<K, Set<V>> map, @NonNull K key, @NonNull V listener) {
     Set<V> listeners = map.get(key);
 
@@ -396,11 +612,13 @@ public class DatabaseObserver {
   }
 
   /**
-   * Blocks until the executor is empty. Only intended to be used for testing.
+   * Delivers any pending notifications without waiting for the coalescing window, then blocks until the executor is empty. Only intended
+   * to be used for testing.
    */
   @VisibleForTesting
   void flush() {
     CountDownLatch latch = new CountDownLatch(1);
+    executor.execute(this::deliverPendingNotifications);
     executor.execute(latch::countDown);
 
     try {
@@ -421,4 +639,64 @@ public class DatabaseObserver {
   public interface MessageObserver {
     void onMessageChanged(@NonNull MessageId messageId);
   }
+
+  public interface ConversationWriteListener {
+    /**
+     * Called on the writing thread right after a transaction that changed the conversation commits.
+     */
+    void onConversationWritten(long threadId);
+
+    /**
+     * Called on the writing thread right after a transaction that may have changed any conversation commits.
+     */
+    void onAllConversationsWritten();
+  }
+
+  public interface RecipientWriteListener {
+    /**
+     * Called on the writing thread right after a transaction that changed the recipient commits.
+     */
+    void onRecipientWritten(@NonNull RecipientId recipientId);
+  }
+
+  public interface ConversationChangeObserver {
+    /**
+     * Called with everything that changed in the conversation since the last call. Executed on a serial executor, so don't do any
+     * long-running tasks!
+     */
+    void onConversationChanged(@NonNull ConversationChanges changes);
+  }
+
+  /**
+   * The set of changes to a conversation delivered in one notification.
+   */
+  public static final class ConversationChanges {
+    private final long           threadId;
+    private final Set<MessageId> messageIds;
+    private       boolean        fullInvalidation;
+
+    private ConversationChanges(long threadId) {
+      this.threadId   = threadId;
+      this.messageIds = new HashSet<>();
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    /**
+     * True if the conversation may have changed in ways that aren't described by {@link #getMessageIds()}, like messages being inserted,
+     * deleted or reordered.
+     */
+    public boolean isFullInvalidation() {
+      return fullInvalidation;
+    }
+
+    /**
+     * Messages whose contents changed. Only complete if {@link #isFullInvalidation()} is false.
+     */
+    public @NonNull Set<MessageId> getMessageIds() {
+      return Collections.unmodifiableSet(messageIds);
+    }
+  }
 }
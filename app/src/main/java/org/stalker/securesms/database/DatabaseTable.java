@@ -18,6 +18,9 @@ package org.stalker.securesms.database;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
+
+import org.stalker.securesms.database.model.MessageId;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
 
 import java.util.HashSet;
@@ -55,6 +58,10 @@ public abstract class DatabaseTable {
     ApplicationDependencies.getDatabaseObserver().notifyConversationListeners(threadId);
   }
 
+  protected void notifyConversationListeners(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyConversationListeners(threadId, messageId);
+  }
+
   protected void notifyVerboseConversationListeners(Set<Long> threadIds) {
     ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(threadIds);
   }
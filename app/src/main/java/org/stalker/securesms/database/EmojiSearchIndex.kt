@@ -0,0 +1,216 @@
+package org.stalker.securesms.database
+
+/**
+ * An in-memory index over the emoji search labels, so a search doesn't have to scan the table with a `LIKE '%query%'` on every keystroke.
+ *
+ * Every label is folded the way SQLite's built-in LIKE compares text, which only ignores the case of ASCII letters, and kept in one char
+ * array with a suffix array over it. The labels that contain a query are then the ones with a suffix that starts with it, and those
+ * suffixes sit next to each other in the suffix array, so they're found with two binary searches.
+ *
+ * [entries] must be in the order the table's rank index returns them (see [EmojiSearchTable.CREATE_INDEXES]), so that the first matches
+ * by position are the rows the LIKE query would have returned.
+ */
+class EmojiSearchIndex(private val entries: List<EmojiSearchTable.Entry>) {
+
+  /** The largest rank of any ranked entry, or 0 if there is none. */
+  val maxRank: Int = entries.filter { it.rank != Int.MAX_VALUE }.maxOfOrNull { it.rank } ?: 0
+
+  /** Every folded label, each followed by [SEPARATOR]. */
+  private val text: CharArray
+
+  /** Where each entry's label starts in [text]. */
+  private val labelStarts: IntArray = IntArray(entries.size)
+
+  /** The positions in [text] where a suffix starts, sorted by the suffix up to the end of its label. */
+  private val suffixes: IntArray
+
+  init {
+    val builder = StringBuilder()
+    for ((i, entry) in entries.withIndex()) {
+      labelStarts[i] = builder.length
+      for (c in entry.label) {
+        builder.append(fold(c))
+      }
+      builder.append(SEPARATOR)
+    }
+
+    text = CharArray(builder.length)
+    builder.getChars(0, builder.length, text, 0)
+
+    suffixes = IntArray(text.count { it != SEPARATOR })
+    var count = 0
+    for (position in text.indices) {
+      if (text[position] != SEPARATOR) {
+        suffixes[count++] = position
+      }
+    }
+
+    sort(0, suffixes.size, 0)
+  }
+
+  val size: Int
+    get() = entries.size
+
+  /**
+   * The first [limit] entries, in index order, whose label matches `LIKE '%query%'`.
+   *
+   * @return The matching entries, or null if the query can't be answered from the index, which is the case for queries with LIKE
+   *         wildcards in them.
+   */
+  fun getMatches(query: String, limit: Int): List<EmojiSearchTable.Entry>? {
+    if (query.any { it == '%' || it == '_' || it == SEPARATOR }) {
+      return null
+    }
+
+    val folded = CharArray(query.length) { fold(query[it]) }
+
+    val start = findFirst(folded, inclusive = true)
+    val end = findFirst(folded, inclusive = false)
+
+    if ((end - start) / MAX_SUFFIXES_PER_MATCH > limit) {
+      return scan(folded, limit)
+    }
+
+    val matched = LongArray((entries.size + 63) / 64)
+    for (i in start until end) {
+      val entry = findEntry(suffixes[i])
+      matched[entry / 64] = matched[entry / 64] or (1L shl (entry % 64))
+    }
+
+    val matches = ArrayList<EmojiSearchTable.Entry>(minOf(limit, end - start))
+    for (word in matched.indices) {
+      var bits = matched[word]
+      while (bits != 0L && matches.size < limit) {
+        matches += entries[word * 64 + java.lang.Long.numberOfTrailingZeros(bits)]
+        bits = bits and (bits - 1)
+      }
+    }
+
+    return matches
+  }
+
+  /**
+   * Checks every label in order until [limit] match. Used instead of the suffix array when the query matches so many labels that the first
+   * [limit] are found sooner this way than by collecting every match.
+   */
+  private fun scan(query: CharArray, limit: Int): List<EmojiSearchTable.Entry> {
+    val matches = ArrayList<EmojiSearchTable.Entry>(limit)
+
+    var entry = 0
+    var position = 0
+    while (position < text.size && matches.size < limit) {
+      if (text[position] == SEPARATOR) {
+        entry++
+      } else if (compareToQuery(position, query) == 0) {
+        matches += entries[entry]
+        entry++
+        position = if (entry < labelStarts.size) labelStarts[entry] else text.size
+        continue
+      }
+      position++
+    }
+
+    return matches
+  }
+
+  /**
+   * The index of the first suffix that is greater than or equal to [query] if [inclusive], or just greater than it otherwise, where a suffix
+   * counts as equal if it starts with the query.
+   */
+  private fun findFirst(query: CharArray, inclusive: Boolean): Int {
+    var low = 0
+    var high = suffixes.size
+
+    while (low < high) {
+      val middle = (low + high) ushr 1
+      val comparison = compareToQuery(suffixes[middle], query)
+
+      if (comparison < 0 || (comparison == 0 && !inclusive)) {
+        low = middle + 1
+      } else {
+        high = middle
+      }
+    }
+
+    return low
+  }
+
+  private fun compareToQuery(position: Int, query: CharArray): Int {
+    for (i in query.indices) {
+      // The separator sorts before every other character, so a suffix that ends early is smaller
+      val c = text[position + i]
+      if (c != query[i]) {
+        return c.compareTo(query[i])
+      }
+    }
+    return 0
+  }
+
+  /** The entry whose label contains [position] in [text]. */
+  private fun findEntry(position: Int): Int {
+    var low = 0
+    var high = labelStarts.size - 1
+
+    while (low < high) {
+      val middle = (low + high + 1) ushr 1
+      if (labelStarts[middle] <= position) {
+        low = middle
+      } else {
+        high = middle - 1
+      }
+    }
+
+    return low
+  }
+
+  /**
+   * Sorts suffixes[from until to], which all share their first [depth] characters, with a three-way radix quicksort. Labels are short, so
+   * this only ever goes as deep as the longest one.
+   */
+  private fun sort(from: Int, to: Int, depth: Int) {
+    if (to - from < 2) {
+      return
+    }
+
+    val pivot = charAt(suffixes[(from + to) ushr 1], depth)
+    var less = from
+    var greater = to - 1
+    var i = from
+
+    while (i <= greater) {
+      val c = charAt(suffixes[i], depth)
+      when {
+        c < pivot -> swap(less++, i++)
+        c > pivot -> swap(i, greater--)
+        else -> i++
+      }
+    }
+
+    sort(from, less, depth)
+    if (pivot != SEPARATOR) {
+      sort(less, greater + 1, depth + 1)
+    }
+    sort(greater + 1, to, depth)
+  }
+
+  private fun charAt(position: Int, depth: Int): Char {
+    return text[position + depth]
+  }
+
+  private fun swap(i: Int, j: Int) {
+    val temp = suffixes[i]
+    suffixes[i] = suffixes[j]
+    suffixes[j] = temp
+  }
+
+  companion object {
+    private const val SEPARATOR = '\u0000'
+
+    /** Past this many matching suffixes per requested match, [scan] is used instead. */
+    private const val MAX_SUFFIXES_PER_MATCH = 16
+
+    private fun fold(c: Char): Char {
+      return if (c in 'A'..'Z') c + ('a' - 'A') else c
+    }
+  }
+}
@@ -1,8 +1,12 @@
 package org.stalker.securesms.database
 
 import android.content.Context
+import android.database.Cursor
 import android.text.TextUtils
+import androidx.annotation.VisibleForTesting
 import androidx.core.content.contentValuesOf
+import org.signal.core.util.logging.Log
+import org.signal.core.util.readToList
 import org.signal.core.util.readToSingleInt
 import org.signal.core.util.requireInt
 import org.signal.core.util.requireNonNullString
@@ -17,6 +21,8 @@ import kotlin.math.max
 class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTable(context, databaseHelper) {
 
   companion object {
+    private val TAG = Log.tag(EmojiSearchTable::class.java)
+
     const val TABLE_NAME = "emoji_search"
     const val ID = "_id"
     const val LABEL = "label"
@@ -38,6 +44,12 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
     )
   }
 
+  /**
+   * Read in full on the first search, and dropped whenever the table is replaced. See [EmojiSearchIndex].
+   */
+  @Volatile
+  private var searchIndex: EmojiSearchIndex? = null
+
   /**
    * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
    * @return A list of emoji that are related to the search term, ordered by relevance.
@@ -49,6 +61,23 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
       return emptyList()
     }
 
+    val index = getSearchIndex()
+    val entries = index.getMatches(query, max(originalLimit, 200)) ?: return queryDatabase(originalQuery, originalLimit)
+
+    return rank(query, entries, index.maxRank, originalLimit)
+  }
+
+  /**
+   * The same as [query], but searching the table itself rather than the [EmojiSearchIndex].
+   */
+  @VisibleForTesting
+  fun queryDatabase(originalQuery: String, originalLimit: Int): List<String> {
+    val query: String = originalQuery.trim()
+
+    if (TextUtils.isEmpty(query)) {
+      return emptyList()
+    }
+
     val limit: Int = max(originalLimit, 200)
     val entries = mutableListOf<Entry>()
 
@@ -68,14 +97,14 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
       .run()
       .use { cursor ->
         while (cursor.moveToNext()) {
-          entries += Entry(
-            label = cursor.requireNonNullString(LABEL),
-            emoji = cursor.requireNonNullString(EMOJI),
-            rank = cursor.requireInt(RANK)
-          )
+          entries += cursor.readEntry()
         }
       }
 
+    return rank(query, entries, maxRank, originalLimit)
+  }
+
+  private fun rank(query: String, entries: List<Entry>, maxRank: Int, limit: Int): List<String> {
     return entries
       .sortedWith { lhs, rhs ->
         val result = similarityScore(query, lhs, maxRank) - similarityScore(query, rhs, maxRank)
@@ -86,10 +115,42 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
         }
       }
       .distinctBy { it.emoji }
-      .take(originalLimit)
+      .take(limit)
       .map { it.emoji }
   }
 
+  private fun getSearchIndex(): EmojiSearchIndex {
+    searchIndex?.let { return it }
+
+    synchronized(this) {
+      searchIndex?.let { return it }
+
+      val startTime = System.currentTimeMillis()
+
+      // Ordered the same way as the rank index, which is the order a LIKE query with ORDER BY rank returns rows in
+      val entries = readableDatabase
+        .select(LABEL, EMOJI, RANK)
+        .from(TABLE_NAME)
+        .orderBy("$RANK ASC, $LABEL ASC, $EMOJI ASC, $ID ASC")
+        .run()
+        .readToList { it.readEntry() }
+
+      val index = EmojiSearchIndex(entries)
+      searchIndex = index
+
+      Log.d(TAG, "Indexed ${index.size} label(s) in ${System.currentTimeMillis() - startTime} ms")
+      return index
+    }
+  }
+
+  private fun Cursor.readEntry(): Entry {
+    return Entry(
+      label = requireNonNullString(LABEL),
+      emoji = requireNonNullString(EMOJI),
+      rank = requireInt(RANK)
+    )
+  }
+
   /**
    * Deletes the content of the current search index and replaces it with the new one.
    */
@@ -110,6 +171,19 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
         }
       }
     }
+
+    // Dropped after the transaction, so that an index read while it was running doesn't outlive it
+    synchronized(this) {
+      this.searchIndex = null
+    }
+  }
+
+  override fun reset(databaseHelper: SignalDatabase) {
+    super.reset(databaseHelper)
+
+    synchronized(this) {
+      searchIndex = null
+    }
   }
 
   /**
@@ -142,7 +216,7 @@ class EmojiSearchTable(context: Context, databaseHelper: SignalDatabase) : Datab
       entry.scaledRank(maxRank)
   }
 
-  private data class Entry(val label: String, val emoji: String, val rank: Int) {
+  data class Entry(val label: String, val emoji: String, val rank: Int) {
     fun scaledRank(maxRank: Int): Float {
       val unranked = 2f
       val scaleFactor: Float = unranked / maxRank
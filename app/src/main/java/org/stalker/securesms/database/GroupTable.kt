@@ -389,6 +389,7 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     var query: String
     val queryArgs: Array<String>
     val caseInsensitiveQuery = buildCaseInsensitiveGlobPattern(inputQuery)
+    val candidates = recipients.getSearchCandidates(inputQuery)
 
     if (includeInactive) {
       query = "$TITLE GLOB ? AND ($TABLE_NAME.$ACTIVE = ? OR $TABLE_NAME.$RECIPIENT_ID IN (SELECT ${ThreadTable.RECIPIENT_ID} FROM ${ThreadTable.TABLE_NAME} WHERE ${ThreadTable.TABLE_NAME}.${ThreadTable.ACTIVE} = 1))"
@@ -406,6 +407,10 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
       query += " AND $MMS = 0"
     }
 
+    if (candidates != null) {
+      query += " AND " + RecipientTable.ContactSearchSelection.buildCandidatesClause(candidates, "$TABLE_NAME.$RECIPIENT_ID")
+    }
+
     return SqlUtil.Query(query, queryArgs)
   }
 
@@ -710,6 +715,7 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     }
 
     Recipient.live(groupRecipientId).refresh()
+    ApplicationDependencies.getDatabaseObserver().notifyRecipientWriteListeners(groupRecipientId)
     notifyConversationListListeners()
 
     if (groupId.isV2) {
@@ -744,6 +750,9 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     val groupRecipient = recipients.getOrInsertFromGroupId(groupId)
 
     Recipient.live(groupRecipient).refresh()
+    if (title != null) {
+      ApplicationDependencies.getDatabaseObserver().notifyRecipientWriteListeners(groupRecipient)
+    }
     notifyConversationListListeners()
   }
 
@@ -826,6 +835,9 @@ class GroupTable(context: Context?, databaseHelper: SignalDatabase?) : DatabaseT
     }
 
     Recipient.live(groupRecipientId).refresh()
+    if (existingGroup.map { it.title != title }.orElse(true)) {
+      ApplicationDependencies.getDatabaseObserver().notifyRecipientWriteListeners(groupRecipientId)
+    }
     notifyConversationListListeners()
 
     if (groupId.isV2 && addedMembers.isNotEmpty()) {
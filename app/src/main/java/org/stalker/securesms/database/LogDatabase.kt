@@ -2,39 +2,29 @@ package org.stalker.securesms.database
 
 import android.annotation.SuppressLint
 import android.app.Application
-import android.database.Cursor
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
-import org.signal.core.util.CursorUtil
-import org.signal.core.util.SqlUtil
-import org.signal.core.util.Stopwatch
 import org.signal.core.util.delete
 import org.signal.core.util.deleteAll
 import org.signal.core.util.exists
-import org.signal.core.util.getTableRowCount
+import org.signal.core.util.forEach
 import org.signal.core.util.insertInto
 import org.signal.core.util.logging.Log
-import org.signal.core.util.mebiBytes
 import org.signal.core.util.readToList
-import org.signal.core.util.readToSingleInt
+import org.signal.core.util.requireBoolean
 import org.signal.core.util.requireLong
 import org.signal.core.util.requireNonNullString
 import org.signal.core.util.select
 import org.signal.core.util.update
-import org.signal.core.util.withinTransaction
 import org.stalker.securesms.crash.CrashConfig
 import org.stalker.securesms.crypto.DatabaseSecret
 import org.stalker.securesms.crypto.DatabaseSecretProvider
 import org.stalker.securesms.database.model.LogEntry
-import java.io.Closeable
-import kotlin.math.abs
+import org.stalker.securesms.logging.LogFileStore
 import kotlin.time.Duration.Companion.days
 
 /**
- * Stores logs.
- *
- * Logs are very performance critical. Even though this database is written to on a low-priority background thread, we want to keep throughput high and ensure
- * that we aren't creating excess garbage.
+ * Stores crashes and ANRs. Logs themselves are stored in [LogFileStore] -- the [LogTable] here only exists to migrate older logs.
  *
  * This is it's own separate physical database, so it cannot do joins or queries with any other tables.
  */
@@ -128,6 +118,10 @@ class LogDatabase private constructor(
     return writableDatabase
   }
 
+  /**
+   * Logs used to be stored here, one row per line. They now live in [LogFileStore]. This table only sticks around so that existing logs
+   * can be migrated over, after which it is left empty.
+   */
   class LogTable(private val openHelper: LogDatabase) {
     companion object {
       const val TABLE_NAME = "log"
@@ -151,157 +145,39 @@ class LogDatabase private constructor(
         "CREATE INDEX keep_longer_index ON $TABLE_NAME ($KEEP_LONGER)",
         "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)"
       )
-
-      val MAX_FILE_SIZE = 20L.mebiBytes.inWholeBytes
-      val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
-      val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
     }
 
     private val readableDatabase: SQLiteDatabase get() = openHelper.readableDatabase
     private val writableDatabase: SQLiteDatabase get() = openHelper.writableDatabase
 
-    fun insert(logs: List<LogEntry>, currentTime: Long) {
-      writableDatabase.withinTransaction { db ->
-        logs.forEach { log ->
-          db.insertInto(TABLE_NAME)
-            .values(
-              CREATED_AT to log.createdAt,
-              KEEP_LONGER to if (log.keepLonger) 1 else 0,
-              BODY to log.body,
-              SIZE to log.body.length
-            )
-            .run()
-        }
-
-        db.delete(TABLE_NAME)
-          .where("($CREATED_AT < ? AND $KEEP_LONGER = 0) OR ($CREATED_AT < ? AND $KEEP_LONGER = 1)", currentTime - DEFAULT_LIFESPAN, currentTime - LONGER_LIFESPAN)
-          .run()
-      }
-    }
-
-    fun getAllBeforeTime(time: Long): Reader {
+    fun hasLogs(): Boolean {
       return readableDatabase
-        .select(BODY)
-        .from(TABLE_NAME)
-        .where("$CREATED_AT < $time")
+        .exists(TABLE_NAME)
         .run()
-        .toReader()
     }
 
-    fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
-      return readableDatabase
-        .select(BODY)
+    /**
+     * Iterates over all logs. Since [ID] is the rowid, a plain table scan gives them to us in the order they were inserted.
+     */
+    fun forEach(operation: (LogEntry) -> Unit) {
+      readableDatabase
+        .select(CREATED_AT, KEEP_LONGER, BODY)
         .from(TABLE_NAME)
-        .where("$CREATED_AT < $time")
-        .limit(limit = length, offset = start)
         .run()
-        .readToList { it.requireNonNullString(BODY) }
-    }
-
-    fun trimToSize() {
-      val currentTime = System.currentTimeMillis()
-      val stopwatch = Stopwatch("trim")
-
-      val sizeOfSpecialLogs: Long = getSize("$KEEP_LONGER = ?", arrayOf("1"))
-      val remainingSize = MAX_FILE_SIZE - sizeOfSpecialLogs
-
-      stopwatch.split("keepers-size")
-
-      if (remainingSize <= 0) {
-        if (abs(remainingSize) > MAX_FILE_SIZE / 2) {
-          // Not only are KEEP_LONGER logs putting us over the storage limit, it's doing it by a lot! Delete half.
-          val logCount = readableDatabase.getTableRowCount(TABLE_NAME)
-          writableDatabase.execSQL("DELETE FROM $TABLE_NAME WHERE $ID < (SELECT MAX($ID) FROM (SELECT $ID FROM $TABLE_NAME LIMIT ${logCount / 2}))")
-        } else {
-          writableDatabase
-            .delete(TABLE_NAME)
-            .where("$KEEP_LONGER = 0")
-        }
-        return
-      }
-
-      val sizeDiffThreshold = MAX_FILE_SIZE * 0.01
-
-      var lhs: Long = currentTime - DEFAULT_LIFESPAN
-      var rhs: Long = currentTime
-      var mid: Long = 0
-      var sizeOfChunk: Long
-
-      while (lhs < rhs - 2) {
-        mid = (lhs + rhs) / 2
-        sizeOfChunk = getSize("$CREATED_AT > ? AND $CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, currentTime, 0))
-
-        if (sizeOfChunk > remainingSize) {
-          lhs = mid
-        } else if (sizeOfChunk < remainingSize) {
-          if (remainingSize - sizeOfChunk < sizeDiffThreshold) {
-            break
-          } else {
-            rhs = mid
-          }
-        } else {
-          break
+        .forEach { cursor ->
+          operation(
+            LogEntry(
+              createdAt = cursor.requireLong(CREATED_AT),
+              keepLonger = cursor.requireBoolean(KEEP_LONGER),
+              body = cursor.requireNonNullString(BODY)
+            )
+          )
         }
-      }
-
-      stopwatch.split("binary-search")
-
-      writableDatabase.delete(TABLE_NAME, "$CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, 0))
-
-      stopwatch.split("delete")
-      stopwatch.stop(TAG)
-    }
-
-    fun getLogCountBeforeTime(time: Long): Int {
-      return readableDatabase
-        .select("COUNT(*)")
-        .from(TABLE_NAME)
-        .where("$CREATED_AT < $time")
-        .run()
-        .readToSingleInt()
-    }
-
-    fun clearKeepLonger() {
-      writableDatabase
-        .delete(TABLE_NAME)
-        .where("$KEEP_LONGER = 1")
-        .run()
     }
 
     fun clearAll() {
       writableDatabase.deleteAll(TABLE_NAME)
     }
-
-    private fun getSize(query: String?, args: Array<String>?): Long {
-      readableDatabase.query(TABLE_NAME, arrayOf("SUM($SIZE)"), query, args, null, null, null).use { cursor ->
-        return if (cursor.moveToFirst()) {
-          cursor.getLong(0)
-        } else {
-          0
-        }
-      }
-    }
-
-    private fun Cursor.toReader(): CursorReader {
-      return CursorReader(this)
-    }
-
-    interface Reader : Iterator<String>, Closeable
-
-    class CursorReader(private val cursor: Cursor) : Reader {
-      override fun hasNext(): Boolean {
-        return !cursor.isLast && cursor.count > 0
-      }
-
-      override fun next(): String {
-        cursor.moveToNext()
-        return CursorUtil.requireString(cursor, LogTable.BODY)
-      }
-
-      override fun close() {
-        cursor.close()
-      }
-    }
   }
 
   class CrashTable(private val openHelper: LogDatabase) {
@@ -28,7 +28,7 @@ import java.util.stream.Collectors;
 public final class MentionUtil {
 
   public static final char   MENTION_STARTER     = '@';
-         static final String MENTION_PLACEHOLDER = "\uFFFC";
+  public static final String MENTION_PLACEHOLDER = "\uFFFC";
 
   private MentionUtil() { }
 
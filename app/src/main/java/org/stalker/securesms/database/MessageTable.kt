@@ -271,6 +271,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     private const val INDEX_THREAD_COUNT = "message_thread_count_index"
     private const val INDEX_THREAD_UNREAD_COUNT = "message_thread_unread_count_index"
 
+    /** The messages that count towards a thread's unread count. Covered by [INDEX_THREAD_UNREAD_COUNT]. */
+    private const val UNREAD_CLAUSE = "$STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0"
+
     @JvmField
     val CREATE_INDEXS = arrayOf(
       "CREATE INDEX IF NOT EXISTS message_read_and_notified_and_thread_id_index ON $TABLE_NAME ($READ, $NOTIFIED, $THREAD_ID)",
@@ -389,6 +392,14 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         ) AS ${AttachmentTable.ATTACHMENT_JSON_ALIAS}
       """.toSingleLine()
 
+    private val CONVERSATION_QUERY =
+      """
+        SELECT ${MMS_PROJECTION.joinToString(", ")}
+        FROM $TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID
+        WHERE $THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL
+        ORDER BY $DATE_RECEIVED DESC
+      """.toSingleLine()
+
     private const val IS_STORY_CLAUSE = "$STORY_TYPE > 0 AND $REMOTE_DELETED = 0"
     private const val RAW_ID_WHERE = "$TABLE_NAME.$ID = ?"
 
@@ -635,7 +646,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     val threadId = getThreadIdForMessage(id)
     threads.update(threadId, false)
-    notifyConversationListeners(threadId)
+    notifyConversationListeners(threadId, MessageId(id))
   }
 
   private fun updateTypeBitmask(id: Long, maskOff: Long, maskOn: Long) {
@@ -828,8 +839,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     threads.update(threadId, true)
 
-    notifyConversationListeners(threadId)
-    ApplicationDependencies.getDatabaseObserver().notifyMessageUpdateObservers(MessageId(messageId))
+    notifyConversationListeners(threadId, MessageId(messageId))
   }
 
   fun insertGroupCall(
@@ -1035,11 +1045,18 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         markExpireStarted(messageId, targetMessage.expireStarted)
       }
 
+      val (unreadContribution, unreadMentionContribution) = getUnreadContribution(targetMessage.id)
+
       writableDatabase.update(TABLE_NAME)
         .values(LATEST_REVISION_ID to messageId)
         .where("$ID = ? OR $LATEST_REVISION_ID = ?", targetMessage.id, targetMessage.id)
         .run()
 
+      // The previous revision no longer counts as unread now that it's been replaced
+      if (unreadContribution != 0) {
+        threads.updateForDeletedMessage(targetMessage.threadId, wasSnippet = false, -unreadContribution, -unreadMentionContribution)
+      }
+
       reactions.moveReactionsToNewMessage(newMessageId = messageId, previousId = targetMessage.id)
 
       notifyConversationListeners(targetMessage.threadId)
@@ -1735,7 +1752,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select("COUNT(*)")
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_COUNT")
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", threadId)
       .run()
       .readToSingleInt()
   }
@@ -1805,7 +1822,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
   private fun buildMeaningfulMessagesQuery(threadId: Long): SqlUtil.Query {
     val query = """
-      $THREAD_ID = $threadId AND
+      $THREAD_ID = ? AND
       $STORY_TYPE = 0 AND
       $LATEST_REVISION_ID IS NULL AND
       $PARENT_STORY_ID <= 0 AND
@@ -1821,7 +1838,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
     """
 
-    return SqlUtil.buildQuery(query)
+    return SqlUtil.buildQuery(query, threadId)
   }
 
   fun setNetworkFailures(messageId: Long, failures: Set<NetworkFailure?>?) {
@@ -2280,7 +2297,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select(FROM_RECIPIENT_ID, DATE_RECEIVED)
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId)
+      .where("$THREAD_ID = ? AND $UNREAD_CLAUSE AND $MENTIONS_SELF = 1", threadId)
       .orderBy("$DATE_RECEIVED ASC")
       .limit(1)
       .run()
@@ -2296,7 +2313,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .count()
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0 AND $MENTIONS_SELF = 1", threadId)
+      .where("$THREAD_ID = ? AND $UNREAD_CLAUSE AND $MENTIONS_SELF = 1", threadId)
       .run()
       .readToSingleInt()
   }
@@ -2583,6 +2600,23 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       quoteAttachments += retrieved.quote.attachments
     }
 
+    val isNotStoryGroupReply = retrieved.parentStoryId == null || !retrieved.parentStoryId.isGroupReply()
+
+    // Has to agree with UNREAD_CLAUSE, since the thread's unread count is adjusted by this rather than recounted
+    val countsAsUnread = !read && !retrieved.storyType.isStory && isNotStoryGroupReply
+
+    val scheduleThreadUpdate = !MessageTypes.isPaymentsActivated(type) &&
+      !MessageTypes.isPaymentsRequestToActivate(type) &&
+      !MessageTypes.isReportedSpam(type) &&
+      !MessageTypes.isMessageRequestAccepted(type) &&
+      !MessageTypes.isExpirationTimerUpdate(type) &&
+      !retrieved.storyType.isStory &&
+      isNotStoryGroupReply &&
+      !silent
+
+    val mentionsSelf = countsAsUnread && retrieved.mentions.isNotEmpty() && retrieved.mentions.any { it.recipientId == Recipient.self().id }
+    val updateThread = retrieved.storyType === StoryType.NONE && !silent
+
     val (messageId, insertedAttachments) = insertMediaMessage(
       threadId = threadId,
       body = retrieved.body,
@@ -2594,8 +2628,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       messageRanges = retrieved.messageRanges,
       contentValues = contentValues,
       insertListener = null,
-      updateThread = retrieved.storyType === StoryType.NONE && !silent,
-      unarchive = true
+      updateThread = updateThread,
+      unarchive = true,
+      unreadDelta = if (countsAsUnread) 1 else 0,
+      unreadMentionDelta = if (mentionsSelf) 1 else 0
     )
 
     if (messageId < 0) {
@@ -2607,12 +2643,13 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       if (retrieved.quote != null && editedMessage.quote != null) {
         writableDatabase.execSQL(
           """  
-          WITH o as (SELECT $QUOTE_ID, $QUOTE_AUTHOR, $QUOTE_BODY, $QUOTE_TYPE, $QUOTE_MISSING, $QUOTE_BODY_RANGES FROM $TABLE_NAME WHERE $ID = ${editedMessage.id})
+          WITH o as (SELECT $QUOTE_ID, $QUOTE_AUTHOR, $QUOTE_BODY, $QUOTE_TYPE, $QUOTE_MISSING, $QUOTE_BODY_RANGES FROM $TABLE_NAME WHERE $ID = ?)
           UPDATE $TABLE_NAME
           SET $QUOTE_ID = old.$QUOTE_ID, $QUOTE_AUTHOR = old.$QUOTE_AUTHOR, $QUOTE_BODY = old.$QUOTE_BODY, $QUOTE_TYPE = old.$QUOTE_TYPE, $QUOTE_MISSING = old.$QUOTE_MISSING, $QUOTE_BODY_RANGES = old.$QUOTE_BODY_RANGES
           FROM o old
-          WHERE $TABLE_NAME.$ID = $messageId
-          """
+          WHERE $TABLE_NAME.$ID = ?
+          """,
+          buildArgs(editedMessage.id, messageId)
         )
       }
     }
@@ -2622,19 +2659,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       attachments.duplicateAttachmentsForMessage(messageId, editedMessage.id, linkPreviewAttachmentIds)
     }
 
-    val isNotStoryGroupReply = retrieved.parentStoryId == null || !retrieved.parentStoryId.isGroupReply()
-
-    if (!MessageTypes.isPaymentsActivated(type) &&
-      !MessageTypes.isPaymentsRequestToActivate(type) &&
-      !MessageTypes.isReportedSpam(type) &&
-      !MessageTypes.isMessageRequestAccepted(type) &&
-      !MessageTypes.isExpirationTimerUpdate(type) &&
-      !retrieved.storyType.isStory &&
-      isNotStoryGroupReply &&
-      !silent
-    ) {
-      val incrementUnreadMentions = retrieved.mentions.isNotEmpty() && retrieved.mentions.any { it.recipientId == Recipient.self().id }
-      threads.incrementUnread(threadId, 1, if (incrementUnreadMentions) 1 else 0)
+    if (scheduleThreadUpdate) {
       ThreadUpdateJob.enqueue(threadId)
     }
 
@@ -2679,8 +2704,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .run()
 
-    threads.incrementUnread(threadId, 1, 0)
-    threads.update(threadId, true)
+    threads.updateForInsertedMessage(threadId, messageId, unreadDelta = 1, unreadMentionDelta = 0, unarchive = true)
 
     notifyConversationListeners(threadId)
     TrimThreadJob.enqueueAsync(threadId)
@@ -2693,7 +2717,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   }
 
   fun insertBadDecryptMessage(recipientId: RecipientId, senderDevice: Int, sentTimestamp: Long, receivedTimestamp: Long, threadId: Long) {
-    writableDatabase
+    val messageId = writableDatabase
       .insertInto(TABLE_NAME)
       .values(
         FROM_RECIPIENT_ID to recipientId.serialize(),
@@ -2708,8 +2732,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       )
       .run()
 
-    threads.incrementUnread(threadId, 1, 0)
-    threads.update(threadId, true)
+    threads.updateForInsertedMessage(threadId, messageId, unreadDelta = 1, unreadMentionDelta = 0, unarchive = true)
 
     notifyConversationListeners(threadId)
     TrimThreadJob.enqueueAsync(threadId)
@@ -2753,8 +2776,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
 
     if (updated) {
-      ApplicationDependencies.getDatabaseObserver().notifyMessageUpdateObservers(MessageId(messageId))
-      notifyConversationListeners(threadId)
+      notifyConversationListeners(threadId, MessageId(messageId))
     }
   }
 
@@ -3069,7 +3091,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     contentValues: ContentValues,
     insertListener: InsertListener?,
     updateThread: Boolean,
-    unarchive: Boolean
+    unarchive: Boolean,
+    unreadDelta: Int = 0,
+    unreadMentionDelta: Int = 0
   ): kotlin.Pair<Long, Map<Attachment, AttachmentId>?> {
     val mentionsSelf = mentions.any { Recipient.resolved(it.recipientId).isSelf }
     val allAttachments: MutableList<Attachment> = mutableListOf()
@@ -3135,7 +3159,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
 
     if (updateThread) {
       threads.setLastScrolled(contentValuesThreadId, 0)
-      threads.update(threadId, unarchive)
+      threads.updateForInsertedMessage(threadId, messageId, unreadDelta, unreadMentionDelta, unarchive)
     }
 
     return messageId to insertedAttachments
@@ -3203,6 +3227,9 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   private fun deleteMessage(messageId: Long, threadId: Long = getThreadIdForMessage(messageId), notify: Boolean = true, updateThread: Boolean = true): Boolean {
     Log.d(TAG, "deleteMessage($messageId)")
 
+    val wasSnippet = updateThread && getConversationSnippetId(threadId) == messageId
+    val (unreadContribution, unreadMentionContribution) = if (updateThread) getUnreadContribution(messageId) else (0 to 0)
+
     attachments.deleteAttachmentsForMessage(messageId)
     groupReceipts.deleteRowsForMessage(messageId)
     mentions.deleteMentionsForMessage(messageId)
@@ -3216,7 +3243,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     threads.setLastScrolled(threadId, 0)
 
     val threadDeleted = if (updateThread) {
-      threads.update(threadId, false)
+      threads.updateForDeletedMessage(threadId, wasSnippet, -unreadContribution, -unreadMentionContribution)
     } else {
       false
     }
@@ -3397,7 +3424,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   fun deleteMessagesInThreadBeforeDate(threadId: Long, date: Long): Int {
     return writableDatabase
       .delete(TABLE_NAME)
-      .where("$THREAD_ID = ? AND $DATE_RECEIVED < $date", threadId)
+      .where("$THREAD_ID = ? AND $DATE_RECEIVED < ?", threadId, date)
       .run()
   }
 
@@ -3585,7 +3612,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   fun hasReportSpamMessage(threadId: Long): Boolean {
     return readableDatabase
       .exists(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND ($TYPE & ${MessageTypes.SPECIAL_TYPES_MASK}) = ${MessageTypes.SPECIAL_TYPE_REPORTED_SPAM}")
+      .where("$THREAD_ID = ? AND ($TYPE & ${MessageTypes.SPECIAL_TYPES_MASK}) = ${MessageTypes.SPECIAL_TYPE_REPORTED_SPAM}", threadId)
       .run()
   }
 
@@ -3897,7 +3924,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     val targetMessageDateReceived: Long = readableDatabase
       .select(DATE_RECEIVED, LATEST_REVISION_ID)
       .from(TABLE_NAME)
-      .where("$DATE_SENT = $quoteId AND $FROM_RECIPIENT_ID = ? AND $REMOTE_DELETED = 0 AND $SCHEDULED_DATE = -1", authorId)
+      .where("$DATE_SENT = ? AND $FROM_RECIPIENT_ID = ? AND $REMOTE_DELETED = 0 AND $SCHEDULED_DATE = -1", quoteId, authorId)
       .run()
       .readToSingleObject { cursor ->
         val latestRevisionId = cursor.requireLongOrNull(LATEST_REVISION_ID)
@@ -3920,7 +3947,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > $targetMessageDateReceived")
+      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > ?", threadId, targetMessageDateReceived)
       .run()
       .readToSingleInt()
   }
@@ -3928,7 +3955,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
   fun getMessagePositionInConversation(threadId: Long, receivedTimestamp: Long, authorId: RecipientId): Int {
     val validMessageExists: Boolean = readableDatabase
       .exists(TABLE_NAME)
-      .where("$DATE_RECEIVED = $receivedTimestamp AND $FROM_RECIPIENT_ID = ? AND $REMOTE_DELETED = 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", authorId)
+      .where("$DATE_RECEIVED = ? AND $FROM_RECIPIENT_ID = ? AND $REMOTE_DELETED = 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", receivedTimestamp, authorId)
       .run()
 
     if (!validMessageExists) {
@@ -3938,7 +3965,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > $receivedTimestamp")
+      .where("$THREAD_ID = ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $DATE_RECEIVED > ?", threadId, receivedTimestamp)
       .run()
       .readToSingleInt(-1)
   }
@@ -3954,7 +3981,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return dayStarts.associateWith { startOfDay ->
       readableDatabase
         .exists(TABLE_NAME)
-        .where("$THREAD_ID = $threadId AND $DATE_RECEIVED >= $startOfDay AND $DATE_RECEIVED < $startOfDay + 86400000 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
+        .where("$THREAD_ID = ? AND $DATE_RECEIVED >= ? AND $DATE_RECEIVED < ? AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0", threadId, startOfDay, startOfDay + 86400000)
         .run()
     }
   }
@@ -3963,7 +3990,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select(DATE_RECEIVED)
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0")
+      .where("$THREAD_ID = ? AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0", threadId)
       .orderBy("$DATE_RECEIVED ASC")
       .limit(1)
       .run()
@@ -3981,16 +4008,25 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
    * @param groupStoryId Ignored if passed value is <= 0
    */
   fun getMessagePositionInConversation(threadId: Long, groupStoryId: Long, receivedTimestamp: Long): Int {
-    val selection = if (groupStoryId > 0) {
-      "$THREAD_ID = $threadId AND $DATE_RECEIVED < $receivedTimestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID = $groupStoryId AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL"
+    val query = if (groupStoryId > 0) {
+      SqlUtil.buildQuery(
+        "$THREAD_ID = ? AND $DATE_RECEIVED < ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID = ? AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL",
+        threadId,
+        receivedTimestamp,
+        groupStoryId
+      )
     } else {
-      "$THREAD_ID = $threadId AND $DATE_RECEIVED > $receivedTimestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL"
+      SqlUtil.buildQuery(
+        "$THREAD_ID = ? AND $DATE_RECEIVED > ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL",
+        threadId,
+        receivedTimestamp
+      )
     }
 
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where(selection)
+      .where(query.where, query.whereArgs)
       .run()
       .readToSingleInt(-1)
   }
@@ -3999,7 +4035,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select(DATE_RECEIVED)
       .from(TABLE_NAME)
-      .where("$DATE_RECEIVED > $date AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$DATE_RECEIVED > ? AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", date)
       .orderBy("$DATE_RECEIVED ASC")
       .limit(1)
       .run()
@@ -4010,7 +4046,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$DATE_RECEIVED < $date AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$DATE_RECEIVED < ? AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", date)
       .run()
       .readToSingleInt()
   }
@@ -4028,7 +4064,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return readableDatabase
       .select("COUNT(*)")
       .from(TABLE_NAME)
-      .where("$THREAD_ID = $threadId AND $DATE_RECEIVED >= $timestamp AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL")
+      .where("$THREAD_ID = ? AND $DATE_RECEIVED >= ? AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $SCHEDULED_DATE = -1 AND $LATEST_REVISION_ID IS NULL", threadId, timestamp)
       .run()
       .readToSingleInt()
   }
@@ -4040,6 +4076,15 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .readToSingleObject { it.requireLong(TYPE) } ?: throw NoSuchMessageException("no message")
   }
 
+  /**
+   * The id of the message [getConversationSnippet] would return, or null if there isn't one.
+   */
+  fun getConversationSnippetId(threadId: Long): Long? {
+    return readableDatabase
+      .rawQuery(SNIPPET_QUERY, buildArgs(threadId))
+      .readToSingleObject { it.requireLong(ID) }
+  }
+
   @Throws(NoSuchMessageException::class)
   fun getConversationSnippet(threadId: Long): MessageRecord {
     return getConversationSnippetCursor(threadId)
@@ -4055,11 +4100,32 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     return db.rawQuery(SNIPPET_QUERY, buildArgs(threadId))
   }
 
+  /**
+   * How much the given message counts towards [getUnreadCount] and [getUnreadMentionCount], as a pair. Used to adjust the thread's counts
+   * when the message is removed, so it has to be read beforehand.
+   */
+  fun getUnreadContribution(messageId: Long): Pair<Int, Int> {
+    return readableDatabase
+      .select(MENTIONS_SELF)
+      .from(TABLE_NAME)
+      .where("$ID = ? AND $UNREAD_CLAUSE", messageId)
+      .run()
+      .readToSingleObject { cursor -> 1 to cursor.requireInt(MENTIONS_SELF) } ?: (0 to 0)
+  }
+
+  /**
+   * A correlated subquery that produces the same number as [getUnreadCount] (or [getUnreadMentionCount]) for the thread id in [threadIdColumn].
+   */
+  fun unreadCountSubquery(threadIdColumn: String, mentionsOnly: Boolean): String {
+    val mentionsClause = if (mentionsOnly) " AND $MENTIONS_SELF = 1" else ""
+    return "(SELECT COUNT(*) FROM $TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT WHERE $THREAD_ID = $threadIdColumn AND $UNREAD_CLAUSE$mentionsClause)"
+  }
+
   fun getUnreadCount(threadId: Long): Int {
     return readableDatabase
       .select("COUNT(*)")
       .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_UNREAD_COUNT")
-      .where("$THREAD_ID = $threadId AND $STORY_TYPE = 0 AND $PARENT_STORY_ID <= 0 AND $LATEST_REVISION_ID IS NULL AND $SCHEDULED_DATE = -1 AND $READ = 0")
+      .where("$THREAD_ID = ? AND $UNREAD_CLAUSE", threadId)
       .run()
       .readToSingleInt()
   }
@@ -4308,7 +4374,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
       .from(TABLE_NAME)
       .where(
         """
-        $DATE_SENT = $targetTimestamp AND
+        $DATE_SENT = ? AND
         $FROM_RECIPIENT_ID = ? AND
         (
           $TO_RECIPIENT_ID = ? OR 
@@ -4322,6 +4388,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         )
         $qualifierWhere
         """,
+        targetTimestamp,
         Recipient.self().id,
         receiptAuthor
       )
@@ -4355,10 +4422,12 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         UPDATE $TABLE_NAME
         SET
           ${receiptType.columnName} = 1,
-          $RECEIPT_TIMESTAMP = MAX($RECEIPT_TIMESTAMP, $receiptSentTimestamp) 
+          $RECEIPT_TIMESTAMP = MAX($RECEIPT_TIMESTAMP, ?) 
         WHERE
-          $ID = ${receiptData.messageId}
-        """
+          $ID = ?
+        """,
+        // Bound as longs rather than strings, since MAX() would otherwise compare an integer to text
+        arrayOf<Any>(receiptSentTimestamp, receiptData.messageId)
       )
     }
     stopwatch?.split("receipt-update")
@@ -4510,15 +4579,12 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
    * This does *not* have attachments in it.
    */
   fun getConversation(threadId: Long, offset: Long, limit: Long): Cursor {
-    val limitStr: String = if (limit > 0 || offset > 0) "$offset, $limit" else ""
-
-    return readableDatabase
-      .select(*MMS_PROJECTION)
-      .from("$TABLE_NAME INDEXED BY $INDEX_THREAD_STORY_SCHEDULED_DATE_LATEST_REVISION_ID")
-      .where("$THREAD_ID = ? AND $STORY_TYPE = ? AND $PARENT_STORY_ID <= ? AND $SCHEDULED_DATE = ? AND $LATEST_REVISION_ID IS NULL", threadId, 0, 0, -1)
-      .orderBy("$DATE_RECEIVED DESC")
-      .limit(limitStr)
-      .run()
+    // The limit and offset are bound rather than inlined so that every page of a conversation shares one compiled statement
+    return if (limit > 0 || offset > 0) {
+      readableDatabase.rawQuery("$CONVERSATION_QUERY LIMIT ? OFFSET ?", buildArgs(threadId, limit, offset))
+    } else {
+      readableDatabase.rawQuery(CONVERSATION_QUERY, buildArgs(threadId))
+    }
   }
 
   /**
@@ -4567,7 +4633,10 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
     }
   }
 
-  fun getMessagesForNotificationState(stickyThreads: Collection<StickyThread>): Cursor {
+  /**
+   * @param threadIds If given, only messages in these threads are returned.
+   */
+  fun getMessagesForNotificationState(stickyThreads: Collection<StickyThread>, threadIds: Collection<Long>? = null): Cursor {
     val stickyQuery = StringBuilder()
 
     for ((conversationId, _, earliestTimestamp) in stickyThreads) {
@@ -4594,6 +4663,7 @@ open class MessageTable(context: Context?, databaseHelper: SignalDatabase) : Dat
         $NOTIFIED = 0 
         AND $STORY_TYPE = 0 
         AND $LATEST_REVISION_ID IS NULL 
+        ${if (threadIds != null) "AND $THREAD_ID IN (${threadIds.joinToString(",")})" else ""}
         AND (
           $READ = 0 
           OR $REACTIONS_UNREAD = 1 
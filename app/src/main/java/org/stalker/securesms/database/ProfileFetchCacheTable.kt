@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.database
+
+import android.content.Context
+import androidx.core.content.contentValuesOf
+import org.signal.core.util.SqlUtil
+import org.signal.core.util.delete
+import org.signal.core.util.requireLong
+import org.signal.core.util.requireNonNullBlob
+import org.signal.core.util.requireString
+import org.signal.core.util.withinTransaction
+import org.stalker.securesms.recipients.RecipientId
+
+/**
+ * Remembers, per recipient, the last retrieved profile that was found to already match what we have locally.
+ *
+ * An entry holds the profile key version the profile was fetched with, a digest of the encrypted profile together with the local state it
+ * was compared against, and when that was. If a later fetch produces the same version and digest, the profile can't have changed anything,
+ * so it doesn't need to be decrypted and compared again.
+ */
+class ProfileFetchCacheTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTable(context, databaseHelper), RecipientIdDatabaseReference {
+
+  companion object {
+    const val TABLE_NAME = "profile_fetch_cache"
+
+    private const val RECIPIENT_ID = "recipient_id"
+    private const val PROFILE_KEY_VERSION = "profile_key_version"
+    private const val DIGEST = "digest"
+    private const val FETCHED_AT = "fetched_at"
+
+    const val CREATE_TABLE = """
+      CREATE TABLE $TABLE_NAME (
+        $RECIPIENT_ID INTEGER PRIMARY KEY REFERENCES ${RecipientTable.TABLE_NAME} (${RecipientTable.ID}) ON DELETE CASCADE,
+        $PROFILE_KEY_VERSION TEXT DEFAULT NULL,
+        $DIGEST BLOB NOT NULL,
+        $FETCHED_AT INTEGER NOT NULL
+      )
+    """
+  }
+
+  fun getEntries(ids: Collection<RecipientId>): Map<RecipientId, Entry> {
+    val entries: MutableMap<RecipientId, Entry> = HashMap(ids.size)
+
+    SqlUtil.buildCollectionQuery(RECIPIENT_ID, ids.map { it.serialize() }).forEach { query ->
+      readableDatabase.query(TABLE_NAME, null, query.where, query.whereArgs, null, null, null).use { cursor ->
+        while (cursor.moveToNext()) {
+          entries[RecipientId.from(cursor.requireLong(RECIPIENT_ID))] = Entry(
+            profileKeyVersion = cursor.requireString(PROFILE_KEY_VERSION),
+            digest = cursor.requireNonNullBlob(DIGEST),
+            fetchedAt = cursor.requireLong(FETCHED_AT)
+          )
+        }
+      }
+    }
+
+    return entries
+  }
+
+  fun setEntries(entries: Map<RecipientId, Entry>) {
+    if (entries.isEmpty()) {
+      return
+    }
+
+    writableDatabase.withinTransaction { db ->
+      for ((recipientId, entry) in entries) {
+        val values = contentValuesOf(
+          RECIPIENT_ID to recipientId.serialize(),
+          PROFILE_KEY_VERSION to entry.profileKeyVersion,
+          DIGEST to entry.digest,
+          FETCHED_AT to entry.fetchedAt
+        )
+
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+      }
+    }
+  }
+
+  /**
+   * A merge changes the local state of the surviving recipient, so neither entry describes it anymore.
+   */
+  override fun remapRecipient(oldId: RecipientId, newId: RecipientId) {
+    writableDatabase
+      .delete(TABLE_NAME)
+      .where("$RECIPIENT_ID = ? OR $RECIPIENT_ID = ?", oldId, newId)
+      .run()
+  }
+
+  class Entry(
+    val profileKeyVersion: String?,
+    val digest: ByteArray,
+    val fetchedAt: Long
+  ) {
+    fun matches(other: Entry): Boolean {
+      return profileKeyVersion == other.profileKeyVersion && digest.contentEquals(other.digest)
+    }
+  }
+}
@@ -7,4 +7,10 @@ interface QueryMonitor {
   fun onQuery(distinct: Boolean, table: String, projection: Array<String>?, selection: String?, args: Array<Any>?, groupBy: String?, having: String?, orderBy: String?, limit: String?)
   fun onDelete(table: String, selection: String?, args: Array<Any>?)
   fun onUpdate(table: String, values: ContentValues, selection: String?, args: Array<Any>?)
+
+  /**
+   * Called after each SQL or query statement with whether it was likely served from the connection's compiled-statement cache, along with
+   * the running hit rate. See [StatementCacheTracker].
+   */
+  fun onStatementCacheLookup(hit: Boolean, hitRate: Float) = Unit
 }
@@ -0,0 +1,353 @@
+package org.stalker.securesms.database
+
+import android.database.Cursor
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.logging.Log
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.atomic.LongAdder
+import java.util.regex.Pattern
+import net.zetetic.database.sqlcipher.SQLiteDatabase as SQLCipherDatabase
+
+/**
+ * Keeps lightweight, in-memory statistics about every statement run through [SQLiteDatabase], grouped by statement "shape" (the SQL with
+ * its literals stripped out). For each shape we track histograms of execution time, rows changed, and time spent waiting to begin the
+ * enclosing transaction. The slowest individual statements are kept in a bounded ring, and query plans can be captured on demand for the
+ * slowest shapes.
+ *
+ * Off unless [enabled] is set, which only debug builds and internal users do. Recording takes no locks, so that profiling doesn't serialize
+ * the database threads it's measuring. Only shapes are ever kept, never the statements or arguments they came from, so nothing
+ * user-identifying that was inlined or bound into a statement is held onto.
+ */
+object QueryProfiler {
+
+  private val TAG = Log.tag(QueryProfiler::class.java)
+
+  private const val MAX_SHAPES = 500
+  private const val MAX_SQL_TO_SHAPE = 64
+  private const val SLOW_RING_SIZE = 128
+  private val SLOW_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(20)
+
+  /** Statements with new shapes are counted under this one once [MAX_SHAPES] are tracked. */
+  private const val OTHER_SHAPE = "(other)"
+
+  private val WHITESPACE = Pattern.compile("\\s+")
+  private val PLACEHOLDER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+")
+
+  @Volatile
+  @JvmStatic
+  var enabled: Boolean = false
+
+  private val pendingLockWait = ThreadLocal<Long>()
+
+  /** Each thread keeps its own small cache from SQL to shape, so that neither the lookup nor [shapeOf] needs a lock. */
+  private val sqlToShape: ThreadLocal<LinkedHashMap<String, String>> = ThreadLocal.withInitial { lruMap(MAX_SQL_TO_SHAPE) }
+
+  private val shapes: ConcurrentHashMap<String, ShapeStats> = ConcurrentHashMap()
+  private val slowRing: AtomicReferenceArray<SlowStatement> = AtomicReferenceArray(SLOW_RING_SIZE)
+  private val slowRingNext = AtomicInteger(0)
+
+  /**
+   * Records how long the current thread waited to begin a transaction. It's attributed to the next statement run on this thread, which is
+   * the first statement in that transaction.
+   */
+  @JvmStatic
+  fun onTransactionBegan(waitNanos: Long) {
+    if (enabled) {
+      pendingLockWait.set(waitNanos)
+    }
+  }
+
+  /**
+   * Records a completed statement. [rows] is the number of rows changed, or -1 if unknown, as it is for queries.
+   */
+  @JvmStatic
+  fun onStatement(sql: String, durationNanos: Long, rows: Int) {
+    if (!enabled) {
+      return
+    }
+
+    val lockWaitNanos = pendingLockWait.get() ?: 0L
+    if (lockWaitNanos != 0L) {
+      pendingLockWait.set(0L)
+    }
+
+    val shape = sqlToShape.get()!!.getOrPut(sql) { shapeOf(sql) }
+    val stats = getOrCreateStats(shape)
+
+    stats.count.increment()
+    stats.totalNanos.add(durationNanos)
+    stats.maxNanos.accumulateAndGet(durationNanos) { a, b -> maxOf(a, b) }
+    stats.durations.add(TimeUnit.NANOSECONDS.toMicros(durationNanos))
+    stats.lockWaits.add(TimeUnit.NANOSECONDS.toMicros(lockWaitNanos))
+    if (rows >= 0) {
+      stats.rows.add(rows.toLong())
+    }
+
+    if (durationNanos >= SLOW_THRESHOLD_NANOS) {
+      val slot = Math.floorMod(slowRingNext.getAndIncrement(), SLOW_RING_SIZE)
+      slowRing.set(slot, SlowStatement(System.currentTimeMillis(), shape, durationNanos, rows, lockWaitNanos, Thread.currentThread().name))
+    }
+  }
+
+  private fun getOrCreateStats(shape: String): ShapeStats {
+    shapes[shape]?.let { return it }
+
+    val key = if (shapes.size < MAX_SHAPES) shape else OTHER_SHAPE
+    return shapes.computeIfAbsent(key) { ShapeStats(it) }
+  }
+
+  /**
+   * Runs EXPLAIN QUERY PLAN for the [count] shapes with the slowest single execution, with NULL bound to every parameter, since the
+   * arguments aren't kept. Plans are kept with the shape until [clear] is called. Runs directly against [db] so the plans themselves aren't
+   * profiled.
+   */
+  fun capturePlans(db: SQLCipherDatabase, count: Int) {
+    val targets: List<ShapeStats> = shapes.values
+      .filter { it.plan == null && isExplainable(it.shape) }
+      .sortedByDescending { it.maxNanos.get() }
+      .take(count)
+
+    for (target in targets) {
+      target.plan = try {
+        db.rawQuery("EXPLAIN QUERY PLAN ${target.shape}", arrayOfNulls<Any>(target.shape.count { it == '?' })).use { it.readPlan() }
+      } catch (e: Exception) {
+        Log.w(TAG, "Failed to capture plan.", e)
+        "Failed: ${e.javaClass.simpleName}"
+      }
+    }
+  }
+
+  /**
+   * A copy of the current stats, slowest total time first.
+   */
+  fun getShapes(): List<ShapeSnapshot> {
+    return shapes.values.map { it.snapshot() }.sortedByDescending { it.totalMicros }
+  }
+
+  /**
+   * The retained slow statements, newest first.
+   */
+  fun getSlowStatements(): List<SlowStatement> {
+    val next = slowRingNext.get()
+
+    return (1..SLOW_RING_SIZE)
+      .map { slowRing.get(Math.floorMod(next - it, SLOW_RING_SIZE)) }
+      .takeWhile { it != null }
+      .filterNotNull()
+  }
+
+  /**
+   * Human-readable summary of the top [limit] shapes and the slow statement ring, for the debug log.
+   */
+  fun format(limit: Int): String {
+    val output = StringBuilder()
+
+    output.append("Shapes tracked: ${shapes.size}\n\n")
+
+    for (shape in getShapes().take(limit)) {
+      output.append(shape.shape).append('\n')
+      output.append(String.format(Locale.US, "  count: %d, total: %d ms, max: %.2f ms\n", shape.count, shape.totalMicros / 1000, shape.maxMicros / 1000f))
+      output.append("  time (us)      p50: ${shape.durations.percentile(0.5)}, p90: ${shape.durations.percentile(0.9)}, p99: ${shape.durations.percentile(0.99)}\n")
+      output.append("  rows           p50: ${shape.rows.percentile(0.5)}, p90: ${shape.rows.percentile(0.9)}, p99: ${shape.rows.percentile(0.99)}\n")
+      output.append("  lock wait (us) p50: ${shape.lockWaits.percentile(0.5)}, p90: ${shape.lockWaits.percentile(0.9)}, p99: ${shape.lockWaits.percentile(0.99)}\n")
+      if (shape.plan != null) {
+        output.append("  plan:\n")
+        shape.plan.lines().forEach { output.append("    ").append(it).append('\n') }
+      }
+      output.append('\n')
+    }
+
+    val slow = getSlowStatements()
+    output.append("Slow statements (>= ${TimeUnit.NANOSECONDS.toMillis(SLOW_THRESHOLD_NANOS)} ms): ${slow.size}\n")
+    for (statement in slow) {
+      output.append(String.format(Locale.US, "  [%d] [%s] %.2f ms, %d rows, %.2f ms lock wait: %s\n", statement.timestamp, statement.thread, statement.durationNanos / 1_000_000f, statement.rows, statement.lockWaitNanos / 1_000_000f, statement.shape))
+    }
+
+    return output.toString()
+  }
+
+  /**
+   * Drops everything recorded so far. Statements recorded while this runs may or may not survive it.
+   */
+  fun clear() {
+    shapes.clear()
+    for (i in 0 until SLOW_RING_SIZE) {
+      slowRing.set(i, null)
+    }
+    slowRingNext.set(0)
+  }
+
+  /**
+   * Reduces a statement to its shape: literals become `?`, runs of placeholders (like those in an IN clause) collapse to one, and
+   * whitespace is normalized.
+   */
+  @VisibleForTesting
+  fun shapeOf(sql: String): String {
+    val output = StringBuilder(sql.length)
+    var i = 0
+
+    while (i < sql.length) {
+      val c = sql[i]
+
+      if (c == '\'') {
+        i++
+        while (i < sql.length) {
+          if (sql[i] == '\'') {
+            if (i + 1 < sql.length && sql[i + 1] == '\'') {
+              i += 2
+              continue
+            }
+            break
+          }
+          i++
+        }
+        output.append('?')
+        i++
+      } else if (c.isDigit() && (output.isEmpty() || !output[output.length - 1].isIdentifierPart())) {
+        val negative = output.endsWith("-") && (output.length == 1 || !output[output.length - 2].isIdentifierPart())
+        if (negative) {
+          output.setLength(output.length - 1)
+        }
+        while (i < sql.length && (sql[i].isLetterOrDigit() || sql[i] == '.')) {
+          i++
+        }
+        output.append('?')
+      } else {
+        output.append(c)
+        i++
+      }
+    }
+
+    val collapsed = WHITESPACE.matcher(output).replaceAll(" ").trim()
+    return PLACEHOLDER_LIST.matcher(collapsed).replaceAll("?")
+  }
+
+  private fun isExplainable(shape: String): Boolean {
+    val keyword = shape.substringBefore(' ').uppercase(Locale.US)
+    return keyword == "SELECT" || keyword == "WITH" || keyword == "UPDATE" || keyword == "DELETE"
+  }
+
+  private fun Char.isIdentifierPart(): Boolean {
+    return isLetterOrDigit() || this == '_' || this == '.'
+  }
+
+  private fun Cursor.readPlan(): String {
+    val depths = HashMap<Int, Int>()
+    val lines = mutableListOf<String>()
+
+    while (moveToNext()) {
+      val id = getInt(0)
+      val parent = getInt(1)
+      val depth = (depths[parent] ?: -1) + 1
+      depths[id] = depth
+      lines += "  ".repeat(depth) + getString(3)
+    }
+
+    return lines.joinToString("\n")
+  }
+
+  private fun <V> lruMap(maxSize: Int): LinkedHashMap<String, V> {
+    return object : LinkedHashMap<String, V>(16, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, V>?): Boolean {
+        return size > maxSize
+      }
+    }
+  }
+
+  /**
+   * Log2-bucketed histogram. Bucket 0 holds zeros, and bucket `n` holds values in `[2^(n-1), 2^n)`. Safe to add to from any thread.
+   */
+  class Histogram {
+    private val buckets = AtomicLongArray(BUCKETS)
+
+    fun add(value: Long) {
+      val bucket = (64 - java.lang.Long.numberOfLeadingZeros(value.coerceAtLeast(0))).coerceAtMost(BUCKETS - 1)
+      buckets.incrementAndGet(bucket)
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile, or 0 if empty.
+     */
+    fun percentile(percentile: Double): Long {
+      val counts = LongArray(BUCKETS) { buckets.get(it) }
+      val total = counts.sum()
+      if (total == 0L) {
+        return 0
+      }
+
+      val target = Math.ceil(total * percentile).toLong().coerceAtLeast(1)
+      var seen = 0L
+      for (i in counts.indices) {
+        seen += counts[i]
+        if (seen >= target) {
+          return if (i == 0) 0 else 1L shl i
+        }
+      }
+
+      return 1L shl (BUCKETS - 1)
+    }
+
+    fun copy(): Histogram {
+      return Histogram().also { copy ->
+        for (i in 0 until BUCKETS) {
+          copy.buckets.set(i, buckets.get(i))
+        }
+      }
+    }
+
+    companion object {
+      const val BUCKETS = 32
+    }
+  }
+
+  private class ShapeStats(val shape: String) {
+    val count = LongAdder()
+    val totalNanos = LongAdder()
+    val maxNanos = AtomicLong(0)
+    val durations = Histogram()
+    val rows = Histogram()
+    val lockWaits = Histogram()
+
+    @Volatile
+    var plan: String? = null
+
+    fun snapshot(): ShapeSnapshot {
+      return ShapeSnapshot(
+        shape = shape,
+        count = count.sum(),
+        totalMicros = TimeUnit.NANOSECONDS.toMicros(totalNanos.sum()),
+        maxMicros = TimeUnit.NANOSECONDS.toMicros(maxNanos.get()),
+        durations = durations.copy(),
+        rows = rows.copy(),
+        lockWaits = lockWaits.copy(),
+        plan = plan
+      )
+    }
+  }
+
+  data class ShapeSnapshot(
+    val shape: String,
+    val count: Long,
+    val totalMicros: Long,
+    val maxMicros: Long,
+    val durations: Histogram,
+    val rows: Histogram,
+    val lockWaits: Histogram,
+    val plan: String?
+  )
+
+  data class SlowStatement(
+    val timestamp: Long,
+    val shape: String,
+    val durationNanos: Long,
+    val rows: Int,
+    val lockWaitNanos: Long,
+    val thread: String
+  )
+}
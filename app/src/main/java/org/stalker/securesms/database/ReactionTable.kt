@@ -113,6 +113,7 @@ class ReactionTable(context: Context, databaseHelper: SignalDatabase) : Database
 
       writableDatabase.insert(TABLE_NAME, null, values)
       SignalDatabase.messages.updateReactionsUnread(writableDatabase, messageId.id, hasReactions(messageId), false)
+      notifyConversationWriteListeners(messageId)
 
       writableDatabase.setTransactionSuccessful()
     } finally {
@@ -131,6 +132,7 @@ class ReactionTable(context: Context, databaseHelper: SignalDatabase) : Database
         .run()
 
       SignalDatabase.messages.updateReactionsUnread(writableDatabase, messageId.id, hasReactions(messageId), true)
+      notifyConversationWriteListeners(messageId)
 
       writableDatabase.setTransactionSuccessful()
     } finally {
@@ -156,6 +158,17 @@ class ReactionTable(context: Context, databaseHelper: SignalDatabase) : Database
     }
   }
 
+  /**
+   * Reactions change what a thread's notification shows, so the notification state cache needs to hear about them.
+   * Queued until the surrounding transaction succeeds.
+   */
+  private fun notifyConversationWriteListeners(messageId: MessageId) {
+    val threadId = SignalDatabase.messages.getThreadIdForMessage(messageId.id)
+    if (threadId > 0) {
+      ApplicationDependencies.getDatabaseObserver().notifyConversationWriteListeners(threadId)
+    }
+  }
+
   private fun hasReactions(messageId: MessageId): Boolean {
     val query = "$MESSAGE_ID = ?"
     val args = SqlUtil.buildArgs(messageId.id)
@@ -0,0 +1,399 @@
+package org.stalker.securesms.database
+
+import androidx.annotation.WorkerThread
+import org.signal.core.util.GlobFolding
+import org.signal.core.util.logging.Log
+import org.stalker.securesms.recipients.RecipientId
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * An in-memory index over the text that recipient searches GLOB against -- names, usernames, phone numbers, emails and group titles --
+ * so a search can look up the recipients that might match instead of scanning the recipient table on every keystroke.
+ *
+ * Text is folded with [GlobFolding], so the index finds at least every recipient the GLOB would. Every sequence of up to three characters
+ * in the folded text is indexed, so a query only has to check the recipients that contain its rarest such sequence, and a query that
+ * extends the previous one only has to check the previous matches.
+ *
+ * Recipients that were written since the last search (see [DatabaseObserver.RecipientWriteListener]) and recipients that were inserted
+ * since then are read again before the next search. Everything is read on first use, and every so often in case a write wasn't reported.
+ */
+class RecipientSearchIndex(
+  private val source: Source,
+  private val clock: () -> Long = System::currentTimeMillis
+) : DatabaseObserver.RecipientWriteListener {
+
+  private val changedIds: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+  @Volatile private var needsFullRebuild: Boolean = true
+
+  private val slots: MutableList<Slot?> = ArrayList()
+  private val slotsById: MutableMap<Long, Int> = HashMap()
+  private val postings: MutableMap<Long, IntList> = HashMap()
+  private var removedSlots: Int = 0
+  private var maxRecipientId: Long = 0
+  private var lastFullRebuild: Long = 0
+
+  /** Bumped whenever the index changes, so we know whether [previousMatches] are still valid. */
+  private var generation: Int = 0
+  private var previousGeneration: Int = -1
+  private var previousQuery: IntArray? = null
+  private var previousMatches: IntList? = null
+
+  override fun onRecipientWritten(recipientId: RecipientId) {
+    changedIds += recipientId.toLong()
+  }
+
+  /**
+   * The recipients whose text may match [query], best matches first: those where some piece of text starts with the query, then those
+   * where a word starts with it, then the rest.
+   *
+   * @param limit If more recipients than this match, null is returned instead, for callers that can't make use of that many.
+   * @return The matching recipients, or null if more than [limit] match or the query can't be answered from the index, which is the case
+   *         for an empty query and for queries with characters that a GLOB doesn't match one-to-one.
+   */
+  @WorkerThread
+  @Synchronized
+  fun search(query: String, limit: Int = Int.MAX_VALUE): List<RecipientId>? {
+    val pattern: Array<IntArray> = getPattern(query) ?: return null
+
+    refresh()
+
+    val matches = IntList()
+    val ranks = IntList()
+
+    forEachCandidate(pattern) { slotIndex ->
+      val slot = slots[slotIndex] ?: return@forEachCandidate
+      val rank = getRank(slot.text, pattern)
+
+      if (rank != NO_MATCH) {
+        if (matches.size == limit) {
+          // We haven't seen every match, so the next query can't be narrowed down from these
+          previousQuery = null
+          return null
+        }
+
+        matches.add(slotIndex)
+        ranks.add(rank)
+      }
+    }
+
+    previousQuery = getSimpleKeys(pattern)
+    previousMatches = matches
+    previousGeneration = generation
+
+    return (0 until matches.size)
+      .sortedWith(compareBy({ ranks[it] }, { slots[matches[it]]!!.sortKey }))
+      .map { RecipientId.from(slots[matches[it]]!!.recipientId) }
+  }
+
+  val size: Int
+    @Synchronized get() = slotsById.size
+
+  private fun refresh() {
+    val now = clock()
+
+    if (needsFullRebuild || now - lastFullRebuild >= FULL_REBUILD_INTERVAL) {
+      // Cleared before reading, so that writes that land while we read are picked up next time
+      needsFullRebuild = false
+      changedIds.clear()
+
+      val startTime = System.currentTimeMillis()
+
+      clear()
+      for (entry in source.getEntriesAfter(0)) {
+        add(entry)
+      }
+      lastFullRebuild = now
+
+      Log.d(TAG, "Indexed ${slotsById.size} recipient(s) in ${System.currentTimeMillis() - startTime} ms")
+      return
+    }
+
+    if (changedIds.isNotEmpty()) {
+      val ids: MutableSet<Long> = HashSet()
+
+      val iterator = changedIds.iterator()
+      while (iterator.hasNext()) {
+        ids += iterator.next()
+        iterator.remove()
+      }
+
+      val entries = source.getEntries(ids)
+
+      for (id in ids) {
+        remove(id)
+      }
+
+      for (entry in entries) {
+        add(entry)
+      }
+    }
+
+    for (entry in source.getEntriesAfter(maxRecipientId)) {
+      remove(entry.recipientId)
+      add(entry)
+    }
+
+    if (removedSlots > MIN_REMOVED_SLOTS_TO_COMPACT && removedSlots > slotsById.size) {
+      compact()
+    }
+  }
+
+  private fun clear() {
+    slots.clear()
+    slotsById.clear()
+    postings.clear()
+    removedSlots = 0
+    maxRecipientId = 0
+    generation++
+  }
+
+  private fun add(entry: Entry) {
+    add(Slot(entry.recipientId, fold(entry.texts), entry.texts.firstOrNull { !it.isNullOrEmpty() }?.lowercase() ?: ""))
+  }
+
+  private fun add(slot: Slot) {
+    val slotIndex = slots.size
+    val text = slot.text
+
+    slots += slot
+    slotsById[slot.recipientId] = slotIndex
+    maxRecipientId = maxOf(maxRecipientId, slot.recipientId)
+    generation++
+
+    for (length in 1..MAX_GRAM_LENGTH) {
+      for (i in 0..text.size - length) {
+        if ((i until i + length).any { text[it] == SEPARATOR }) {
+          continue
+        }
+
+        // Slots only ever get appended, so every posting list stays sorted and without duplicates
+        val posting = postings.getOrPut(gram(text, i, length)) { IntList() }
+        if (posting.isEmpty() || posting.last() != slotIndex) {
+          posting.add(slotIndex)
+        }
+      }
+    }
+  }
+
+  private fun remove(recipientId: Long) {
+    val slotIndex = slotsById.remove(recipientId) ?: return
+    slots[slotIndex] = null
+    removedSlots++
+    generation++
+  }
+
+  /**
+   * Drops the slots of recipients that were removed or written since they were added, along with their postings.
+   */
+  private fun compact() {
+    val live = slots.filterNotNull()
+    val maxId = maxRecipientId
+
+    clear()
+    for (slot in live) {
+      add(slot)
+    }
+    maxRecipientId = maxId
+  }
+
+  /**
+   * Calls [block] with every slot that could match [pattern], using whichever is smallest of the previous matches (if the query extends
+   * the previous one) and the posting list of the query's rarest sequence of characters. Only if neither can be used, because every
+   * sequence has a character that matches more than one key, is it called with every slot.
+   */
+  private inline fun forEachCandidate(pattern: Array<IntArray>, block: (Int) -> Unit) {
+    var candidates: IntList? = null
+
+    val simpleKeys = getSimpleKeys(pattern)
+    val previous = previousQuery
+    if (simpleKeys != null && previous != null && previousGeneration == generation && contains(simpleKeys, previous)) {
+      candidates = previousMatches
+    }
+
+    val length = minOf(MAX_GRAM_LENGTH, pattern.size)
+
+    for (i in 0..pattern.size - length) {
+      if ((i until i + length).any { pattern[it].size != 1 }) {
+        continue
+      }
+
+      val posting = postings[gram(IntArray(length) { pattern[i + it][0] }, 0, length)] ?: return
+
+      if (candidates == null || posting.size < candidates.size) {
+        candidates = posting
+      }
+    }
+
+    if (candidates != null) {
+      for (i in 0 until candidates.size) {
+        block(candidates[i])
+      }
+    } else {
+      for (i in slots.indices) {
+        block(i)
+      }
+    }
+  }
+
+  private class Slot(
+    val recipientId: Long,
+    val text: IntArray,
+    val sortKey: String
+  )
+
+  /**
+   * A recipient and the pieces of text it can be searched by, most important first.
+   */
+  class Entry(
+    val recipientId: Long,
+    val texts: List<String?>
+  )
+
+  interface Source {
+    /** Every recipient with an id greater than [recipientId]. */
+    fun getEntriesAfter(recipientId: Long): List<Entry>
+
+    /** The recipients with the given ids that still exist. */
+    fun getEntries(recipientIds: Collection<Long>): List<Entry>
+  }
+
+  /** A growable list of ints, to keep posting lists from boxing. */
+  private class IntList {
+    private var values = IntArray(4)
+
+    var size: Int = 0
+      private set
+
+    fun add(value: Int) {
+      if (size == values.size) {
+        values = values.copyOf(size * 2)
+      }
+      values[size++] = value
+    }
+
+    operator fun get(index: Int): Int = values[index]
+
+    fun isEmpty(): Boolean = size == 0
+
+    fun last(): Int = values[size - 1]
+
+    fun toIntArray(): IntArray = values.copyOf(size)
+  }
+
+  companion object {
+    private val TAG = Log.tag(RecipientSearchIndex::class.java)
+
+    private val FULL_REBUILD_INTERVAL = TimeUnit.MINUTES.toMillis(30)
+
+    private const val MIN_REMOVED_SLOTS_TO_COMPACT = 1024
+    private const val MAX_GRAM_LENGTH = 3
+    private const val SEPARATOR = 0
+
+    /** Fills the rest of a sequence shorter than [MAX_GRAM_LENGTH]. Not a code point, so it can't clash with a key. */
+    private const val NONE = 0x1FFFFF
+
+    private const val FIELD_START = 0
+    private const val WORD_START = 1
+    private const val ANYWHERE = 2
+    private const val NO_MATCH = Int.MAX_VALUE
+
+    /** Characters that [org.signal.core.util.SqlUtil.buildCaseInsensitiveGlobPattern] doesn't put into a character class as-is. */
+    private val UNSUPPORTED_CHARACTERS = setOf('[', ']', '^', '\u0000')
+
+    /**
+     * For every character of [query], the folded keys it matches. Null if the index can't answer the query.
+     */
+    private fun getPattern(query: String): Array<IntArray>? {
+      if (query.isEmpty() || query.any { it in UNSUPPORTED_CHARACTERS || Character.isSurrogate(it) }) {
+        return null
+      }
+
+      return Array(query.length) { GlobFolding.foldMatching(query[it].code) }
+    }
+
+    private fun fold(texts: List<String?>): IntArray {
+      val folded = IntList()
+
+      for (text in texts.filterNot { it.isNullOrEmpty() }.distinct()) {
+        if (!folded.isEmpty()) {
+          folded.add(SEPARATOR)
+        }
+
+        var offset = 0
+        while (offset < text!!.length) {
+          val codePoint = text.codePointAt(offset)
+          folded.add(GlobFolding.fold(codePoint))
+          offset += Character.charCount(codePoint)
+        }
+      }
+
+      return folded.toIntArray()
+    }
+
+    /**
+     * How well [text] matches [pattern], lower being better, or [NO_MATCH].
+     */
+    private fun getRank(text: IntArray, pattern: Array<IntArray>): Int {
+      var best = NO_MATCH
+
+      for (start in 0..text.size - pattern.size) {
+        var matches = true
+        for (i in pattern.indices) {
+          if (!pattern[i].contains(text[start + i])) {
+            matches = false
+            break
+          }
+        }
+
+        if (matches) {
+          val rank = when {
+            start == 0 || text[start - 1] == SEPARATOR -> FIELD_START
+            !Character.isLetterOrDigit(text[start - 1]) -> WORD_START
+            else -> ANYWHERE
+          }
+
+          if (rank == FIELD_START) {
+            return rank
+          }
+          best = minOf(best, rank)
+        }
+      }
+
+      return best
+    }
+
+    /** The pattern's keys if every character matches exactly one, else null. */
+    private fun getSimpleKeys(pattern: Array<IntArray>): IntArray? {
+      return if (pattern.all { it.size == 1 }) IntArray(pattern.size) { pattern[it][0] } else null
+    }
+
+    private fun contains(haystack: IntArray, needle: IntArray): Boolean {
+      for (start in 0..haystack.size - needle.size) {
+        var matches = true
+        for (i in needle.indices) {
+          if (haystack[start + i] != needle[i]) {
+            matches = false
+            break
+          }
+        }
+        if (matches) {
+          return true
+        }
+      }
+      return false
+    }
+
+    /**
+     * Packs the [length] keys starting at [start] into one posting key, 21 bits each.
+     */
+    private fun gram(keys: IntArray, start: Int, length: Int): Long {
+      val first = keys[start]
+      val second = if (length > 1) keys[start + 1] else NONE
+      val third = if (length > 2) keys[start + 2] else NONE
+
+      return (first.toLong() shl 42) or (second.toLong() shl 21) or third.toLong()
+    }
+  }
+}
@@ -84,6 +84,7 @@ import org.stalker.securesms.groups.v2.processing.GroupsV2StateProcessor
 import org.stalker.securesms.jobs.RequestGroupV2InfoJob
 import org.stalker.securesms.jobs.RetrieveProfileJob
 import org.stalker.securesms.keyvalue.SignalStore
+import org.stalker.securesms.phonenumbers.NumberUtil
 import org.stalker.securesms.profiles.ProfileName
 import org.stalker.securesms.recipients.Recipient
 import org.stalker.securesms.recipients.RecipientId
@@ -123,6 +124,13 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
 
   val TAG = Log.tag(RecipientTable::class.java)
 
+  /** Narrows down the contact searches in here and in [GroupTable]. See [getSearchCandidates]. */
+  val searchIndex: RecipientSearchIndex by lazy {
+    RecipientSearchIndex(SearchIndexSource()).also {
+      ApplicationDependencies.getDatabaseObserver().registerRecipientWriteListener(it)
+    }
+  }
+
   companion object {
     private val UNREGISTERED_LIFESPAN: Long = TimeUnit.DAYS.toMillis(30)
 
@@ -406,6 +414,9 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     /** Used as a placeholder recipient for self during migrations when self isn't yet available. */
     private val PLACEHOLDER_SELF_ID = -2L
 
+    /** Past this many, looking the candidates up by id is no faster than scanning the table. */
+    private const val MAX_SEARCH_CANDIDATES = 500
+
     @JvmStatic
     fun maskCapabilitiesToLong(capabilities: SignalServiceProfile.Capabilities): Long {
       var value: Long = 0
@@ -3302,6 +3313,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .withGroups(false)
       .excludeId(if (contactSearchQuery.includeSelf) null else Recipient.self().id)
       .withSearchQuery(query)
+      .withCandidates(getSearchCandidates(contactSearchQuery.query))
       .build()
     val selection = searchSelection.where
     val args = searchSelection.args
@@ -3343,6 +3355,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .withGroups(false)
       .excludeId(if (includeSelf) null else Recipient.self().id)
       .withSearchQuery(inputQuery)
+      .withCandidates(getSearchCandidates(inputQuery))
       .build()
 
     return readableDatabase.query(
@@ -3391,6 +3404,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .withNonRegistered(true)
       .withGroups(false)
       .withSearchQuery(query)
+      .withCandidates(getSearchCandidates(inputQuery))
       .build()
     val selection = searchSelection.where
     val args = searchSelection.args
@@ -3418,6 +3432,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .withGroups(false)
       .excludeId(if (includeSelf) null else Recipient.self().id)
       .withSearchQuery(query)
+      .withCandidates(getSearchCandidates(inputQuery))
       .build()
     val selection = searchSelection.where
     val args = searchSelection.args
@@ -3442,6 +3457,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .withGroupMembers(true)
       .excludeId(Recipient.self().id)
       .withSearchQuery(query)
+      .withCandidates(getSearchCandidates(inputQuery))
       .build()
 
     val selection = searchSelection.where
@@ -3451,6 +3467,20 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     return readableDatabase.query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, orderBy)
   }
 
+  /**
+   * The recipients that [searchIndex] says could match a contact or group search for [inputQuery], to narrow the search's GLOBs down to
+   * so it doesn't have to go through the whole table. Null if the index can't answer the query or too many recipients could match for
+   * it to help, in which case the GLOBs alone decide, as they always have.
+   */
+  fun getSearchCandidates(inputQuery: String): List<RecipientId>? {
+    return searchIndex.search(inputQuery, MAX_SEARCH_CANDIDATES)
+  }
+
+  private fun getSearchCandidatesClause(inputQuery: String): String {
+    val candidates = getSearchCandidates(inputQuery) ?: return ""
+    return " AND " + ContactSearchSelection.buildCandidatesClause(candidates)
+  }
+
   fun queryAllContacts(inputQuery: String): Cursor? {
     val query = SqlUtil.buildCaseInsensitiveGlobPattern(inputQuery)
     val selection =
@@ -3461,7 +3491,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
           $USERNAME GLOB ? OR 
           ${ContactSearchSelection.E164_SEARCH} OR 
           $EMAIL GLOB ?
-        )
+        )${getSearchCandidatesClause(inputQuery)}
       """
     val args = SqlUtil.buildArgs(0, query, query, query, query)
     return readableDatabase.query(TABLE_NAME, SEARCH_PROJECTION, selection, args, null, null, null)
@@ -3482,7 +3512,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
           $USERNAME GLOB ? OR 
           ${ContactSearchSelection.E164_SEARCH} OR 
           $EMAIL GLOB ?
-      ))
+      )${getSearchCandidatesClause(inputQuery)})
     """
 
     return SqlUtil.Query(subquery, SqlUtil.buildArgs(0, 0, query, query, query, query))
@@ -3503,7 +3533,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
           $USERNAME GLOB ? OR 
           ${ContactSearchSelection.E164_SEARCH} OR 
           $EMAIL GLOB ?
-      )
+      )${getSearchCandidatesClause(inputQuery)}
     """
 
     return readableDatabase.query(subquery, SqlUtil.buildArgs(0, 0, query, query, query, query))
@@ -3552,6 +3582,9 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
    * @param lastInteractionThreshold Only include contacts that have been interacted with since this time.
    * @param lastProfileFetchThreshold Only include contacts that haven't their profile fetched after this time.
    * @param limit Only return at most this many contact.
+   *
+   * The contacts whose profiles were fetched the longest ago come first. Contacts that were fetched on the same day are ordered by most
+   * recent interaction.
    */
   fun getRecipientsForRoutineProfileFetch(lastInteractionThreshold: Long, lastProfileFetchThreshold: Long, limit: Int): List<RecipientId> {
     val threadDatabase = threads
@@ -3575,6 +3608,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       .asSequence()
       .filterNot { it.isSelf }
       .filter { it.lastProfileFetchTime < lastProfileFetchThreshold }
+      .sortedBy { TimeUnit.MILLISECONDS.toDays(it.lastProfileFetchTime) }
       .take(limit)
       .map { it.id }
       .toMutableList()
@@ -4280,6 +4314,31 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     val neededThreadMerge: Boolean
   )
 
+  private fun buildSystemContactValues(
+    systemProfileName: ProfileName,
+    systemDisplayName: String?,
+    photoUri: String?,
+    systemPhoneLabel: String?,
+    systemPhoneType: Int,
+    systemContactUri: String?
+  ): ContentValues {
+    val joinedName = Util.firstNonNull(systemDisplayName, systemProfileName.toString())
+
+    return ContentValues().apply {
+      put(SYSTEM_GIVEN_NAME, systemProfileName.givenName)
+      put(SYSTEM_FAMILY_NAME, systemProfileName.familyName)
+      put(SYSTEM_JOINED_NAME, joinedName)
+      put(SYSTEM_PHOTO_URI, photoUri)
+      put(SYSTEM_PHONE_LABEL, systemPhoneLabel)
+      put(SYSTEM_PHONE_TYPE, systemPhoneType)
+      put(SYSTEM_CONTACT_URI, systemContactUri)
+    }
+  }
+
+  private fun SystemContactInfo.toContentValues(): ContentValues {
+    return buildSystemContactValues(profileName, displayName, photoUri, phoneLabel, phoneType, contactUri)
+  }
+
   inner class BulkOperationsHandle internal constructor(private val database: SQLiteDatabase) {
     private val pendingRecipients: MutableSet<RecipientId> = mutableSetOf()
 
@@ -4292,17 +4351,87 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       systemPhoneType: Int,
       systemContactUri: String?
     ) {
-      val joinedName = Util.firstNonNull(systemDisplayName, systemProfileName.toString())
-      val refreshQualifyingValues = ContentValues().apply {
-        put(SYSTEM_GIVEN_NAME, systemProfileName.givenName)
-        put(SYSTEM_FAMILY_NAME, systemProfileName.familyName)
-        put(SYSTEM_JOINED_NAME, joinedName)
-        put(SYSTEM_PHOTO_URI, photoUri)
-        put(SYSTEM_PHONE_LABEL, systemPhoneLabel)
-        put(SYSTEM_PHONE_TYPE, systemPhoneType)
-        put(SYSTEM_CONTACT_URI, systemContactUri)
+      setSystemContactInfo(id, buildSystemContactValues(systemProfileName, systemDisplayName, photoUri, systemPhoneLabel, systemPhoneType, systemContactUri))
+    }
+
+    /**
+     * Same as calling [setSystemContactInfo] for each contact, but the recipients for phone numbers are looked up in bulk, and contacts whose
+     * stored system info already matches are only marked as still present rather than rewritten. If a number appears more than once,
+     * the last one wins, like it would with individual calls.
+     */
+    fun setSystemContactInfo(contacts: Collection<SystemContactInfo>) {
+      val byIdentifier: MutableMap<String, SystemContactInfo> = LinkedHashMap()
+      for (contact in contacts) {
+        byIdentifier[contact.identifier] = contact
+      }
+
+      val (emails, e164s) = byIdentifier.values.partition { NumberUtil.isValidEmail(it.identifier) }
+
+      for (contact in emails) {
+        setSystemContactInfo(getOrInsertFromEmail(contact.identifier), contact.toContentValues())
       }
 
+      val existing: Map<String, Pair<RecipientId, ContentValues?>> = getSystemContactInfoByE164(e164s.map { it.identifier })
+      val unchanged: MutableList<RecipientId> = ArrayList(existing.size)
+
+      for (contact in e164s) {
+        val values = contact.toContentValues()
+        val current = existing[contact.identifier]
+
+        if (current != null && current.second != null && values.keySet().all { values.getAsString(it) == current.second!!.getAsString(it) }) {
+          unchanged += current.first
+        } else {
+          setSystemContactInfo(current?.first ?: getOrInsertFromE164(contact.identifier), values)
+        }
+      }
+
+      if (unchanged.isNotEmpty()) {
+        val values = contentValuesOf(SYSTEM_INFO_PENDING to 0)
+        SqlUtil.buildCollectionQuery(ID, unchanged).forEach { query ->
+          database.update(TABLE_NAME, values, query.where, query.whereArgs)
+        }
+      }
+
+      Log.d(TAG, "[setSystemContactInfo] ${unchanged.size} of ${byIdentifier.size} contact(s) were unchanged.")
+    }
+
+    /**
+     * @return The recipient and current system info for each e164 that has a recipient. The info is null if the recipient can't have
+     *         system info set, in which case [setSystemContactInfo] won't change it.
+     */
+    private fun getSystemContactInfoByE164(e164s: Collection<String>): Map<String, Pair<RecipientId, ContentValues?>> {
+      val results: MutableMap<String, Pair<RecipientId, ContentValues?>> = HashMap(e164s.size)
+      val columns = arrayOf(ID, E164, PHONE_NUMBER_DISCOVERABLE, SYSTEM_GIVEN_NAME, SYSTEM_FAMILY_NAME, SYSTEM_JOINED_NAME, SYSTEM_PHOTO_URI, SYSTEM_PHONE_LABEL, SYSTEM_PHONE_TYPE, SYSTEM_CONTACT_URI)
+
+      SqlUtil.buildCollectionQuery(E164, e164s).forEach { query ->
+        database.query(TABLE_NAME, columns, query.where, query.whereArgs, null, null, null).use { cursor ->
+          while (cursor.moveToNext()) {
+            val id = RecipientId.from(cursor.requireLong(ID))
+            val discoverable = cursor.requireInt(PHONE_NUMBER_DISCOVERABLE) != PhoneNumberDiscoverableState.NOT_DISCOVERABLE.id
+
+            val values = if (discoverable) {
+              ContentValues().apply {
+                put(SYSTEM_GIVEN_NAME, cursor.requireString(SYSTEM_GIVEN_NAME))
+                put(SYSTEM_FAMILY_NAME, cursor.requireString(SYSTEM_FAMILY_NAME))
+                put(SYSTEM_JOINED_NAME, cursor.requireString(SYSTEM_JOINED_NAME))
+                put(SYSTEM_PHOTO_URI, cursor.requireString(SYSTEM_PHOTO_URI))
+                put(SYSTEM_PHONE_LABEL, cursor.requireString(SYSTEM_PHONE_LABEL))
+                put(SYSTEM_PHONE_TYPE, cursor.requireString(SYSTEM_PHONE_TYPE))
+                put(SYSTEM_CONTACT_URI, cursor.requireString(SYSTEM_CONTACT_URI))
+              }
+            } else {
+              null
+            }
+
+            results[cursor.requireNonNullString(E164)] = id to values
+          }
+        }
+      }
+
+      return results
+    }
+
+    private fun setSystemContactInfo(id: RecipientId, refreshQualifyingValues: ContentValues) {
       val updateQuery = SqlUtil.buildTrueUpdateQuery("$ID = ? AND $PHONE_NUMBER_DISCOVERABLE != ?", SqlUtil.buildArgs(id, PhoneNumberDiscoverableState.NOT_DISCOVERABLE.id), refreshQualifyingValues)
       if (update(updateQuery, refreshQualifyingValues)) {
         pendingRecipients.add(id)
@@ -4419,6 +4548,47 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     val contactSearchSortOrder: ContactSearchSortOrder = ContactSearchSortOrder.NATURAL
   )
 
+  /**
+   * Reads the text [searchIndex] indexes: everything the contact searches GLOB against, plus group titles.
+   */
+  private inner class SearchIndexSource : RecipientSearchIndex.Source {
+    override fun getEntriesAfter(recipientId: Long): List<RecipientSearchIndex.Entry> {
+      return readEntries("$TABLE_NAME.$ID > ?", SqlUtil.buildArgs(recipientId))
+    }
+
+    override fun getEntries(recipientIds: Collection<Long>): List<RecipientSearchIndex.Entry> {
+      return SqlUtil.buildCollectionQuery("$TABLE_NAME.$ID", recipientIds).flatMap { readEntries(it.where, it.whereArgs) }
+    }
+
+    private fun readEntries(where: String, args: Array<String>): List<RecipientSearchIndex.Entry> {
+      //language=sql
+      val query = """
+        SELECT 
+          $TABLE_NAME.$ID,
+          ${GroupTable.TABLE_NAME}.${GroupTable.TITLE},
+          $NICKNAME_JOINED_NAME,
+          $NICKNAME_GIVEN_NAME,
+          $SYSTEM_JOINED_NAME,
+          $SYSTEM_GIVEN_NAME,
+          $PROFILE_JOINED_NAME,
+          $PROFILE_GIVEN_NAME,
+          $USERNAME,
+          $E164,
+          $EMAIL
+        FROM $TABLE_NAME
+        LEFT OUTER JOIN ${GroupTable.TABLE_NAME} ON ${GroupTable.TABLE_NAME}.${GroupTable.RECIPIENT_ID} = $TABLE_NAME.$ID
+        WHERE $where
+      """
+
+      return readableDatabase.query(query, args).readToList { cursor ->
+        RecipientSearchIndex.Entry(
+          recipientId = cursor.getLong(0),
+          texts = (1 until cursor.columnCount).map { cursor.getString(it) }
+        )
+      }
+    }
+  }
+
   @VisibleForTesting
   internal class ContactSearchSelection private constructor(val where: String, val args: Array<String>) {
 
@@ -4430,6 +4600,7 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       private var excludeId: RecipientId? = null
       private var excludeGroups = false
       private var searchQuery: String? = null
+      private var candidates: Collection<RecipientId>? = null
 
       fun withRegistered(includeRegistered: Boolean): Builder {
         this.includeRegistered = includeRegistered
@@ -4461,6 +4632,14 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
         return this
       }
 
+      /**
+       * Only match recipients in [candidates], if there are any. See [RecipientTable.getSearchCandidates].
+       */
+      fun withCandidates(candidates: Collection<RecipientId>?): Builder {
+        this.candidates = candidates
+        return this
+      }
+
       fun build(): ContactSearchSelection {
         check(!(!includeRegistered && !includeNonRegistered && !includeGroupMembers)) { "Must include either registered, non-registered, or group member recipients in search" }
         val stringBuilder = StringBuilder("(")
@@ -4540,6 +4719,11 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
           args.add(excludeId!!.serialize())
         }
 
+        if (candidates != null) {
+          stringBuilder.append(" AND ")
+          stringBuilder.append(buildCandidatesClause(candidates!!))
+        }
+
         return ContactSearchSelection(stringBuilder.toString(), args.map { obj: Any? -> obj.toString() }.toTypedArray())
       }
     }
@@ -4565,6 +4749,13 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
       val QUERY_SIGNAL_CONTACT = "$SIGNAL_CONTACT AND ($E164_SEARCH OR $SORT_NAME GLOB ? OR $USERNAME GLOB ?)"
       val GROUP_MEMBER_CONTACT = "$REGISTERED = ? AND $HAS_GROUP_IN_COMMON AND NOT (NULLIF($SYSTEM_JOINED_NAME, '') NOT NULL OR $PROFILE_SHARING = ?) AND ($SORT_NAME NOT NULL OR $USERNAME NOT NULL)"
       val QUERY_GROUP_MEMBER_CONTACT = "$GROUP_MEMBER_CONTACT AND ($E164_SEARCH OR $SORT_NAME GLOB ? OR $USERNAME GLOB ?)"
+
+      /**
+       * The ids are inlined rather than bound, so adding the clause leaves the caller's arguments alone.
+       */
+      fun buildCandidatesClause(candidates: Collection<RecipientId>, column: String = "$TABLE_NAME.$ID"): String {
+        return "$column IN (${candidates.joinToString(",") { it.serialize() }})"
+      }
     }
   }
 
@@ -4677,6 +4868,19 @@ open class RecipientTable(context: Context, databaseHelper: SignalDatabase) : Da
     }
   }
 
+  /**
+   * System contact info for a single phone number (or email) of a contact.
+   */
+  data class SystemContactInfo(
+    val identifier: String,
+    val profileName: ProfileName,
+    val displayName: String?,
+    val photoUri: String?,
+    val phoneLabel: String?,
+    val phoneType: Int,
+    val contactUri: String?
+  )
+
   data class CdsV2Result(
     val pni: PNI,
     val aci: ACI?
@@ -4,6 +4,7 @@ package org.stalker.securesms.database;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.os.CancellationSignal;
 import android.util.Pair;
 
@@ -17,6 +18,7 @@ import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 import org.signal.core.util.tracing.Tracer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -50,10 +52,12 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
   private static final ThreadLocal<Set<Runnable>> PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS;
   private static final ThreadLocal<Set<Runnable>> POST_SUCCESSFUL_TRANSACTION_TASKS;
+  private static final ThreadLocal<Set<Runnable>> PENDING_POST_FAILED_TRANSACTION_TASKS;
 
   static {
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS = new ThreadLocal<>();
     POST_SUCCESSFUL_TRANSACTION_TASKS         = new ThreadLocal<>();
+    PENDING_POST_FAILED_TRANSACTION_TASKS     = new ThreadLocal<>();
 
     PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.set(new LinkedHashSet<>());
   }
@@ -123,6 +127,36 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     return result;
   }
 
+  private void profileSql(Returnable<String> sql, Runnable runnable) {
+    profileSql(sql, () -> {
+      runnable.run();
+      return null;
+    });
+  }
+
+  /**
+   * Times the statement for {@link QueryProfiler}. The SQL is only built if the profiler is enabled. Cursors are left as they are, so for
+   * queries this only covers preparing the statement, not reading its rows, and no row count is recorded.
+   */
+  private <E> E profileSql(Returnable<String> sql, Returnable<E> returnable) {
+    if (!QueryProfiler.getEnabled()) {
+      return returnable.run();
+    }
+
+    long start  = System.nanoTime();
+    E    result = returnable.run();
+    int  rows   = -1;
+
+    if (result instanceof Integer) {
+      rows = (Integer) result;
+    } else if (result instanceof Long) {
+      rows = (Long) result >= 0 ? 1 : 0;
+    }
+
+    QueryProfiler.onStatement(sql.run(), System.nanoTime() - start, rows);
+    return result;
+  }
+
   public net.zetetic.database.sqlcipher.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -152,6 +186,28 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     }
   }
 
+  /**
+   * Allows you to enqueue a task to be run if the active transaction is rolled back, e.g. to undo in-memory changes made alongside it.
+   * If the transaction succeeds, the task is discarded.
+   * If there is no current transaction open, the task is discarded.
+   */
+  public void runPostFailedTransaction(@NonNull Runnable task) {
+    if (wrapped.inTransaction()) {
+      getPendingPostFailedTransactionTasks().add(task);
+    }
+  }
+
+  private @NonNull Set<Runnable> getPendingPostFailedTransactionTasks() {
+    Set<Runnable> tasks = PENDING_POST_FAILED_TRANSACTION_TASKS.get();
+
+    if (tasks == null) {
+      tasks = new LinkedHashSet<>();
+      PENDING_POST_FAILED_TRANSACTION_TASKS.set(tasks);
+    }
+
+    return tasks;
+  }
+
   private @NonNull Set<Runnable> getPendingPostSuccessfulTransactionTasks() {
     Set<Runnable> tasks = PENDING_POST_SUCCESSFUL_TRANSACTION_TASKS.get();
 
@@ -291,6 +347,7 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
     if (wrapped.inTransaction()) {
       trace("beginTransaction()", wrapped::beginTransaction);
     } else {
+      long start = System.nanoTime();
       trace("beginTransaction()", () -> {
         wrapped.beginTransactionWithListener(new SQLiteTransactionListener() {
           @Override
@@ -303,14 +360,24 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
             tasks.clear();
             tasks.addAll(pendingTasks);
             pendingTasks.clear();
+            getPendingPostFailedTransactionTasks().clear();
           }
 
           @Override
           public void onRollback() {
             getPendingPostSuccessfulTransactionTasks().clear();
+
+            Set<Runnable> failedTasks = getPendingPostFailedTransactionTasks();
+            List<Runnable> tasks      = new ArrayList<>(failedTasks);
+            failedTasks.clear();
+
+            for (Runnable task : tasks) {
+              task.run();
+            }
           }
         });
       });
+      QueryProfiler.onTransactionBegan(System.nanoTime() - start);
     }
   }
 
@@ -332,37 +399,37 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
 
   public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
     DatabaseMonitor.onQuery(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-    return traceSql("query(9)", table, selection, false, () -> wrapped.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("query(9)", table, selection, false, () -> profileSql(() -> SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit), () -> wrapped.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor queryWithFactory(net.zetetic.database.sqlcipher.SQLiteDatabase.CursorFactory cursorFactory, boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
     DatabaseMonitor.onQuery(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-    return traceSql("queryWithFactory()", table, selection, false, () -> wrapped.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("queryWithFactory()", table, selection, false, () -> profileSql(() -> SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit), () -> wrapped.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy) {
     DatabaseMonitor.onQuery(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, null);
-    return traceSql("query(7)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy));
+    return traceSql("query(7)", table, selection, false, () -> profileSql(() -> SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having, orderBy, null), () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy)));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
     DatabaseMonitor.onQuery(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
-    return traceSql("query(8)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("query(8)", table, selection, false, () -> profileSql(() -> SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, groupBy, having, orderBy, limit), () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit)));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs) {
     DatabaseMonitor.onSql(sql, selectionArgs);
-    return traceSql("rawQuery(2a)", sql, false, () -> wrapped.rawQuery(sql, selectionArgs));
+    return traceSql("rawQuery(2a)", sql, false, () -> profileSql(() -> sql, () -> wrapped.rawQuery(sql, selectionArgs)));
   }
 
   public Cursor rawQuery(String sql, Object[] args) {
     DatabaseMonitor.onSql(sql, args);
-    return traceSql("rawQuery(2b)", sql, false,() -> wrapped.rawQuery(sql, args));
+    return traceSql("rawQuery(2b)", sql, false,() -> profileSql(() -> sql, () -> wrapped.rawQuery(sql, args)));
   }
 
   public Cursor rawQueryWithFactory(net.zetetic.database.sqlcipher.SQLiteDatabase.CursorFactory cursorFactory, String sql, String[] selectionArgs, String editTable) {
     DatabaseMonitor.onSql(sql, selectionArgs);
-    return traceSql("rawQueryWithFactory()", sql, false, () -> wrapped.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable));
+    return traceSql("rawQueryWithFactory()", sql, false, () -> profileSql(() -> sql, () -> wrapped.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable)));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs, int initialRead, int maxRead) {
@@ -371,43 +438,43 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   public long insert(String table, String nullColumnHack, ContentValues values) {
-    return traceSql("insert()", table, null, true, () -> wrapped.insert(table, nullColumnHack, values));
+    return traceSql("insert()", table, null, true, () -> profileSql(() -> "INSERT INTO " + table, () -> wrapped.insert(table, nullColumnHack, values)));
   }
 
   public long insertOrThrow(String table, String nullColumnHack, ContentValues values) throws SQLException {
-    return traceSql("insertOrThrow()", table, null, true, () -> wrapped.insertOrThrow(table, nullColumnHack, values));
+    return traceSql("insertOrThrow()", table, null, true, () -> profileSql(() -> "INSERT INTO " + table, () -> wrapped.insertOrThrow(table, nullColumnHack, values)));
   }
 
   public long replace(String table, String nullColumnHack, ContentValues initialValues) {
-    return traceSql("replace()", table, null, true,() -> wrapped.replace(table, nullColumnHack, initialValues));
+    return traceSql("replace()", table, null, true,() -> profileSql(() -> "REPLACE INTO " + table, () -> wrapped.replace(table, nullColumnHack, initialValues)));
   }
 
   public long replaceOrThrow(String table, String nullColumnHack, ContentValues initialValues) throws SQLException {
-    return traceSql("replaceOrThrow()", table, null, true, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues));
+    return traceSql("replaceOrThrow()", table, null, true, () -> profileSql(() -> "REPLACE INTO " + table, () -> wrapped.replaceOrThrow(table, nullColumnHack, initialValues)));
   }
 
   public long insertWithOnConflict(String table, String nullColumnHack, ContentValues initialValues, int conflictAlgorithm) {
-    return traceSql("insertWithOnConflict()", table, null, true, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm));
+    return traceSql("insertWithOnConflict()", table, null, true, () -> profileSql(() -> "INSERT INTO " + table, () -> wrapped.insertWithOnConflict(table, nullColumnHack, initialValues, conflictAlgorithm)));
   }
 
   public int delete(String table, String whereClause, String[] whereArgs) {
     DatabaseMonitor.onDelete(table, whereClause, whereArgs);
-    return traceSql("delete()", table, whereClause, true, () -> wrapped.delete(table, whereClause, whereArgs));
+    return traceSql("delete()", table, whereClause, true, () -> profileSql(() -> "DELETE FROM " + table + (whereClause != null ? " WHERE " + whereClause : ""), () -> wrapped.delete(table, whereClause, whereArgs)));
   }
 
   public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
     DatabaseMonitor.onUpdate(table, values, whereClause, whereArgs);
-    return traceSql("update()", table, whereClause, true, () -> wrapped.update(table, values, whereClause, whereArgs));
+    return traceSql("update()", table, whereClause, true, () -> profileSql(() -> "UPDATE " + table + (whereClause != null ? " WHERE " + whereClause : ""), () -> wrapped.update(table, values, whereClause, whereArgs)));
   }
 
   public int updateWithOnConflict(String table, ContentValues values, String whereClause, String[] whereArgs, int conflictAlgorithm) {
     DatabaseMonitor.onUpdate(table, values, whereClause, whereArgs);
-    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm));
+    return traceSql("updateWithOnConflict()", table, whereClause, true, () -> profileSql(() -> "UPDATE " + table + (whereClause != null ? " WHERE " + whereClause : ""), () -> wrapped.updateWithOnConflict(table, values, whereClause, whereArgs, conflictAlgorithm)));
   }
 
   public void execSQL(String sql) throws SQLException {
     DatabaseMonitor.onSql(sql, null);
-    traceSql("execSQL(1)", sql, true, () -> wrapped.execSQL(sql));
+    traceSql("execSQL(1)", sql, true, () -> profileSql(() -> sql, () -> wrapped.execSQL(sql)));
   }
 
   public void rawExecSQL(String sql) {
@@ -416,8 +483,8 @@ public class SQLiteDatabase implements SupportSQLiteDatabase {
   }
 
   public void execSQL(String sql, Object[] bindArgs) throws SQLException {
-    DatabaseMonitor.onSql(sql, null);
-    traceSql("execSQL(2)", sql, true, () -> wrapped.execSQL(sql, bindArgs));
+    DatabaseMonitor.onSql(sql, bindArgs);
+    traceSql("execSQL(2)", sql, true, () -> profileSql(() -> sql, () -> wrapped.execSQL(sql, bindArgs)));
   }
 
 
@@ -3,7 +3,9 @@ package org.stalker.securesms.database
 import android.annotation.SuppressLint
 import android.content.Context
 import android.database.Cursor
+import android.os.CancellationSignal
 import android.text.TextUtils
+import androidx.sqlite.db.SimpleSQLiteQuery
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import org.intellij.lang.annotations.Language
 import org.signal.core.util.SqlUtil
@@ -60,17 +62,21 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       """
     )
 
+    /** The most messages a search over every conversation finds. */
+    const val MAX_MESSAGE_RESULTS = 500
+
+    /**
+     * Finds the messages a search matches without building their snippets. FTS5 hands back its matches in rowid order, so ordering by
+     * rowid (rather than by date) lets it stop after [MAX_MESSAGE_RESULTS] matches instead of reading and sorting all of them.
+     */
     @Language("sql")
-    private const val MESSAGES_QUERY = """
+    private const val MATCHING_MESSAGES_QUERY = """
       SELECT 
         ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
         ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
-        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET, 
         ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
         $FTS_TABLE_NAME.$THREAD_ID, 
-        $FTS_TABLE_NAME.$BODY, 
-        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
-        1 AS $IS_MMS 
+        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID 
       FROM 
         ${MessageTable.TABLE_NAME} 
           INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
@@ -81,8 +87,49 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
         ${MessageTable.TABLE_NAME}.${MessageTable.TYPE} & ${MessageTypes.SPECIAL_TYPE_PAYMENTS_NOTIFICATION} = 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.SCHEDULED_DATE} < 0 AND
         ${MessageTable.TABLE_NAME}.${MessageTable.LATEST_REVISION_ID} IS NULL
-      ORDER BY ${MessageTable.DATE_RECEIVED} DESC 
-      LIMIT 500
+      ORDER BY $FTS_TABLE_NAME.$ID DESC 
+      LIMIT $MAX_MESSAGE_RESULTS
+    """
+
+    /**
+     * The same columns as [MATCHING_MESSAGES_QUERY] for messages that were found some other way, e.g. by who they mention.
+     */
+    @Language("sql")
+    private const val MESSAGES_BY_ID_QUERY = """
+      SELECT 
+        ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID}, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.ID} AS $MESSAGE_ID 
+      FROM 
+        ${MessageTable.TABLE_NAME} 
+          INNER JOIN ${ThreadTable.TABLE_NAME} ON ${MessageTable.TABLE_NAME}.${MessageTable.THREAD_ID} = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
+      WHERE 
+    """
+
+    /**
+     * Builds the snippets for a page of the messages found by [MATCHING_MESSAGES_QUERY]. The page's messages are passed both as a rowid
+     * range, which FTS5 can narrow its scan to, and as a list of ids. Only passing the list would have FTS5 run the whole query once per id.
+     */
+    @Language("sql")
+    private const val MESSAGE_SNIPPETS_QUERY = """
+      SELECT 
+        ${ThreadTable.TABLE_NAME}.${ThreadTable.RECIPIENT_ID} AS $CONVERSATION_RECIPIENT, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.FROM_RECIPIENT_ID} AS $MESSAGE_RECIPIENT, 
+        snippet($FTS_TABLE_NAME, -1, '', '', '$SNIPPET_WRAP', 7) AS $SNIPPET, 
+        ${MessageTable.TABLE_NAME}.${MessageTable.DATE_RECEIVED}, 
+        $FTS_TABLE_NAME.$THREAD_ID, 
+        $FTS_TABLE_NAME.$BODY, 
+        $FTS_TABLE_NAME.$ID AS $MESSAGE_ID, 
+        1 AS $IS_MMS 
+      FROM 
+        ${MessageTable.TABLE_NAME} 
+          INNER JOIN $FTS_TABLE_NAME ON $FTS_TABLE_NAME.$ID = ${MessageTable.TABLE_NAME}.${MessageTable.ID} 
+          INNER JOIN ${ThreadTable.TABLE_NAME} ON $FTS_TABLE_NAME.$THREAD_ID = ${ThreadTable.TABLE_NAME}.${ThreadTable.ID} 
+      WHERE 
+        $FTS_TABLE_NAME MATCH ? AND 
+        $FTS_TABLE_NAME.$ID BETWEEN ? AND ? AND 
     """
 
     @Language("sql")
@@ -112,21 +159,57 @@ class SearchTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     """
   }
 
-  fun queryMessages(query: String): Cursor? {
+  /**
+   * The messages in any conversation that match [query], most recently inserted first, without their bodies or snippets. Use
+   * [queryMessageSnippets] to read those for the messages that are actually shown.
+   *
+   * @throws android.os.OperationCanceledException if [cancellationSignal] is canceled while the cursor is being read.
+   */
+  fun queryMatchingMessages(query: String, cancellationSignal: CancellationSignal?): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
     return if (fullTextSearchQuery.isEmpty()) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_QUERY, SqlUtil.buildArgs(fullTextSearchQuery))
+      readableDatabase.query(SimpleSQLiteQuery(MATCHING_MESSAGES_QUERY, arrayOf<Any>(fullTextSearchQuery)), cancellationSignal)
     }
   }
 
-  fun queryMessages(query: String, threadId: Long): Cursor? {
+  /**
+   * The same columns as [queryMatchingMessages] for the given messages.
+   */
+  fun queryMatchingMessages(messageIds: Collection<Long>): Cursor? {
+    return if (messageIds.isEmpty()) {
+      null
+    } else {
+      val query = SqlUtil.buildSingleCollectionQuery("${MessageTable.TABLE_NAME}.${MessageTable.ID}", messageIds)
+      readableDatabase.rawQuery(MESSAGES_BY_ID_QUERY + query.where, query.whereArgs)
+    }
+  }
+
+  /**
+   * The bodies and snippets of the given messages, which should have been found by [queryMatchingMessages] with the same [query].
+   * Messages that no longer match are left out.
+   */
+  fun queryMessageSnippets(query: String, messageIds: Collection<Long>): Cursor? {
+    val fullTextSearchQuery = createFullTextSearchQuery(query)
+    return if (fullTextSearchQuery.isEmpty() || messageIds.isEmpty()) {
+      null
+    } else {
+      val ids = messageIds.joinToString(",")
+      val sql = "$MESSAGE_SNIPPETS_QUERY ${MessageTable.TABLE_NAME}.${MessageTable.ID} IN ($ids)"
+      readableDatabase.query(SimpleSQLiteQuery(sql, arrayOf<Any>(fullTextSearchQuery, messageIds.min(), messageIds.max())))
+    }
+  }
+
+  /**
+   * @throws android.os.OperationCanceledException if [cancellationSignal] is canceled while the cursor is being read.
+   */
+  fun queryMessages(query: String, threadId: Long, cancellationSignal: CancellationSignal?): Cursor? {
     val fullTextSearchQuery = createFullTextSearchQuery(query)
     return if (TextUtils.isEmpty(fullTextSearchQuery)) {
       null
     } else {
-      readableDatabase.rawQuery(MESSAGES_FOR_THREAD_QUERY, SqlUtil.buildArgs(fullTextSearchQuery, threadId))
+      readableDatabase.query(SimpleSQLiteQuery(MESSAGES_FOR_THREAD_QUERY, arrayOf<Any>(fullTextSearchQuery, threadId)), cancellationSignal)
     }
   }
 
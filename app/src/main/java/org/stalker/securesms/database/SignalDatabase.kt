@@ -23,7 +23,7 @@ import org.stalker.securesms.service.KeyCachingService
 import org.stalker.securesms.util.TextSecurePreferences
 import java.io.File
 
-open class SignalDatabase(private val context: Application, databaseSecret: DatabaseSecret, attachmentSecret: AttachmentSecret) :
+open class SignalDatabase(private val context: Application, private val databaseSecret: DatabaseSecret, attachmentSecret: AttachmentSecret) :
   SQLiteOpenHelper(
     context,
     DATABASE_NAME,
@@ -74,9 +74,11 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
   val kyberPreKeyTable: KyberPreKeyTable = KyberPreKeyTable(context, this)
   val callLinkTable: CallLinkTable = CallLinkTable(context, this)
   val nameCollisionTables: NameCollisionTables = NameCollisionTables(context, this)
+  val profileFetchCacheTable: ProfileFetchCacheTable = ProfileFetchCacheTable(context, this)
 
   override fun onOpen(db: net.zetetic.database.sqlcipher.SQLiteDatabase) {
     db.setForeignKeyConstraintsEnabled(true)
+    db.setMaxSqlCacheSize(net.zetetic.database.sqlcipher.SQLiteDatabase.MAX_SQL_CACHE_SIZE)
   }
 
   override fun onCreate(db: net.zetetic.database.sqlcipher.SQLiteDatabase) {
@@ -111,6 +113,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     db.execSQL(CallTable.CREATE_TABLE)
     db.execSQL(KyberPreKeyTable.CREATE_TABLE)
     NameCollisionTables.createTables(db)
+    db.execSQL(ProfileFetchCacheTable.CREATE_TABLE)
     executeStatements(db, SearchTable.CREATE_TABLE)
     executeStatements(db, RemappedRecordTables.CREATE_TABLE)
     executeStatements(db, MessageSendLogTables.CREATE_TABLE)
@@ -196,7 +199,7 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     get() = super.getWritableDatabase()
 
   open val signalReadableDatabase: SQLiteDatabase
-    get() = SQLiteDatabase(super.getReadableDatabase())
+    get() = SQLiteDatabase(snapshotDatabase.get() ?: super.getReadableDatabase())
 
   open val signalWritableDatabase: SQLiteDatabase
     get() = SQLiteDatabase(super.getWritableDatabase())
@@ -205,6 +208,29 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     return super.getWritableDatabase()
   }
 
+  private val snapshotDatabase: ThreadLocal<net.zetetic.database.sqlcipher.SQLiteDatabase?> = ThreadLocal()
+
+  private fun <T> withinSnapshot(block: () -> T): T {
+    check(snapshotDatabase.get() == null) { "Already within a snapshot!" }
+
+    val snapshot = net.zetetic.database.sqlcipher.SQLiteDatabase.openDatabase(
+      context.getDatabasePath(DATABASE_NAME).absolutePath,
+      databaseSecret.asString(),
+      null,
+      net.zetetic.database.sqlcipher.SQLiteDatabase.OPEN_READONLY,
+      null,
+      SnapshotDatabaseHook()
+    )
+
+    try {
+      snapshotDatabase.set(snapshot)
+      return block()
+    } finally {
+      snapshotDatabase.remove()
+      snapshot.close()
+    }
+  }
+
   open fun markCurrent(db: net.zetetic.database.sqlcipher.SQLiteDatabase) {
     db.version = SignalDatabaseMigrations.DATABASE_VERSION
   }
@@ -247,6 +273,19 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     val backupDatabase: net.zetetic.database.sqlcipher.SQLiteDatabase
       get() = instance!!.rawReadableDatabase
 
+    /**
+     * Runs [block] with every read this thread makes through [DatabaseTable.getReadableDatabase] served from a read-only snapshot of the
+     * database, as it was when this was called. The snapshot is a separate connection holding a WAL read transaction, so unlike
+     * [runInTransaction], writers on other threads aren't blocked, their changes just aren't visible to [block].
+     *
+     * [block] must not write or start a transaction through the readable database. Writes through the writable database go to the live
+     * database as usual. The WAL can't be checkpointed past the snapshot while it's open, so keep it to long-running reads like exports.
+     */
+    @JvmStatic
+    fun <T> runWithinSnapshot(block: () -> T): T {
+      return instance!!.withinSnapshot(block)
+    }
+
     @JvmStatic
     @get:JvmName("inTransaction")
     val inTransaction: Boolean
@@ -262,6 +301,11 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
       instance!!.signalWritableDatabase.runPostSuccessfulTransaction(task)
     }
 
+    @JvmStatic
+    fun runPostFailedTransaction(task: Runnable) {
+      instance!!.signalWritableDatabase.runPostFailedTransaction(task)
+    }
+
     @JvmStatic
     fun databaseFileExists(context: Context): Boolean {
       return context.getDatabasePath(DATABASE_NAME).exists()
@@ -535,5 +579,10 @@ open class SignalDatabase(private val context: Application, databaseSecret: Data
     @get:JvmName("nameCollisions")
     val nameCollisions: NameCollisionTables
       get() = instance!!.nameCollisionTables
+
+    @get:JvmStatic
+    @get:JvmName("profileFetchCache")
+    val profileFetchCache: ProfileFetchCacheTable
+      get() = instance!!.profileFetchCacheTable
   }
 }
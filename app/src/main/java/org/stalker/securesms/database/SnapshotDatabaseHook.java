@@ -0,0 +1,20 @@
+package org.stalker.securesms.database;
+
+import net.zetetic.database.sqlcipher.SQLiteConnection;
+
+/**
+ * Hook for a read-only connection that should see a single, consistent snapshot of the database for as long as it's open.
+ *
+ * The transaction is opened on the connection directly, because the framework turns any BEGIN it sees into an exclusive transaction,
+ * which would block writers. A deferred transaction only takes a read lock, and in WAL mode that pins the snapshot without getting in
+ * anyone's way. It's never committed, closing the connection ends it.
+ */
+class SnapshotDatabaseHook extends SqlCipherDatabaseHook {
+
+  @Override
+  public void postKey(SQLiteConnection connection) {
+    super.postKey(connection);
+    connection.execute("BEGIN DEFERRED;", null, null);
+    connection.executeForLong("SELECT COUNT(*) FROM sqlite_master;", null, null);
+  }
+}
@@ -0,0 +1,47 @@
+package org.stalker.securesms.database
+
+/**
+ * SQLCipher keeps a per-connection cache of compiled statements keyed by their SQL text, so a statement only avoids being recompiled if
+ * the exact same text was run recently. We can't see into that cache, so this mirrors it with an LRU of the same size to estimate how often
+ * statements are being reused. Statements that inline their arguments instead of binding them will always show up as misses.
+ */
+class StatementCacheTracker(private val maxSize: Int) {
+
+  private val recent: LinkedHashMap<String, Unit> = object : LinkedHashMap<String, Unit>(maxSize, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Unit>?): Boolean {
+      return size > maxSize
+    }
+  }
+
+  var hits: Long = 0
+    private set
+
+  var misses: Long = 0
+    private set
+
+  val hitRate: Float
+    @Synchronized get() = if (hits + misses == 0L) 0f else hits.toFloat() / (hits + misses)
+
+  /**
+   * Records that [sql] was run, returning true if it would have been found in the statement cache.
+   */
+  @Synchronized
+  fun record(sql: String): Boolean {
+    val hit = recent.put(sql, Unit) != null
+
+    if (hit) {
+      hits++
+    } else {
+      misses++
+    }
+
+    return hit
+  }
+
+  @Synchronized
+  fun reset() {
+    recent.clear()
+    hits = 0
+    misses = 0
+  }
+}
@@ -227,8 +227,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     unarchive: Boolean,
     expiresIn: Long,
     readReceiptCount: Int,
-    unreadCount: Int,
-    unreadMentionCount: Int,
+    unreadCount: Int?,
+    unreadMentionCount: Int?,
     messageExtras: MessageExtras?
   ) {
     var extraSerialized: String? = null
@@ -254,18 +254,27 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
       HAS_READ_RECEIPT to readReceiptCount,
       EXPIRES_IN to expiresIn,
       ACTIVE to 1,
-      UNREAD_COUNT to unreadCount,
-      UNREAD_SELF_MENTION_COUNT to unreadMentionCount,
       SNIPPET_MESSAGE_EXTRAS to messageExtras?.encode()
     )
 
+    if (unreadCount != null && unreadMentionCount != null) {
+      contentValues.put(UNREAD_COUNT, unreadCount)
+      contentValues.put(UNREAD_SELF_MENTION_COUNT, unreadMentionCount)
+    }
+
     writableDatabase
       .update(TABLE_NAME)
       .values(contentValues)
       .where("$ID = ?", threadId)
       .run()
 
-    if (unarchive && allowedToUnarchive(threadId)) {
+    if (unarchive) {
+      unarchiveIfAllowed(threadId)
+    }
+  }
+
+  private fun unarchiveIfAllowed(threadId: Long) {
+    if (allowedToUnarchive(threadId)) {
       val archiveValues = contentValuesOf(ARCHIVED to 0)
       val query = SqlUtil.buildTrueUpdateQuery(ID_WHERE, SqlUtil.buildArgs(threadId), archiveValues)
       if (writableDatabase.update(TABLE_NAME, archiveValues, query.where, query.whereArgs) > 0) {
@@ -422,6 +431,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
     messages.setAllReactionsSeen()
     notifyConversationListListeners()
+    ApplicationDependencies.getDatabaseObserver().notifyAllConversationsWritten()
 
     return messageRecords
   }
@@ -483,8 +493,9 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
         messages.setReactionsSeen(threadId, sinceTimestamp)
 
-        val unreadCount = messages.getUnreadCount(threadId)
-        val unreadMentionsCount = messages.getUnreadMentionCount(threadId)
+        // Marking the whole thread read leaves nothing that could count as unread
+        val unreadCount = if (sinceTimestamp == -1L) 0 else messages.getUnreadCount(threadId)
+        val unreadMentionsCount = if (sinceTimestamp == -1L) 0 else messages.getUnreadMentionCount(threadId)
 
         val contentValues = contentValuesOf(
           READ to ReadStatus.READ.serialize(),
@@ -864,8 +875,8 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
 
   fun getArchivedConversationList(conversationFilter: ConversationFilter, offset: Long = 0, limit: Long = 0): Cursor {
     val filterQuery = conversationFilter.toQuery()
-    val query = createQuery("$ARCHIVED = ? AND $MEANINGFUL_MESSAGES != 0 $filterQuery", offset, limit, preferPinned = false)
-    return readableDatabase.rawQuery(query, arrayOf("1"))
+    val query = createQuery("$ARCHIVED = ? AND $MEANINGFUL_MESSAGES != 0 $filterQuery", 0, 0, preferPinned = false)
+    return readableDatabase.rawQueryPage(query, arrayOf("1"), offset, limit)
   }
 
   fun getUnarchivedConversationList(conversationFilter: ConversationFilter, pinned: Boolean, offset: Long, limit: Long): Cursor {
@@ -877,12 +888,12 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     }
 
     val query = if (pinned) {
-      createQuery(where, PINNED + " ASC", offset, limit)
+      createQuery(where, PINNED + " ASC", 0, 0)
     } else {
-      createQuery(where, offset, limit, preferPinned = false)
+      createQuery(where, 0, 0, preferPinned = false)
     }
 
-    return readableDatabase.rawQuery(query, null)
+    return readableDatabase.rawQueryPage(query, emptyArray(), offset, limit)
   }
 
   fun getArchivedConversationListCount(conversationFilter: ConversationFilter): Int {
@@ -1128,6 +1139,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     }
 
     notifyConversationListListeners()
+    ApplicationDependencies.getDatabaseObserver().notifyAllConversationsWritten()
     ConversationUtil.clearAllShortcuts(context)
   }
 
@@ -1435,6 +1447,158 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     )
   }
 
+  /**
+   * Updates the thread for a message that was just inserted into it, without recomputing the whole thread. The unread counts are adjusted
+   * by the given amounts rather than recounted, and the snippet is only rebuilt if the new message became the thread's snippet.
+   *
+   * Falls back to a full [update] if the thread had no meaningful messages before, since that may create or delete it.
+   *
+   * @return True if the thread was deleted.
+   */
+  fun updateForInsertedMessage(threadId: Long, messageId: Long, unreadDelta: Int, unreadMentionDelta: Int, unarchive: Boolean): Boolean {
+    if (threadId == -1L) {
+      Log.d(TAG, "Skipping update for threadId -1")
+      return false
+    }
+
+    return writableDatabase.withinTransaction {
+      if (unreadDelta != 0 || unreadMentionDelta != 0) {
+        incrementUnread(threadId, unreadDelta, unreadMentionDelta)
+      }
+
+      if (!hasMeaningfulMessages(threadId)) {
+        return@withinTransaction update(threadId, unarchive, allowDeletion = true, notifyListeners = true)
+      }
+
+      if (messages.getConversationSnippetId(threadId) == messageId) {
+        val record: MessageRecord = messages.getMessageRecord(messageId)
+
+        if (!hasMoreRecentDraft(threadId, record.timestamp)) {
+          val threadBody: ThreadBody = ThreadBodyUtil.getFormattedBodyFor(context, record)
+
+          updateThread(
+            threadId = threadId,
+            meaningfulMessages = true,
+            body = threadBody.body.toString(),
+            attachment = getAttachmentUriFor(record),
+            contentType = getContentTypeFor(record),
+            extra = getExtrasFor(record, threadBody),
+            date = record.timestamp,
+            status = record.deliveryStatus,
+            deliveryReceiptCount = record.hasDeliveryReceipt().toInt(),
+            type = record.type,
+            unarchive = unarchive,
+            expiresIn = record.expiresIn,
+            readReceiptCount = record.hasReadReceipt().toInt(),
+            unreadCount = null,
+            unreadMentionCount = null,
+            messageExtras = record.messageExtras
+          )
+        }
+      } else if (unarchive) {
+        unarchiveIfAllowed(threadId)
+      }
+
+      notifyConversationListListeners()
+      false
+    }
+  }
+
+  /**
+   * Updates the thread for a message that was just deleted from it. If the message wasn't the thread's snippet and the thread still has
+   * meaningful messages, only the unread counts change, and they're adjusted by the given amounts. Otherwise this is a full [update].
+   *
+   * @param unreadDelta Usually -1 if the deleted message counted as unread, otherwise 0. See [MessageTable.getUnreadContribution].
+   * @return True if the thread was deleted.
+   */
+  fun updateForDeletedMessage(threadId: Long, wasSnippet: Boolean, unreadDelta: Int, unreadMentionDelta: Int): Boolean {
+    if (threadId == -1L) {
+      Log.d(TAG, "Skipping update for threadId -1")
+      return false
+    }
+
+    return writableDatabase.withinTransaction { db ->
+      if (wasSnippet || !messages.hasMeaningfulMessage(threadId)) {
+        return@withinTransaction update(threadId, unarchive = false, allowDeletion = true, notifyListeners = true)
+      }
+
+      if (unreadDelta != 0 || unreadMentionDelta != 0) {
+        db.execSQL(
+          """
+          UPDATE $TABLE_NAME 
+          SET $UNREAD_COUNT = MAX($UNREAD_COUNT + ?, 0), 
+              $UNREAD_SELF_MENTION_COUNT = MAX($UNREAD_SELF_MENTION_COUNT + ?, 0) 
+          WHERE $ID = ?
+          """,
+          SqlUtil.buildArgs(unreadDelta, unreadMentionDelta, threadId)
+        )
+
+        notifyConversationListListeners()
+      }
+
+      false
+    }
+  }
+
+  /**
+   * Since unread counts are kept up to date incrementally, this finds the threads where they've drifted from what the messages say.
+   */
+  fun getThreadIdsWithIncorrectUnreadCounts(): List<Long> {
+    return readableDatabase
+      .rawQuery(
+        """
+        SELECT $ID 
+        FROM (
+          SELECT 
+            $ID, 
+            $UNREAD_COUNT, 
+            $UNREAD_SELF_MENTION_COUNT,
+            ${messages.unreadCountSubquery("$TABLE_NAME.$ID", mentionsOnly = false)} AS actual_unread,
+            ${messages.unreadCountSubquery("$TABLE_NAME.$ID", mentionsOnly = true)} AS actual_mentions
+          FROM $TABLE_NAME
+        )
+        WHERE $UNREAD_COUNT != actual_unread OR $UNREAD_SELF_MENTION_COUNT != actual_mentions
+        """,
+        null
+      )
+      .readToList { it.requireLong(ID) }
+  }
+
+  /**
+   * Recounts the unread counts of any thread where they've drifted. Returns how many threads were fixed.
+   */
+  fun repairUnreadCounts(): Int {
+    val threadIds: List<Long> = writableDatabase.withinTransaction { db ->
+      val threadIds = getThreadIdsWithIncorrectUnreadCounts()
+
+      for (threadId in threadIds) {
+        db.update(TABLE_NAME)
+          .values(
+            UNREAD_COUNT to messages.getUnreadCount(threadId),
+            UNREAD_SELF_MENTION_COUNT to messages.getUnreadMentionCount(threadId)
+          )
+          .where("$ID = ?", threadId)
+          .run()
+      }
+
+      threadIds
+    }
+
+    if (threadIds.isNotEmpty()) {
+      Log.w(TAG, "Repaired unread counts for ${threadIds.size} thread(s).")
+      notifyConversationListListeners()
+    }
+
+    return threadIds.size
+  }
+
+  private fun hasMeaningfulMessages(threadId: Long): Boolean {
+    return readableDatabase
+      .exists(TABLE_NAME)
+      .where("$ID = ? AND $MEANINGFUL_MESSAGES != 0", threadId)
+      .run()
+  }
+
   /**
    * Updates the thread with the receipt status of the message provided, but only if that message is the most recent meaningful message.
    * The idea here is that if it _is_ the most meaningful message, we can set the new status. If it's not, there's no need to update
@@ -1698,7 +1862,7 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return readableDatabase
       .select(EXPIRES_IN)
       .from(TABLE_NAME)
-      .where("$ID = $threadId")
+      .where("$ID = ?", threadId)
       .run()
       .readToSingleLong()
   }
@@ -1894,6 +2058,14 @@ class ThreadTable(context: Context, databaseHelper: SignalDatabase) : DatabaseTa
     return query
   }
 
+  /**
+   * Runs a query from [createQuery] (built without a limit or offset) with the page bounds bound as arguments, so that scrolling through
+   * the conversation list reuses one compiled statement rather than compiling a new one for every page.
+   */
+  private fun SQLiteDatabase.rawQueryPage(query: String, args: Array<String>, offset: Long, limit: Long): Cursor {
+    return rawQuery("$query LIMIT ? OFFSET ?", args + SqlUtil.buildArgs(if (limit > 0) limit else -1, offset))
+  }
+
   private fun isSilentType(type: Long): Boolean {
     return MessageTypes.isProfileChange(type) ||
       MessageTypes.isGroupV1MigrationEvent(type) ||
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.database.helpers.migration
+
+import android.app.Application
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+
+/**
+ * Adds a table to remember which retrieved profiles already matched the local recipient state.
+ */
+@Suppress("ClassName")
+object V232_ProfileFetchCache : SignalDatabaseMigration {
+  override fun migrate(context: Application, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    db.execSQL(
+      """
+      CREATE TABLE profile_fetch_cache (
+        recipient_id INTEGER PRIMARY KEY REFERENCES recipient (_id) ON DELETE CASCADE,
+        profile_key_version TEXT DEFAULT NULL,
+        digest BLOB NOT NULL,
+        fetched_at INTEGER NOT NULL
+      )
+      """
+    )
+  }
+}
@@ -55,6 +55,9 @@ public class JobManager implements ConstraintObserver.Notifier {
   @GuardedBy("emptyQueueListeners")
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
 
+  /** Jobs added on a thread that is holding submissions, in the order they were added. See {@link #holdSubmissions()}. */
+  private final ThreadLocal<List<Runnable>> heldSubmissions = new ThreadLocal<>();
+
   private volatile boolean initialized = false;
 
   public JobManager(@NonNull Application application, @NonNull Configuration configuration) {
@@ -152,6 +155,43 @@ public class JobManager implements ConstraintObserver.Notifier {
     return jobTracker.getFirstMatchingJobState(filter);
   }
 
+  /**
+   * Until {@link #releaseSubmissions(boolean)} is called, jobs added from the calling thread are held rather than submitted. Used to keep
+   * jobs that refer to rows written in a transaction from being submitted before it commits, or at all if it rolls back.
+   */
+  public void holdSubmissions() {
+    heldSubmissions.set(new ArrayList<>());
+  }
+
+  /**
+   * Stops holding jobs added from the calling thread. The held jobs are submitted in the order they were added if {@code submit} is set,
+   * and dropped otherwise.
+   */
+  public void releaseSubmissions(boolean submit) {
+    List<Runnable> held = heldSubmissions.get();
+    heldSubmissions.remove();
+
+    if (held != null && submit) {
+      for (Runnable submission : held) {
+        submission.run();
+      }
+    }
+  }
+
+  /**
+   * @return True if the calling thread is holding submissions, in which case {@code submission} was held and should not be run now.
+   */
+  private boolean holdIfNecessary(@NonNull Runnable submission) {
+    List<Runnable> held = heldSubmissions.get();
+
+    if (held == null) {
+      return false;
+    }
+
+    held.add(submission);
+    return true;
+  }
+
   /**
    * Enqueues a single job to be run.
    */
@@ -163,6 +203,10 @@ public class JobManager implements ConstraintObserver.Notifier {
    * Enqueues a single job that depends on a collection of job ID's.
    */
   public void add(@NonNull Job job, @NonNull Collection<String> dependsOn) {
+    if (holdIfNecessary(() -> add(job, dependsOn))) {
+      return;
+    }
+
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
@@ -176,6 +220,10 @@ public class JobManager implements ConstraintObserver.Notifier {
    * items in the specified queue.
    */
   public void add(@NonNull Job job, @Nullable String dependsOnQueue) {
+    if (holdIfNecessary(() -> add(job, dependsOnQueue))) {
+      return;
+    }
+
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
@@ -188,6 +236,10 @@ public class JobManager implements ConstraintObserver.Notifier {
    * items in the specified queue.
    */
   public void add(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable String dependsOnQueue) {
+    if (holdIfNecessary(() -> add(job, dependsOn, dependsOnQueue))) {
+      return;
+    }
+
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
@@ -200,6 +252,10 @@ public class JobManager implements ConstraintObserver.Notifier {
       return;
     }
 
+    if (holdIfNecessary(() -> addAll(jobs))) {
+      return;
+    }
+
     for (Job job : jobs) {
       jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
     }
@@ -214,6 +270,10 @@ public class JobManager implements ConstraintObserver.Notifier {
       return;
     }
 
+    if (holdIfNecessary(() -> addAllChains(chains))) {
+      return;
+    }
+
     for (Chain chain : chains) {
       for (List<Job> jobList : chain.getJobListChain()) {
         for (Job job : jobList) {
@@ -303,7 +363,7 @@ public class JobManager implements ConstraintObserver.Notifier {
       }
     });
 
-    add(job);
+    submitChain(new Chain(this, Collections.singletonList(job)));
 
     try {
       if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
@@ -426,6 +486,18 @@ public class JobManager implements ConstraintObserver.Notifier {
   }
 
   private void enqueueChain(@NonNull Chain chain) {
+    if (holdIfNecessary(() -> submitChain(chain))) {
+      return;
+    }
+
+    submitChain(chain);
+  }
+
+  /**
+   * Submits the chain even if the calling thread is holding submissions. Only for callers that wait on the result, which a held job would
+   * never have.
+   */
+  private void submitChain(@NonNull Chain chain) {
     for (List<Job> jobList : chain.getJobListChain()) {
       for (Job job : jobList) {
         jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
@@ -535,10 +607,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     }
 
     public void enqueue(@NonNull JobTracker.JobListener listener) {
-      List<Job> lastChain          = jobs.get(jobs.size() - 1);
-      Job       lastJobInLastChain = lastChain.get(lastChain.size() - 1);
-
-      jobManager.addListener(lastJobInLastChain.getId(), listener);
+      addListenerToLastJob(listener);
       enqueue();
     }
 
@@ -556,7 +625,8 @@ public class JobManager implements ConstraintObserver.Notifier {
         }
       };
 
-      enqueue(listener);
+      addListenerToLastJob(listener);
+      jobManager.submitChain(this);
 
       try {
         if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
@@ -570,6 +640,13 @@ public class JobManager implements ConstraintObserver.Notifier {
       return Optional.ofNullable(resultState.get());
     }
 
+    private void addListenerToLastJob(@NonNull JobTracker.JobListener listener) {
+      List<Job> lastChain          = jobs.get(jobs.size() - 1);
+      Job       lastJobInLastChain = lastChain.get(lastChain.size() - 1);
+
+      jobManager.addListener(lastJobInLastChain.getId(), listener);
+    }
+
     @VisibleForTesting
     public List<List<Job>> getJobListChain() {
       return jobs;
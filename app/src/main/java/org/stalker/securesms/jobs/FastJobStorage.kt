@@ -7,16 +7,75 @@ import org.stalker.securesms.jobmanager.persistence.DependencySpec
 import org.stalker.securesms.jobmanager.persistence.FullSpec
 import org.stalker.securesms.jobmanager.persistence.JobSpec
 import org.stalker.securesms.jobmanager.persistence.JobStorage
-
+import java.util.TreeSet
+
+/**
+ * An in-memory cache of the job database that keeps a handful of indexes up to date as jobs are
+ * inserted, updated and deleted. This lets [getPendingJobsWithNoDependenciesInCreatedOrder] and the
+ * max-instance checks run in (roughly) O(log n) rather than scanning every job each time the
+ * [org.stalker.securesms.jobmanager.JobController] wakes up.
+ */
 class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
 
-  private val jobs: MutableList<JobSpec> = mutableListOf()
+  /** All jobs, in insertion order. */
+  private val jobsById: LinkedHashMap<String, JobSpec> = LinkedHashMap()
   private val constraintsByJobId: MutableMap<String, MutableList<ConstraintSpec>> = mutableMapOf()
   private val dependenciesByJobId: MutableMap<String, MutableList<DependencySpec>> = mutableMapOf()
 
+  /** jobId -> the ids of the jobs that depend on it. The reverse of [dependenciesByJobId]. */
+  private val dependentsByJobId: MutableMap<String, MutableSet<String>> = mutableMapOf()
+
+  /** Monotonic insertion number for every job, used to break ties the same way a stable sort over insertion order would. */
+  private val sequenceByJobId: MutableMap<String, Long> = mutableMapOf()
+  private var nextSequence: Long = 0
+
+  /** Orders jobs by priority (high first), then createTime (oldest first), then insertion order. */
+  private val priorityComparator: Comparator<JobSpec> = compareByDescending<JobSpec> { it.priority }
+    .thenBy { it.createTime }
+    .thenBy { sequenceByJobId[it.id] ?: Long.MAX_VALUE }
+
+  /** Orders jobs by createTime (oldest first), then insertion order. */
+  private val createTimeComparator: Comparator<JobSpec> = compareBy<JobSpec> { it.createTime }
+    .thenBy { sequenceByJobId[it.id] ?: Long.MAX_VALUE }
+
+  /** queueKey -> all of the jobs in that queue, with the job that should run next first. */
+  private val jobsByQueue: MutableMap<String, TreeSet<JobSpec>> = mutableMapOf()
+
+  /** Jobs in the [Job.Parameters.MIGRATION_QUEUE_KEY], oldest first. */
+  private val migrationJobs: TreeSet<JobSpec> = TreeSet(createTimeComparator)
+
+  /** Orders jobs by when their backoff ends (soonest first), then the same as [priorityComparator]. */
+  private val runTimeComparator: Comparator<JobSpec> = compareBy<JobSpec> { it.lastRunAttemptTime + it.nextBackoffInterval }
+    .then(priorityComparator)
+
+  /** Orders jobs by their last run attempt (latest first), then the same as [priorityComparator]. */
+  private val lastRunAttemptComparator: Comparator<JobSpec> = compareByDescending<JobSpec> { it.lastRunAttemptTime }
+    .then(priorityComparator)
+
+  /**
+   * The next job to run for every group (a queue, or a single job without a queue) that isn't running and has no
+   * outstanding dependencies, ordered by when its backoff ends. Only the jobs at the front of this set can run right now.
+   */
+  private val eligibleJobs: TreeSet<JobSpec> = TreeSet(runTimeComparator)
+
+  /**
+   * The same jobs as [eligibleJobs], latest run attempt first. A job whose last run attempt is in the future (because the
+   * clock moved back) can also run, and those are at the front of this set.
+   */
+  private val eligibleJobsByLastRunAttempt: TreeSet<JobSpec> = TreeSet(lastRunAttemptComparator)
+
+  /** groupKey -> the job from that group currently in [eligibleJobs]. */
+  private val eligibleJobByGroup: MutableMap<String, JobSpec> = mutableMapOf()
+
+  private val countByFactory: MutableMap<String, Int> = mutableMapOf()
+  private val countByFactoryAndQueue: MutableMap<Pair<String, String>, Int> = mutableMapOf()
+
   @Synchronized
   override fun init() {
-    jobs += jobDatabase.getAllJobSpecs()
+    for (jobSpec in jobDatabase.getAllJobSpecs()) {
+      jobsById[jobSpec.id] = jobSpec
+      sequenceByJobId[jobSpec.id] = nextSequence++
+    }
 
     for (constraintSpec in jobDatabase.getAllConstraintSpecs()) {
       val jobConstraints: MutableList<ConstraintSpec> = constraintsByJobId.getOrPut(constraintSpec.jobSpecId) { mutableListOf() }
@@ -26,7 +85,10 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     for (dependencySpec in jobDatabase.getAllDependencySpecs().filterNot { it.hasCircularDependency() }) {
       val jobDependencies: MutableList<DependencySpec> = dependenciesByJobId.getOrPut(dependencySpec.jobId) { mutableListOf() }
       jobDependencies += dependencySpec
+      dependentsByJobId.getOrPut(dependencySpec.dependsOnJobId) { LinkedHashSet() }.add(dependencySpec.jobId)
     }
+
+    rebuildIndexes()
   }
 
   @Synchronized
@@ -38,20 +100,40 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     }
 
     for (fullSpec in fullSpecs) {
-      jobs += fullSpec.jobSpec
-      constraintsByJobId[fullSpec.jobSpec.id] = fullSpec.constraintSpecs.toMutableList()
-      dependenciesByJobId[fullSpec.jobSpec.id] = fullSpec.dependencySpecs.toMutableList()
+      val jobSpec: JobSpec = fullSpec.jobSpec
+
+      val existing: JobSpec? = jobsById[jobSpec.id]
+      if (existing != null) {
+        removeFromIndexes(existing)
+      }
+      removeDependencies(jobSpec.id)
+
+      jobsById[jobSpec.id] = jobSpec
+      sequenceByJobId[jobSpec.id] = nextSequence++
+      constraintsByJobId[jobSpec.id] = fullSpec.constraintSpecs.toMutableList()
+      dependenciesByJobId[jobSpec.id] = fullSpec.dependencySpecs.toMutableList()
+
+      for (dependencySpec in fullSpec.dependencySpecs) {
+        dependentsByJobId.getOrPut(dependencySpec.dependsOnJobId) { LinkedHashSet() }.add(jobSpec.id)
+      }
+
+      addToIndexes(jobSpec)
+      refreshEligibility(jobSpec.groupKey)
+
+      if (existing != null && existing.groupKey != jobSpec.groupKey) {
+        refreshEligibility(existing.groupKey)
+      }
     }
   }
 
   @Synchronized
   override fun getJobSpec(id: String): JobSpec? {
-    return jobs.firstOrNull { it.id == id }
+    return jobsById[id]
   }
 
   @Synchronized
   override fun getAllJobSpecs(): List<JobSpec> {
-    return ArrayList(jobs)
+    return ArrayList(jobsById.values)
   }
 
   @Synchronized
@@ -63,74 +145,44 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
     } else if (migrationJob != null) {
       emptyList()
     } else {
-      jobs
-        .groupBy {
-          // Group together by queue. If it doesn't have a queue, we just use the ID, since it's unique and will give us all of the jobs without queues.
-          it.queueKey ?: it.id
-        }
-        .map { byQueueKey: Map.Entry<String, List<JobSpec>> ->
-          // We want to find the next job we should run within each queue. It should be the oldest job within the group of jobs with the highest priority.
-          // We can get this by sorting by createTime, then taking first job in that list that has the max priority.
-          byQueueKey.value
-            .sortedBy { it.createTime }
-            .maxByOrNull { it.priority }
-        }
-        .filterNotNull()
-        .filter { job ->
-          // Filter out all jobs with unmet dependencies
-          dependenciesByJobId[job.id].isNullOrEmpty()
-        }
-        .filterNot { it.isRunning }
-        .filter { job -> job.hasEligibleRunTime(currentTime) }
-        .sortedBy { it.createTime }
-        .sortedByDescending { it.priority }
+      // The eligible sets hold the next job for each queue, minus ones that are running or have dependencies. Walking them
+      // from the front only visits jobs that are out of backoff, which then get sorted by priority and then createTime.
+      val pending: TreeSet<JobSpec> = TreeSet(priorityComparator)
+
+      eligibleJobs.asSequence()
+        .takeWhile { it.lastRunAttemptTime + it.nextBackoffInterval < currentTime }
+        .toCollection(pending)
+
+      eligibleJobsByLastRunAttempt.asSequence()
+        .takeWhile { it.lastRunAttemptTime > currentTime }
+        .toCollection(pending)
 
-      // Note: The priority sort at the end is safe because it's stable. That means that within jobs with the same priority, they will still be sorted by createTime.
+      pending.toList()
     }
   }
 
   @Synchronized
   override fun getJobsInQueue(queue: String): List<JobSpec> {
-    return jobs
-      .filter { it.queueKey == queue }
-      .sortedBy { it.createTime }
+    return jobsByQueue[queue]?.sortedWith(createTimeComparator) ?: emptyList()
   }
 
   private fun getMigrationJob(): JobSpec? {
-    return jobs
-      .filter { it.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY }
-      .firstOrNull { firstInQueue(it) }
-  }
-
-  private fun firstInQueue(job: JobSpec): Boolean {
-    return if (job.queueKey == null) {
-      true
-    } else {
-      val firstInQueue: JobSpec? = jobs
-        .filter { it.queueKey == job.queueKey }
-        .minByOrNull { it.createTime }
-
-      job == firstInQueue
-    }
+    return if (migrationJobs.isEmpty()) null else migrationJobs.first()
   }
 
   @Synchronized
   override fun getJobCountForFactory(factoryKey: String): Int {
-    return jobs
-      .filter { it.factoryKey == factoryKey }
-      .size
+    return countByFactory[factoryKey] ?: 0
   }
 
   @Synchronized
   override fun getJobCountForFactoryAndQueue(factoryKey: String, queueKey: String): Int {
-    return jobs
-      .filter { it.factoryKey == factoryKey && it.queueKey == queueKey }
-      .size
+    return countByFactoryAndQueue[factoryKey to queueKey] ?: 0
   }
 
   @Synchronized
   override fun areQueuesEmpty(queueKeys: Set<String>): Boolean {
-    return jobs.none { it.queueKey != null && queueKeys.contains(it.queueKey) }
+    return queueKeys.none { jobsByQueue[it]?.isNotEmpty() == true }
   }
 
   @Synchronized
@@ -140,18 +192,14 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.markJobAsRunning(id, currentTime)
     }
 
-    val iter = jobs.listIterator()
-
-    while (iter.hasNext()) {
-      val current: JobSpec = iter.next()
-      if (current.id == id) {
-        iter.set(
-          current.copy(
-            isRunning = true,
-            lastRunAttemptTime = currentTime
-          )
+    if (job != null) {
+      replaceJob(
+        job,
+        job.copy(
+          isRunning = true,
+          lastRunAttemptTime = currentTime
         )
-      }
+      )
     }
   }
 
@@ -162,20 +210,17 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobAfterRetry(id, currentTime, runAttempt, nextBackoffInterval, serializedData)
     }
 
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      if (current.id == id) {
-        iter.set(
-          current.copy(
-            isRunning = false,
-            runAttempt = runAttempt,
-            lastRunAttemptTime = currentTime,
-            nextBackoffInterval = nextBackoffInterval,
-            serializedData = serializedData
-          )
+    if (job != null) {
+      replaceJob(
+        job,
+        job.copy(
+          isRunning = false,
+          runAttempt = runAttempt,
+          lastRunAttemptTime = currentTime,
+          nextBackoffInterval = nextBackoffInterval,
+          serializedData = serializedData
         )
-      }
+      )
     }
   }
 
@@ -183,11 +228,11 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   override fun updateAllJobsToBePending() {
     jobDatabase.updateAllJobsToBePending()
 
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      iter.set(current.copy(isRunning = false))
+    for (entry in jobsById.entries) {
+      entry.setValue(entry.value.copy(isRunning = false))
     }
+
+    rebuildIndexes()
   }
 
   @Synchronized
@@ -202,16 +247,9 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.updateJobs(durable)
     }
 
-    val updatesById: Map<String, JobSpec> = jobSpecs.associateBy { it.id }
-
-    val iter = jobs.listIterator()
-    while (iter.hasNext()) {
-      val current = iter.next()
-      val update = updatesById[current.id]
-
-      if (update != null) {
-        iter.set(update)
-      }
+    for (update in jobSpecs) {
+      val current: JobSpec = getJobById(update.id) ?: continue
+      replaceJob(current, update)
     }
   }
 
@@ -231,23 +269,27 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
       jobDatabase.deleteJobs(durableIds)
     }
 
-    val deleteIds: Set<String> = jobIds.toSet()
-    jobs.removeIf { deleteIds.contains(it.id) }
+    val dirtyGroups: MutableSet<String> = mutableSetOf()
 
     for (jobId in jobIds) {
-      constraintsByJobId.remove(jobId)
-      dependenciesByJobId.remove(jobId)
+      val job: JobSpec? = jobsById.remove(jobId)
+      if (job != null) {
+        removeFromIndexes(job)
+        dirtyGroups += job.groupKey
+      }
 
-      for (dependencyList in dependenciesByJobId.values) {
-        val iter = dependencyList.iterator()
+      sequenceByJobId.remove(jobId)
+      constraintsByJobId.remove(jobId)
+      removeDependencies(jobId)
 
-        while (iter.hasNext()) {
-          if (iter.next().dependsOnJobId == jobId) {
-            iter.remove()
-          }
-        }
+      val dependents: Set<String> = dependentsByJobId.remove(jobId) ?: emptySet()
+      for (dependentId in dependents) {
+        dependenciesByJobId[dependentId]?.removeIf { it.dependsOnJobId == jobId }
+        jobsById[dependentId]?.let { dirtyGroups += it.groupKey }
       }
     }
+
+    dirtyGroups.forEach { refreshEligibility(it) }
   }
 
   @Synchronized
@@ -278,8 +320,10 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   }
 
   private fun getSingleLayerOfDependencySpecsThatDependOnJob(jobSpecId: String): List<DependencySpec> {
-    return dependenciesByJobId
-      .values
+    val dependents: Set<String> = dependentsByJobId[jobSpecId] ?: return emptyList()
+
+    return dependents
+      .mapNotNull { dependenciesByJobId[it] }
       .flatten()
       .filter { it.dependsOnJobId == jobSpecId }
   }
@@ -289,9 +333,134 @@ class FastJobStorage(private val jobDatabase: JobDatabase) : JobStorage {
   }
 
   private fun getJobById(id: String): JobSpec? {
-    return jobs.firstOrNull { it.id == id }
+    return jobsById[id]
   }
 
+  /**
+   * Swaps out the in-memory copy of a job, keeping all of the indexes in sync. Jobs are immutable, so any change
+   * to a job has to come through here.
+   */
+  private fun replaceJob(current: JobSpec, updated: JobSpec) {
+    removeFromIndexes(current)
+    jobsById[updated.id] = updated
+    addToIndexes(updated)
+
+    refreshEligibility(current.groupKey)
+    if (updated.groupKey != current.groupKey) {
+      refreshEligibility(updated.groupKey)
+    }
+  }
+
+  /**
+   * Removes the dependencies of the specified job, along with their entries in the reverse index.
+   */
+  private fun removeDependencies(jobId: String) {
+    val dependencies: List<DependencySpec> = dependenciesByJobId.remove(jobId) ?: return
+
+    for (dependency in dependencies) {
+      val dependents: MutableSet<String> = dependentsByJobId[dependency.dependsOnJobId] ?: continue
+      dependents.remove(jobId)
+      if (dependents.isEmpty()) {
+        dependentsByJobId.remove(dependency.dependsOnJobId)
+      }
+    }
+  }
+
+  private fun addToIndexes(job: JobSpec) {
+    if (job.queueKey != null) {
+      jobsByQueue.getOrPut(job.queueKey) { TreeSet(priorityComparator) }.add(job)
+      countByFactoryAndQueue.increment(job.factoryKey to job.queueKey, 1)
+    }
+
+    if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
+      migrationJobs += job
+    }
+
+    countByFactory.increment(job.factoryKey, 1)
+  }
+
+  /**
+   * Removes the job from every index. Must be called with the exact instance that was last passed to [addToIndexes],
+   * since the sorted sets locate entries using the job's fields.
+   */
+  private fun removeFromIndexes(job: JobSpec) {
+    if (job.queueKey != null) {
+      val queue: TreeSet<JobSpec>? = jobsByQueue[job.queueKey]
+      if (queue != null) {
+        queue -= job
+        if (queue.isEmpty()) {
+          jobsByQueue.remove(job.queueKey)
+        }
+      }
+      countByFactoryAndQueue.increment(job.factoryKey to job.queueKey, -1)
+    }
+
+    if (job.queueKey == Job.Parameters.MIGRATION_QUEUE_KEY) {
+      migrationJobs -= job
+    }
+
+    countByFactory.increment(job.factoryKey, -1)
+
+    if (eligibleJobByGroup[job.groupKey]?.id == job.id) {
+      removeEligibleJob(eligibleJobByGroup.remove(job.groupKey)!!)
+    }
+  }
+
+  /**
+   * Re-evaluates which job, if any, from the specified group belongs in [eligibleJobs]. Only the next job in a queue
+   * can ever be eligible, and only if it isn't already running and doesn't have any dependencies.
+   */
+  private fun refreshEligibility(groupKey: String) {
+    eligibleJobByGroup.remove(groupKey)?.let { removeEligibleJob(it) }
+
+    val next: JobSpec? = jobsByQueue[groupKey]?.first() ?: jobsById[groupKey]?.takeIf { it.queueKey == null }
+
+    if (next != null && !next.isRunning && dependenciesByJobId[next.id].isNullOrEmpty()) {
+      eligibleJobs += next
+      eligibleJobsByLastRunAttempt += next
+      eligibleJobByGroup[groupKey] = next
+    }
+  }
+
+  private fun removeEligibleJob(job: JobSpec) {
+    eligibleJobs -= job
+    eligibleJobsByLastRunAttempt -= job
+  }
+
+  private fun rebuildIndexes() {
+    jobsByQueue.clear()
+    migrationJobs.clear()
+    eligibleJobs.clear()
+    eligibleJobsByLastRunAttempt.clear()
+    eligibleJobByGroup.clear()
+    countByFactory.clear()
+    countByFactoryAndQueue.clear()
+
+    for (job in jobsById.values) {
+      addToIndexes(job)
+    }
+
+    jobsById.values
+      .map { it.groupKey }
+      .toSet()
+      .forEach { refreshEligibility(it) }
+  }
+
+  private fun <K> MutableMap<K, Int>.increment(key: K, delta: Int) {
+    val updated: Int = (this[key] ?: 0) + delta
+    if (updated > 0) {
+      this[key] = updated
+    } else {
+      this.remove(key)
+    }
+  }
+
+  /**
+   * Jobs are grouped by queue. If a job doesn't have a queue, we just use the ID, since it's unique and will put it in a group by itself.
+   */
+  private val JobSpec.groupKey: String
+    get() = this.queueKey ?: this.id
+
   /**
    * Note that this is currently only checking a specific kind of circular dependency -- ones that are
    * created between dependencies and queues.
@@ -2,6 +2,7 @@ package org.stalker.securesms.jobs;
 
 
 import android.Manifest;
+import android.content.Context;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -14,6 +15,7 @@ import org.signal.core.util.logging.Log;
 import org.stalker.securesms.R;
 import org.stalker.securesms.backup.BackupEvent;
 import org.stalker.securesms.backup.BackupFileIOError;
+import org.stalker.securesms.backup.BackupManifest;
 import org.stalker.securesms.backup.BackupPassphrase;
 import org.stalker.securesms.backup.BackupVerifier;
 import org.stalker.securesms.backup.FullBackupExporter;
@@ -23,6 +25,7 @@ import org.stalker.securesms.database.SignalDatabase;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
 import org.stalker.securesms.jobmanager.Job;
 import org.stalker.securesms.jobmanager.JobManager;
+import org.stalker.securesms.keyvalue.SignalStore;
 import org.stalker.securesms.notifications.NotificationChannels;
 import org.stalker.securesms.permissions.Permissions;
 import org.stalker.securesms.service.GenericForegroundService;
@@ -115,6 +118,14 @@ public final class LocalBackupJob extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
+      BackupManifest base = BackupUtil.getDeltaBackupBase(context);
+      if (base != null && !new File(backupDirectory, base.getFileName()).exists()) {
+        Log.w(TAG, "Base backup is missing, writing a full backup.");
+        base = null;
+      }
+
+      BackupManifest.Builder manifest = SignalStore.internalValues().localBackupDeltas() ? new BackupManifest.Builder(fileName, base) : null;
+
       File tempFile = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
 
       try {
@@ -124,10 +135,11 @@ public final class LocalBackupJob extends BaseJob {
                                                               SignalDatabase.getBackupDatabase(),
                                                               tempFile,
                                                               backupPassword,
+                                                              manifest,
                                                               this::isCanceled);
-        stopwatch.split("backup-create");
+        stopwatch.split(base != null ? "backup-create-delta" : "backup-create");
 
-        boolean valid = BackupVerifier.verifyFile(new FileInputStream(tempFile), backupPassword, finishedEvent.getCount(), this::isCanceled);
+        boolean valid = BackupVerifier.verifyFile(new FileInputStream(tempFile), backupPassword, finishedEvent.getCount(), base, this::isCanceled);
         stopwatch.split("backup-verify");
         stopwatch.stop(TAG);
 
@@ -138,6 +150,8 @@ public final class LocalBackupJob extends BaseJob {
             Log.w(TAG, "Failed to rename temp file");
             throw new IOException("Renaming temporary backup file failed!");
           }
+
+          writeManifestIfBase(context, manifest);
         } else {
           BackupFileIOError.VERIFICATION_FAILED.postNotification(context);
         }
@@ -170,6 +184,22 @@ public final class LocalBackupJob extends BaseJob {
     }
   }
 
+  /**
+   * A full backup becomes the base for the deltas that follow it.
+   */
+  static void writeManifestIfBase(@NonNull Context context, @Nullable BackupManifest.Builder manifest) {
+    if (manifest == null || manifest.isDelta()) {
+      return;
+    }
+
+    try {
+      manifest.build().write(context);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write the backup manifest, the next backup will be a full one.", e);
+      BackupManifest.clear(context);
+    }
+  }
+
   private static void deleteOldTemporaryBackups(@NonNull File backupDirectory) {
     for (File file : backupDirectory.listFiles()) {
       if (file.isFile()) {
@@ -18,6 +18,7 @@ import org.signal.core.util.logging.Log;
 import org.stalker.securesms.R;
 import org.stalker.securesms.backup.BackupEvent;
 import org.stalker.securesms.backup.BackupFileIOError;
+import org.stalker.securesms.backup.BackupManifest;
 import org.stalker.securesms.backup.BackupPassphrase;
 import org.stalker.securesms.backup.BackupVerifier;
 import org.stalker.securesms.backup.FullBackupExporter;
@@ -137,6 +138,14 @@ public final class LocalBackupJobApi29 extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
+      BackupManifest base = BackupUtil.getDeltaBackupBase(context);
+      if (base != null && backupDirectory.findFile(base.getFileName()) == null) {
+        Log.w(TAG, "Base backup is missing, writing a full backup.");
+        base = null;
+      }
+
+      BackupManifest.Builder manifest = SignalStore.internalValues().localBackupDeltas() ? new BackupManifest.Builder(fileName, base) : null;
+
       try {
         Stopwatch   stopwatch     = new Stopwatch("backup-export");
         BackupEvent finishedEvent = FullBackupExporter.export(context,
@@ -144,16 +153,18 @@ public final class LocalBackupJobApi29 extends BaseJob {
                                                               SignalDatabase.getBackupDatabase(),
                                                               temporaryFile,
                                                               backupPassword,
+                                                              manifest,
                                                               this::isCanceled);
-        stopwatch.split("backup-create");
+        stopwatch.split(base != null ? "backup-create-delta" : "backup-create");
 
-        boolean valid = verifyBackup(backupPassword, temporaryFile, finishedEvent);
+        boolean valid = verifyBackup(backupPassword, temporaryFile, finishedEvent, base);
 
         stopwatch.split("backup-verify");
         stopwatch.stop(TAG);
 
         if (valid) {
           renameBackup(fileName, temporaryFile);
+          LocalBackupJob.writeManifestIfBase(context, manifest);
         } else {
           BackupFileIOError.VERIFICATION_FAILED.postNotification(context);
         }
@@ -188,7 +199,7 @@ public final class LocalBackupJobApi29 extends BaseJob {
     }
   }
 
-  private boolean verifyBackup(String backupPassword, DocumentFile temporaryFile, BackupEvent finishedEvent) throws FullBackupExporter.BackupCanceledException {
+  private boolean verifyBackup(String backupPassword, DocumentFile temporaryFile, BackupEvent finishedEvent, @Nullable BackupManifest base) throws FullBackupExporter.BackupCanceledException {
     Boolean valid    = null;
     int     attempts = 0;
 
@@ -197,7 +208,7 @@ public final class LocalBackupJobApi29 extends BaseJob {
 
       try (InputStream cipherStream = context.getContentResolver().openInputStream(temporaryFile.getUri())) {
         try {
-          valid = BackupVerifier.verifyFile(cipherStream, backupPassword, finishedEvent.getCount(), this::isCanceled);
+          valid = BackupVerifier.verifyFile(cipherStream, backupPassword, finishedEvent.getCount(), base, this::isCanceled);
         } catch (IOException e) {
           Log.w(TAG, "Unable to verify backup", e);
           valid = false;
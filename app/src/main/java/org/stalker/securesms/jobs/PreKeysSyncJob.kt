@@ -8,6 +8,7 @@ import org.signal.libsignal.protocol.state.PreKeyRecord
 import org.signal.libsignal.protocol.state.SignalProtocolStore
 import org.signal.libsignal.protocol.state.SignedPreKeyRecord
 import org.stalker.securesms.crypto.PreKeyUtil
+import org.stalker.securesms.crypto.ReentrantSessionLock
 import org.stalker.securesms.crypto.storage.PreKeyMetadataStore
 import org.stalker.securesms.dependencies.ApplicationDependencies
 import org.stalker.securesms.jobmanager.Job
@@ -225,9 +226,12 @@ class PreKeysSyncJob private constructor(
     }
 
     log(serviceIdType, "Cleaning prekeys...")
-    PreKeyUtil.cleanSignedPreKeys(protocolStore, metadataStore)
-    PreKeyUtil.cleanLastResortKyberPreKeys(protocolStore, metadataStore)
-    PreKeyUtil.cleanOneTimePreKeys(protocolStore)
+    // Messages are decrypted under the global lock, so this keeps us from deleting a prekey out from under a batch that's using it
+    ReentrantSessionLock.INSTANCE.acquire().use {
+      PreKeyUtil.cleanSignedPreKeys(protocolStore, metadataStore)
+      PreKeyUtil.cleanLastResortKyberPreKeys(protocolStore, metadataStore)
+      PreKeyUtil.cleanOneTimePreKeys(protocolStore)
+    }
   }
 
   private fun signedPreKeyUploadIfNeeded(serviceIdType: ServiceIdType, protocolStore: SignalProtocolStore, metadataStore: PreKeyMetadataStore, forceRotation: Boolean): SignedPreKeyRecord? {
@@ -330,6 +330,7 @@ public abstract class PushSendJob extends SendJob {
     if (threadId != -1 && recipient != null) {
       if (isStory) {
         SignalDatabase.messages().markAsNotNotified(messageId);
+        ApplicationDependencies.getDatabaseObserver().notifyConversationWriteListeners(threadId);
         ApplicationDependencies.getMessageNotifier().notifyStoryDeliveryFailed(context, recipient, ConversationId.forConversation(threadId));
       } else {
         ApplicationDependencies.getMessageNotifier().notifyMessageDeliveryFailed(context, recipient, ConversationId.fromThreadAndReply(threadId, groupReplyStoryId));
@@ -4,6 +4,7 @@ import androidx.annotation.WorkerThread
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import org.signal.core.util.Base64.decode
+import org.signal.core.util.Conversions
 import org.signal.core.util.Stopwatch
 import org.signal.core.util.concurrent.SignalExecutors
 import org.signal.core.util.concurrent.safeBlockingGet
@@ -16,6 +17,7 @@ import org.signal.libsignal.zkgroup.profiles.ProfileKey
 import org.stalker.securesms.badges.Badges
 import org.stalker.securesms.crypto.ProfileKeyUtil
 import org.stalker.securesms.database.GroupTable
+import org.stalker.securesms.database.ProfileFetchCacheTable
 import org.stalker.securesms.database.RecipientTable
 import org.stalker.securesms.database.RecipientTable.Companion.maskCapabilitiesToLong
 import org.stalker.securesms.database.RecipientTable.PhoneNumberSharingState
@@ -44,8 +46,10 @@ import org.whispersystems.signalservice.api.services.ProfileService.ProfileRespo
 import org.whispersystems.signalservice.api.util.ExpiringProfileCredentialUtil
 import org.whispersystems.signalservice.internal.ServiceResponse
 import java.io.IOException
+import java.security.MessageDigest
 import java.util.Optional
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * Retrieves a users profile and sets the appropriate local fields.
@@ -122,6 +126,7 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
     stopwatch.split("responses")
 
     val localRecords = SignalDatabase.recipients.getRecords(recipientIds)
+    val cacheEntries = SignalDatabase.profileFetchCache.getEntries(recipientIds)
     Log.d(TAG, "Fetched ${localRecords.size} existing records.")
     stopwatch.split("disk-fetch")
 
@@ -132,6 +137,10 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
       .map { it.id }
       .toSet()
 
+    val fetchTime = System.currentTimeMillis()
+    val unchangedEntries: MutableMap<RecipientId, ProfileFetchCacheTable.Entry> = HashMap()
+    var cacheHits = 0
+
     val updatedProfiles = operationState.profiles
       .filter { recipientProfileAndCredentialPair: Pair<Recipient, ProfileAndCredential> ->
         val recipientToUpdate = recipientProfileAndCredentialPair.first()
@@ -139,7 +148,16 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
         val remoteProfile = recipientProfileAndCredentialPair.second().profile
         val remoteCredential = recipientProfileAndCredentialPair.second().expiringProfileKeyCredential
 
-        return@filter try {
+        // A new credential is always an update, so there's nothing to gain from the cache.
+        val cacheEntry = if (remoteCredential.isPresent) null else buildCacheEntry(localRecipientRecord, remoteProfile, fetchTime)
+
+        if (cacheEntry != null && cacheEntries[recipientToUpdate.id]?.matches(cacheEntry) == true) {
+          cacheHits++
+          unchangedEntries[recipientToUpdate.id] = cacheEntry
+          return@filter false
+        }
+
+        val updated = try {
           isUpdated(localRecipientRecord, remoteProfile, remoteCredential)
         } catch (e: InvalidCiphertextException) {
           Log.w(TAG, "Could not compare new and old profiles.", e)
@@ -148,11 +166,21 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
           Log.w(TAG, "Could not compare new and old profiles.", e)
           true
         }
+
+        if (!updated && cacheEntry != null) {
+          unchangedEntries[recipientToUpdate.id] = cacheEntry
+        }
+
+        updated
       }
       .toList()
     stopwatch.split("filter")
 
-    Log.d(TAG, "Committing updates to " + updatedProfiles.size + " of " + operationState.profiles.size + " retrieved profiles.")
+    val cacheMisses = operationState.profiles.size - cacheHits
+    totalCacheHits.addAndGet(cacheHits.toLong())
+    totalCacheMisses.addAndGet(cacheMisses.toLong())
+
+    Log.d(TAG, "Committing updates to ${updatedProfiles.size} of ${operationState.profiles.size} retrieved profiles. Skipped $cacheHits unchanged profile(s) without decrypting them. Cache hit rate this run: $cacheHits/${operationState.profiles.size}, since launch: ${totalCacheHits.get()}/${totalCacheHits.get() + totalCacheMisses.get()}")
     updatedProfiles.chunked(150).forEach { list: List<Pair<Recipient, ProfileAndCredential>> ->
       SignalDatabase.runInTransaction {
         for (profile in list) {
@@ -163,6 +191,7 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
     stopwatch.split("process")
 
     SignalDatabase.recipients.markProfilesFetched(successIds, System.currentTimeMillis())
+    SignalDatabase.profileFetchCache.setEntries(unchangedEntries)
     stopwatch.split("mark-fetched")
 
     if (newlyRegisteredIds.isNotEmpty()) {
@@ -254,6 +283,55 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
     return false
   }
 
+  /**
+   * Describes everything [isUpdated] looks at, without decrypting anything. [isUpdated] only depends on these, so if a previous fetch with
+   * the same entry wasn't an update, this one isn't either. Returns null if there's no way to tell which profile key version was used.
+   */
+  private fun buildCacheEntry(localRecipientRecord: RecipientRecord, remoteProfile: SignalServiceProfile, fetchTime: Long): ProfileFetchCacheTable.Entry? {
+    val profileKey = ProfileKeyUtil.profileKeyOrNull(localRecipientRecord.profileKey)
+    val profileKeyVersion = if (profileKey != null) {
+      val aci = localRecipientRecord.aci ?: return null
+      profileKey.getProfileKeyVersion(aci.libSignalAci).serialize()
+    } else {
+      null
+    }
+
+    val digest = MessageDigest.getInstance("SHA-256")
+
+    digest.updateField(localRecipientRecord.profileKey)
+    digest.updateField(localRecipientRecord.signalProfileAvatar)
+    digest.updateField(localRecipientRecord.badges.joinToString(separator = "\u0000"))
+    digest.updateField(localRecipientRecord.capabilities.rawBits.toString())
+    digest.updateField(localRecipientRecord.unidentifiedAccessMode.name)
+    digest.updateField(localRecipientRecord.signalProfileName.serialize())
+    digest.updateField(localRecipientRecord.about)
+    digest.updateField(localRecipientRecord.phoneNumberSharing.name)
+
+    digest.updateField(remoteProfile.avatar)
+    digest.updateField(remoteProfile.badges.joinToString(separator = "\u0000") { "${it.id},${it.category},${it.name},${it.description},${it.sprites6},${it.expiration},${it.isVisible},${it.duration}" })
+    digest.updateField(maskCapabilitiesToLong(remoteProfile.capabilities).toString())
+    digest.updateField(remoteProfile.unidentifiedAccess)
+    digest.updateField(remoteProfile.isUnrestrictedUnidentifiedAccess.toString())
+    digest.updateField(remoteProfile.name)
+    digest.updateField(remoteProfile.about)
+    digest.updateField(remoteProfile.phoneNumberSharing)
+
+    return ProfileFetchCacheTable.Entry(profileKeyVersion, digest.digest(), fetchTime)
+  }
+
+  private fun MessageDigest.updateField(value: String?) {
+    updateField(value?.toByteArray())
+  }
+
+  private fun MessageDigest.updateField(value: ByteArray?) {
+    if (value == null) {
+      update(Conversions.intToByteArray(-1))
+    } else {
+      update(Conversions.intToByteArray(value.size))
+      update(value)
+    }
+  }
+
   private fun process(recipient: Recipient, profileAndCredential: ProfileAndCredential) {
     val profile = profileAndCredential.profile
     val recipientProfileKey = ProfileKeyUtil.profileKeyOrNull(recipient.profileKey)
@@ -522,6 +600,23 @@ class RetrieveProfileJob private constructor(parameters: Parameters, private val
     private const val DEDUPE_KEY_RETRIEVE_AVATAR = KEY + "_RETRIEVE_PROFILE_AVATAR"
     private const val QUEUE_PREFIX = "RetrieveProfileJob_"
 
+    private val totalCacheHits = AtomicLong()
+    private val totalCacheMisses = AtomicLong()
+
+    /**
+     * How many retrieved profiles were skipped because [ProfileFetchCacheTable] knew they matched, since the process started.
+     */
+    @JvmStatic
+    val cacheHitCount: Long
+      get() = totalCacheHits.get()
+
+    /**
+     * How many retrieved profiles had to be decrypted and compared, since the process started.
+     */
+    @JvmStatic
+    val cacheMissCount: Long
+      get() = totalCacheMisses.get()
+
     /**
      * Submits the necessary job to refresh the profile of the requested recipient. Works for any
      * RecipientId, including individuals, groups, or yourself.
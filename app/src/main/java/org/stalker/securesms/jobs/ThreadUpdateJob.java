@@ -12,6 +12,9 @@ import org.stalker.securesms.jobmanager.Job;
 /**
  * A job that effectively debounces thread updates through a combination of having a max instance count
  * and sleeping at the end of the job to make sure it takes a minimum amount of time.
+ *
+ * Incoming messages already update the thread incrementally as they're inserted, so this is the full
+ * recompute that corrects anything that may have drifted.
  */
 public final class ThreadUpdateJob extends BaseJob {
 
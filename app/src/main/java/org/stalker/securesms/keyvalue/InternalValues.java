@@ -33,6 +33,7 @@ public final class InternalValues extends SignalStoreValues {
   public static final String CONVERSATION_ITEM_V2_MEDIA           = "internal.conversation_item_v2_media";
   public static final String FORCE_ENTER_RESTORE_V2_FLOW          = "internal.force_enter_restore_v2_flow";
   public static final String WEB_SOCKET_SHADOWING_STATS           = "internal.web_socket_shadowing_stats";
+  public static final String LOCAL_BACKUP_DELTAS                  = "internal.local_backup_deltas";
 
   InternalValues(KeyValueStore store) {
     super(store);
@@ -213,6 +214,17 @@ public final class InternalValues extends SignalStoreValues {
     return FeatureFlags.internalUser() && getBoolean(CONVERSATION_ITEM_V2_MEDIA, false);
   }
 
+  /**
+   * Local backups are written as a full base followed by deltas that only carry new attachments.
+   */
+  public boolean localBackupDeltas() {
+    return FeatureFlags.internalUser() && getBoolean(LOCAL_BACKUP_DELTAS, false);
+  }
+
+  public void setLocalBackupDeltas(boolean enabled) {
+    putBoolean(LOCAL_BACKUP_DELTAS, enabled);
+  }
+
   public void setForceEnterRestoreV2Flow(boolean enter) {
     putBoolean(FORCE_ENTER_RESTORE_V2_FLOW, enter);
   }
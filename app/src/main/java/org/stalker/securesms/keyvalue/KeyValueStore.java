@@ -22,9 +22,13 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
+ * Reads never take a lock. The cache is an immutable snapshot that is replaced as a whole on each
+ * write, so a reader always sees either all of a write or none of it.
+ *
  * Writes are enqueued on a separate executor, but writes are finished up in
  * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
- * or the system killing us unexpectedly (i.e. a force-stop).
+ * or the system killing us unexpectedly (i.e. a force-stop). Writes that are made before the
+ * executor gets to them are merged and written in a single transaction.
  */
 public final class KeyValueStore implements KeyValueReader {
 
@@ -33,7 +37,10 @@ public final class KeyValueStore implements KeyValueReader {
   private final ExecutorService           executor;
   private final KeyValuePersistentStorage storage;
 
-  private KeyValueDataSet dataSet;
+  private volatile KeyValueDataSet dataSet;
+
+  private KeyValueDataSet pendingDataSet;
+  private Set<String>     pendingRemoves;
 
   public KeyValueStore(@NonNull KeyValuePersistentStorage storage) {
     this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore", ThreadUtil.PRIORITY_BACKGROUND_THREAD);
@@ -42,51 +49,44 @@ public final class KeyValueStore implements KeyValueReader {
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getDataSet().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getDataSet().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getDataSet().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getDataSet().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getDataSet().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getDataSet().getString(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean containsKey(@NonNull String key) {
-    initializeIfNecessary();
-    return dataSet.containsKey(key);
+  public boolean containsKey(@NonNull String key) {
+    return getDataSet().containsKey(key);
   }
 
   /**
@@ -104,20 +104,15 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getDataSet();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
     executor.execute(latch::countDown);
@@ -133,22 +128,56 @@ public final class KeyValueStore implements KeyValueReader {
    * Forces the store to re-fetch all of it's data from the database.
    */
   synchronized void resetCache() {
-    dataSet = null;
-    initializeIfNecessary();
+    dataSet = storage.getDataSet();
   }
 
   private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
-    initializeIfNecessary();
+    KeyValueDataSet updated = new KeyValueDataSet();
+    updated.putAll(getDataSet());
+    updated.putAll(newDataSet);
+    updated.removeAll(removes);
+
+    dataSet = updated;
+
+    if (pendingDataSet == null) {
+      pendingDataSet = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+      executor.execute(this::flushPendingWrites);
+    }
+
+    pendingRemoves.removeAll(newDataSet.getValues().keySet());
+    pendingDataSet.putAll(newDataSet);
+    pendingDataSet.removeAll(removes);
+    pendingRemoves.addAll(removes);
+  }
+
+  private void flushPendingWrites() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    synchronized (this) {
+      writes         = pendingDataSet;
+      removes        = pendingRemoves;
+      pendingDataSet = null;
+      pendingRemoves = null;
+    }
 
-    executor.execute(() -> storage.writeDataSet(newDataSet, removes));
+    storage.writeDataSet(writes, removes);
   }
 
-  private void initializeIfNecessary() {
-    if (dataSet != null) return;
-    this.dataSet = storage.getDataSet();
+  private @NonNull KeyValueDataSet getDataSet() {
+    KeyValueDataSet current = dataSet;
+
+    if (current != null) {
+      return current;
+    }
+
+    synchronized (this) {
+      if (dataSet == null) {
+        dataSet = storage.getDataSet();
+      }
+      return dataSet;
+    }
   }
 
   class Writer {
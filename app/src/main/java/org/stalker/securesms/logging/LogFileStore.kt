@@ -0,0 +1,644 @@
+package org.stalker.securesms.logging
+
+import android.content.Context
+import androidx.annotation.VisibleForTesting
+import org.signal.core.util.kibiBytes
+import org.signal.core.util.logging.Log
+import org.signal.core.util.mebiBytes
+import org.stalker.securesms.database.model.LogEntry
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.security.GeneralSecurityException
+import java.security.SecureRandom
+import javax.crypto.Cipher
+import javax.crypto.spec.GCMParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.time.Duration.Companion.days
+
+/**
+ * Stores logs in a series of encrypted, append-only segment files.
+ *
+ * Logs are very performance critical. Rather than writing a row per line (and paying for index maintenance on every one), each batch of
+ * lines is encrypted as a single record and appended to the current segment. Once a segment is large enough, it is sealed and a new one
+ * is started. Retention is then just a matter of deleting the oldest segment files, and reading logs back is a sequential scan.
+ *
+ * Lines that should be kept longer are written to their own set of segments, so they can be retained on a different schedule.
+ *
+ * Segments are named `<id>.<ext>` while being written to, and `<id>-<lastCreatedAt>.<ext>` once sealed, where the extension indicates
+ * whether or not it holds keep-longer lines. Each segment is a sequence of records:
+ *
+ * ```
+ * [int ciphertextLength][int entryCount][long lastCreatedAt][12 byte IV][ciphertext]
+ * ```
+ *
+ * The first 16 bytes are authenticated as associated data. The plaintext is a sequence of `[long createdAt][int bodyLength][body]` entries.
+ */
+class LogFileStore @VisibleForTesting constructor(
+  private val directory: File,
+  secret: ByteArray,
+  private val maxSize: Long = MAX_SIZE,
+  private val segmentSize: Long = SEGMENT_SIZE
+) {
+
+  companion object {
+    private val TAG = Log.tag(LogFileStore::class.java)
+
+    private const val DIRECTORY = "logs"
+    private const val NORMAL_EXTENSION = "log"
+    private const val KEEP_LONGER_EXTENSION = "keep"
+    private val SEGMENT_NAME = Regex("^(\\d+)(?:-(\\d+))?\\.($NORMAL_EXTENSION|$KEEP_LONGER_EXTENSION)$")
+
+    private const val HEADER_SIZE = 16
+    private const val IV_SIZE = 12
+    private const val TAG_SIZE = 16
+
+    /** Anything claiming to be larger than this is corrupt. A single batch of logs should never come close. */
+    private val MAX_RECORD_SIZE = 8L.mebiBytes.inWholeBytes
+
+    val MAX_SIZE = 20L.mebiBytes.inWholeBytes
+    val SEGMENT_SIZE = 512L.kibiBytes.inWholeBytes
+    val DEFAULT_LIFESPAN = 3.days.inWholeMilliseconds
+    val LONGER_LIFESPAN = 21.days.inWholeMilliseconds
+
+    @Volatile
+    private var instance: LogFileStore? = null
+
+    @JvmStatic
+    fun getInstance(context: Context): LogFileStore {
+      if (instance == null) {
+        synchronized(LogFileStore::class.java) {
+          if (instance == null) {
+            instance = LogFileStore(File(context.filesDir, DIRECTORY), LogSecretProvider.getOrCreateAttachmentSecret(context))
+          }
+        }
+      }
+      return instance!!
+    }
+  }
+
+  private val key = SecretKeySpec(secret, "AES")
+  private val random = SecureRandom()
+  private val lock = Any()
+
+  /** All segments, sorted by id, which is also the order they were written in. */
+  private val segments: MutableList<Segment> = mutableListOf()
+
+  private val encryptCipher: Cipher = Cipher.getInstance("AES/GCM/NoPadding")
+  private val plaintextBuffer = ByteArrayOutputStream()
+  private val plaintextOutput = DataOutputStream(plaintextBuffer)
+
+  private var normalWriter: SegmentWriter? = null
+  private var keepLongerWriter: SegmentWriter? = null
+  private var nextId: Long = 0
+
+  init {
+    directory.mkdirs()
+    loadSegments()
+  }
+
+  /**
+   * Appends the entries to the current segments, rotating and trimming if necessary.
+   */
+  fun insert(logs: List<LogEntry>, currentTime: Long) {
+    synchronized(lock) {
+      try {
+        val rotatedNormal = append(logs, keepLonger = false)
+        val rotatedKeepLonger = append(logs, keepLonger = true)
+
+        if (rotatedNormal || rotatedKeepLonger) {
+          applyRetention(currentTime)
+        }
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to write logs!", e)
+        closeWriters()
+      }
+    }
+  }
+
+  /**
+   * Returns a reader that will iterate over all lines created before the specified time, oldest first.
+   */
+  fun getAllBeforeTime(time: Long): Reader {
+    val snapshot: List<Segment> = synchronized(lock) { segments.toList() }
+
+    return MergingReader(
+      SegmentChainReader(snapshot.filter { !it.keepLonger }, keepLonger = false, untilTime = time),
+      SegmentChainReader(snapshot.filter { it.keepLonger }, keepLonger = true, untilTime = time)
+    )
+  }
+
+  fun getLogCountBeforeTime(time: Long): Int {
+    val snapshot: List<Segment> = synchronized(lock) { segments.toList() }
+    val scratch: MutableList<LogEntry> = mutableListOf()
+    var count = 0
+
+    for (segment in snapshot) {
+      val input = openSegment(segment) ?: continue
+
+      input.use {
+        while (input.nextRecord()) {
+          if (input.lastCreatedAt < time) {
+            if (!input.skipRecord()) {
+              break
+            }
+            count += input.entryCount
+          } else {
+            scratch.clear()
+            if (!input.readRecord(scratch, segment.keepLonger)) {
+              break
+            }
+            count += scratch.count { it.createdAt < time }
+          }
+        }
+      }
+    }
+
+    return count
+  }
+
+  /**
+   * Drops whole segments that have fallen outside of their lifespan, and then the oldest segments until we're under our max size. Normal
+   * segments go first -- keep-longer segments are only dropped if they alone put us over the limit.
+   */
+  fun trimToSize() {
+    synchronized(lock) {
+      applyRetention(System.currentTimeMillis())
+    }
+  }
+
+  fun clearKeepLonger() {
+    synchronized(lock) {
+      keepLongerWriter?.close()
+      keepLongerWriter = null
+      deleteSegments { it.keepLonger }
+    }
+  }
+
+  fun clearAll() {
+    synchronized(lock) {
+      closeWriters()
+      deleteSegments { true }
+    }
+  }
+
+  private fun loadSegments() {
+    val files: Array<File> = directory.listFiles() ?: emptyArray()
+
+    for (file in files) {
+      val match = SEGMENT_NAME.matchEntire(file.name)
+      if (match == null) {
+        file.delete()
+        continue
+      }
+
+      val id = match.groupValues[1].toLong()
+      val keepLonger = match.groupValues[3] == KEEP_LONGER_EXTENSION
+      val sealedLastCreatedAt = match.groupValues[2].takeIf { it.isNotEmpty() }?.toLong()
+
+      val segment = Segment(id, keepLonger, file, file.length(), sealedLastCreatedAt ?: 0, sealed = sealedLastCreatedAt != null)
+      segments += segment
+      nextId = maxOf(nextId, id + 1)
+
+      if (sealedLastCreatedAt == null) {
+        // Left over from a previous process. We never append to an old segment, so seal it now.
+        val lastCreatedAt = readLastCreatedAt(segment)
+        if (lastCreatedAt == null) {
+          file.delete()
+          segments -= segment
+        } else {
+          segment.lastCreatedAt = lastCreatedAt
+          seal(segment)
+        }
+      }
+    }
+
+    segments.sortBy { it.id }
+  }
+
+  private fun readLastCreatedAt(segment: Segment): Long? {
+    val input = openSegment(segment) ?: return null
+    var lastCreatedAt: Long? = null
+
+    input.use {
+      while (input.nextRecord()) {
+        lastCreatedAt = maxOf(lastCreatedAt ?: 0, input.lastCreatedAt)
+        if (!input.skipRecord()) {
+          break
+        }
+      }
+    }
+
+    return lastCreatedAt
+  }
+
+  /**
+   * Writes all of the entries of the requested type as a single record.
+   *
+   * @return True if the current segment was sealed as a result of this write, otherwise false.
+   */
+  private fun append(logs: List<LogEntry>, keepLonger: Boolean): Boolean {
+    plaintextBuffer.reset()
+
+    var count = 0
+    var lastCreatedAt = 0L
+
+    for (log in logs) {
+      if (log.keepLonger != keepLonger) {
+        continue
+      }
+
+      val body = log.body.toByteArray(Charsets.UTF_8)
+      plaintextOutput.writeLong(log.createdAt)
+      plaintextOutput.writeInt(body.size)
+      plaintextOutput.write(body)
+
+      count++
+      lastCreatedAt = maxOf(lastCreatedAt, log.createdAt)
+    }
+
+    if (count == 0) {
+      return false
+    }
+
+    val record = encryptRecord(count, lastCreatedAt)
+    val writer = getOrCreateWriter(keepLonger)
+
+    writer.output.write(record)
+    writer.segment.size += record.size
+    writer.segment.lastCreatedAt = maxOf(writer.segment.lastCreatedAt, lastCreatedAt)
+
+    if (writer.segment.size >= segmentSize) {
+      writer.close()
+      seal(writer.segment)
+
+      if (keepLonger) {
+        keepLongerWriter = null
+      } else {
+        normalWriter = null
+      }
+      return true
+    }
+
+    return false
+  }
+
+  private fun encryptRecord(entryCount: Int, lastCreatedAt: Long): ByteArray {
+    val plaintextLength = plaintextBuffer.size()
+    val ciphertextLength = plaintextLength + TAG_SIZE
+    val record = ByteArray(HEADER_SIZE + IV_SIZE + ciphertextLength)
+
+    ByteBuffer.wrap(record, 0, HEADER_SIZE)
+      .putInt(ciphertextLength)
+      .putInt(entryCount)
+      .putLong(lastCreatedAt)
+
+    val iv = ByteArray(IV_SIZE)
+    random.nextBytes(iv)
+    System.arraycopy(iv, 0, record, HEADER_SIZE, IV_SIZE)
+
+    try {
+      encryptCipher.init(Cipher.ENCRYPT_MODE, key, GCMParameterSpec(TAG_SIZE * 8, iv))
+      encryptCipher.updateAAD(record, 0, HEADER_SIZE)
+      encryptCipher.doFinal(plaintextBuffer.toByteArray(), 0, plaintextLength, record, HEADER_SIZE + IV_SIZE)
+    } catch (e: GeneralSecurityException) {
+      throw AssertionError(e)
+    }
+
+    return record
+  }
+
+  private fun getOrCreateWriter(keepLonger: Boolean): SegmentWriter {
+    val existing = if (keepLonger) keepLongerWriter else normalWriter
+    if (existing != null) {
+      return existing
+    }
+
+    val id = nextId++
+    val segment = Segment(id, keepLonger, File(directory, "$id.${extension(keepLonger)}"), 0, 0)
+    val writer = SegmentWriter(segment, FileOutputStream(segment.file, true))
+
+    segments += segment
+
+    if (keepLonger) {
+      keepLongerWriter = writer
+    } else {
+      normalWriter = writer
+    }
+
+    return writer
+  }
+
+  private fun seal(segment: Segment) {
+    val sealed = File(directory, "${segment.id}-${segment.lastCreatedAt}.${extension(segment.keepLonger)}")
+
+    if (segment.file.renameTo(sealed)) {
+      segment.file = sealed
+    } else {
+      Log.w(TAG, "Failed to seal segment ${segment.id}")
+    }
+
+    segment.sealed = true
+  }
+
+  private fun applyRetention(currentTime: Long) {
+    deleteSegments { segment ->
+      val lifespan = if (segment.keepLonger) LONGER_LIFESPAN else DEFAULT_LIFESPAN
+      segment.sealed && segment.lastCreatedAt < currentTime - lifespan
+    }
+
+    var totalSize = segments.sumOf { it.size }
+    if (totalSize <= maxSize) {
+      return
+    }
+
+    for (keepLonger in listOf(false, true)) {
+      for (segment in segments.filter { it.sealed && it.keepLonger == keepLonger }) {
+        if (totalSize <= maxSize) {
+          return
+        }
+
+        totalSize -= segment.size
+        segment.file.delete()
+        segments -= segment
+      }
+    }
+  }
+
+  private fun deleteSegments(predicate: (Segment) -> Boolean) {
+    val iterator = segments.iterator()
+
+    while (iterator.hasNext()) {
+      val segment = iterator.next()
+
+      if (predicate(segment) && segment.writer() == null) {
+        segment.file.delete()
+        iterator.remove()
+      }
+    }
+  }
+
+  private fun Segment.writer(): SegmentWriter? {
+    return if (keepLongerWriter?.segment === this) {
+      keepLongerWriter
+    } else if (normalWriter?.segment === this) {
+      normalWriter
+    } else {
+      null
+    }
+  }
+
+  /**
+   * Closes and seals the current segments. Nothing is appended to a segment once its writer is gone, and retention only drops sealed
+   * segments, so a segment left unsealed here would never be cleaned up.
+   */
+  private fun closeWriters() {
+    for (writer in listOfNotNull(normalWriter, keepLongerWriter)) {
+      writer.close()
+      seal(writer.segment)
+    }
+
+    normalWriter = null
+    keepLongerWriter = null
+  }
+
+  /**
+   * Opens the segment for reading, or returns null if it has since been deleted. Segments are renamed when they're sealed, so the file is
+   * opened under the lock to keep a seal from renaming it in between. Once open, the stream survives a rename.
+   */
+  private fun openSegment(segment: Segment): SegmentInput? {
+    return synchronized(lock) {
+      try {
+        SegmentInput(FileInputStream(segment.file))
+      } catch (e: IOException) {
+        null
+      }
+    }
+  }
+
+  private fun extension(keepLonger: Boolean): String {
+    return if (keepLonger) KEEP_LONGER_EXTENSION else NORMAL_EXTENSION
+  }
+
+  interface Reader : Iterator<String>, Closeable
+
+  private class Segment(
+    val id: Long,
+    val keepLonger: Boolean,
+    var file: File,
+    var size: Long,
+    var lastCreatedAt: Long,
+    var sealed: Boolean = false
+  )
+
+  private class SegmentWriter(val segment: Segment, val output: FileOutputStream) {
+    fun close() {
+      try {
+        output.close()
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to close segment ${segment.id}", e)
+      }
+    }
+  }
+
+  /**
+   * Reads a segment one record at a time. A truncated final record (from being killed mid-write, or from reading while the segment is
+   * still being written to) is treated as the end of the segment.
+   */
+  private inner class SegmentInput(stream: FileInputStream) : Closeable {
+    private val input = DataInputStream(BufferedInputStream(stream, 64 * 1024))
+    private val length: Long = stream.channel.size()
+    private val header = ByteArray(HEADER_SIZE)
+    private val iv = ByteArray(IV_SIZE)
+    private val cipher: Cipher = Cipher.getInstance("AES/GCM/NoPadding")
+
+    private var ciphertextLength = 0
+    private var position = 0L
+
+    var entryCount = 0
+      private set
+
+    var lastCreatedAt = 0L
+      private set
+
+    /** Reads the header of the next record. Must be followed by either [skipRecord] or [readRecord]. */
+    fun nextRecord(): Boolean {
+      try {
+        input.readFully(header)
+      } catch (e: EOFException) {
+        return false
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to read record header.", e)
+        return false
+      }
+
+      position += HEADER_SIZE
+
+      val buffer = ByteBuffer.wrap(header)
+      ciphertextLength = buffer.int
+      entryCount = buffer.int
+      lastCreatedAt = buffer.long
+
+      if (ciphertextLength < TAG_SIZE || ciphertextLength > MAX_RECORD_SIZE || entryCount < 0) {
+        Log.w(TAG, "Corrupt record header! Skipping the rest of the segment.")
+        return false
+      }
+
+      return true
+    }
+
+    /** Skips past the current record without decrypting it. Returns false if the record is incomplete. */
+    fun skipRecord(): Boolean {
+      val recordLength = (IV_SIZE + ciphertextLength).toLong()
+      if (position + recordLength > length) {
+        return false
+      }
+
+      return try {
+        var remaining = recordLength
+        while (remaining > 0) {
+          val skipped = input.skip(remaining)
+          if (skipped <= 0) {
+            return false
+          }
+          remaining -= skipped
+        }
+        position += recordLength
+        true
+      } catch (e: IOException) {
+        false
+      }
+    }
+
+    /** Decrypts the current record, adding its entries to [out]. */
+    fun readRecord(out: MutableList<LogEntry>, keepLonger: Boolean): Boolean {
+      val plaintext: ByteArray = try {
+        val ciphertext = ByteArray(ciphertextLength)
+        input.readFully(iv)
+        input.readFully(ciphertext)
+        position += IV_SIZE + ciphertextLength
+
+        cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(TAG_SIZE * 8, iv))
+        cipher.updateAAD(header)
+        cipher.doFinal(ciphertext)
+      } catch (e: EOFException) {
+        return false
+      } catch (e: IOException) {
+        Log.w(TAG, "Failed to read record.", e)
+        return false
+      } catch (e: GeneralSecurityException) {
+        Log.w(TAG, "Failed to decrypt record.", e)
+        return false
+      }
+
+      val buffer = ByteBuffer.wrap(plaintext)
+      while (buffer.remaining() > 0) {
+        val createdAt = buffer.long
+        val length = buffer.int
+        val body = String(plaintext, buffer.position(), length, Charsets.UTF_8)
+        buffer.position(buffer.position() + length)
+
+        out += LogEntry(createdAt = createdAt, keepLonger = keepLonger, body = body)
+      }
+
+      return true
+    }
+
+    override fun close() {
+      input.close()
+    }
+  }
+
+  /**
+   * Reads the lines from a chain of segments in order, one record at a time.
+   */
+  private inner class SegmentChainReader(segments: List<Segment>, private val keepLonger: Boolean, private val untilTime: Long) : Closeable {
+    private val remainingSegments = ArrayDeque(segments)
+    private val pending = ArrayDeque<LogEntry>()
+    private val scratch: MutableList<LogEntry> = mutableListOf()
+
+    private var input: SegmentInput? = null
+
+    fun peek(): LogEntry? {
+      while (pending.isEmpty()) {
+        if (!readNextRecord()) {
+          return null
+        }
+      }
+      return pending.first()
+    }
+
+    fun next(): LogEntry {
+      return peek()?.let { pending.removeFirst() } ?: throw NoSuchElementException()
+    }
+
+    private fun readNextRecord(): Boolean {
+      while (true) {
+        val current = input ?: openNextSegment() ?: return false
+
+        if (current.nextRecord()) {
+          scratch.clear()
+          if (current.readRecord(scratch, keepLonger)) {
+            scratch.filterTo(pending) { it.createdAt < untilTime }
+            return true
+          }
+        }
+
+        current.close()
+        input = null
+      }
+    }
+
+    private fun openNextSegment(): SegmentInput? {
+      while (remainingSegments.isNotEmpty()) {
+        val opened = openSegment(remainingSegments.removeFirst())
+
+        if (opened != null) {
+          input = opened
+          return opened
+        }
+      }
+      return null
+    }
+
+    override fun close() {
+      input?.close()
+      input = null
+      remainingSegments.clear()
+      pending.clear()
+    }
+  }
+
+  /**
+   * Merges the normal and keep-longer lines back into a single stream ordered by creation time.
+   */
+  private class MergingReader(private val normal: SegmentChainReader, private val keepLonger: SegmentChainReader) : Reader {
+    override fun hasNext(): Boolean {
+      return normal.peek() != null || keepLonger.peek() != null
+    }
+
+    override fun next(): String {
+      val nextNormal = normal.peek()
+      val nextKeepLonger = keepLonger.peek()
+
+      return if (nextKeepLonger == null || (nextNormal != null && nextNormal.createdAt <= nextKeepLonger.createdAt)) {
+        normal.next().body
+      } else {
+        keepLonger.next().body
+      }
+    }
+
+    override fun close() {
+      normal.close()
+      keepLonger.close()
+    }
+  }
+}
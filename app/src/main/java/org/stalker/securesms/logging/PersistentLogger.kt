@@ -16,20 +16,24 @@ import java.util.Date
 import java.util.Locale
 
 /**
- * A logger that will persist log entries in [LogDatabase].
+ * A logger that will persist log entries in [LogFileStore].
  *
  * We log everywhere, and we never want it to slow down the app, so performance is critical here.
  * This class takes special care to do as little as possible on the main thread, instead letting the background thread do the work.
  *
  * The process looks something like:
  * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The [WriteThread] constantly pulls from that queue, formats the logs, and appends them to the log files.
  */
 class PersistentLogger(
   application: Application
 ) : Log.Logger() {
 
   companion object {
+    private val TAG = Log.tag(PersistentLogger::class.java)
+
+    private const val MIGRATION_BATCH_SIZE = 1000
+
     private const val LOG_V = "V"
     private const val LOG_D = "D"
     private const val LOG_I = "I"
@@ -38,11 +42,10 @@ class PersistentLogger(
   }
 
   private val logEntries = LogRequests()
-  private val logDatabase = LogDatabase.getInstance(application)
   private val cachedThreadString: ThreadLocal<String> = ThreadLocal()
 
   init {
-    WriteThread(logEntries, logDatabase).apply {
+    WriteThread(logEntries, application).apply {
       priority = Thread.MIN_PRIORITY
     }.start()
   }
@@ -103,21 +106,57 @@ class PersistentLogger(
 
   private class WriteThread(
     private val requests: LogRequests,
-    private val db: LogDatabase
+    private val application: Application
   ) : Thread("signal-logger") {
 
     private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
     private val buffer = mutableListOf<LogRequest>()
 
     override fun run() {
+      // Opening the store requires fetching the log secret, which we don't want to do on the main thread
+      val store = LogFileStore.getInstance(application)
+
+      migrateFromDatabase(store)
+
       while (true) {
         requests.blockForRequests(buffer)
-        db.logs.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
+        store.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
         buffer.clear()
         requests.notifyFlushed()
       }
     }
 
+    /**
+     * Logs used to be stored as rows in [LogDatabase]. Moves any that are left over into the [LogFileStore].
+     */
+    private fun migrateFromDatabase(store: LogFileStore) {
+      val logTable = LogDatabase.getInstance(application).logs
+
+      if (!logTable.hasLogs()) {
+        return
+      }
+
+      val batch: MutableList<LogEntry> = ArrayList(MIGRATION_BATCH_SIZE)
+      var count = 0
+
+      logTable.forEach { entry ->
+        batch += entry
+        if (batch.size >= MIGRATION_BATCH_SIZE) {
+          store.insert(batch, System.currentTimeMillis())
+          count += batch.size
+          batch.clear()
+        }
+      }
+
+      if (batch.isNotEmpty()) {
+        store.insert(batch, System.currentTimeMillis())
+        count += batch.size
+      }
+
+      logTable.clearAll()
+      Log.i(TAG, "Migrated $count logs from the database.")
+    }
+
     fun requestToEntries(request: LogRequest): List<LogEntry> {
       val out = mutableListOf<LogEntry>()
 
@@ -3,12 +3,15 @@ package org.stalker.securesms.logsubmit
 import android.app.Application
 import org.signal.core.util.logging.Scrubber
 import org.signal.paging.PagedDataSource
-import org.stalker.securesms.database.LogDatabase
+import org.stalker.securesms.logging.LogFileStore
 
 /**
  * Retrieves logs to show in the [SubmitDebugLogActivity].
  *
- * @param prefixLines A static list of lines to show before all of the lines retrieved from [LogDatabase]
+ * Logs are stored as a sequence of encrypted records, so rather than seeking to each page we keep a reader open and stream forward
+ * through it, since pages are almost always requested in order.
+ *
+ * @param prefixLines A static list of lines to show before all of the lines retrieved from [LogFileStore]
  * @param untilTime Only show logs before this time. This is our way of making sure the set of logs we show on this screen doesn't grow.
  */
 class LogDataSource(
@@ -18,20 +21,22 @@ class LogDataSource(
 ) :
   PagedDataSource<Long, LogLine> {
 
-  val logDatabase = LogDatabase.getInstance(application)
+  private val logStore = LogFileStore.getInstance(application)
+
+  private var reader: LogFileStore.Reader? = null
+  private var readerPosition = 0
 
   override fun size(): Int {
-    return prefixLines.size + logDatabase.logs.getLogCountBeforeTime(untilTime)
+    return prefixLines.size + logStore.getLogCountBeforeTime(untilTime)
   }
 
   override fun load(start: Int, length: Int, totalSize: Int, cancellationSignal: PagedDataSource.CancellationSignal): List<LogLine> {
     if (start + length < prefixLines.size) {
       return prefixLines.subList(start, start + length)
     } else if (start < prefixLines.size) {
-      return prefixLines.subList(start, prefixLines.size) +
-        logDatabase.logs.getRangeBeforeTime(0, length - (prefixLines.size - start), untilTime).map { convertToLogLine(it) }
+      return prefixLines.subList(start, prefixLines.size) + readRange(0, length - (prefixLines.size - start))
     } else {
-      return logDatabase.logs.getRangeBeforeTime(start - prefixLines.size, length, untilTime).map { convertToLogLine(it) }
+      return readRange(start - prefixLines.size, length)
     }
   }
 
@@ -43,6 +48,36 @@ class LogDataSource(
     return data.id
   }
 
+  @Synchronized
+  private fun readRange(start: Int, length: Int): List<LogLine> {
+    var current = reader
+
+    if (current == null || start < readerPosition) {
+      current?.close()
+      current = logStore.getAllBeforeTime(untilTime)
+      reader = current
+      readerPosition = 0
+    }
+
+    while (readerPosition < start && current.hasNext()) {
+      current.next()
+      readerPosition++
+    }
+
+    val lines: MutableList<LogLine> = ArrayList(length)
+    while (lines.size < length && current.hasNext()) {
+      lines += convertToLogLine(current.next())
+      readerPosition++
+    }
+
+    if (!current.hasNext()) {
+      current.close()
+      reader = null
+    }
+
+    return lines
+  }
+
   private fun convertToLogLine(raw: String): LogLine {
     val scrubbed: String = Scrubber.scrub(raw).toString()
     return SimpleLogLine(scrubbed, LogStyleParser.parseStyle(scrubbed), LogLine.Placeholder.NONE)
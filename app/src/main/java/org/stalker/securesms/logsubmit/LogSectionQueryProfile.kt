@@ -0,0 +1,27 @@
+package org.stalker.securesms.logsubmit
+
+import android.content.Context
+import org.stalker.securesms.database.QueryProfiler
+import org.stalker.securesms.database.SignalDatabase
+
+/**
+ * Prints the statements that have taken the most database time since launch, along with query plans for the slowest ones. Only statement
+ * shapes are printed, never their arguments.
+ */
+class LogSectionQueryProfile : LogSection {
+  override fun getTitle(): String = "QUERY PROFILE"
+
+  override fun getContent(context: Context): CharSequence {
+    if (!QueryProfiler.enabled) {
+      return "Disabled."
+    }
+
+    QueryProfiler.capturePlans(SignalDatabase.rawDatabase, PLAN_COUNT)
+    return QueryProfiler.format(SHAPE_COUNT)
+  }
+
+  companion object {
+    private const val SHAPE_COUNT = 25
+    private const val PLAN_COUNT = 10
+  }
+}
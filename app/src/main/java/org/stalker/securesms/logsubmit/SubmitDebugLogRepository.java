@@ -19,8 +19,8 @@ import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.signal.core.util.logging.Scrubber;
 import org.signal.core.util.tracing.Tracer;
-import org.stalker.securesms.database.LogDatabase;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
+import org.stalker.securesms.logging.LogFileStore;
 import org.stalker.securesms.net.StandardUserAgentInterceptor;
 import org.stalker.securesms.providers.BlobProvider;
 import org.stalker.securesms.push.SignalServiceNetworkAccess;
@@ -96,6 +96,7 @@ public class SubmitDebugLogRepository {
       add(new LogSectionSenderKey());
     }
     add(new LogSectionDatabaseSchema());
+    add(new LogSectionQueryProfile());
     add(new LogSectionRemappedRecords());
     add(new LogSectionAnr());
     add(new LogSectionLogcat());
@@ -117,7 +118,7 @@ public class SubmitDebugLogRepository {
   public void buildAndSubmitLog(@NonNull Callback<Optional<String>> callback) {
     SignalExecutors.UNBOUNDED.execute(() -> {
       Log.blockUntilAllWritesFinished();
-      LogDatabase.getInstance(context).logs().trimToSize();
+      LogFileStore.getInstance(context).trimToSize();
       callback.onResult(submitLogInternal(System.currentTimeMillis(), getPrefixLogLinesInternal(), Tracer.getInstance().serialize()));
     });
   }
@@ -125,7 +126,7 @@ public class SubmitDebugLogRepository {
   /**
    * Submits a log with the provided prefix lines.
    *
-   * @param untilTime Only submit logs from {@link LogDatabase} if they were created before this time. This is our way of making sure that the logs we submit
+   * @param untilTime Only submit logs from {@link LogFileStore} if they were created before this time. This is our way of making sure that the logs we submit
    *                  only include the logs that we've already shown the user. It's possible some old logs may have been trimmed off in the meantime, but no
    *                  new ones could pop up.
    */
@@ -141,7 +142,7 @@ public class SubmitDebugLogRepository {
         outputStream.putNextEntry(new ZipEntry("log.txt"));
         outputStream.write(prefixLines.toString().getBytes(StandardCharsets.UTF_8));
 
-        try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
+        try (LogFileStore.Reader reader = LogFileStore.getInstance(context).getAllBeforeTime(untilTime)) {
           while (reader.hasNext()) {
             outputStream.write(reader.next().getBytes());
             outputStream.write("\n".getBytes());
@@ -194,7 +195,7 @@ public class SubmitDebugLogRepository {
 
       stopwatch.split("front-matter");
 
-      try (LogDatabase.LogTable.Reader reader = LogDatabase.getInstance(context).logs().getAllBeforeTime(untilTime)) {
+      try (LogFileStore.Reader reader = LogFileStore.getInstance(context).getAllBeforeTime(untilTime)) {
         while (reader.hasNext()) {
           gzipOutput.write(reader.next().getBytes());
           gzipOutput.write("\n".getBytes());
@@ -18,8 +18,8 @@ import org.signal.paging.PagedData;
 import org.signal.paging.PagingConfig;
 import org.signal.paging.PagingController;
 import org.signal.paging.ProxyPagingController;
-import org.stalker.securesms.database.LogDatabase;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
+import org.stalker.securesms.logging.LogFileStore;
 import org.stalker.securesms.util.SingleLiveEvent;
 
 import java.util.ArrayList;
@@ -54,7 +54,7 @@ public class SubmitDebugLogViewModel extends ViewModel {
       this.staticLines.addAll(staticLines);
 
       Log.blockUntilAllWritesFinished();
-      LogDatabase.getInstance(ApplicationDependencies.getApplication()).logs().trimToSize();
+      LogFileStore.getInstance(ApplicationDependencies.getApplication()).trimToSize();
 
       LogDataSource dataSource = new LogDataSource(ApplicationDependencies.getApplication(), staticLines, firstViewTime);
       PagingConfig  config     = new PagingConfig.Builder().setPageSize(100)
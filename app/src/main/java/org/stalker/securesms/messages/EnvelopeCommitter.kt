@@ -0,0 +1,134 @@
+package org.stalker.securesms.messages
+
+import org.signal.core.util.logging.Log
+import org.stalker.securesms.database.SignalDatabase
+import org.stalker.securesms.jobmanager.JobManager
+import org.stalker.securesms.messages.MessageDecryptor.FollowUpOperation
+import org.stalker.securesms.messages.protocol.BufferedProtocolStore
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+
+/**
+ * Processes envelopes read off the websocket and commits them, either each in its own transaction or several in a shared one.
+ *
+ * Jobs added while an envelope is processed are held until its transaction commits (see [JobManager.holdSubmissions]), and dropped if it
+ * rolls back, so that they never refer to rows that aren't there. Acks are only sent once an envelope's transaction has committed.
+ */
+class EnvelopeCommitter(
+  private val jobManager: JobManager,
+  private val processEnvelope: (BufferedProtocolStore, EnvelopeResponse) -> List<FollowUpOperation>?,
+  private val sendAck: (EnvelopeResponse) -> Unit,
+  private val runInTransaction: (() -> Unit) -> Unit = { block -> SignalDatabase.runInTransaction { block() } },
+  private val createStore: () -> BufferedProtocolStore = BufferedProtocolStore::create,
+  private val clock: () -> Long = System::currentTimeMillis
+) {
+
+  companion object {
+    private val TAG = Log.tag(EnvelopeCommitter::class.java)
+  }
+
+  /**
+   * Processes a single envelope in its own transaction, then immediately enqueues its follow-up jobs and acks it.
+   */
+  fun processInOwnTransaction(response: EnvelopeResponse) {
+    val bufferedStore = createStore()
+    var followUpOperations: List<FollowUpOperation>? = null
+
+    Log.d(TAG, "Beginning database transaction...")
+    withHeldJobs {
+      runInTransaction {
+        followUpOperations = processEnvelope(bufferedStore, response)
+        bufferedStore.flushToDisk()
+      }
+    }
+    Log.d(TAG, "Ended database transaction.")
+
+    followUpOperations?.let { enqueueFollowUps(it) }
+
+    sendAck(response)
+  }
+
+  /**
+   * Processes envelopes from the front of [responses] into a single [BufferedProtocolStore], committing them all in one transaction. We
+   * stop adding envelopes once we hit [maxSize] or [maxDurationMs], so that we don't hold the write lock for too long. Follow-up jobs are
+   * enqueued together and acks are only sent after the commit.
+   *
+   * If processing an envelope throws, the whole thing is rolled back and the envelopes up to and including that one are re-run one at a
+   * time with [processInOwnTransaction], so that a single bad envelope can't take the rest of the batch down with it. If instead the commit
+   * itself fails, every envelope in it is re-run that way.
+   *
+   * @return The number of envelopes from the front of [responses] that were handled.
+   */
+  fun processInSharedTransaction(responses: List<EnvelopeResponse>, maxSize: Int, maxDurationMs: Long): Int {
+    val bufferedStore = createStore()
+    val followUpOperations: MutableList<FollowUpOperation> = mutableListOf()
+    var processedCount = 0
+    var failedIndex = -1
+
+    try {
+      Log.d(TAG, "Beginning batch database transaction...")
+      withHeldJobs {
+        runInTransaction {
+          val startTime = clock()
+
+          for ((index, response) in responses.withIndex()) {
+            failedIndex = index
+            processEnvelope(bufferedStore, response)?.let { followUpOperations += it }
+            failedIndex = -1
+            processedCount++
+
+            if (processedCount >= maxSize || clock() - startTime >= maxDurationMs) {
+              break
+            }
+          }
+
+          bufferedStore.flushToDisk()
+        }
+      }
+      Log.d(TAG, "Ended batch database transaction. Committed $processedCount envelope(s).")
+    } catch (e: Exception) {
+      val isolatedCount = if (failedIndex >= 0) {
+        Log.w(TAG, "Failed to process envelope ${failedIndex + 1} of a batch of ${responses.size}. The transaction was rolled back. Retrying individually.", e)
+        failedIndex + 1
+      } else {
+        Log.w(TAG, "Failed to commit a batch of $processedCount envelope(s). The transaction was rolled back. Retrying individually.", e)
+        maxOf(processedCount, 1)
+      }
+
+      for (i in 0 until isolatedCount) {
+        processInOwnTransaction(responses[i])
+      }
+
+      return isolatedCount
+    }
+
+    enqueueFollowUps(followUpOperations)
+
+    for (i in 0 until processedCount) {
+      sendAck(responses[i])
+    }
+
+    return processedCount
+  }
+
+  /**
+   * Runs [block] with jobs added on this thread held, and submits them only if it returns normally.
+   */
+  private inline fun withHeldJobs(block: () -> Unit) {
+    var succeeded = false
+    jobManager.holdSubmissions()
+    try {
+      block()
+      succeeded = true
+    } finally {
+      jobManager.releaseSubmissions(succeeded)
+    }
+  }
+
+  private fun enqueueFollowUps(followUpOperations: List<FollowUpOperation>) {
+    if (followUpOperations.isNotEmpty()) {
+      Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
+      val jobs = followUpOperations.mapNotNull { it.run() }
+      jobManager.addAllChains(jobs)
+    }
+  }
+}
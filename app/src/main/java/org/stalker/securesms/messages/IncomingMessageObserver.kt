@@ -29,8 +29,10 @@ import org.stalker.securesms.messages.protocol.BufferedProtocolStore
 import org.stalker.securesms.notifications.NotificationChannels
 import org.stalker.securesms.recipients.RecipientId
 import org.stalker.securesms.util.AppForegroundObserver
+import org.stalker.securesms.util.FeatureFlags
 import org.stalker.securesms.util.SignalLocalMetrics
 import org.stalker.securesms.util.asChain
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
 import org.whispersystems.signalservice.api.push.ServiceId
 import org.whispersystems.signalservice.api.websocket.WebSocketConnectionState
 import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException
@@ -380,6 +382,12 @@ class IncomingMessageObserver(private val context: Application) {
           decryptionDrained = false
         }
 
+        val committer = EnvelopeCommitter(
+          jobManager = ApplicationDependencies.getJobManager(),
+          processEnvelope = { bufferedStore, response -> processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp) },
+          sendAck = { signalWebSocket.sendAck(it) }
+        )
+
         signalWebSocket.connect()
         try {
           while (isConnectionNecessary()) {
@@ -388,27 +396,24 @@ class IncomingMessageObserver(private val context: Application) {
 
               val hasMore = signalWebSocket.readMessageBatch(websocketReadTimeout, 30) { batch ->
                 Log.i(TAG, "Retrieved ${batch.size} envelopes!")
-                val bufferedStore = BufferedProtocolStore.create()
 
                 val startTime = System.currentTimeMillis()
                 GroupsV2ProcessingLock.acquireGroupProcessingLock().use {
-                  ReentrantSessionLock.INSTANCE.acquire().use {
-                    batch.forEach { response ->
-                      Log.d(TAG, "Beginning database transaction...")
-                      val followUpOperations = SignalDatabase.runInTransaction { db ->
-                        val followUps: List<FollowUpOperation>? = processEnvelope(bufferedStore, response.envelope, response.serverDeliveredTimestamp)
-                        bufferedStore.flushToDisk()
-                        followUps
+                  // Decryption goes through a buffered store that can touch any session, so it needs the global session lock. We only hold
+                  // it per commit rather than for the whole batch, so that sends get a chance to run in between.
+                  if (FeatureFlags.messageBatchCommitSize() > 1) {
+                    var remaining: List<EnvelopeResponse> = batch
+                    while (remaining.isNotEmpty()) {
+                      val processedCount = ReentrantSessionLock.INSTANCE.acquire().use {
+                        committer.processInSharedTransaction(remaining, FeatureFlags.messageBatchCommitSize(), FeatureFlags.messageBatchCommitWindowMs())
                       }
-                      Log.d(TAG, "Ended database transaction.")
-
-                      if (followUpOperations != null) {
-                        Log.d(TAG, "Running ${followUpOperations.size} follow-up operations...")
-                        val jobs = followUpOperations.mapNotNull { it.run() }
-                        ApplicationDependencies.getJobManager().addAllChains(jobs)
+                      remaining = remaining.drop(processedCount)
+                    }
+                  } else {
+                    batch.forEach { response ->
+                      ReentrantSessionLock.INSTANCE.acquire().use {
+                        committer.processInOwnTransaction(response)
                       }
-
-                      signalWebSocket.sendAck(response)
                     }
                   }
                 }
@@ -537,17 +537,24 @@ public class NotificationChannels {
     if (!supported() || recipient.getNotificationChannel() == null) {
       return;
     }
-    Log.i(TAG, "Updating contact channel name");
-
     NotificationManager notificationManager = ServiceUtil.getNotificationManager(context);
+    NotificationChannel existingChannel     = notificationManager.getNotificationChannel(recipient.getNotificationChannel());
 
-    if (notificationManager.getNotificationChannel(recipient.getNotificationChannel()) == null) {
+    if (existingChannel == null) {
       Log.w(TAG, "Tried to update the name of a channel, but that channel doesn't exist.");
       return;
     }
 
+    String displayName = recipient.getDisplayName(context);
+
+    if (displayName.contentEquals(existingChannel.getName())) {
+      return;
+    }
+
+    Log.i(TAG, "Updating contact channel name");
+
     NotificationChannel channel = new NotificationChannel(recipient.getNotificationChannel(),
-                                                          recipient.getDisplayName(context),
+                                                          displayName,
                                                           NotificationManager.IMPORTANCE_HIGH);
     channel.setGroup(CATEGORY_MESSAGES);
     notificationManager.createNotificationChannel(channel);
@@ -64,6 +64,11 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
   private val lastThreadNotification: MutableMap<ConversationId, Long> = ConcurrentHashMap()
 
   private val executor = CancelableExecutor()
+  private val stateCache = NotificationStateCache()
+
+  init {
+    ApplicationDependencies.getDatabaseObserver().registerConversationWriteListener(stateCache)
+  }
 
   override fun setVisibleThread(conversationId: ConversationId?) {
     visibleThread = conversationId
@@ -137,14 +142,19 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
 
     val notificationProfile: NotificationProfile? = NotificationProfiles.getActiveProfile(SignalDatabase.notificationProfiles.getProfiles())
 
+    if (conversationId != null) {
+      stateCache.invalidate(conversationId.threadId)
+    }
+
     Log.internal().i(TAG, "sticky thread: $stickyThreads active profile: ${notificationProfile?.id ?: "none" }")
-    var state: NotificationState = NotificationStateProvider.constructNotificationState(stickyThreads, notificationProfile)
+    var state: NotificationState = stateCache.getState(stickyThreads, notificationProfile)
     Log.internal().i(TAG, "state: $state")
 
     if (state.muteFilteredMessages.isNotEmpty()) {
       Log.i(TAG, "Marking ${state.muteFilteredMessages.size} muted messages as notified to skip notification")
       state.muteFilteredMessages.forEach { item ->
         SignalDatabase.messages.markAsNotified(item.id)
+        stateCache.invalidate(item.threadId)
       }
     }
 
@@ -152,6 +162,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
       Log.i(TAG, "Marking ${state.profileFilteredMessages.size} profile filtered messages as notified to skip notification")
       state.profileFilteredMessages.forEach { item ->
         SignalDatabase.messages.markAsNotified(item.id)
+        stateCache.invalidate(item.threadId)
       }
     }
 
@@ -161,6 +172,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
         conversation.notificationItems.forEach { item ->
           SignalDatabase.messages.markAsNotified(item.id)
         }
+        stateCache.invalidate(conversation.thread.threadId)
       }
       return
     }
@@ -174,6 +186,7 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
           conversation.notificationItems.forEach { item ->
             SignalDatabase.messages.markAsNotified(item.id)
           }
+          stateCache.invalidate(conversation.thread.threadId)
         }
       if (cleanedUpThreads.isNotEmpty()) {
         Log.i(TAG, "Cleaned up ${cleanedUpThreads.size} thread(s) with dangling notifications")
@@ -219,6 +232,11 @@ class DefaultMessageNotifier(context: Application) : MessageNotifier {
     val messageIds: List<Long> = state.notificationItems.map { it.id }
     SignalDatabase.messages.setNotifiedTimestamp(System.currentTimeMillis(), messageIds)
 
+    // Only new notifications change when they get a notified timestamp, so only their threads need to be read again
+    state.conversations
+      .filter { it.hasNewNotifications() }
+      .forEach { stateCache.invalidate(it.thread.threadId) }
+
     Log.i(TAG, "threads: ${state.threadCount} messages: ${state.messageCount}")
 
     if (Build.VERSION.SDK_INT >= 24) {
@@ -86,7 +86,7 @@ data class NotificationState(val conversations: List<NotificationConversation>,
       .toSet()
   }
 
-  data class FilteredMessage(val id: Long, val isMms: Boolean)
+  data class FilteredMessage(val id: Long, val isMms: Boolean, val threadId: Long)
 
   companion object {
     val EMPTY = NotificationState(emptyList(), emptyList(), emptyList())
@@ -0,0 +1,112 @@
+package org.stalker.securesms.notifications.v2
+
+import androidx.annotation.WorkerThread
+import org.signal.core.util.logging.Log
+import org.stalker.securesms.database.DatabaseObserver
+import org.stalker.securesms.notifications.profiles.NotificationProfile
+import org.stalker.securesms.notifications.v2.NotificationStateProvider.NotificationMessage
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps the messages behind the [NotificationState] in memory between notification updates, so that an update only has to read the
+ * threads that changed since the previous one, rather than every unread message.
+ *
+ * A thread is read again when it's written to (see [DatabaseObserver.ConversationWriteListener]), when it becomes or stops being sticky,
+ * when it has a missed call, or when it's [invalidate]d. Everything is read again on first use, when the active notification profile
+ * changes, after a bulk write, and every so often in case a write wasn't reported.
+ */
+class NotificationStateCache(private val clock: () -> Long = System::currentTimeMillis) : DatabaseObserver.ConversationWriteListener {
+
+  private val changedThreads: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+  @Volatile private var needsFullRebuild: Boolean = true
+
+  private val messagesByThread: MutableMap<Long, List<NotificationMessage>> = mutableMapOf()
+  private var previousStickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread> = emptyMap()
+  private var previousProfileId: Long? = null
+  private var lastFullRebuild: Long = 0
+
+  override fun onConversationWritten(threadId: Long) {
+    invalidate(threadId)
+  }
+
+  override fun onAllConversationsWritten() {
+    invalidateAll()
+  }
+
+  /**
+   * The thread will be read again on the next [getState].
+   */
+  fun invalidate(threadId: Long) {
+    changedThreads += threadId
+  }
+
+  fun invalidateAll() {
+    needsFullRebuild = true
+  }
+
+  @WorkerThread
+  @Synchronized
+  fun getState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
+    val now = clock()
+    val profileId = notificationProfile?.id
+
+    if (needsFullRebuild || profileId != previousProfileId || now - lastFullRebuild >= FULL_REBUILD_INTERVAL) {
+      // Cleared before reading, so that writes that land while we read are picked up next time
+      needsFullRebuild = false
+      changedThreads.clear()
+
+      messagesByThread.clear()
+      messagesByThread += NotificationStateProvider.getNotificationMessages(stickyThreads, threadIds = null)
+      lastFullRebuild = now
+    } else {
+      val threadIds: MutableSet<Long> = mutableSetOf()
+
+      val iterator = changedThreads.iterator()
+      while (iterator.hasNext()) {
+        threadIds += iterator.next()
+        iterator.remove()
+      }
+
+      threadIds += getThreadsWithChangedStickiness(stickyThreads)
+      threadIds += messagesByThread.filterValues { messages -> messages.any { it.isMissedCall } }.keys
+
+      if (threadIds.isNotEmpty()) {
+        messagesByThread -= threadIds
+        messagesByThread += NotificationStateProvider.getNotificationMessages(stickyThreads, threadIds)
+      }
+
+      Log.d(TAG, "Read ${threadIds.size} of ${messagesByThread.size} thread(s) again")
+    }
+
+    previousStickyThreads = stickyThreads.toMap()
+    previousProfileId = profileId
+
+    return NotificationStateProvider.constructNotificationState(messagesByThread.values, notificationProfile)
+  }
+
+  private fun getThreadsWithChangedStickiness(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>): Set<Long> {
+    val changed: MutableSet<Long> = mutableSetOf()
+
+    for ((conversationId, stickyThread) in stickyThreads) {
+      if (previousStickyThreads[conversationId] != stickyThread) {
+        changed += conversationId.threadId
+      }
+    }
+
+    for (conversationId in previousStickyThreads.keys) {
+      if (!stickyThreads.containsKey(conversationId)) {
+        changed += conversationId.threadId
+      }
+    }
+
+    return changed
+  }
+
+  companion object {
+    private val TAG = Log.tag(NotificationStateCache::class.java)
+
+    private val FULL_REBUILD_INTERVAL = TimeUnit.MINUTES.toMillis(10)
+  }
+}
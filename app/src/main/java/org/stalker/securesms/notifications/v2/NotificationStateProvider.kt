@@ -13,6 +13,7 @@ import org.stalker.securesms.database.model.MmsMessageRecord
 import org.stalker.securesms.database.model.ReactionRecord
 import org.stalker.securesms.notifications.profiles.NotificationProfile
 import org.stalker.securesms.recipients.Recipient
+import org.stalker.securesms.recipients.RecipientId
 import org.stalker.securesms.util.isStoryReaction
 
 /**
@@ -24,11 +25,24 @@ object NotificationStateProvider {
 
   @WorkerThread
   fun constructNotificationState(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, notificationProfile: NotificationProfile?): NotificationState {
-    val messages: MutableList<NotificationMessage> = mutableListOf()
+    return constructNotificationState(getNotificationMessages(stickyThreads, threadIds = null).values, notificationProfile)
+  }
+
+  /**
+   * Reads the messages that may end up in notifications, grouped by thread id. If [threadIds] is given, only those threads are read, and
+   * threads without any such messages are left out.
+   */
+  @WorkerThread
+  fun getNotificationMessages(stickyThreads: Map<ConversationId, DefaultMessageNotifier.StickyThread>, threadIds: Collection<Long>?): Map<Long, List<NotificationMessage>> {
+    val messages: MutableMap<Long, MutableList<NotificationMessage>> = mutableMapOf()
 
-    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values).use { unreadMessages ->
+    if (threadIds != null && threadIds.isEmpty()) {
+      return messages
+    }
+
+    SignalDatabase.messages.getMessagesForNotificationState(stickyThreads.values, threadIds).use { unreadMessages ->
       if (unreadMessages.count == 0) {
-        return NotificationState.EMPTY
+        return messages
       }
 
       MessageTable.mmsReaderFor(unreadMessages).use { reader ->
@@ -58,10 +72,10 @@ object NotificationStateProvider {
               }
             }
 
-            messages += NotificationMessage(
+            messages.getOrPut(record.threadId) { mutableListOf() } += NotificationMessage(
               messageRecord = record,
               reactions = if (hasUnreadReactions) SignalDatabase.reactions.getReactions(MessageId(record.id)) else emptyList(),
-              threadRecipient = threadRecipient,
+              threadRecipientId = threadRecipient.id,
               thread = conversationId,
               stickyThread = stickyThreads.containsKey(conversationId),
               isUnreadMessage = CursorUtil.requireInt(unreadMessages, MessageTable.READ) == 0,
@@ -82,6 +96,20 @@ object NotificationStateProvider {
       }
     }
 
+    return messages
+  }
+
+  /**
+   * Builds the state out of messages read by [getNotificationMessages], one list per thread. This doesn't touch the database, so the same
+   * messages can be built into a state again, e.g. with a different [notificationProfile].
+   */
+  fun constructNotificationState(messagesByThread: Collection<List<NotificationMessage>>, notificationProfile: NotificationProfile?): NotificationState {
+    if (messagesByThread.all { it.isEmpty() }) {
+      return NotificationState.EMPTY
+    }
+
+    val messages: List<NotificationMessage> = messagesByThread.flatten().sortedBy { it.messageRecord.dateReceived }
+
     val conversations: MutableList<NotificationConversation> = mutableListOf()
     val muteFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
     val profileFilteredMessages: MutableList<NotificationState.FilteredMessage> = mutableListOf()
@@ -94,8 +122,8 @@ object NotificationStateProvider {
           when (notification.includeMessage(notificationProfile)) {
             MessageInclusion.INCLUDE -> notificationItems.add(MessageNotification(notification.threadRecipient, notification.messageRecord))
             MessageInclusion.EXCLUDE -> Unit
-            MessageInclusion.MUTE_FILTERED -> muteFilteredMessages += NotificationState.FilteredMessage(notification.messageRecord.id, notification.messageRecord.isMms)
-            MessageInclusion.PROFILE_FILTERED -> profileFilteredMessages += NotificationState.FilteredMessage(notification.messageRecord.id, notification.messageRecord.isMms)
+            MessageInclusion.MUTE_FILTERED -> muteFilteredMessages += notification.toFilteredMessage()
+            MessageInclusion.PROFILE_FILTERED -> profileFilteredMessages += notification.toFilteredMessage()
           }
 
           if (notification.hasUnreadReactions) {
@@ -103,15 +131,15 @@ object NotificationStateProvider {
               when (notification.includeReaction(it, notificationProfile)) {
                 MessageInclusion.INCLUDE -> notificationItems.add(ReactionNotification(notification.threadRecipient, notification.messageRecord, it))
                 MessageInclusion.EXCLUDE -> Unit
-                MessageInclusion.MUTE_FILTERED -> muteFilteredMessages += NotificationState.FilteredMessage(notification.messageRecord.id, notification.messageRecord.isMms)
-                MessageInclusion.PROFILE_FILTERED -> profileFilteredMessages += NotificationState.FilteredMessage(notification.messageRecord.id, notification.messageRecord.isMms)
+                MessageInclusion.MUTE_FILTERED -> muteFilteredMessages += notification.toFilteredMessage()
+                MessageInclusion.PROFILE_FILTERED -> profileFilteredMessages += notification.toFilteredMessage()
               }
             }
           }
         }
 
         notificationItems.sort()
-        if (notificationItems.isNotEmpty() && stickyThreads.containsKey(thread) && !notificationItems.last().authorRecipient.isSelf) {
+        if (notificationItems.isNotEmpty() && threadMessages[0].stickyThread && !notificationItems.last().authorRecipient.isSelf) {
           val indexOfOldestNonSelfMessage: Int = notificationItems.indexOfLast { it.authorRecipient.isSelf } + 1
           notificationItems = notificationItems.slice(indexOfOldestNonSelfMessage..notificationItems.lastIndex).toMutableList()
         }
@@ -124,10 +152,10 @@ object NotificationStateProvider {
     return NotificationState(conversations, muteFilteredMessages, profileFilteredMessages)
   }
 
-  private data class NotificationMessage(
+  data class NotificationMessage(
     val messageRecord: MessageRecord,
     val reactions: List<ReactionRecord>,
-    val threadRecipient: Recipient,
+    val threadRecipientId: RecipientId,
     val thread: ConversationId,
     val stickyThread: Boolean,
     val isUnreadMessage: Boolean,
@@ -136,9 +164,16 @@ object NotificationStateProvider {
     val isParentStorySentBySelf: Boolean,
     val hasSelfRepliedToStory: Boolean
   ) {
+    /** Resolved each time rather than kept, so that changes like muting the thread apply to messages that were read earlier. */
+    val threadRecipient: Recipient
+      get() = Recipient.resolved(threadRecipientId)
+
+    /** Whether a missed call is still unread depends on the call table, which doesn't report changes per thread. */
+    val isMissedCall: Boolean = messageRecord.isMissedAudioCall || messageRecord.isMissedVideoCall
+
     private val isGroupStoryReply: Boolean = thread.groupStoryId != null
     private val isUnreadIncoming: Boolean = isUnreadMessage && !messageRecord.isOutgoing && !isGroupStoryReply
-    private val isIncomingMissedCall: Boolean = !messageRecord.isOutgoing && (messageRecord.isMissedAudioCall || messageRecord.isMissedVideoCall)
+    private val isIncomingMissedCall: Boolean = !messageRecord.isOutgoing && isMissedCall
 
     private val isNotifiableGroupStoryMessage: Boolean =
       isUnreadMessage &&
@@ -148,6 +183,7 @@ object NotificationStateProvider {
 
     fun includeMessage(notificationProfile: NotificationProfile?): MessageInclusion {
       return if (isUnreadIncoming || stickyThread || isNotifiableGroupStoryMessage || isIncomingMissedCall) {
+        val threadRecipient = threadRecipient
         if (threadRecipient.isMuted && (threadRecipient.isDoNotNotifyMentions || !messageRecord.hasSelfMention())) {
           MessageInclusion.MUTE_FILTERED
         } else if (notificationProfile != null && !notificationProfile.isRecipientAllowed(threadRecipient.id) && !(notificationProfile.allowAllMentions && messageRecord.hasSelfMention())) {
@@ -161,6 +197,7 @@ object NotificationStateProvider {
     }
 
     fun includeReaction(reaction: ReactionRecord, notificationProfile: NotificationProfile?): MessageInclusion {
+      val threadRecipient = threadRecipient
       return if (threadRecipient.isMuted) {
         MessageInclusion.MUTE_FILTERED
       } else if (notificationProfile != null && !notificationProfile.isRecipientAllowed(threadRecipient.id)) {
@@ -172,6 +209,10 @@ object NotificationStateProvider {
       }
     }
 
+    fun toFilteredMessage(): NotificationState.FilteredMessage {
+      return NotificationState.FilteredMessage(messageRecord.id, messageRecord.isMms, messageRecord.threadId)
+    }
+
     private val Recipient.isDoNotNotifyMentions: Boolean
       get() = mentionSetting == RecipientTable.MentionSetting.DO_NOT_NOTIFY
   }
@@ -156,6 +156,24 @@ public final class LiveRecipient {
     return updated;
   }
 
+  /**
+   * Resolves the recipient using a record that has already been read from disk, e.g. as part of a bulk lookup.
+   *
+   * @return A fully-resolved version of the recipient.
+   */
+  @WorkerThread
+  @NonNull Recipient resolve(@NonNull RecipientRecord record) {
+    Recipient current = recipient.get();
+
+    if (!current.isResolving() || current.getId().isUnknown()) {
+      return current;
+    }
+
+    Recipient updated = createAndCacheRecipient(record);
+    set(updated);
+    return updated;
+  }
+
   @WorkerThread
   public LiveRecipient refresh() {
     refresh(getId());
@@ -191,8 +209,10 @@ public final class LiveRecipient {
   }
 
   private @NonNull Recipient fetchAndCacheRecipientFromDisk(@NonNull RecipientId id) {
-    RecipientRecord record = recipientTable.getRecord(id);
+    return createAndCacheRecipient(recipientTable.getRecord(id));
+  }
 
+  private @NonNull Recipient createAndCacheRecipient(@NonNull RecipientRecord record) {
     Recipient recipient;
     if (record.getGroupId() != null) {
       recipient = getGroupRecipientDetails(record);
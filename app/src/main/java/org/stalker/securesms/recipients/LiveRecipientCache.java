@@ -18,7 +18,8 @@ import org.stalker.securesms.database.ThreadTable;
 import org.stalker.securesms.database.model.ThreadRecord;
 import org.stalker.securesms.keyvalue.SignalStore;
 import org.signal.core.util.CursorUtil;
-import org.stalker.securesms.util.LRUCache;
+import org.stalker.securesms.util.ConcurrentLRUCache;
+import org.stalker.securesms.util.SignalLocalMetrics;
 import org.signal.core.util.Stopwatch;
 import org.stalker.securesms.util.concurrent.FilteredExecutor;
 import org.whispersystems.signalservice.api.push.ServiceId.ACI;
@@ -26,7 +27,6 @@ import org.whispersystems.signalservice.api.push.ServiceId.ACI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -39,66 +39,74 @@ public final class LiveRecipientCache {
   private static final int THREAD_CACHE_WARM_MAX  = 500;
   private static final int CONTACT_CACHE_WARM_MAX = 50;
 
-  private final Context                         context;
-  private final RecipientTable                  recipientTable;
-  private final Map<RecipientId, LiveRecipient> recipients;
-  private final LiveRecipient                   unknown;
-  private final Executor                        resolveExecutor;
+  /** How long we wait to collect cache misses before resolving them in bulk. */
+  private static final long RESOLVE_COALESCE_WINDOW_MS = 5;
+
+  private final Context                                        context;
+  private final RecipientTable                                 recipientTable;
+  private final ConcurrentLRUCache<RecipientId, LiveRecipient> recipients;
+  private final LiveRecipient                                  unknown;
+  private final Executor                                       resolveExecutor;
+  private final LiveRecipientResolver                          bulkResolver;
 
   private final AtomicReference<RecipientId> localRecipientId;
   private final AtomicBoolean                warmedUp;
 
   public LiveRecipientCache(@NonNull Context context) {
-    this(context, new FilteredExecutor(SignalExecutors.newCachedBoundedExecutor("signal-recipients", ThreadUtil.PRIORITY_UI_BLOCKING_THREAD, 1, 4, 15), () -> !SignalDatabase.inTransaction()));
+    this(context, new FilteredExecutor(SignalExecutors.newCachedBoundedExecutor("signal-recipients", ThreadUtil.PRIORITY_UI_BLOCKING_THREAD, 1, 4, 15), () -> !SignalDatabase.inTransaction()), RESOLVE_COALESCE_WINDOW_MS);
   }
 
   @VisibleForTesting
   public LiveRecipientCache(@NonNull Context context, @NonNull Executor executor) {
+    this(context, executor, 0);
+  }
+
+  private LiveRecipientCache(@NonNull Context context, @NonNull Executor executor, long resolveCoalesceWindowMs) {
     this.context        = context.getApplicationContext();
     this.recipientTable = SignalDatabase.recipients();
-    this.recipients     = new LRUCache<>(CACHE_MAX);
+    this.recipients     = new ConcurrentLRUCache<>(CACHE_MAX);
     this.warmedUp          = new AtomicBoolean(false);
     this.localRecipientId  = new AtomicReference<>(null);
     this.unknown           = new LiveRecipient(context, Recipient.UNKNOWN);
     this.resolveExecutor   = executor;
+    this.bulkResolver      = new LiveRecipientResolver(executor, recipientTable, resolveCoalesceWindowMs);
   }
 
   @AnyThread
   @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
     if (id.isUnknown()) return unknown;
 
-    LiveRecipient live;
-    boolean       needsResolve;
+    LiveRecipient live = recipients.get(id);
 
-    synchronized (recipients) {
-      live = recipients.get(id);
-
-      if (live == null) {
-        live = new LiveRecipient(context, RecipientCreator.forId(id));
-        recipients.put(id, live);
-        needsResolve = true;
-      } else {
-        needsResolve = false;
-      }
+    if (live != null) {
+      SignalLocalMetrics.RecipientCache.onHit();
+      return live;
     }
 
-    if (needsResolve) {
-      resolveExecutor.execute(live::resolve);
+    LiveRecipient created  = new LiveRecipient(context, RecipientCreator.forId(id));
+    LiveRecipient existing = recipients.putIfAbsent(id, created);
+
+    if (existing != null) {
+      SignalLocalMetrics.RecipientCache.onHit();
+      return existing;
     }
 
-    return live;
+    SignalLocalMetrics.RecipientCache.onMiss();
+    bulkResolver.enqueue(created);
+
+    return created;
   }
 
   /**
    * Handles remapping cache entries when recipients are merged.
    */
   public void remap(@NonNull RecipientId oldId, @NonNull RecipientId newId) {
-    synchronized (recipients) {
-      if (recipients.containsKey(newId)) {
-        recipients.put(oldId, recipients.get(newId));
-      } else {
-        recipients.remove(oldId);
-      }
+    LiveRecipient newLive = recipients.get(newId);
+
+    if (newLive != null) {
+      recipients.put(oldId, newLive);
+    } else {
+      recipients.remove(oldId);
     }
   }
 
@@ -111,21 +119,28 @@ public final class LiveRecipientCache {
   @AnyThread
   public void addToCache(@NonNull Collection<Recipient> newRecipients) {
     newRecipients.stream().filter(this::isValidForCache).forEach(recipient -> {
-      LiveRecipient live;
+      LiveRecipient live = recipients.get(recipient.getId());
       boolean       needsResolve;
 
-      synchronized (recipients) {
-        live = recipients.get(recipient.getId());
+      if (live == null) {
+        LiveRecipient created = new LiveRecipient(context, recipient);
+        live = recipients.putIfAbsent(recipient.getId(), created);
 
         if (live == null) {
-          live = new LiveRecipient(context, recipient);
-          recipients.put(recipient.getId(), live);
-          needsResolve = recipient.isResolving();
-        } else if (live.get().isResolving() || !recipient.isResolving()) {
-          live.set(recipient);
-          needsResolve = recipient.isResolving();
-        } else {
-          needsResolve = false;
+          live = created;
+        }
+      }
+
+      if (live.get() == recipient) {
+        needsResolve = recipient.isResolving();
+      } else {
+        synchronized (live) {
+          if (live.get().isResolving() || !recipient.isResolving()) {
+            live.set(recipient);
+            needsResolve = recipient.isResolving();
+          } else {
+            needsResolve = false;
+          }
         }
       }
 
@@ -260,9 +275,7 @@ public final class LiveRecipientCache {
 
   @AnyThread
   public void clear() {
-    synchronized (recipients) {
-      recipients.clear();
-    }
+    recipients.clear();
   }
 
   private boolean isValidForCache(@NonNull Recipient recipient) {
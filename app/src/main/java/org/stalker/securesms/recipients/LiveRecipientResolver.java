@@ -0,0 +1,145 @@
+package org.stalker.securesms.recipients;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.ThreadUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+import org.stalker.securesms.database.RecipientTable;
+import org.stalker.securesms.database.RecipientTable.MissingRecipientException;
+import org.stalker.securesms.database.SignalDatabase;
+import org.stalker.securesms.database.model.RecipientRecord;
+import org.stalker.securesms.util.SignalLocalMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Resolves {@link LiveRecipient}s in bulk. Rather than having every cache miss do its own single-row lookup, misses are
+ * collected for a short window and then loaded with a single query via {@link RecipientTable#getRecords}.
+ */
+final class LiveRecipientResolver {
+
+  private static final String TAG = Log.tag(LiveRecipientResolver.class);
+
+  private final Executor        executor;
+  private final RecipientTable  recipientTable;
+  private final long            coalesceWindowMs;
+  private final BooleanSupplier inTransaction;
+  private final Handler         coalesceHandler;
+
+  private final Map<RecipientId, LiveRecipient> pending;
+
+  private boolean drainScheduled;
+
+  LiveRecipientResolver(@NonNull Executor executor, @NonNull RecipientTable recipientTable, long coalesceWindowMs) {
+    this(executor, recipientTable, coalesceWindowMs, SignalDatabase::inTransaction);
+  }
+
+  /**
+   * @param coalesceWindowMs How long to wait for more misses to come in before resolving. The wait happens on a handler thread, not
+   *                         the executor. Misses from inside a transaction never wait, and are resolved on the calling thread instead.
+   * @param inTransaction    Whether the calling thread is in a database transaction.
+   */
+  @VisibleForTesting
+  LiveRecipientResolver(@NonNull Executor executor, @NonNull RecipientTable recipientTable, long coalesceWindowMs, @NonNull BooleanSupplier inTransaction) {
+    this.executor         = executor;
+    this.recipientTable   = recipientTable;
+    this.coalesceWindowMs = coalesceWindowMs;
+    this.inTransaction    = inTransaction;
+    this.pending          = new LinkedHashMap<>();
+    this.coalesceHandler  = coalesceWindowMs > 0 ? new Handler(SignalExecutors.getAndStartHandlerThread("signal-recipient-resolver", ThreadUtil.PRIORITY_BACKGROUND_THREAD).getLooper()) : null;
+  }
+
+  void enqueue(@NonNull LiveRecipient live) {
+    if (inTransaction.getAsBoolean()) {
+      // The recipient may have been inserted by this transaction, in which case a drain on another thread couldn't see it yet
+      live.resolve();
+      return;
+    }
+
+    boolean needsSchedule;
+
+    synchronized (pending) {
+      pending.put(live.getId(), live);
+      needsSchedule  = !drainScheduled;
+      drainScheduled = true;
+    }
+
+    if (needsSchedule) {
+      if (coalesceHandler != null) {
+        // Waits out the window on the handler thread, so that no resolve thread is tied up doing nothing
+        coalesceHandler.postDelayed(() -> executor.execute(this::drain), coalesceWindowMs);
+      } else {
+        executor.execute(this::drain);
+      }
+    }
+  }
+
+  @WorkerThread
+  private void drain() {
+    List<LiveRecipient> batch;
+
+    synchronized (pending) {
+      batch = new ArrayList<>(pending.values());
+      pending.clear();
+      drainScheduled = false;
+    }
+
+    List<LiveRecipient> unresolved = new ArrayList<>(batch.size());
+    for (LiveRecipient live : batch) {
+      if (live.get().isResolving()) {
+        unresolved.add(live);
+      }
+    }
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    long startTime = System.nanoTime();
+
+    if (unresolved.size() == 1) {
+      unresolved.get(0).resolve();
+    } else {
+      resolveInBulk(unresolved);
+    }
+
+    SignalLocalMetrics.RecipientCache.onResolved(unresolved.size(), System.nanoTime() - startTime);
+  }
+
+  @WorkerThread
+  private void resolveInBulk(@NonNull List<LiveRecipient> unresolved) {
+    List<RecipientId> ids = new ArrayList<>(unresolved.size());
+    for (LiveRecipient live : unresolved) {
+      ids.add(live.getId());
+    }
+
+    Map<RecipientId, RecipientRecord> records;
+    try {
+      records = recipientTable.getRecords(ids);
+    } catch (MissingRecipientException e) {
+      Log.w(TAG, "At least one recipient in a bulk resolve of " + ids.size() + " is missing. Falling back to resolving individually.");
+      records = new LinkedHashMap<>();
+    }
+
+    for (LiveRecipient live : unresolved) {
+      RecipientRecord record = records.get(live.getId());
+
+      if (record != null) {
+        live.resolve(record);
+      } else {
+        // Either missing or remapped -- the single-resolve path knows how to handle both
+        live.resolve();
+      }
+    }
+  }
+}
@@ -1,3 +1,22 @@
 package org.stalker.securesms.search
 
-data class MessageSearchResult(val results: List<MessageResult>, val query: String)
+import org.stalker.securesms.recipients.RecipientId
+
+/**
+ * The messages that match [query], newest first. Only enough of each message to order and show it is read up front, and
+ * [SearchRepository.loadMessages] reads the results themselves, so that snippets are only built for the messages that get shown.
+ */
+data class MessageSearchResult(val matches: List<Match>, val query: String) {
+
+  /**
+   * A message that matches the query, either by its text or, if [isMention] is set, by who it mentions.
+   */
+  data class Match(
+    val conversationRecipientId: RecipientId,
+    val messageRecipientId: RecipientId,
+    val threadId: Long,
+    val messageId: Long,
+    val receivedTimestampMs: Long,
+    val isMention: Boolean
+  )
+}
@@ -2,6 +2,8 @@ package org.stalker.securesms.search;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
@@ -42,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -50,6 +53,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.stalker.securesms.database.SearchTable.SNIPPET_WRAP;
 
@@ -69,7 +73,8 @@ public class SearchRepository {
   private final MentionTable      mentionTable;
   private final MessageTable      messageTable;
 
-  private final Executor serialExecutor;
+  private final Executor                            serialExecutor;
+  private final AtomicReference<CancellationSignal> threadQueryCancellationSignal;
 
   public SearchRepository(@NonNull String noteToSelfTitle) {
     this.context           = ApplicationDependencies.getApplication().getApplicationContext();
@@ -81,6 +86,8 @@ public class SearchRepository {
     this.messageTable      = SignalDatabase.messages();
     this.contactRepository = new ContactRepository(context, noteToSelfTitle);
     this.serialExecutor    = new SerialExecutor(SignalExecutors.BOUNDED);
+
+    this.threadQueryCancellationSignal = new AtomicReference<>();
   }
 
   @WorkerThread
@@ -93,33 +100,117 @@ public class SearchRepository {
     return new ThreadSearchResult(result, query);
   }
 
+  /**
+   * Finds the messages in any conversation that match the query without reading them, so that nothing has to be built for the messages
+   * that never get shown. Read them with {@link #loadMessages(String, List)}.
+   *
+   * @throws OperationCanceledException if {@code cancellationSignal} is canceled before the search is done.
+   */
   @WorkerThread
-  public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query) {
+  public @NonNull MessageSearchResult queryMessagesSync(@NonNull String query, @Nullable CancellationSignal cancellationSignal) {
     long start = System.currentTimeMillis();
 
-    List<MessageResult> messages        = queryMessages(query);
-    List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query));
-    List<MessageResult> combined        = mergeMessagesAndMentions(messages, mentionMessages);
+    List<MessageSearchResult.Match> messages        = queryMatchingMessages(query, cancellationSignal);
+    List<MessageSearchResult.Match> mentionMessages = queryMatchingMentions(convertMentionsQueryToTokens(query));
+    List<MessageSearchResult.Match> combined        = mergeMatches(messages, mentionMessages);
 
     Log.d(TAG, "[messages] Search took " + (System.currentTimeMillis() - start) + " ms");
 
     return new MessageSearchResult(combined, query);
   }
 
+  /**
+   * Reads the given matches from a search made with {@link #queryMessagesSync(String, CancellationSignal)}, building their snippets.
+   *
+   * @return A result for every match, in the same order. A message that was deleted since it was found keeps its place, but with an
+   *         empty body.
+   */
+  @WorkerThread
+  public @NonNull List<MessageResult> loadMessages(@NonNull String query, @NonNull List<MessageSearchResult.Match> matches) {
+    long start = System.currentTimeMillis();
+
+    List<Long> textMatchIds = new ArrayList<>(matches.size());
+    for (MessageSearchResult.Match match : matches) {
+      if (!match.isMention()) {
+        textMatchIds.add(match.getMessageId());
+      }
+    }
+
+    Map<Long, MessageResult> results = new HashMap<>();
+
+    try (Cursor cursor = searchDatabase.queryMessageSnippets(query, textMatchIds)) {
+      for (MessageResult result : updateMessages(readToList(cursor, new MessageModelBuilder()))) {
+        results.put(result.getMessageId(), result);
+      }
+    }
+
+    List<MessageSearchResult.Match> unmatched = new ArrayList<>();
+    for (MessageSearchResult.Match match : matches) {
+      if (!results.containsKey(match.getMessageId())) {
+        unmatched.add(match);
+      }
+    }
+
+    // Mentions, and messages whose text changed since they were found, don't get a snippet from the index
+    if (!unmatched.isEmpty()) {
+      results.putAll(loadMessagesWithoutSnippets(Arrays.asList(query.split("\\s+")), unmatched));
+    }
+
+    List<MessageResult> ordered = new ArrayList<>(matches.size());
+    for (MessageSearchResult.Match match : matches) {
+      MessageResult result = results.get(match.getMessageId());
+
+      if (result == null) {
+        result = new MessageResult(Recipient.live(match.getConversationRecipientId()).get(),
+                                   Recipient.live(match.getMessageRecipientId()).get(),
+                                   "",
+                                   "",
+                                   match.getThreadId(),
+                                   match.getMessageId(),
+                                   match.getReceivedTimestampMs(),
+                                   true);
+      }
+
+      ordered.add(result);
+    }
+
+    Log.d(TAG, "[messages] Loading " + matches.size() + " result(s) took " + (System.currentTimeMillis() - start) + " ms");
+
+    return ordered;
+  }
+
+  /**
+   * Searches one conversation. Starting another search cancels this one if it hasn't finished, in which case {@code callback} isn't called.
+   */
   public void query(@NonNull String query, long threadId, @NonNull Callback<List<MessageResult>> callback) {
+    CancellationSignal cancellationSignal = new CancellationSignal();
+    CancellationSignal previous           = threadQueryCancellationSignal.getAndSet(cancellationSignal);
+
+    if (previous != null) {
+      previous.cancel();
+    }
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(Collections.emptyList());
       return;
     }
 
     serialExecutor.execute(() -> {
-      long                startTime       = System.currentTimeMillis();
-      List<MessageResult> messages        = queryMessages(query, threadId);
-      List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query), threadId);
+      if (cancellationSignal.isCanceled()) {
+        return;
+      }
+
+      try {
+        long                startTime       = System.currentTimeMillis();
+        List<MessageResult> messages        = queryMessages(query, threadId, cancellationSignal);
+        List<MessageResult> mentionMessages = queryMentions(convertMentionsQueryToTokens(query), threadId);
 
-      Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
+        Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
 
-      callback.onResult(mergeMessagesAndMentions(messages, mentionMessages));
+        callback.onResult(mergeMessagesAndMentions(messages, mentionMessages));
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "[ConversationQuery] Canceled by a newer query.");
+      }
     });
   }
 
@@ -164,16 +255,17 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query) {
+  private @NonNull List<MessageSearchResult.Match> queryMatchingMessages(@NonNull String query, @Nullable CancellationSignal cancellationSignal) {
     if (Util.isEmpty(query)) {
       return Collections.emptyList();
     }
 
-    List<MessageResult> results;
-    try (Cursor cursor = searchDatabase.queryMessages(query)) {
-      results = readToList(cursor, new MessageModelBuilder());
+    try (Cursor cursor = searchDatabase.queryMatchingMessages(query, cancellationSignal)) {
+      return readToList(cursor, new MatchModelBuilder(false));
     }
+  }
 
+  private @NonNull List<MessageResult> updateMessages(@NonNull List<MessageResult> results) {
     List<Long> messageIds = new LinkedList<>();
     for (MessageResult result : results) {
       if (result.isMms()) {
@@ -293,13 +385,13 @@ public class SearchRepository {
     }
   }
 
-  private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId) {
-    try (Cursor cursor = searchDatabase.queryMessages(query, threadId)) {
+  private @NonNull List<MessageResult> queryMessages(@NonNull String query, long threadId, @NonNull CancellationSignal cancellationSignal) {
+    try (Cursor cursor = searchDatabase.queryMessages(query, threadId, cancellationSignal)) {
       return readToList(cursor, new MessageModelBuilder());
     }
   }
 
-  private @NonNull List<MessageResult> queryMentions(@NonNull List<String> cleanQueries) {
+  private @NonNull List<MessageSearchResult.Match> queryMatchingMentions(@NonNull List<String> cleanQueries) {
     Set<RecipientId> recipientIds = new HashSet<>();
     for (String cleanQuery : cleanQueries) {
       for (Recipient recipient : recipientTable.queryRecipientsForMentions(cleanQuery)) {
@@ -307,31 +399,52 @@ public class SearchRepository {
       }
     }
 
-    Map<Long, List<Mention>> mentionQueryResults = mentionTable.getMentionsContainingRecipients(recipientIds, 500);
-
-    if (mentionQueryResults.isEmpty()) {
+    if (recipientIds.isEmpty()) {
       return Collections.emptyList();
     }
 
-    List<MessageResult> results = new ArrayList<>();
+    Map<Long, List<Mention>> mentionQueryResults = mentionTable.getMentionsContainingRecipients(recipientIds, SearchTable.MAX_MESSAGE_RESULTS);
 
-    try (MessageTable.Reader reader = messageTable.getMessages(mentionQueryResults.keySet())) {
-      for (MessageRecord record : reader) {
-        BodyRangeList bodyRanges = record.getMessageRanges();
-        List<Mention> mentions   = mentionQueryResults.get(record.getId());
+    try (Cursor cursor = searchDatabase.queryMatchingMessages(mentionQueryResults.keySet())) {
+      return readToList(cursor, new MatchModelBuilder(true));
+    }
+  }
 
-        if (Util.hasItems(mentions)) {
-          SpannableString body = new SpannableString(record.getBody());
+  /**
+   * Reads the given messages from the message table, styling them and building a snippet around the first of the queries that they
+   * contain, for messages that the search index can't build a snippet for.
+   */
+  private @NonNull Map<Long, MessageResult> loadMessagesWithoutSnippets(@NonNull List<String> cleanQueries, @NonNull List<MessageSearchResult.Match> matches) {
+    Map<Long, MessageSearchResult.Match> matchesById = new HashMap<>();
+    for (MessageSearchResult.Match match : matches) {
+      matchesById.put(match.getMessageId(), match);
+    }
 
-          if (bodyRanges != null) {
-            MessageStyler.style(record.getDateSent(), bodyRanges, body);
-          }
+    Map<Long, List<Mention>> mentions = mentionTable.getMentionsForMessages(matchesById.keySet());
+    Map<Long, MessageResult> results  = new HashMap<>();
 
-          CharSequence updatedBody    = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, body, mentions).getBody();
-          CharSequence updatedSnippet = makeSnippet(cleanQueries, Objects.requireNonNull(updatedBody));
+    try (MessageTable.Reader reader = messageTable.getMessages(matchesById.keySet())) {
+      for (MessageRecord record : reader) {
+        MessageSearchResult.Match match          = Objects.requireNonNull(matchesById.get(record.getId()));
+        BodyRangeList             bodyRanges     = record.getMessageRanges();
+        List<Mention>             recordMentions = mentions.get(record.getId());
+        SpannableString           body           = new SpannableString(record.getBody());
 
-          results.add(new MessageResult(record.getFromRecipient(), record.getToRecipient(), updatedBody, updatedSnippet, record.getThreadId(), record.getId(), record.getDateReceived(), true));
+        if (bodyRanges != null) {
+          MessageStyler.style(record.getDateSent(), bodyRanges, body);
         }
+
+        CharSequence updatedBody    = Util.hasItems(recordMentions) ? MentionUtil.updateBodyAndMentionsWithDisplayNames(context, body, recordMentions).getBody() : body;
+        CharSequence updatedSnippet = makeSnippet(cleanQueries, Objects.requireNonNull(updatedBody));
+
+        results.put(record.getId(), new MessageResult(Recipient.live(match.getConversationRecipientId()).get(),
+                                                      Recipient.live(match.getMessageRecipientId()).get(),
+                                                      updatedBody,
+                                                      updatedSnippet,
+                                                      record.getThreadId(),
+                                                      record.getId(),
+                                                      record.getDateReceived(),
+                                                      true));
       }
     }
 
@@ -414,6 +527,26 @@ public class SearchRepository {
     }
   }
 
+  private static @NonNull List<MessageSearchResult.Match> mergeMatches(@NonNull List<MessageSearchResult.Match> messages, @NonNull List<MessageSearchResult.Match> mentionMessages) {
+    Set<Long> includedMessages = new HashSet<>();
+
+    List<MessageSearchResult.Match> combined = new ArrayList<>(messages.size() + mentionMessages.size());
+    for (MessageSearchResult.Match match : messages) {
+      combined.add(match);
+      includedMessages.add(match.getMessageId());
+    }
+
+    for (MessageSearchResult.Match match : mentionMessages) {
+      if (!includedMessages.contains(match.getMessageId())) {
+        combined.add(match);
+      }
+    }
+
+    Collections.sort(combined, Collections.reverseOrder((left, right) -> Long.compare(left.getReceivedTimestampMs(), right.getReceivedTimestampMs())));
+
+    return combined;
+  }
+
   private static @NonNull List<MessageResult> mergeMessagesAndMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages) {
     Set<Long> includedMmsMessages = new HashSet<>();
 
@@ -478,6 +611,26 @@ public class SearchRepository {
     }
   }
 
+  private static class MatchModelBuilder implements ModelBuilder<MessageSearchResult.Match> {
+
+    private final boolean isMention;
+
+    MatchModelBuilder(boolean isMention) {
+      this.isMention = isMention;
+    }
+
+    @Override
+    public MessageSearchResult.Match build(@NonNull Cursor cursor) {
+      RecipientId conversationRecipientId = RecipientId.from(CursorUtil.requireLong(cursor, SearchTable.CONVERSATION_RECIPIENT));
+      RecipientId messageRecipientId      = RecipientId.from(CursorUtil.requireLong(cursor, SearchTable.MESSAGE_RECIPIENT));
+      long        receivedMs              = CursorUtil.requireLong(cursor, MessageTable.DATE_RECEIVED);
+      long        threadId                = CursorUtil.requireLong(cursor, MessageTable.THREAD_ID);
+      long        messageId               = CursorUtil.requireLong(cursor, SearchTable.MESSAGE_ID);
+
+      return new MessageSearchResult.Match(conversationRecipientId, messageRecipientId, threadId, messageId, receivedMs, isMention);
+    }
+  }
+
   public interface Callback<E> {
     void onResult(@NonNull E result);
   }
@@ -35,11 +35,15 @@ class StoryGroupReplyRepository {
 
           val updateObserver = DatabaseObserver.MessageObserver { controller.onDataItemChanged(it) }
           val insertObserver = DatabaseObserver.MessageObserver { controller.onDataItemInserted(it, PagingController.POSITION_END) }
-          val conversationObserver = DatabaseObserver.Observer { controller.onDataInvalidated() }
+          val conversationObserver = DatabaseObserver.ConversationChangeObserver { changes ->
+            if (changes.isFullInvalidation) {
+              controller.onDataInvalidated()
+            }
+          }
 
           ApplicationDependencies.getDatabaseObserver().registerMessageUpdateObserver(updateObserver)
           ApplicationDependencies.getDatabaseObserver().registerMessageInsertObserver(threadId, insertObserver)
-          ApplicationDependencies.getDatabaseObserver().registerConversationObserver(threadId, conversationObserver)
+          ApplicationDependencies.getDatabaseObserver().registerConversationChangeObserver(threadId, conversationObserver)
 
           emitter.setCancellable {
             ApplicationDependencies.getDatabaseObserver().unregisterObserver(updateObserver)
@@ -1,18 +1,24 @@
 package org.stalker.securesms.util;
 
 import android.app.Application;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 
-import org.signal.core.util.Stopwatch;
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
+import org.signal.core.util.tracing.Tracer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages our app startup flow.
@@ -27,14 +33,21 @@ public final class AppStartup {
 
   private static final String TAG = Log.tag(AppStartup.class);
 
+  /** Trace section around all of the blocking tasks, for benchmarks. */
+  public static final String BLOCKING_TRACE_SECTION = "AppStartup#blocking";
+
+  /** In benchmark builds, if a file with this name exists in the no-backup files directory, blocking tasks are run serially. */
+  public static final String SERIAL_BLOCKING_MARKER = "serial-app-startup";
+
   private static final AppStartup INSTANCE = new AppStartup();
 
-  private final List<Task> blocking;
-  private final List<Task> nonBlocking;
-  private final List<Task> postRender;
-  private final Handler    postRenderHandler;
+  private final StartupTaskGraph blocking;
+  private final List<Task>       nonBlocking;
+  private final List<Task>       postRender;
+  private final Handler          postRenderHandler;
 
-  private int outstandingCriticalRenderEvents;
+  private int     outstandingCriticalRenderEvents;
+  private boolean serialBlocking;
 
   private long applicationStartTime;
   private long renderStartTime;
@@ -45,7 +58,7 @@ public final class AppStartup {
   }
 
   private AppStartup() {
-    this.blocking          = new LinkedList<>();
+    this.blocking          = new StartupTaskGraph(Debug::threadCpuTimeNanos);
     this.nonBlocking       = new LinkedList<>();
     this.postRender        = new LinkedList<>();
     this.postRenderHandler = new Handler(Looper.getMainLooper());
@@ -56,14 +69,55 @@ public final class AppStartup {
   }
 
   /**
-   * Schedules a task that must happen during app startup in a blocking fashion.
+   * Schedules a task that must happen during app startup in a blocking fashion. It runs on the main thread after every blocking task
+   * added before it has finished.
    */
   @MainThread
   public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull Runnable task) {
-    blocking.add(new Task(name, task));
+    blocking.add(name, blocking.getNames(), true, task);
+    return this;
+  }
+
+  /**
+   * Schedules a blocking task that runs on the main thread once the named tasks have finished, possibly while unrelated blocking tasks
+   * are still running in the background.
+   *
+   * @param dependencies Blocking tasks that were already added. See {@link #after(String...)}.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlockingOnMainThread(@NonNull String name, @NonNull Collection<String> dependencies, @NonNull Runnable task) {
+    blocking.add(name, dependencies, true, task);
+    return this;
+  }
+
+  /**
+   * Schedules a blocking task that runs on a background thread once the named tasks have finished. Startup still waits for it before
+   * {@link #execute()} returns, so it must not wait on the main thread itself.
+   *
+   * @param dependencies Blocking tasks that were already added. See {@link #after(String...)}.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlockingInBackground(@NonNull String name, @NonNull Collection<String> dependencies, @NonNull Runnable task) {
+    blocking.add(name, dependencies, false, task);
     return this;
   }
 
+  /**
+   * Convenience for listing the dependencies of a blocking task.
+   */
+  public static @NonNull Collection<String> after(@NonNull String... names) {
+    return Arrays.asList(names);
+  }
+
+  /**
+   * If set, all blocking tasks run one after the other on the main thread in the order they were added, ignoring their dependencies.
+   * Used to compare against the concurrent ordering.
+   */
+  @MainThread
+  public void setSerialBlocking(boolean serialBlocking) {
+    this.serialBlocking = serialBlocking;
+  }
+
   /**
    * Schedules a task that should not block app startup, but should still happen as quickly as
    * possible.
@@ -139,21 +193,35 @@ public final class AppStartup {
    */
   @MainThread
   public void execute() {
-    Stopwatch stopwatch = new Stopwatch("init");
+    long                   startTime = System.nanoTime();
+    List<BlockingTaskTime> times     = new ArrayList<>();
 
-    for (Task task : blocking) {
-      task.getRunnable().run();
-      stopwatch.split(task.getName());
-    }
-    blocking.clear();
+    SignalTrace.beginSection(BLOCKING_TRACE_SECTION);
+    blocking.execute(SignalExecutors.UNBOUNDED, serialBlocking, new StartupTaskGraph.Listener() {
+      @Override
+      public void onTaskStarted(@NonNull String name) {
+        Tracer.getInstance().start("AppStartup#" + name);
+      }
+
+      @Override
+      public void onTaskFinished(@NonNull String name, boolean onCallingThread, long wallNanos, long cpuNanos) {
+        Tracer.getInstance().end("AppStartup#" + name);
+
+        synchronized (times) {
+          times.add(new BlockingTaskTime(name, onCallingThread, wallNanos, cpuNanos));
+        }
+      }
+    });
+    SignalTrace.endSection();
+
+    long blockingTime = System.nanoTime() - startTime;
 
     for (Task task : nonBlocking) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
     }
     nonBlocking.clear();
 
-    stopwatch.split("schedule-non-blocking");
-    stopwatch.stop(TAG);
+    logBlockingTimes(times, blockingTime);
 
     postRenderHandler.postDelayed(() -> {
       Log.i(TAG, "Assuming the application has started in the background. Running post-render tasks.");
@@ -161,6 +229,28 @@ public final class AppStartup {
     }, UI_WAIT_TIME);
   }
 
+  /**
+   * Only called once every blocking task is done, since reporting metrics needs the database and app dependencies.
+   */
+  private void logBlockingTimes(@NonNull List<BlockingTaskTime> times, long blockingTime) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Blocking tasks (").append(serialBlocking ? "serial" : "concurrent").append(") took ").append(formatMillis(blockingTime));
+
+    for (BlockingTaskTime time : times) {
+      builder.append(" | ").append(time.name).append(time.onMainThread ? "" : " (bg)").append(": ").append(formatMillis(time.wallNanos))
+             .append(" (cpu ").append(formatMillis(time.cpuNanos)).append(")");
+
+      SignalLocalMetrics.AppStartupTask.onTaskFinished(time.name, time.wallNanos, time.cpuNanos);
+    }
+
+    Log.d(TAG, builder.toString());
+    SignalLocalMetrics.AppStartupTask.onBlockingFinished(blockingTime);
+  }
+
+  private static @NonNull String formatMillis(long nanos) {
+    return String.format(Locale.US, "%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
   private void executePostRender() {
     for (Task task : postRender) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
@@ -168,6 +258,20 @@ public final class AppStartup {
     postRender.clear();
   }
 
+  private static final class BlockingTaskTime {
+    private final String  name;
+    private final boolean onMainThread;
+    private final long    wallNanos;
+    private final long    cpuNanos;
+
+    private BlockingTaskTime(@NonNull String name, boolean onMainThread, long wallNanos, long cpuNanos) {
+      this.name         = name;
+      this.onMainThread = onMainThread;
+      this.wallNanos    = wallNanos;
+      this.cpuNanos     = cpuNanos;
+    }
+  }
+
   private class Task {
     private final String   name;
     private final Runnable runnable;
@@ -16,20 +16,27 @@ import androidx.documentfile.provider.DocumentFile;
 import org.signal.core.util.logging.Log;
 import org.signal.libsignal.protocol.util.ByteUtil;
 import org.stalker.securesms.R;
+import org.stalker.securesms.backup.BackupManifest;
 import org.stalker.securesms.backup.BackupPassphrase;
+import org.stalker.securesms.backup.FullBackupImporter;
 import org.stalker.securesms.database.NoExternalStorageException;
 import org.stalker.securesms.dependencies.ApplicationDependencies;
 import org.stalker.securesms.keyvalue.SignalStore;
 import org.stalker.securesms.permissions.Permissions;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class BackupUtil {
 
@@ -37,6 +44,9 @@ public class BackupUtil {
 
   public static final int PASSPHRASE_LENGTH = 30;
 
+  private static final long DELTA_BACKUP_MAX_BASE_AGE = TimeUnit.DAYS.toMillis(7);
+  private static final int  KEPT_BACKUPS              = 2;
+
   public static @NonNull String getLastBackupTime(@NonNull Context context, @NonNull Locale locale) {
     try {
       BackupInfo backup = getLatestBackup();
@@ -73,9 +83,29 @@ public class BackupUtil {
     return backups.isEmpty() ? null : backups.get(0);
   }
 
+  /**
+   * Returns the base to write the next local backup as a delta against, or null if it should be a new full backup. The caller still has
+   * to check that the base file is in the backup directory.
+   */
+  public static @Nullable BackupManifest getDeltaBackupBase(@NonNull Context context) {
+    if (!SignalStore.internalValues().localBackupDeltas()) {
+      return null;
+    }
+
+    BackupManifest manifest = BackupManifest.read(context);
+
+    if (manifest == null || System.currentTimeMillis() - manifest.getCreatedAt() > DELTA_BACKUP_MAX_BASE_AGE) {
+      return null;
+    }
+
+    return manifest;
+  }
+
   public static void deleteAllBackups() {
     Log.i(TAG, "Deleting all backups");
 
+    BackupManifest.clear(ApplicationDependencies.getApplication());
+
     try {
       List<BackupInfo> backups = getAllBackupsNewestFirst();
 
@@ -90,17 +120,84 @@ public class BackupUtil {
   public static void deleteOldBackups() {
     Log.i(TAG, "Deleting older backups");
 
+    BackupManifest base = SignalStore.internalValues().localBackupDeltas() ? BackupManifest.read(ApplicationDependencies.getApplication()) : null;
+
     try {
       List<BackupInfo> backups = getAllBackupsNewestFirst();
 
-      for (int i = 2; i < backups.size(); i++) {
-        backups.get(i).delete();
+      for (BackupInfo backup : getBackupsToDelete(backups, base != null ? base.getFileName() : null, BackupUtil::readBaseFileName)) {
+        backup.delete();
       }
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
     }
   }
 
+  /**
+   * We keep the two newest backups, and the base of any delta among them, since a delta can't be restored without it. A delta whose base
+   * is already gone can't be restored at all, so it's deleted too. The base named by the manifest is kept for the deltas still to come.
+   */
+  @VisibleForTesting
+  static @NonNull List<BackupInfo> getBackupsToDelete(@NonNull List<BackupInfo> backupsNewestFirst, @Nullable String manifestBaseFileName, @NonNull BaseFileNameReader baseFileNameReader) {
+    Set<String> fileNames = new HashSet<>();
+    for (BackupInfo backup : backupsNewestFirst) {
+      fileNames.add(backup.getFileName());
+    }
+
+    Set<String>      bases    = new HashSet<>();
+    List<BackupInfo> toDelete = new ArrayList<>();
+
+    if (manifestBaseFileName != null) {
+      bases.add(manifestBaseFileName);
+    }
+
+    for (int i = 0; i < Math.min(KEPT_BACKUPS, backupsNewestFirst.size()); i++) {
+      BackupInfo backup = backupsNewestFirst.get(i);
+      String     baseFileName;
+
+      try {
+        baseFileName = baseFileNameReader.read(backup);
+      } catch (IOException e) {
+        Log.w(TAG, "Couldn't read the header of " + backup.getFileName() + ", keeping it.", e);
+        continue;
+      }
+
+      if (baseFileName == null) {
+        continue;
+      }
+
+      if (fileNames.contains(baseFileName)) {
+        bases.add(baseFileName);
+      } else {
+        Log.w(TAG, "The base of the delta backup " + backup.getFileName() + " is gone, deleting it.");
+        toDelete.add(backup);
+      }
+    }
+
+    for (int i = KEPT_BACKUPS; i < backupsNewestFirst.size(); i++) {
+      BackupInfo backup = backupsNewestFirst.get(i);
+
+      if (bases.contains(backup.getFileName())) {
+        Log.i(TAG, "Keeping the base of newer delta backups");
+        continue;
+      }
+
+      toDelete.add(backup);
+    }
+
+    return toDelete;
+  }
+
+  private static @Nullable String readBaseFileName(@NonNull BackupInfo backup) throws IOException {
+    try (InputStream in = ApplicationDependencies.getApplication().getContentResolver().openInputStream(backup.getUri())) {
+      if (in == null) {
+        throw new IOException("Couldn't open " + backup.getUri());
+      }
+
+      return FullBackupImporter.readBaseFileName(in);
+    }
+  }
+
   public static void disableBackups(@NonNull Context context) {
     BackupPassphrase.set(context, null);
     SignalStore.settings().setBackupEnabled(false);
@@ -321,6 +418,14 @@ public class BackupUtil {
     }
   }
 
+  @VisibleForTesting
+  interface BaseFileNameReader {
+    /**
+     * @return The file name of the backup's base if it's a delta, otherwise null.
+     */
+    @Nullable String read(@NonNull BackupInfo backup) throws IOException;
+  }
+
   public static class BackupInfo {
 
     private final long timestamp;
@@ -345,6 +450,14 @@ public class BackupUtil {
       return uri;
     }
 
+    /**
+     * The name of the file itself. For documents, the last path segment is the whole document id, like {@code primary:Signal/foo.backup}.
+     */
+    @NonNull String getFileName() {
+      String lastPathSegment = Objects.requireNonNull(uri.getLastPathSegment());
+      return lastPathSegment.substring(Math.max(lastPathSegment.lastIndexOf('/'), lastPathSegment.lastIndexOf(':')) + 1);
+    }
+
     private void delete() {
       File file = new File(Objects.requireNonNull(uri.getPath()));
 
@@ -0,0 +1,143 @@
+package org.stalker.securesms.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A size-bounded cache with lock-free reads, intended as a drop-in for a {@link LRUCache} wrapped in a synchronized block
+ * when the cache is hit from many threads at once.
+ *
+ * Entries are stored in a {@link ConcurrentHashMap}, and every read stamps the entry with a global access counter. Rather
+ * than maintaining a strict LRU ordering on every access (which requires a lock), we allow the cache to grow slightly past
+ * its max size, and then evict the least-recently-accessed entries in a single pass. This means eviction is approximate
+ * under contention, but reads never block on writes.
+ */
+public final class ConcurrentLRUCache<K, V> {
+
+  private final int maxSize;
+  private final int evictionThreshold;
+
+  private final ConcurrentHashMap<K, Entry<V>> entries;
+  private final AtomicLong                     accessClock;
+  private final ReentrantLock                  evictionLock;
+
+  public ConcurrentLRUCache(int maxSize) {
+    this.maxSize           = maxSize;
+    this.evictionThreshold = maxSize + Math.max(1, maxSize / 10);
+    this.entries           = new ConcurrentHashMap<>(maxSize);
+    this.accessClock       = new AtomicLong(0);
+    this.evictionLock      = new ReentrantLock();
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    Entry<V> entry = entries.get(key);
+
+    if (entry == null) {
+      return null;
+    }
+
+    entry.lastAccess = accessClock.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Inserts the value if there isn't already a value for the key.
+   *
+   * @return The existing value, or null if the provided value was inserted.
+   */
+  public @Nullable V putIfAbsent(@NonNull K key, @NonNull V value) {
+    Entry<V> existing = entries.putIfAbsent(key, new Entry<>(value, accessClock.incrementAndGet()));
+
+    if (existing != null) {
+      existing.lastAccess = accessClock.incrementAndGet();
+      return existing.value;
+    }
+
+    evictIfNecessary();
+    return null;
+  }
+
+  public void put(@NonNull K key, @NonNull V value) {
+    entries.put(key, new Entry<>(value, accessClock.incrementAndGet()));
+    evictIfNecessary();
+  }
+
+  public void remove(@NonNull K key) {
+    entries.remove(key);
+  }
+
+  public boolean containsKey(@NonNull K key) {
+    return entries.containsKey(key);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Once we're far enough over our max size, trims the cache back down to size by removing the least-recently-accessed entries.
+   * Only one thread will do the trimming -- everyone else carries on.
+   */
+  private void evictIfNecessary() {
+    if (entries.size() <= evictionThreshold || !evictionLock.tryLock()) {
+      return;
+    }
+
+    try {
+      int overflow = entries.size() - maxSize;
+      if (overflow <= 0) {
+        return;
+      }
+
+      // Access times can change while we sort, so we need to capture them up front
+      List<Candidate<K, V>> candidates = new ArrayList<>(entries.size());
+      for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+        candidates.add(new Candidate<>(entry.getKey(), entry.getValue(), entry.getValue().lastAccess));
+      }
+
+      Collections.sort(candidates, (a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+
+      for (int i = 0; i < overflow && i < candidates.size(); i++) {
+        Candidate<K, V> eldest = candidates.get(i);
+        entries.remove(eldest.key, eldest.entry);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private static final class Candidate<K, V> {
+    private final K        key;
+    private final Entry<V> entry;
+    private final long     lastAccess;
+
+    private Candidate(@NonNull K key, @NonNull Entry<V> entry, long lastAccess) {
+      this.key        = key;
+      this.entry      = entry;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+
+    private volatile long lastAccess;
+
+    private Entry(@NonNull V value, long lastAccess) {
+      this.value      = value;
+      this.lastAccess = lastAccess;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package org.stalker.securesms.util;
 
 import androidx.annotation.NonNull;
 
+import org.stalker.securesms.database.SignalDatabase;
 import org.stalker.securesms.database.model.ServiceMessageId;
 import org.stalker.securesms.recipients.RecipientId;
 
@@ -15,6 +16,9 @@ import java.util.Optional;
  * Sometimes a message that is referencing another message can arrive out of order. In these cases,
  * we want to temporarily hold on (i.e. keep a memory cache) to these messages and apply them after
  * we receive the referenced message.
+ *
+ * The cache follows the transaction it's used in, if any: content is only stored once the transaction commits, and content that was
+ * retrieved is put back if it rolls back, so that processing the same messages again sees the same cache.
  */
 public final class EarlyMessageCache {
 
@@ -24,11 +28,14 @@ public final class EarlyMessageCache {
    * @param targetSender        The sender of the message this message depends on.
    * @param targetSentTimestamp The sent timestamp of the message this message depends on.
    */
-  public synchronized void store(@NonNull RecipientId targetSender,
-                                 long targetSentTimestamp,
-                                 @NonNull EarlyMessageCacheEntry cacheEntry)
+  public void store(@NonNull RecipientId targetSender,
+                    long targetSentTimestamp,
+                    @NonNull EarlyMessageCacheEntry cacheEntry)
   {
-    ServiceMessageId             messageId    = new ServiceMessageId(targetSender, targetSentTimestamp);
+    SignalDatabase.runPostSuccessfulTransaction(() -> storeNow(new ServiceMessageId(targetSender, targetSentTimestamp), cacheEntry));
+  }
+
+  private synchronized void storeNow(@NonNull ServiceMessageId messageId, @NonNull EarlyMessageCacheEntry cacheEntry) {
     List<EarlyMessageCacheEntry> envelopeList = cache.get(messageId);
 
     if (envelopeList == null) {
@@ -47,7 +54,24 @@ public final class EarlyMessageCache {
    * @param sentTimestamp The sent timestamp of the message in question.
    */
   public synchronized Optional<List<EarlyMessageCacheEntry>> retrieve(@NonNull RecipientId sender, long sentTimestamp) {
-    return Optional.ofNullable(cache.remove(new ServiceMessageId(sender, sentTimestamp)));
+    ServiceMessageId             messageId = new ServiceMessageId(sender, sentTimestamp);
+    List<EarlyMessageCacheEntry> entries   = cache.remove(messageId);
+
+    if (entries != null) {
+      SignalDatabase.runPostFailedTransaction(() -> restore(messageId, entries));
+    }
+
+    return Optional.ofNullable(entries);
+  }
+
+  private synchronized void restore(@NonNull ServiceMessageId messageId, @NonNull List<EarlyMessageCacheEntry> entries) {
+    List<EarlyMessageCacheEntry> stored = cache.get(messageId);
+
+    if (stored != null) {
+      entries.addAll(stored);
+    }
+
+    cache.put(messageId, entries);
   }
 
   /**
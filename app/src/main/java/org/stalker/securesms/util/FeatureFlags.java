@@ -131,6 +131,8 @@ public final class FeatureFlags {
   private static final String LIBSIGNAL_WEB_SOCKET_ENABLED      = "android.libsignalWebSocketEnabled";
   private static final String RESTORE_POST_REGISTRATION         = "android.registration.restorePostRegistration";
   private static final String LIBSIGNAL_WEB_SOCKET_SHADOW_PCT   = "android.libsignalWebSocketShadowingPercentage";
+  private static final String MESSAGE_BATCH_COMMIT_SIZE         = "android.messageBatchCommit.size";
+  private static final String MESSAGE_BATCH_COMMIT_WINDOW       = "android.messageBatchCommit.windowMs";
 
   /**
    * We will only store remote values for flags in this set. If you want a flag to be controllable
@@ -211,7 +213,9 @@ public final class FeatureFlags {
       LINKED_DEVICE_LIFESPAN_SECONDS,
       CAMERAX_CUSTOM_CONTROLLER,
       LIBSIGNAL_WEB_SOCKET_ENABLED,
-      LIBSIGNAL_WEB_SOCKET_SHADOW_PCT
+      LIBSIGNAL_WEB_SOCKET_SHADOW_PCT,
+      MESSAGE_BATCH_COMMIT_SIZE,
+      MESSAGE_BATCH_COMMIT_WINDOW
   );
 
   @VisibleForTesting
@@ -287,7 +291,9 @@ public final class FeatureFlags {
       CDSI_LIBSIGNAL_NET,
       RX_MESSAGE_SEND,
       LINKED_DEVICE_LIFESPAN_SECONDS,
-      CAMERAX_CUSTOM_CONTROLLER
+      CAMERAX_CUSTOM_CONTROLLER,
+      MESSAGE_BATCH_COMMIT_SIZE,
+      MESSAGE_BATCH_COMMIT_WINDOW
   );
 
   /**
@@ -766,6 +772,21 @@ public final class FeatureFlags {
     return Math.max(0, Math.min(value, 100));
   }
 
+  /**
+   * The maximum number of envelopes from a websocket batch that will be decrypted and committed in a single database transaction.
+   * A value of 1 or less means every envelope gets its own transaction.
+   */
+  public static int messageBatchCommitSize() {
+    return getInteger(MESSAGE_BATCH_COMMIT_SIZE, 30);
+  }
+
+  /**
+   * The maximum amount of time, in milliseconds, that we'll keep adding envelopes to a single batch transaction before committing it.
+   */
+  public static long messageBatchCommitWindowMs() {
+    return getInteger(MESSAGE_BATCH_COMMIT_WINDOW, 500);
+  }
+
   /** Only for rendering debug info. */
   public static synchronized @NonNull Map<String, Object> getMemoryValues() {
     return new TreeMap<>(REMOTE_VALUES);
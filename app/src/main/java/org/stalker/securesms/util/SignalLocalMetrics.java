@@ -6,9 +6,12 @@ import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.signal.core.util.logging.Log;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -73,6 +76,42 @@ public final class SignalLocalMetrics {
     }
   }
 
+  public static final class AppStartupTask {
+    private static final String NAME_TASK     = "app-startup-task";
+    private static final String NAME_BLOCKING = "app-startup-blocking";
+
+    private static final String SPLIT_WALL = "wall";
+    private static final String SPLIT_CPU  = "cpu";
+
+    private static final AtomicLong counter = new AtomicLong(0);
+
+    /**
+     * @param name The name the task was added to {@link AppStartup} with. Each task is reported as its own event.
+     * @param wallNanos How long the task took.
+     * @param cpuNanos How much CPU time the thread running the task used in that time.
+     */
+    public static void onTaskFinished(@NonNull String name, long wallNanos, long cpuNanos) {
+      String eventName = NAME_TASK + "-" + name;
+      String id        = eventName + "-" + counter.incrementAndGet();
+
+      LocalMetrics.getInstance().start(id, eventName, TimeUnit.MICROSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_WALL, wallNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_CPU, cpuNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().end(id);
+    }
+
+    /**
+     * @param durationNanos How long it took for every blocking task to finish.
+     */
+    public static void onBlockingFinished(long durationNanos) {
+      String id = NAME_BLOCKING + "-" + counter.incrementAndGet();
+
+      LocalMetrics.getInstance().start(id, NAME_BLOCKING, TimeUnit.MICROSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_WALL, durationNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().end(id);
+    }
+  }
+
   public static final class ConversationOpen {
     private static final String NAME = "conversation-open";
 
@@ -497,4 +536,57 @@ public final class SignalLocalMetrics {
       }
     }
   }
+
+  public static final class RecipientCache {
+    private static final String TAG = Log.tag(RecipientCache.class);
+
+    private static final String NAME_RESOLVE = "recipient-cache-resolve";
+
+    private static final String SPLIT_RESOLVE = "resolve";
+
+    /** Hit/miss counts are logged in aggregate every time this many lookups have happened. They're counts, not durations, so they aren't metrics. */
+    private static final int LOOKUP_REPORT_INTERVAL = 1000;
+
+    private static final AtomicInteger hits    = new AtomicInteger(0);
+    private static final AtomicInteger misses  = new AtomicInteger(0);
+    private static final AtomicLong    counter = new AtomicLong(0);
+
+    public static void onHit() {
+      hits.incrementAndGet();
+      maybeReportLookups();
+    }
+
+    public static void onMiss() {
+      misses.incrementAndGet();
+      maybeReportLookups();
+    }
+
+    /**
+     * @param count The number of recipients resolved together.
+     * @param durationNanos How long it took to resolve all of them.
+     */
+    public static void onResolved(int count, long durationNanos) {
+      String id = NAME_RESOLVE + counter.incrementAndGet();
+
+      LocalMetrics.getInstance().start(id, NAME_RESOLVE, TimeUnit.MICROSECONDS);
+      LocalMetrics.getInstance().splitWithDuration(id, SPLIT_RESOLVE, durationNanos, TimeUnit.NANOSECONDS);
+      LocalMetrics.getInstance().setLabel(id, String.valueOf(count));
+      LocalMetrics.getInstance().end(id);
+    }
+
+    private static void maybeReportLookups() {
+      if (hits.get() + misses.get() < LOOKUP_REPORT_INTERVAL) {
+        return;
+      }
+
+      int hitCount  = hits.getAndSet(0);
+      int missCount = misses.getAndSet(0);
+
+      if (hitCount + missCount == 0) {
+        return;
+      }
+
+      Log.d(TAG, "Lookups: " + hitCount + " hits, " + missCount + " misses (" + (hitCount * 100 / (hitCount + missCount)) + "% hit rate)");
+    }
+  }
 }
@@ -0,0 +1,239 @@
+package org.stalker.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a set of startup tasks, each one as soon as the tasks it depends on have finished.
+ *
+ * A task either runs on the thread that calls {@link #execute}, or on a background executor. Tasks for the calling thread run in the
+ * order they were added, as long as their dependencies are done. A task can only depend on tasks that were added before it, which means
+ * the order tasks were added in is always a valid order to run them one after the other.
+ */
+final class StartupTaskGraph {
+
+  private static final Node WAKE_UP = new Node(Integer.MIN_VALUE, "", Collections.emptyList(), true, () -> {});
+
+  private final List<Node>        nodes  = new ArrayList<>();
+  private final Map<String, Node> byName = new HashMap<>();
+  private final ThreadCpuClock    cpuClock;
+
+  StartupTaskGraph(@NonNull ThreadCpuClock cpuClock) {
+    this.cpuClock = cpuClock;
+  }
+
+  /**
+   * @param dependencies Names of tasks that have to finish before this one starts. They must already have been added.
+   * @param onCallingThread True if the task has to run on the thread that calls {@link #execute}, false if it can run in the background.
+   */
+  void add(@NonNull String name, @NonNull Collection<String> dependencies, boolean onCallingThread, @NonNull Runnable runnable) {
+    if (byName.containsKey(name)) {
+      throw new IllegalArgumentException("A task named " + name + " was already added!");
+    }
+
+    List<Node> dependencyNodes = new ArrayList<>(dependencies.size());
+    for (String dependency : dependencies) {
+      Node dependencyNode = byName.get(dependency);
+      if (dependencyNode == null) {
+        throw new IllegalArgumentException(name + " depends on " + dependency + ", which hasn't been added!");
+      }
+      dependencyNodes.add(dependencyNode);
+    }
+
+    Node node = new Node(nodes.size(), name, dependencyNodes, onCallingThread, runnable);
+    nodes.add(node);
+    byName.put(name, node);
+  }
+
+  /**
+   * The names of every task added so far.
+   */
+  @NonNull List<String> getNames() {
+    return new ArrayList<>(byName.keySet());
+  }
+
+  boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  /**
+   * Runs every task and blocks until they've all finished. If a task throws, the first failure is rethrown here and no task that depends
+   * on it is started.
+   *
+   * @param serial If true, every task runs on the calling thread in the order it was added, as if none of them declared dependencies.
+   */
+  void execute(@NonNull Executor background, boolean serial, @NonNull Listener listener) {
+    try {
+      if (serial) {
+        for (Node node : nodes) {
+          run(node, true, listener);
+        }
+      } else {
+        new Execution(background, listener).run();
+      }
+    } finally {
+      nodes.clear();
+      byName.clear();
+    }
+  }
+
+  private void run(@NonNull Node node, boolean onCallingThread, @NonNull Listener listener) {
+    listener.onTaskStarted(node.name);
+
+    long startTime    = System.nanoTime();
+    long startCpuTime = cpuClock.getThreadCpuTimeNanos();
+
+    node.runnable.run();
+
+    listener.onTaskFinished(node.name, onCallingThread, System.nanoTime() - startTime, cpuClock.getThreadCpuTimeNanos() - startCpuTime);
+  }
+
+  /**
+   * The state of a single {@link #execute} call. The calling thread waits on {@link #ready} for tasks it has to run, and background
+   * tasks hand the ones they unblock straight to the executor.
+   */
+  private final class Execution {
+    private final Executor                   background;
+    private final Listener                   listener;
+    private final BlockingQueue<Node>        ready;
+    private final Map<Node, AtomicInteger>   remainingDependencies;
+    private final Map<Node, List<Node>>      dependents;
+    private final AtomicInteger              unfinished;
+    private final AtomicReference<Throwable> failure;
+
+    private Execution(@NonNull Executor background, @NonNull Listener listener) {
+      this.background            = background;
+      this.listener              = listener;
+      this.ready                 = new PriorityBlockingQueue<>(Math.max(1, nodes.size()), (a, b) -> Integer.compare(a.index, b.index));
+      this.remainingDependencies = new HashMap<>(nodes.size());
+      this.dependents            = new HashMap<>(nodes.size());
+      this.unfinished            = new AtomicInteger(nodes.size());
+      this.failure               = new AtomicReference<>();
+
+      for (Node node : nodes) {
+        remainingDependencies.put(node, new AtomicInteger(node.dependencies.size()));
+        dependents.put(node, new ArrayList<>());
+      }
+
+      for (Node node : nodes) {
+        for (Node dependency : node.dependencies) {
+          dependents.get(dependency).add(node);
+        }
+      }
+    }
+
+    void run() {
+      for (Node node : nodes) {
+        if (node.dependencies.isEmpty()) {
+          schedule(node);
+        }
+      }
+
+      while (unfinished.get() > 0) {
+        Node next = take();
+
+        if (next == WAKE_UP) {
+          rethrowFailure();
+          continue;
+        }
+
+        StartupTaskGraph.this.run(next, true, listener);
+        onFinished(next);
+      }
+
+      rethrowFailure();
+    }
+
+    private void schedule(@NonNull Node node) {
+      if (node.onCallingThread) {
+        ready.add(node);
+      } else {
+        background.execute(() -> {
+          try {
+            StartupTaskGraph.this.run(node, false, listener);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            ready.add(WAKE_UP);
+            return;
+          }
+
+          onFinished(node);
+
+          if (unfinished.get() == 0) {
+            ready.add(WAKE_UP);
+          }
+        });
+      }
+    }
+
+    private void onFinished(@NonNull Node node) {
+      for (Node dependent : dependents.get(node)) {
+        if (remainingDependencies.get(dependent).decrementAndGet() == 0) {
+          schedule(dependent);
+        }
+      }
+
+      unfinished.decrementAndGet();
+    }
+
+    private @NonNull Node take() {
+      try {
+        return ready.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError("Interrupted while waiting for startup tasks!", e);
+      }
+    }
+
+    private void rethrowFailure() {
+      Throwable t = failure.get();
+
+      if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      } else if (t != null) {
+        throw new RuntimeException(t);
+      }
+    }
+  }
+
+  private static final class Node {
+    private final int        index;
+    private final String     name;
+    private final List<Node> dependencies;
+    private final boolean    onCallingThread;
+    private final Runnable   runnable;
+
+    private Node(int index, @NonNull String name, @NonNull List<Node> dependencies, boolean onCallingThread, @NonNull Runnable runnable) {
+      this.index           = index;
+      this.name            = name;
+      this.dependencies    = dependencies;
+      this.onCallingThread = onCallingThread;
+      this.runnable        = runnable;
+    }
+  }
+
+  interface ThreadCpuClock {
+    long getThreadCpuTimeNanos();
+  }
+
+  interface Listener {
+    /** Called on the thread that is about to run the task. */
+    void onTaskStarted(@NonNull String name);
+
+    /** Called on the thread that ran the task, right after it finished. */
+    void onTaskFinished(@NonNull String name, boolean onCallingThread, long wallNanos, long cpuNanos);
+  }
+}
@@ -0,0 +1,47 @@
+package org.stalker.securesms
+
+import org.signal.spinner.Plugin
+import org.signal.spinner.PluginResult
+import org.stalker.securesms.database.QueryProfiler
+import org.stalker.securesms.database.SignalDatabase
+import java.util.Locale
+
+/**
+ * Shows [QueryProfiler] stats for every statement shape, most total time first. Plans are captured for the slowest shapes on each load.
+ */
+class QueryProfilerPlugin : Plugin {
+  override val name: String = "Queries"
+  override val path: String = PATH
+
+  override fun get(): PluginResult {
+    QueryProfiler.capturePlans(SignalDatabase.rawDatabase, PLAN_COUNT)
+
+    val columns = listOf("Shape", "Count", "Total (ms)", "Max (ms)", "p50/p90/p99 (us)", "Rows p50/p90/p99", "Lock Wait p50/p90/p99 (us)", "Plan")
+    val rows = QueryProfiler.getShapes().map { shape ->
+      listOf(
+        shape.shape,
+        shape.count.toString(),
+        (shape.totalMicros / 1000).toString(),
+        String.format(Locale.US, "%.2f", shape.maxMicros / 1000f),
+        shape.durations.percentiles(),
+        shape.rows.percentiles(),
+        shape.lockWaits.percentiles(),
+        shape.plan ?: ""
+      )
+    }
+
+    return PluginResult.TableResult(
+      columns = columns,
+      rows = rows
+    )
+  }
+
+  private fun QueryProfiler.Histogram.percentiles(): String {
+    return "${percentile(0.5)} / ${percentile(0.9)} / ${percentile(0.99)}"
+  }
+
+  companion object {
+    const val PATH = "/queries"
+    private const val PLAN_COUNT = 10
+  }
+}
@@ -22,6 +22,7 @@ import org.stalker.securesms.database.MessageBitmaskColumnTransformer
 import org.stalker.securesms.database.MessageRangesTransformer
 import org.stalker.securesms.database.ProfileKeyCredentialTransformer
 import org.stalker.securesms.database.QueryMonitor
+import org.stalker.securesms.database.QueryProfiler
 import org.stalker.securesms.database.RecipientTransformer
 import org.stalker.securesms.database.SignalDatabase
 import org.stalker.securesms.database.TimestampTransformer
@@ -35,6 +36,7 @@ import java.util.Locale
 class SpinnerApplicationContext : ApplicationContext() {
   override fun onCreate() {
     super.onCreate()
+    QueryProfiler.enabled = true
 
     try {
       Class.forName("dalvik.system.CloseGuard")
@@ -82,7 +84,8 @@ class SpinnerApplicationContext : ApplicationContext() {
         )
       ),
       linkedMapOf(
-        StorageServicePlugin.PATH to StorageServicePlugin()
+        StorageServicePlugin.PATH to StorageServicePlugin(),
+        QueryProfilerPlugin.PATH to QueryProfilerPlugin()
       )
     )
 
@@ -0,0 +1,224 @@
+package org.stalker.securesms.backup
+
+import android.app.Application
+import android.database.MatrixCursor
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.stalker.securesms.crypto.AttachmentSecret
+import org.stalker.securesms.crypto.ModernEncryptingPartOutputStream
+import org.stalker.securesms.database.AttachmentTable
+import java.io.File
+import java.io.InterruptedIOException
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.Callable
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class AttachmentPrefetcherTest {
+
+  private val attachmentSecret = AttachmentSecret(Random.nextBytes(32), Random.nextBytes(32), Random.nextBytes(32))
+
+  private lateinit var directory: File
+  private lateinit var cursor: MatrixCursor
+  private val plaintexts = mutableMapOf<Long, ByteArray>()
+
+  @Before
+  fun setUp() {
+    directory = File.createTempFile("prefetcher", "test").apply {
+      delete()
+      mkdirs()
+    }
+
+    cursor = MatrixCursor(arrayOf(AttachmentTable.ID, AttachmentTable.MESSAGE_ID, AttachmentTable.DATA_FILE, AttachmentTable.DATA_RANDOM, AttachmentTable.DATA_SIZE, AttachmentTable.DATA_HASH_END))
+  }
+
+  @After
+  fun tearDown() {
+    directory.deleteRecursively()
+  }
+
+  @Test
+  fun `returns each attachment's plaintext in row order`() {
+    (1L..3L).forEach { addAttachment(it) }
+
+    prefetcher().use { prefetcher ->
+      for (rowId in 1L..3L) {
+        val prefetched = prefetcher.take(rowId)!!
+        assertEquals(plaintexts[rowId]!!.size.toLong(), prefetched.size)
+        assertArrayEquals(plaintexts[rowId], prefetched.data)
+      }
+    }
+  }
+
+  @Test
+  fun `skips attachments on messages that aren't exported`() {
+    (1L..3L).forEach { addAttachment(it, messageId = if (it == 2L) 200L else it) }
+    val executor = DirectExecutor()
+
+    prefetcher(executor, exportedMessageIds = setOf(1L, 3L)).use { prefetcher ->
+      assertArrayEquals(plaintexts[1L], prefetcher.take(1L)!!.data)
+      assertArrayEquals(plaintexts[3L], prefetcher.take(3L)!!.data)
+    }
+
+    assertEquals(2, executor.submitted)
+  }
+
+  @Test
+  fun `keeps at most the window in flight`() {
+    (1L..5L).forEach { addAttachment(it) }
+    val executor = DirectExecutor()
+
+    prefetcher(executor, window = 2).use { prefetcher ->
+      prefetcher.take(1L)
+      assertEquals(3, executor.submitted)
+
+      prefetcher.take(2L)
+      assertEquals(4, executor.submitted)
+    }
+  }
+
+  @Test
+  fun `an attachment the prefetcher doesn't have is left to the writer`() {
+    (1L..3L).forEach { addAttachment(it) }
+
+    prefetcher().use { prefetcher ->
+      assertNull(prefetcher.take(0L))
+      assertArrayEquals(plaintexts[1L], prefetcher.take(1L)!!.data)
+      assertNull(prefetcher.take(4L))
+    }
+  }
+
+  @Test
+  fun `an attachment over the buffer limit is left to the writer`() {
+    addAttachment(1L, size = 2048)
+
+    prefetcher(maxBufferedSize = 1024).use { prefetcher ->
+      val prefetched = prefetcher.take(1L)!!
+      assertEquals(2048L, prefetched.size)
+      assertNull(prefetched.data)
+    }
+  }
+
+  @Test
+  fun `a missing file is left to the writer`() {
+    addAttachment(1L)
+    File(directory, "1").delete()
+
+    prefetcher().use { prefetcher ->
+      assertNull(prefetcher.take(1L)!!.data)
+    }
+  }
+
+  @Test
+  fun `a failed read is left to the writer`() {
+    (1L..2L).forEach { addAttachment(it) }
+
+    prefetcher(FailingExecutor()).use { prefetcher ->
+      assertNull(prefetcher.take(1L))
+      assertNull(prefetcher.take(2L))
+    }
+  }
+
+  @Test
+  fun `an interrupt while waiting is rethrown`() {
+    addAttachment(1L)
+
+    prefetcher(PendingExecutor()).use { prefetcher ->
+      Thread.currentThread().interrupt()
+
+      try {
+        prefetcher.take(1L)
+        throw AssertionError("Expected an InterruptedIOException")
+      } catch (e: InterruptedIOException) {
+        // Expected
+      } finally {
+        Thread.interrupted()
+      }
+    }
+  }
+
+  @Test
+  fun `close cancels anything in flight and closes the cursor`() {
+    (1L..3L).forEach { addAttachment(it) }
+    val executor = PendingExecutor()
+    val prefetcher = prefetcher(executor)
+
+    assertNull(prefetcher.take(0L))
+    assertEquals(3, executor.tasks.size)
+
+    prefetcher.close()
+    assertTrue(executor.tasks.all { (it as FutureTask<*>).isCancelled })
+    assertTrue(cursor.isClosed)
+  }
+
+  private fun prefetcher(
+    executor: AbstractExecutorService = DirectExecutor(),
+    exportedMessageIds: Set<Long>? = null,
+    window: Int = 8,
+    maxBufferedSize: Long = 1024 * 1024
+  ): AttachmentPrefetcher {
+    val messageIds: ExportedMessageIds = mockk {
+      every { contains(any()) } answers { exportedMessageIds?.contains(firstArg()) ?: true }
+    }
+
+    return AttachmentPrefetcher(attachmentSecret, cursor, messageIds, null, executor, window, maxBufferedSize)
+  }
+
+  private fun addAttachment(rowId: Long, messageId: Long = rowId, size: Int = 100) {
+    val plaintext = Random.nextBytes(size)
+    val file = File(directory, rowId.toString())
+    val (random, outputStream) = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false).let { it.first to it.second }
+
+    outputStream.use { it.write(plaintext) }
+    plaintexts[rowId] = plaintext
+
+    cursor.addRow(arrayOf<Any?>(rowId, messageId, file.absolutePath, random, size.toLong(), null))
+  }
+
+  /** Runs each task as it's submitted. */
+  private open class DirectExecutor : AbstractExecutorService() {
+    var submitted = 0
+
+    override fun execute(command: Runnable) {
+      submitted++
+      command.run()
+    }
+
+    override fun shutdown() = Unit
+    override fun shutdownNow(): List<Runnable> = emptyList()
+    override fun isShutdown(): Boolean = false
+    override fun isTerminated(): Boolean = false
+    override fun awaitTermination(timeout: Long, unit: TimeUnit): Boolean = true
+  }
+
+  /** Fails every task, like a read that threw something the prefetcher doesn't catch. */
+  private class FailingExecutor : DirectExecutor() {
+    override fun <T> submit(task: Callable<T>): Future<T> {
+      return FutureTask<T>(Callable { throw IllegalStateException("Failed to read") }).also { execute(it) }
+    }
+  }
+
+  /** Never runs anything, so every task stays in flight. */
+  private class PendingExecutor : DirectExecutor() {
+    val tasks = mutableListOf<Runnable>()
+
+    override fun execute(command: Runnable) {
+      submitted++
+      tasks += command
+    }
+  }
+}
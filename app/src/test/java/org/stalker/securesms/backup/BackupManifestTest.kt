@@ -0,0 +1,81 @@
+package org.stalker.securesms.backup
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class BackupManifestTest {
+
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    directory = File.createTempFile("manifest", "test").apply {
+      delete()
+      mkdirs()
+    }
+  }
+
+  @After
+  fun tearDown() {
+    directory.deleteRecursively()
+  }
+
+  @Test
+  fun `a written manifest reads back the same`() {
+    val file = File(directory, "manifest")
+    val manifest = BackupManifest(byteArrayOf(1, 2, 3), "signal-2023-01-01-00-00-00.backup", 1234L, setOf("a", "b", "c"))
+
+    manifest.write(file)
+    val read = BackupManifest.read(file)!!
+
+    assertArrayEquals(manifest.backupId, read.backupId)
+    assertEquals(manifest.fileName, read.fileName)
+    assertEquals(manifest.createdAt, read.createdAt)
+    assertEquals(3, read.attachmentCount)
+    assertTrue(read.containsAttachment("b"))
+    assertFalse(read.containsAttachment("d"))
+    assertFalse(read.containsAttachment(null))
+  }
+
+  @Test
+  fun `a missing manifest reads as null`() {
+    assertNull(BackupManifest.read(File(directory, "missing")))
+  }
+
+  @Test
+  fun `a corrupt manifest reads as null`() {
+    val file = File(directory, "manifest")
+    file.writeBytes(byteArrayOf(0, 0, 0, 1, 0))
+
+    assertNull(BackupManifest.read(file))
+  }
+
+  @Test
+  fun `a base builder only records written hashes`() {
+    val builder = BackupManifest.Builder("signal-2023-01-01-00-00-00.backup", null)
+    builder.addAttachment("a")
+    builder.addAttachment(null)
+
+    val manifest = builder.build()
+
+    assertFalse(builder.isDelta)
+    assertEquals(1, manifest.attachmentCount)
+    assertTrue(manifest.containsAttachment("a"))
+    assertTrue(manifest.isBaseOf(builder.backupId))
+    assertFalse(manifest.isBaseOf(null))
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `a delta builder can't become a base`() {
+    val base = BackupManifest(byteArrayOf(1), "base.backup", 0L, setOf("a"))
+
+    BackupManifest.Builder("delta.backup", base).build()
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Ignore
+import org.junit.Test
+import org.stalker.securesms.backup.v2.proto.BackupInfo
+import org.stalker.securesms.backup.v2.proto.ChatItem
+import org.stalker.securesms.backup.v2.proto.Frame
+import org.stalker.securesms.backup.v2.proto.StandardMessage
+import org.stalker.securesms.backup.v2.proto.Text
+import org.stalker.securesms.util.Util
+import org.whispersystems.signalservice.api.backup.BackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.util.UUID
+import java.util.concurrent.Executors
+import kotlin.random.Random
+
+/**
+ * Compares exporting a synthetic 1M message account with the serial [EncryptedBackupWriter] and with a [PipelinedBackupExportWriter] in
+ * front of it. Frames are built on the exporting thread as they're written, like the chat item iterator does. Not run as part of the normal
+ * test suite -- remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class PipelinedBackupExportWriterBenchmark {
+
+  private val key = BackupKey(Util.getSecretBytes(32))
+  private val aci = ACI.from(UUID.randomUUID())
+  private val iv = Util.getSecretBytes(16)
+
+  @Test
+  fun `export - 1M messages`() {
+    repeat(3) {
+      val serialStart = System.nanoTime()
+      val serial = export { it }
+      val serialNanos = System.nanoTime() - serialStart
+
+      val executor = Executors.newFixedThreadPool(3)
+      val pipelinedStart = System.nanoTime()
+      val pipelined = export { PipelinedBackupExportWriter(it, executor) }
+      val pipelinedNanos = System.nanoTime() - pipelinedStart
+      executor.shutdown()
+
+      assertArrayEquals(serial, pipelined)
+
+      println("serial: ${serialNanos / 1_000_000} ms, pipelined: ${pipelinedNanos / 1_000_000} ms, size: ${serial.size} bytes")
+    }
+  }
+
+  private fun export(wrap: (EncodedBackupExportWriter) -> BackupExportWriter): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+    val random = Random(1)
+
+    wrap(EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) }, iv = iv)).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = START_TIME))
+
+      for (i in 0 until MESSAGE_COUNT) {
+        writer.write(Frame(chatItem = chatItem(i, random)))
+      }
+    }
+
+    return outputStream.toByteArray()
+  }
+
+  private fun chatItem(i: Int, random: Random): ChatItem {
+    val body = StringBuilder()
+    repeat(1 + random.nextInt(20)) {
+      body.append(WORDS[random.nextInt(WORDS.size)]).append(' ')
+    }
+
+    return ChatItem(
+      chatId = (i % CHAT_COUNT).toLong(),
+      authorId = (i % AUTHOR_COUNT).toLong(),
+      dateSent = START_TIME + i,
+      standardMessage = StandardMessage(text = Text(body = body.toString()))
+    )
+  }
+
+  companion object {
+    private const val MESSAGE_COUNT = 1_000_000
+    private const val CHAT_COUNT = 500
+    private const val AUTHOR_COUNT = 1_000
+    private const val START_TIME = 1_700_000_000_000L
+
+    private val WORDS = listOf("hey", "are", "you", "coming", "tonight", "lol", "sounds", "good", "see", "you", "there", "😂")
+  }
+}
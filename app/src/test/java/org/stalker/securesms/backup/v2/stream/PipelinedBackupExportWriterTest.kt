@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.stalker.securesms.backup.v2.proto.AccountData
+import org.stalker.securesms.backup.v2.proto.BackupInfo
+import org.stalker.securesms.backup.v2.proto.Frame
+import org.stalker.securesms.util.Util
+import org.whispersystems.signalservice.api.backup.BackupKey
+import org.whispersystems.signalservice.api.push.ServiceId.ACI
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.UUID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class PipelinedBackupExportWriterTest {
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(3)
+
+  private val key = BackupKey(Util.getSecretBytes(32))
+  private val aci = ACI.from(UUID.randomUUID())
+  private val iv = Util.getSecretBytes(16)
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun `pipelined output is identical to serial output`() {
+    val frames = (0 until 10_000).map { Frame(account = AccountData(username = "username-$it")) }
+    val expected = write(frames) { it }
+
+    for ((batchSize, maxPendingBatches) in listOf(1 to 1, 7 to 2, 100 to 16)) {
+      val actual = write(frames) { PipelinedBackupExportWriter(it, executor, batchSize, maxPendingBatches) }
+      assertArrayEquals(expected, actual)
+    }
+  }
+
+  @Test
+  fun `can read back all of the frames we write`() {
+    val frameCount = 10_000
+    val outputStream = ByteArrayOutputStream()
+
+    PipelinedBackupExportWriter(EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) }), executor, batchSize = 33).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+
+      for (i in 0 until frameCount) {
+        writer.write(Frame(account = AccountData(username = "username-$i")))
+      }
+    }
+
+    val ciphertext: ByteArray = outputStream.toByteArray()
+
+    val frames: List<Frame> = EncryptedBackupReader(key, aci, ciphertext.size.toLong()) { ciphertext.inputStream() }.use { reader ->
+      assertEquals(reader.backupInfo?.version, 1L)
+      reader.asSequence().toList()
+    }
+
+    assertEquals(frameCount, frames.size)
+
+    for (i in 0 until frameCount) {
+      assertEquals("username-$i", frames[i].account?.username)
+    }
+  }
+
+  @Test(expected = IOException::class)
+  fun `a failed write is thrown to the caller`() {
+    val failingStream = object : OutputStream() {
+      var written = 0
+
+      override fun write(b: Int) {
+        if (++written > 1000) {
+          throw IOException("No space left")
+        }
+      }
+    }
+
+    PipelinedBackupExportWriter(PlainTextBackupWriter(failingStream), executor, batchSize = 10, maxPendingBatches = 2).use { writer ->
+      for (i in 0 until 10_000) {
+        writer.write(Frame(account = AccountData(username = "username-$i")))
+      }
+    }
+  }
+
+  private fun write(frames: List<Frame>, wrap: (EncodedBackupExportWriter) -> BackupExportWriter): ByteArray {
+    val outputStream = ByteArrayOutputStream()
+
+    wrap(EncryptedBackupWriter(key, aci, outputStream, append = { outputStream.write(it) }, iv = iv)).use { writer ->
+      writer.write(BackupInfo(version = 1, backupTimeMs = 1000L))
+      frames.forEach { writer.write(it) }
+    }
+
+    return outputStream.toByteArray()
+  }
+}
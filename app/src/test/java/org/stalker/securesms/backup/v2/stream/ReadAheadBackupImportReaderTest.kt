@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.stalker.securesms.backup.v2.stream
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.stalker.securesms.backup.v2.proto.AccountData
+import org.stalker.securesms.backup.v2.proto.BackupInfo
+import org.stalker.securesms.backup.v2.proto.Frame
+import java.io.IOException
+
+class ReadAheadBackupImportReaderTest {
+
+  @Test
+  fun `frames are read in order`() {
+    for ((batchSize, maxPendingBatches) in listOf(1 to 1, 7 to 2, 100 to 16)) {
+      val frames: List<Frame> = ReadAheadBackupImportReader(FakeReader(10_000), batchSize, maxPendingBatches).use { reader ->
+        assertEquals(1L, reader.getHeader()?.version)
+        reader.asSequence().toList()
+      }
+
+      assertEquals(10_000, frames.size)
+
+      for (i in frames.indices) {
+        assertEquals("username-$i", frames[i].account?.username)
+      }
+    }
+  }
+
+  @Test
+  fun `frames read before a failure are returned before it is thrown`() {
+    val reader = ReadAheadBackupImportReader(FakeReader(10_000, failAt = 250), batchSize = 10, maxPendingBatches = 2)
+    var count = 0
+
+    try {
+      for (frame in reader) {
+        count++
+      }
+      throw AssertionError("Expected a failure!")
+    } catch (e: IOException) {
+      assertEquals(250, count)
+    } finally {
+      reader.close()
+    }
+  }
+
+  @Test
+  fun `closing early stops the reading thread`() {
+    val delegate = FakeReader(10_000)
+
+    ReadAheadBackupImportReader(delegate, batchSize = 10, maxPendingBatches = 2).use { reader ->
+      assertTrue(reader.hasNext())
+      reader.next()
+    }
+
+    assertTrue(delegate.closed)
+    assertTrue(delegate.index < 10_000)
+  }
+
+  private class FakeReader(private val count: Int, private val failAt: Int = -1) : BackupImportReader {
+    var index = 0
+    var closed = false
+
+    override fun getHeader(): BackupInfo {
+      return BackupInfo(version = 1, backupTimeMs = 1000L)
+    }
+
+    override fun hasNext(): Boolean {
+      return index < count
+    }
+
+    override fun next(): Frame {
+      if (index == failAt) {
+        throw IOException("Bad frame")
+      }
+
+      return Frame(account = AccountData(username = "username-${index++}"))
+    }
+
+    override fun close() {
+      closed = true
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.stalker.securesms.contacts.paged
 
 import android.app.Application
+import android.os.OperationCanceledException
 import androidx.core.os.bundleOf
 import org.junit.Assert
 import org.junit.Before
@@ -9,8 +10,11 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.kotlin.any
 import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.eq
 import org.mockito.kotlin.isNull
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
 import org.mockito.kotlin.whenever
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
@@ -18,6 +22,9 @@ import org.stalker.securesms.MockCursor
 import org.stalker.securesms.database.model.DistributionListPrivacyMode
 import org.stalker.securesms.recipients.Recipient
 import org.stalker.securesms.recipients.RecipientId
+import org.stalker.securesms.search.MessageResult
+import org.stalker.securesms.search.MessageSearchResult
+import org.stalker.securesms.search.SearchRepository
 import org.stalker.securesms.util.adapter.mapping.MappingModel
 
 @RunWith(RobolectricTestRunner::class)
@@ -26,6 +33,7 @@ class ContactSearchPagedDataSourceTest {
 
   private val repository: ContactSearchPagedDataSourceRepository = mock()
   private val cursor: MockCursor = mock()
+  private val searchRepository: SearchRepository = mock()
   private val groupStoryData = ContactSearchData.Story(Recipient.UNKNOWN, 0, DistributionListPrivacyMode.ALL)
 
   @Before
@@ -143,6 +151,58 @@ class ContactSearchPagedDataSourceTest {
     Assert.assertEquals(expected.data?.getString("n"), actual.data?.getString("n"))
   }
 
+  @Test
+  fun `Given messages, when I load the first page, then I expect only that page of messages to be read`() {
+    val testSubject = createMessagesSubject(matchCount = 120)
+    val result = testSubject.load(0, 11, testSubject.size()) { false }
+
+    val expected = listOf(ContactSearchKey.Header(ContactSearchConfiguration.SectionKey.MESSAGES)) + (1L..10L).map { ContactSearchKey.Message(it) }
+
+    Assert.assertEquals(expected, result.map { it.contactSearchKey })
+    verify(searchRepository).loadMessages(eq("query"), eq(matches(1L..50L)))
+    verify(searchRepository, times(1)).loadMessages(any(), any())
+  }
+
+  @Test
+  fun `Given messages, when I load a later page, then I expect messages to be read from there`() {
+    val testSubject = createMessagesSubject(matchCount = 120)
+    val result = testSubject.load(100, 10, testSubject.size()) { false }
+
+    Assert.assertEquals((100L..109L).map { ContactSearchKey.Message(it) }, result.map { it.contactSearchKey })
+    verify(searchRepository).loadMessages(eq("query"), eq(matches(100L..120L)))
+    verify(searchRepository, times(1)).loadMessages(any(), any())
+  }
+
+  @Test
+  fun `Given a canceled message search, when I size, then I expect 0`() {
+    val testSubject = createMessagesSubject(matchCount = 120)
+    whenever(searchRepository.queryMessagesSync(eq("query"), any())).thenThrow(OperationCanceledException())
+
+    testSubject.cancel()
+
+    Assert.assertEquals(0, testSubject.size())
+  }
+
+  private fun createMessagesSubject(matchCount: Long): ContactSearchPagedDataSource {
+    val configuration = ContactSearchConfiguration.build {
+      query = "query"
+      addSection(ContactSearchConfiguration.Section.Messages(includeHeader = true))
+    }
+
+    whenever(searchRepository.queryMessagesSync(eq("query"), any())).thenReturn(MessageSearchResult(matches(1L..matchCount), "query"))
+    whenever(searchRepository.loadMessages(any(), any())).thenAnswer { invocation ->
+      invocation.getArgument<List<MessageSearchResult.Match>>(1).map {
+        MessageResult(Recipient.UNKNOWN, Recipient.UNKNOWN, "body", "body", it.threadId, it.messageId, it.receivedTimestampMs, true)
+      }
+    }
+
+    return ContactSearchPagedDataSource(configuration, repository, searchRepository = searchRepository)
+  }
+
+  private fun matches(messageIds: LongRange): List<MessageSearchResult.Match> {
+    return messageIds.map { MessageSearchResult.Match(RecipientId.UNKNOWN, RecipientId.UNKNOWN, 1, it, 1000 - it, false) }
+  }
+
   private fun createArbitrarySubject(): ContactSearchPagedDataSource {
     val configuration = ContactSearchConfiguration.build {
       arbitrary(
@@ -0,0 +1,70 @@
+package org.stalker.securesms.conversation.v2.data
+
+import org.junit.Test
+import org.stalker.securesms.assertIs
+
+class ExtraMessageDataCacheTest {
+
+  @Test
+  fun `putAll - stores entries when nothing was evicted`() {
+    val subject = ExtraMessageDataCache(10)
+
+    subject.putAll(mapOf(1L to entry(threadId = 1), 2L to entry(threadId = 1)), subject.generation())
+
+    subject.getAll(listOf(1L, 2L, 3L)).keys assertIs setOf(1L, 2L)
+  }
+
+  @Test
+  fun `putAll - drops entries when something was evicted after the lookup started`() {
+    val subject = ExtraMessageDataCache(10)
+    val generation = subject.generation()
+
+    subject.remove(5L)
+    subject.putAll(mapOf(1L to entry(threadId = 1)), generation)
+
+    subject.getAll(listOf(1L)).isEmpty() assertIs true
+  }
+
+  @Test
+  fun `putAll - evicts least recently used entries`() {
+    val subject = ExtraMessageDataCache(2)
+
+    subject.putAll(mapOf(1L to entry(threadId = 1), 2L to entry(threadId = 1)), subject.generation())
+    subject.getAll(listOf(1L))
+    subject.putAll(mapOf(3L to entry(threadId = 1)), subject.generation())
+
+    subject.getAll(listOf(1L, 2L, 3L)).keys assertIs setOf(1L, 3L)
+  }
+
+  @Test
+  fun `removeThread - only removes entries in that thread`() {
+    val subject = ExtraMessageDataCache(10)
+
+    subject.putAll(mapOf(1L to entry(threadId = 1), 2L to entry(threadId = 2)), subject.generation())
+    subject.removeThread(1)
+
+    subject.getAll(listOf(1L, 2L)).keys assertIs setOf(2L)
+  }
+
+  @Test
+  fun `removeIf - only removes matching entries`() {
+    val subject = ExtraMessageDataCache(10)
+
+    subject.putAll(mapOf(1L to entry(threadId = 1, isCallLog = true), 2L to entry(threadId = 1)), subject.generation())
+    subject.removeIf { it.isCallLog }
+
+    subject.getAll(listOf(1L, 2L)).keys assertIs setOf(2L)
+  }
+
+  private fun entry(threadId: Long, isCallLog: Boolean = false): ExtraMessageDataCache.Entry {
+    return ExtraMessageDataCache.Entry(
+      threadId = threadId,
+      mentions = null,
+      reactions = null,
+      attachments = null,
+      payment = null,
+      call = null,
+      isCallLog = isCallLog
+    )
+  }
+}
@@ -73,4 +73,21 @@ class ContactSearchSelectionBuilderTest {
     Assert.assertTrue(result.where.contains(RecipientTable.ContactSearchSelection.QUERY_SIGNAL_CONTACT))
     Assert.assertTrue(result.args.contains("query"))
   }
+
+  @Test
+  fun `Given candidates, when I build, then I expect them inlined without extra args`() {
+    val withoutCandidates = RecipientTable.ContactSearchSelection.Builder()
+      .withRegistered(true)
+      .withSearchQuery("query")
+      .build()
+
+    val result = RecipientTable.ContactSearchSelection.Builder()
+      .withRegistered(true)
+      .withSearchQuery("query")
+      .withCandidates(listOf(RecipientId.from(3), RecipientId.from(5)))
+      .build()
+
+    Assert.assertTrue(result.where.endsWith(" AND ${RecipientTable.TABLE_NAME}.${RecipientTable.ID} IN (3,5)"))
+    Assert.assertArrayEquals(withoutCandidates.args, result.args)
+  }
 }
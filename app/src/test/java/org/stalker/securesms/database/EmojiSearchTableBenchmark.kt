@@ -0,0 +1,107 @@
+package org.stalker.securesms.database
+
+import android.app.Application
+import android.database.sqlite.SQLiteDatabase
+import androidx.core.content.contentValuesOf
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.stalker.securesms.testing.TestDatabaseUtil
+import kotlin.random.Random
+
+/**
+ * Measures emoji searches answered by the [EmojiSearchIndex] against the `LIKE` query they replace, with about as many labels as a
+ * downloaded search index has, while a query is typed one character at a time. Not run as part of the normal test suite -- remove the
+ * [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class EmojiSearchTableBenchmark {
+  private lateinit var db: SQLiteDatabase
+  private lateinit var table: EmojiSearchTable
+
+  @Before
+  fun setup() {
+    val sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(EmojiSearchTable.CREATE_TABLE)
+      EmojiSearchTable.CREATE_INDEXES.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+    table = EmojiSearchTable(ApplicationProvider.getApplicationContext(), sqlCipher)
+
+    db.beginTransaction()
+    for (emoji in 0 until EMOJI_COUNT) {
+      val rank = if (emoji % 5 == 0) Int.MAX_VALUE else emoji + 1
+      repeat(RANDOM.nextInt(3, 10)) {
+        val label = (0 until RANDOM.nextInt(1, 3)).joinToString(" ") { WORDS[RANDOM.nextInt(WORDS.size)] }
+        db.insert(EmojiSearchTable.TABLE_NAME, null, contentValuesOf(EmojiSearchTable.LABEL to label, EmojiSearchTable.EMOJI to "e$emoji", EmojiSearchTable.RANK to rank))
+      }
+    }
+    db.setTransactionSuccessful()
+    db.endTransaction()
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `typing a query - index vs database`() {
+    val buildStart = System.nanoTime()
+    table.query("warmup", LIMIT)
+    println("build: ${(System.nanoTime() - buildStart) / 1_000_000} ms")
+
+    repeat(WARMUP) {
+      for (query in QUERIES) {
+        type(query) { table.query(it, LIMIT) }
+        type(query) { table.queryDatabase(it, LIMIT) }
+      }
+    }
+
+    for (query in QUERIES) {
+      var indexedNanos = 0L
+      var databaseNanos = 0L
+
+      repeat(ITERATIONS) {
+        val indexStart = System.nanoTime()
+        type(query) { table.query(it, LIMIT) }
+        indexedNanos += System.nanoTime() - indexStart
+
+        val databaseStart = System.nanoTime()
+        type(query) { table.queryDatabase(it, LIMIT) }
+        databaseNanos += System.nanoTime() - databaseStart
+      }
+
+      val keystrokes = ITERATIONS * query.length
+      println("\"$query\": index ${indexedNanos / keystrokes / 1000} us/keystroke, database ${databaseNanos / keystrokes / 1000} us/keystroke")
+    }
+  }
+
+  private inline fun type(query: String, search: (String) -> List<String>) {
+    for (end in 1..query.length) {
+      search(query.substring(0, end))
+    }
+  }
+
+  companion object {
+    private const val EMOJI_COUNT = 3_700
+    private const val LIMIT = 50
+    private const val WARMUP = 3
+    private const val ITERATIONS = 20
+
+    private val RANDOM = Random(42)
+    private val QUERIES = listOf("smiling", "heart", "thumbs up", "xyzzy")
+    private val WORDS = listOf(
+      "face", "smile", "smiling", "grin", "grinning", "cat", "dog", "heart", "red", "blue", "hand", "wave", "flag", "sun", "moon", "star",
+      "tear", "joy", "laugh", "happy", "sad", "angry", "thumbs", "up", "down", "fire", "party", "food", "car", "tree", "water", "light"
+    )
+  }
+}
@@ -0,0 +1,124 @@
+package org.stalker.securesms.database
+
+import android.app.Application
+import android.database.sqlite.SQLiteDatabase
+import androidx.core.content.contentValuesOf
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.stalker.securesms.database.model.EmojiSearchData
+import org.stalker.securesms.testing.TestDatabaseUtil
+import org.whispersystems.signalservice.internal.util.JsonUtil
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class EmojiSearchTableTest {
+
+  private lateinit var db: SQLiteDatabase
+  private lateinit var table: EmojiSearchTable
+
+  @Before
+  fun setup() {
+    val sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(EmojiSearchTable.CREATE_TABLE)
+      EmojiSearchTable.CREATE_INDEXES.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+    table = EmojiSearchTable(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `ranks exact matches first, then matches that start with the query`() {
+    insert("grinning face", "😀", 3)
+    insert("grin", "😁", 2)
+    insert("face", "🙂", 1)
+    insert("big grin", "😃", 4)
+
+    assertEquals(listOf("😁", "😀", "😃"), table.query("grin", 10))
+  }
+
+  @Test
+  fun `ignores the case of ascii letters only`() {
+    insert("Smile", "🙂", 1)
+    insert("ÄPFEL", "🍎", 2)
+    insert("äpfel", "🍏", 3)
+
+    assertEquals(listOf("🙂"), table.query("SMILE", 10))
+    assertEquals(listOf("🍏"), table.query("äpf", 10))
+    assertEquals(table.queryDatabase("äpf", 10), table.query("äpf", 10))
+  }
+
+  @Test
+  fun `queries with wildcards are answered by the database`() {
+    insert("thumbs_up", "👍", 1)
+    insert("thumbsup", "👌", 2)
+    insert("100%", "💯", 3)
+
+    assertEquals(setOf("👍", "👌"), table.query("thumbs_", 10).toSet())
+    assertEquals(listOf("💯"), table.query("0%", 10))
+  }
+
+  @Test
+  fun `matches the database for many queries`() {
+    val random = Random(42)
+    for (i in 0 until 3000) {
+      val label = (0 until random.nextInt(1, 3)).joinToString(" ") { WORDS[random.nextInt(WORDS.size)] }
+      val rank = if (random.nextInt(4) == 0) Int.MAX_VALUE else random.nextInt(1, 500)
+      insert(label, "e${random.nextInt(800)}", rank)
+    }
+
+    val queries = WORDS.flatMap { word -> (1..word.length).map { word.substring(0, it) } } +
+      WORDS.map { it.uppercase() } +
+      listOf("e", "a", " ", "face s", "heart r", "in", "xyz", "Ü", "_", "%")
+
+    for (query in queries) {
+      for (limit in listOf(1, 20, 50, 300)) {
+        assertEquals("\"$query\", limit $limit", table.queryDatabase(query, limit), table.query(query, limit))
+      }
+    }
+  }
+
+  @Test
+  fun `finds the new index after it is replaced`() {
+    insert("cat", "🐱", 1)
+    assertEquals(listOf("🐱"), table.query("cat", 10))
+
+    table.setSearchIndex(listOf(searchData("🐶", 1, "dog", "puppy")))
+
+    assertEquals(emptyList<String>(), table.query("cat", 10))
+    assertEquals(listOf("🐶"), table.query("pup", 10))
+  }
+
+  private fun insert(label: String, emoji: String, rank: Int) {
+    db.insert(
+      EmojiSearchTable.TABLE_NAME,
+      null,
+      contentValuesOf(
+        EmojiSearchTable.LABEL to label,
+        EmojiSearchTable.EMOJI to emoji,
+        EmojiSearchTable.RANK to rank
+      )
+    )
+  }
+
+  private fun searchData(emoji: String, rank: Int, vararg tags: String): EmojiSearchData {
+    val json = """{"emoji":"$emoji","rank":$rank,"tags":[${tags.joinToString(",") { "\"$it\"" }}]}"""
+    return JsonUtil.fromJson(json, EmojiSearchData::class.java)
+  }
+
+  companion object {
+    private val WORDS = listOf("face", "smile", "smiling", "grin", "cat", "heart", "red", "hand", "wave", "flag", "sun", "moon", "star", "tear", "joy", "thumbs", "up", "fire", "Party", "ÜBER", "über")
+  }
+}
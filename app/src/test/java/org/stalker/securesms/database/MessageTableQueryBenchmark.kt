@@ -0,0 +1,81 @@
+package org.stalker.securesms.database
+
+import android.app.Application
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import org.junit.After
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.signal.core.util.SqlUtil
+import org.stalker.securesms.testing.TestDatabaseUtil
+
+/**
+ * Compares the latency of conversation-position style queries when their values are inlined into the SQL versus bound as arguments.
+ * Inlined values make every call a distinct statement that has to be compiled again, while bound ones are served from the connection's
+ * statement cache. Not run as part of the normal test suite -- remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class MessageTableQueryBenchmark {
+  private lateinit var db: SQLiteDatabase
+
+  @Before
+  fun setup() {
+    val sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(MessageTable.CREATE_TABLE)
+      MessageTable.CREATE_INDEXS.forEach { execSQL(it) }
+    }
+
+    db = sqlCipher.writableDatabase
+
+    db.beginTransaction()
+    for (i in 0 until MESSAGE_COUNT) {
+      TestMms.insert(db, threadId = (i % THREAD_COUNT).toLong(), sentTimeMillis = START_TIME + i, receivedTimestampMillis = START_TIME + i)
+    }
+    db.setTransactionSuccessful()
+    db.endTransaction()
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `message position - inlined vs bound`() {
+    benchmark("inlined") { threadId, timestamp ->
+      db.rawQuery("SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.THREAD_ID} = $threadId AND ${MessageTable.DATE_RECEIVED} > $timestamp AND ${MessageTable.STORY_TYPE} = 0 AND ${MessageTable.PARENT_STORY_ID} <= 0", null)
+    }
+
+    benchmark("bound") { threadId, timestamp ->
+      db.rawQuery("SELECT COUNT(*) FROM ${MessageTable.TABLE_NAME} WHERE ${MessageTable.THREAD_ID} = ? AND ${MessageTable.DATE_RECEIVED} > ? AND ${MessageTable.STORY_TYPE} = 0 AND ${MessageTable.PARENT_STORY_ID} <= 0", SqlUtil.buildArgs(threadId, timestamp))
+    }
+  }
+
+  private fun benchmark(name: String, query: (Long, Long) -> Cursor) {
+    for (i in 0 until WARMUP) {
+      query(i % THREAD_COUNT.toLong(), START_TIME + i).use { it.moveToFirst() }
+    }
+
+    val start = System.nanoTime()
+    for (i in 0 until ITERATIONS) {
+      query(i % THREAD_COUNT.toLong(), START_TIME + (i * 7919L) % MESSAGE_COUNT).use { it.moveToFirst() }
+    }
+    val elapsed = System.nanoTime() - start
+
+    println("[$name] ${elapsed / ITERATIONS / 1000} us/query")
+  }
+
+  companion object {
+    private const val MESSAGE_COUNT = 20_000
+    private const val THREAD_COUNT = 50
+    private const val START_TIME = 1_700_000_000_000L
+    private const val WARMUP = 1_000
+    private const val ITERATIONS = 10_000
+  }
+}
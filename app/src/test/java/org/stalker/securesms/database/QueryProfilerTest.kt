@@ -0,0 +1,128 @@
+package org.stalker.securesms.database
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.stalker.securesms.assertIs
+import java.util.concurrent.TimeUnit
+
+class QueryProfilerTest {
+
+  @Before
+  fun setUp() {
+    QueryProfiler.clear()
+    QueryProfiler.enabled = true
+  }
+
+  @After
+  fun tearDown() {
+    QueryProfiler.enabled = false
+    QueryProfiler.clear()
+  }
+
+  @Test
+  fun `shapeOf - replaces numeric and string literals`() {
+    QueryProfiler.shapeOf("SELECT * FROM message WHERE thread_id = 12 AND body = 'it''s' AND date > -5") assertIs "SELECT * FROM message WHERE thread_id = ? AND body = ? AND date > ?"
+  }
+
+  @Test
+  fun `shapeOf - leaves identifiers containing digits alone`() {
+    QueryProfiler.shapeOf("SELECT col2 FROM table_3 WHERE t1.x = 1") assertIs "SELECT col2 FROM table_3 WHERE t1.x = ?"
+  }
+
+  @Test
+  fun `shapeOf - collapses placeholder lists and whitespace`() {
+    QueryProfiler.shapeOf("SELECT *\n  FROM message\n  WHERE _id IN (?, ?,?, 4)") assertIs "SELECT * FROM message WHERE _id IN (?)"
+  }
+
+  @Test
+  fun `onStatement - groups statements by shape`() {
+    QueryProfiler.onStatement("SELECT * FROM message WHERE _id = 1", TimeUnit.MICROSECONDS.toNanos(100), 1)
+    QueryProfiler.onStatement("SELECT * FROM message WHERE _id = 2", TimeUnit.MICROSECONDS.toNanos(300), 1)
+    QueryProfiler.onStatement("SELECT * FROM thread WHERE _id = ?", TimeUnit.MICROSECONDS.toNanos(50), 0)
+
+    val shapes = QueryProfiler.getShapes()
+    shapes.size assertIs 2
+    shapes[0].shape assertIs "SELECT * FROM message WHERE _id = ?"
+    shapes[0].count assertIs 2L
+    shapes[0].totalMicros assertIs 400L
+    shapes[0].maxMicros assertIs 300L
+  }
+
+  @Test
+  fun `onStatement - lock wait is attributed to the next statement only`() {
+    QueryProfiler.onTransactionBegan(TimeUnit.MILLISECONDS.toNanos(5))
+    QueryProfiler.onStatement("UPDATE message SET read = 1", 1000, 3)
+    QueryProfiler.onStatement("UPDATE thread SET read = 1", 1000, 3)
+
+    val shapes = QueryProfiler.getShapes().associateBy { it.shape }
+    shapes["UPDATE message SET read = ?"]!!.lockWaits.percentile(0.5) assertIs 8192L
+    shapes["UPDATE thread SET read = ?"]!!.lockWaits.percentile(0.5) assertIs 0L
+  }
+
+  @Test
+  fun `onStatement - only slow statements are kept in the ring`() {
+    QueryProfiler.onStatement("SELECT 1", TimeUnit.MILLISECONDS.toNanos(1), 1)
+    QueryProfiler.onStatement("SELECT 2 FROM message", TimeUnit.MILLISECONDS.toNanos(50), 10)
+
+    val slow = QueryProfiler.getSlowStatements()
+    slow.size assertIs 1
+    slow[0].shape assertIs "SELECT ? FROM message"
+    slow[0].rows assertIs 10
+  }
+
+  @Test
+  fun `onStatement - records nothing while disabled`() {
+    QueryProfiler.enabled = false
+    QueryProfiler.onStatement("SELECT * FROM message", TimeUnit.MILLISECONDS.toNanos(50), 1)
+
+    QueryProfiler.getShapes().size assertIs 0
+    QueryProfiler.getSlowStatements().size assertIs 0
+  }
+
+  @Test
+  fun `onStatement - new shapes past the limit are counted together`() {
+    for (i in 0 until 600) {
+      QueryProfiler.onStatement("SELECT * FROM table_$i", 1000, 1)
+    }
+    QueryProfiler.onStatement("SELECT * FROM table_0", 1000, 1)
+
+    val shapes = QueryProfiler.getShapes().associateBy { it.shape }
+    shapes.size assertIs 501
+    shapes["SELECT * FROM table_0"]!!.count assertIs 2L
+    shapes["(other)"]!!.count assertIs 100L
+  }
+
+  @Test
+  fun `onStatement - counts every statement recorded from many threads`() {
+    val threads = (0 until 8).map {
+      Thread {
+        for (i in 0 until 1000) {
+          QueryProfiler.onStatement("SELECT * FROM message WHERE _id = $i", 1000, 1)
+        }
+      }
+    }
+    threads.forEach { it.start() }
+    threads.forEach { it.join() }
+
+    val shapes = QueryProfiler.getShapes()
+    shapes.size assertIs 1
+    shapes[0].count assertIs 8000L
+    shapes[0].totalMicros assertIs 8000L
+  }
+
+  @Test
+  fun `histogram - percentile returns bucket upper bound`() {
+    val histogram = QueryProfiler.Histogram()
+    for (i in 0 until 90) {
+      histogram.add(3)
+    }
+    for (i in 0 until 10) {
+      histogram.add(1000)
+    }
+
+    histogram.percentile(0.5) assertIs 4L
+    histogram.percentile(0.9) assertIs 4L
+    histogram.percentile(0.99) assertIs 1024L
+  }
+}
@@ -0,0 +1,131 @@
+package org.stalker.securesms.database
+
+import org.junit.Ignore
+import org.junit.Test
+import org.stalker.securesms.recipients.RecipientId
+import kotlin.random.Random
+
+/**
+ * Measures [RecipientSearchIndex] with 50k recipients while a query is typed one character at a time, against scanning every recipient
+ * the way the contact search GLOBs do. Searches use the same limit as [RecipientTable.getSearchCandidates]. The scan is a case-insensitive contains over every piece of text, which is cheaper than the GLOB
+ * it stands in for. Not run as part of the normal test suite -- remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class RecipientSearchIndexBenchmark {
+
+  private val entries: List<RecipientSearchIndex.Entry> = generateEntries()
+
+  @Test
+  fun `typing a query`() {
+    val index = RecipientSearchIndex(ListSource(entries))
+
+    val buildStart = System.nanoTime()
+    index.search("warmup")
+    println("build: ${(System.nanoTime() - buildStart) / 1_000_000} ms for ${index.size} recipients")
+
+    repeat(WARMUP) {
+      for (query in QUERIES) {
+        typeIndexed(index, query)
+        typeScanned(query)
+      }
+    }
+
+    for (query in QUERIES) {
+      var indexedNanos = 0L
+      var scannedNanos = 0L
+      var matches: Int? = null
+
+      repeat(ITERATIONS) {
+        val indexStart = System.nanoTime()
+        matches = typeIndexed(index, query)
+        indexedNanos += System.nanoTime() - indexStart
+
+        val scanStart = System.nanoTime()
+        typeScanned(query)
+        scannedNanos += System.nanoTime() - scanStart
+      }
+
+      val keystrokes = ITERATIONS * query.length
+      println("\"$query\" (${matches ?: "over $LIMIT"} matches): index ${indexedNanos / keystrokes / 1000} us/keystroke, scan ${scannedNanos / keystrokes / 1000} us/keystroke")
+    }
+  }
+
+  @Test
+  fun `searching after writes`() {
+    val index = RecipientSearchIndex(ListSource(entries))
+    index.search("warmup")
+
+    for (writes in listOf(1, 10, 100)) {
+      val start = System.nanoTime()
+      repeat(ITERATIONS) {
+        repeat(writes) { index.onRecipientWritten(RecipientId.from(RANDOM.nextLong(1, RECIPIENT_COUNT.toLong()))) }
+        index.search("ali", LIMIT)
+      }
+      println("$writes write(s) between searches: ${(System.nanoTime() - start) / ITERATIONS / 1000} us/search")
+    }
+  }
+
+  private fun typeIndexed(index: RecipientSearchIndex, query: String): Int? {
+    var matches: Int? = null
+    for (end in 1..query.length) {
+      matches = index.search(query.substring(0, end), LIMIT)?.size
+    }
+    return matches
+  }
+
+  private fun typeScanned(query: String): Int {
+    var matches = 0
+    for (end in 1..query.length) {
+      val prefix = query.substring(0, end)
+      matches = entries.count { entry -> entry.texts.any { it != null && it.contains(prefix, ignoreCase = true) } }
+    }
+    return matches
+  }
+
+  private class ListSource(private val entries: List<RecipientSearchIndex.Entry>) : RecipientSearchIndex.Source {
+    override fun getEntriesAfter(recipientId: Long): List<RecipientSearchIndex.Entry> {
+      return entries.subList(recipientId.toInt().coerceIn(0, entries.size), entries.size)
+    }
+
+    override fun getEntries(recipientIds: Collection<Long>): List<RecipientSearchIndex.Entry> {
+      return recipientIds.map { entries[(it - 1).toInt()] }
+    }
+  }
+
+  companion object {
+    private const val RECIPIENT_COUNT = 50_000
+    private const val WARMUP = 3
+    private const val ITERATIONS = 20
+    private const val LIMIT = 500
+
+    private val RANDOM = Random(42)
+    private val QUERIES = listOf("alexander", "mar", "+1555", "björn", "xyzzy")
+    private val SYLLABLES = listOf("al", "ex", "an", "der", "ma", "ri", "a", "jo", "sé", "ki", "ra", "björn", "li", "sa", "to", "mi", "ne", "ko")
+
+    private fun generateEntries(): List<RecipientSearchIndex.Entry> {
+      return (1..RECIPIENT_COUNT).map { id ->
+        val given = name()
+        val family = name()
+        RecipientSearchIndex.Entry(
+          recipientId = id.toLong(),
+          texts = listOf(
+            null,
+            null,
+            null,
+            if (id % 3 == 0) "$given $family" else null,
+            if (id % 3 == 0) given else null,
+            "$given $family",
+            given,
+            if (id % 4 == 0) "${given.lowercase()}.${id % 100}" else null,
+            "+1555${RANDOM.nextInt(1_000_000, 9_999_999)}",
+            null
+          )
+        )
+      }
+    }
+
+    private fun name(): String {
+      return (0 until RANDOM.nextInt(2, 4)).joinToString("") { SYLLABLES[RANDOM.nextInt(SYLLABLES.size)] }.replaceFirstChar { it.uppercase() }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package org.stalker.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.stalker.securesms.recipients.RecipientId
+import java.util.concurrent.TimeUnit
+
+class RecipientSearchIndexTest {
+
+  private var now = 1000L
+  private val source = FakeSource()
+  private val index = RecipientSearchIndex(source) { now }
+
+  @Test
+  fun `finds recipients regardless of case and accents`() {
+    source.put(1, "José Álvarez")
+    source.put(2, "Joseph")
+    source.put(3, "Maria")
+
+    assertEquals(ids(2, 1), index.search("jose"))
+    assertEquals(ids(1), index.search("ALVA"))
+    assertEquals(ids(2, 1), index.search("JOSÉ"))
+  }
+
+  @Test
+  fun `finds recipients by any of their text`() {
+    source.put(1, null, "Nick", "System Name", "alice.01", "+15555550101")
+    source.put(2, "Book Club")
+
+    assertEquals(ids(1), index.search("system"))
+    assertEquals(ids(1), index.search("alice.0"))
+    assertEquals(ids(1), index.search("5550101"))
+    assertEquals(ids(2), index.search("club"))
+  }
+
+  @Test
+  fun `does not match across pieces of text`() {
+    source.put(1, "Ann", "Bee")
+
+    assertEquals(ids(), index.search("nnb"))
+    assertEquals(ids(), index.search("n b"))
+  }
+
+  @Test
+  fun `ranks text that starts with the query first, then words that start with it`() {
+    source.put(1, "Joanna")
+    source.put(2, "Mary Ann")
+    source.put(3, "Ann")
+    source.put(4, "Anna")
+
+    assertEquals(ids(3, 4, 2, 1), index.search("ann"))
+  }
+
+  @Test
+  fun `finds one and two character queries`() {
+    source.put(1, "Al")
+    source.put(2, "Sal")
+    source.put(3, "Bob")
+
+    assertEquals(ids(1, 2), index.search("a"))
+    assertEquals(ids(1, 2), index.search("al"))
+  }
+
+  @Test
+  fun `returns null when the index cannot answer`() {
+    source.put(1, "Alice")
+
+    assertNull(index.search(""))
+    assertNull(index.search("[a]"))
+    assertNull(index.search("^"))
+  }
+
+  @Test
+  fun `returns null when more than the limit match`() {
+    source.put(1, "Alice")
+    source.put(2, "Alicia")
+
+    assertNull(index.search("ali", limit = 1))
+    assertEquals(ids(1, 2), index.search("ali", limit = 2))
+  }
+
+  @Test
+  fun `written recipients are read again`() {
+    source.put(1, "Alice")
+    index.search("ali")
+
+    source.put(1, "Bob")
+    assertEquals("Not told yet", ids(1), index.search("ali"))
+
+    index.onRecipientWritten(RecipientId.from(1))
+    assertEquals(ids(), index.search("ali"))
+    assertEquals(ids(1), index.search("bob"))
+  }
+
+  @Test
+  fun `removed recipients are dropped once written`() {
+    source.put(1, "Alice")
+    index.search("ali")
+
+    source.remove(1)
+    index.onRecipientWritten(RecipientId.from(1))
+
+    assertEquals(ids(), index.search("ali"))
+    assertEquals(0, index.size)
+  }
+
+  @Test
+  fun `inserted recipients are found without being written`() {
+    source.put(1, "Alice")
+    index.search("ali")
+
+    source.put(2, "Alison")
+
+    assertEquals(ids(1, 2), index.search("ali"))
+  }
+
+  @Test
+  fun `refining a query only narrows the results`() {
+    source.put(1, "Alice")
+    source.put(2, "Alison")
+    source.put(3, "Bob")
+
+    assertEquals(ids(1, 2), index.search("a"))
+    assertEquals(ids(1, 2), index.search("al"))
+    assertEquals(ids(1, 2), index.search("ali"))
+    assertEquals(ids(2), index.search("alis"))
+    assertEquals(ids(), index.search("alisa"))
+    assertEquals(ids(1, 2), index.search("li"))
+  }
+
+  @Test
+  fun `refining a query sees writes made in between`() {
+    source.put(1, "Alice")
+    assertEquals(ids(1), index.search("al"))
+
+    source.put(2, "Alison")
+    source.put(1, "Bob")
+    index.onRecipientWritten(RecipientId.from(1))
+
+    assertEquals(ids(2), index.search("ali"))
+  }
+
+  @Test
+  fun `survives many rewrites`() {
+    for (id in 1L..100L) {
+      source.put(id, "Name $id")
+    }
+    index.search("name")
+
+    for (round in 0 until 30) {
+      for (id in 1L..100L) {
+        source.put(id, "Name $id round $round")
+        index.onRecipientWritten(RecipientId.from(id))
+      }
+      assertEquals(100, index.search("round $round")!!.size)
+    }
+
+    assertEquals(ids(42), index.search("name 42 "))
+    assertEquals(100, index.size)
+  }
+
+  @Test
+  fun `everything is read again after a while`() {
+    source.put(1, "Alice")
+    index.search("ali")
+
+    source.put(1, "Bob")
+    now += TimeUnit.HOURS.toMillis(1)
+
+    assertEquals(ids(1), index.search("bob"))
+  }
+
+  private fun ids(vararg ids: Long): List<RecipientId> {
+    return ids.map { RecipientId.from(it) }
+  }
+
+  private class FakeSource : RecipientSearchIndex.Source {
+    private val entries: MutableMap<Long, List<String?>> = sortedMapOf()
+
+    fun put(id: Long, vararg texts: String?) {
+      entries[id] = texts.toList()
+    }
+
+    fun remove(id: Long) {
+      entries.remove(id)
+    }
+
+    override fun getEntriesAfter(recipientId: Long): List<RecipientSearchIndex.Entry> {
+      return entries.filterKeys { it > recipientId }.map { RecipientSearchIndex.Entry(it.key, it.value) }
+    }
+
+    override fun getEntries(recipientIds: Collection<Long>): List<RecipientSearchIndex.Entry> {
+      return entries.filterKeys { it in recipientIds }.map { RecipientSearchIndex.Entry(it.key, it.value) }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package org.stalker.securesms.jobs
+
+import org.junit.Ignore
+import org.junit.Test
+import org.mockito.Mockito
+import org.stalker.securesms.assertIs
+import org.stalker.securesms.database.JobDatabase
+import org.stalker.securesms.jobmanager.Job
+import org.stalker.securesms.jobmanager.persistence.FullSpec
+import org.stalker.securesms.jobmanager.persistence.JobSpec
+import kotlin.random.Random
+
+/**
+ * Compares pulling jobs out of [FastJobStorage] against the old approach of regrouping and sorting the full job list
+ * on every pull. Not run as part of the normal test suite -- remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class FastJobStorageBenchmark {
+
+  @Test
+  fun `pull - 10k jobs`() {
+    benchmarkPull(10_000)
+  }
+
+  @Test
+  fun `pull - 50k jobs`() {
+    benchmarkPull(50_000)
+  }
+
+  @Test
+  fun `pull - 100k jobs`() {
+    benchmarkPull(100_000)
+  }
+
+  @Test
+  fun `max instance check - 100k jobs`() {
+    val specs = generateJobs(100_000)
+    val subject = FastJobStorage(fixedDataDatabase(specs))
+    subject.init()
+
+    val indexedNanos = measure(ITERATIONS) { i ->
+      subject.getJobCountForFactoryAndQueue("factory-${i % FACTORY_COUNT}", "queue-${i % QUEUE_COUNT}")
+    }
+
+    val jobs = subject.allJobSpecs
+    val scanNanos = measure(ITERATIONS) { i ->
+      jobs.count { it.factoryKey == "factory-${i % FACTORY_COUNT}" && it.queueKey == "queue-${i % QUEUE_COUNT}" }
+    }
+
+    println("[100k] getJobCountForFactoryAndQueue -- indexed: ${indexedNanos / ITERATIONS} ns/op, scan: ${scanNanos / ITERATIONS} ns/op")
+  }
+
+  private fun benchmarkPull(count: Int) {
+    val specs = generateJobs(count)
+    val subject = FastJobStorage(fixedDataDatabase(specs))
+
+    val initStart = System.nanoTime()
+    subject.init()
+    val initNanos = System.nanoTime() - initStart
+
+    val jobs = subject.allJobSpecs
+    legacyPendingJobs(jobs, 10).map { it.id } assertIs subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).map { it.id }
+
+    val indexedNanos = measure(ITERATIONS) { subject.getPendingJobsWithNoDependenciesInCreatedOrder(10) }
+    val legacyNanos = measure(ITERATIONS) { legacyPendingJobs(jobs, 10) }
+
+    val churnNanos = measure(ITERATIONS) {
+      val next = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).first()
+      subject.markJobAsRunning(next.id, 10)
+      subject.updateJobAfterRetry(next.id, 0, next.runAttempt + 1, 0, null)
+    }
+
+    println("[$count] init: ${initNanos / 1_000_000} ms, pull (indexed): ${indexedNanos / ITERATIONS / 1000} us/op, pull (legacy): ${legacyNanos / ITERATIONS / 1000} us/op, run+retry churn: ${churnNanos / ITERATIONS / 1000} us/op")
+  }
+
+  private inline fun measure(iterations: Int, block: (Int) -> Unit): Long {
+    for (i in 0 until WARMUP) {
+      block(i)
+    }
+
+    val start = System.nanoTime()
+    for (i in 0 until iterations) {
+      block(i)
+    }
+    return System.nanoTime() - start
+  }
+
+  /**
+   * The pre-index implementation of [FastJobStorage.getPendingJobsWithNoDependenciesInCreatedOrder], minus migration
+   * handling and dependencies (the generated data has neither).
+   */
+  private fun legacyPendingJobs(jobs: List<JobSpec>, currentTime: Long): List<JobSpec> {
+    return jobs
+      .groupBy { it.queueKey ?: it.id }
+      .map { byQueueKey -> byQueueKey.value.sortedBy { it.createTime }.maxByOrNull { it.priority } }
+      .filterNotNull()
+      .filterNot { it.isRunning }
+      .filter { it.lastRunAttemptTime > currentTime || (it.lastRunAttemptTime + it.nextBackoffInterval) < currentTime }
+      .sortedBy { it.createTime }
+      .sortedByDescending { it.priority }
+  }
+
+  private fun generateJobs(count: Int): List<FullSpec> {
+    val random = Random(count)
+    val priorities = intArrayOf(Job.Parameters.PRIORITY_LOW, Job.Parameters.PRIORITY_DEFAULT, Job.Parameters.PRIORITY_HIGH)
+
+    return (0 until count).map { i ->
+      val spec = JobSpec(
+        id = "id-$i",
+        factoryKey = "factory-${random.nextInt(FACTORY_COUNT)}",
+        queueKey = if (random.nextInt(4) == 0) null else "queue-${random.nextInt(QUEUE_COUNT)}",
+        createTime = i.toLong(),
+        lastRunAttemptTime = 0,
+        nextBackoffInterval = 0,
+        runAttempt = 0,
+        maxAttempts = Job.Parameters.UNLIMITED,
+        lifespan = Job.Parameters.IMMORTAL,
+        serializedData = null,
+        serializedInputData = null,
+        isRunning = false,
+        isMemoryOnly = false,
+        priority = priorities[random.nextInt(priorities.size)]
+      )
+
+      FullSpec(spec, emptyList(), emptyList())
+    }
+  }
+
+  private fun fixedDataDatabase(fullSpecs: List<FullSpec>): JobDatabase {
+    val database = Mockito.mock(JobDatabase::class.java)
+    Mockito.`when`(database.getAllJobSpecs()).thenReturn(fullSpecs.map { it.jobSpec })
+    Mockito.`when`(database.getAllConstraintSpecs()).thenReturn(emptyList())
+    Mockito.`when`(database.getAllDependencySpecs()).thenReturn(emptyList())
+    return database
+  }
+
+  companion object {
+    private const val FACTORY_COUNT = 50
+    private const val QUEUE_COUNT = 500
+    private const val WARMUP = 100
+    private const val ITERATIONS = 1_000
+  }
+}
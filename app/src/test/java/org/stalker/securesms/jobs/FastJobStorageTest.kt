@@ -288,6 +288,38 @@ class FastJobStorageTest {
     subject.getPendingJobsWithNoDependenciesInCreatedOrder(0).size assertIs 0
   }
 
+  @Test
+  fun `getPendingJobsWithNoDependenciesInCreatedOrder - eligible after dependency is deleted`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", isRunning = true), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2"), emptyList(), listOf(DependencySpec("2", "1", false)))
+
+    val subject = FastJobStorage(fixedDataDatabase(listOf(fullSpec1, fullSpec2)))
+    subject.init()
+    subject.deleteJob("1")
+
+    val jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10)
+    jobs.size assertIs 1
+    jobs[0].id assertIs "2"
+  }
+
+  @Test
+  fun `getPendingJobsWithNoDependenciesInCreatedOrder - next in queue eligible after first is deleted`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q", createTime = 1), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2", queueKey = "q", createTime = 2), emptyList(), emptyList())
+
+    val subject = FastJobStorage(fixedDataDatabase(listOf(fullSpec1, fullSpec2)))
+    subject.init()
+    subject.markJobAsRunning("1", 5)
+
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size assertIs 0
+
+    subject.deleteJob("1")
+
+    val jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10)
+    jobs.size assertIs 1
+    jobs[0].id assertIs "2"
+  }
+
   @Test
   fun `getPendingJobsWithNoDependenciesInCreatedOrder - single eligible job`() {
     val fullSpec = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q"), emptyList(), emptyList())
@@ -388,6 +420,25 @@ class FastJobStorageTest {
     jobs[0].id assertIs "1"
   }
 
+  @Test
+  fun `getPendingJobsWithNoDependenciesInCreatedOrder - jobs in backoff are skipped until it ends, in priority order`() {
+    val fullSpec1 = FullSpec(jobSpec(id = "1", factoryKey = "f1", createTime = 1, lastRunAttemptTime = 10, nextBackoffInterval = 50), emptyList(), emptyList())
+    val fullSpec2 = FullSpec(jobSpec(id = "2", factoryKey = "f2", createTime = 2, lastRunAttemptTime = 10, nextBackoffInterval = 5), emptyList(), emptyList())
+    val fullSpec3 = FullSpec(jobSpec(id = "3", factoryKey = "f3", createTime = 3, lastRunAttemptTime = 10, nextBackoffInterval = 20, priority = Job.Parameters.PRIORITY_HIGH), emptyList(), emptyList())
+
+    val subject = FastJobStorage(fixedDataDatabase(listOf(fullSpec1, fullSpec2, fullSpec3)))
+    subject.init()
+
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(20).map { it.id } assertIs listOf("2")
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(40).map { it.id } assertIs listOf("3", "2")
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(100).map { it.id } assertIs listOf("3", "1", "2")
+
+    subject.updateJobAfterRetry(id = "3", currentTime = 100, runAttempt = 2, nextBackoffInterval = 10, serializedData = null)
+
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(105).map { it.id } assertIs listOf("1", "2")
+    subject.getPendingJobsWithNoDependenciesInCreatedOrder(111).map { it.id } assertIs listOf("3", "1", "2")
+  }
+
   @Test
   fun `getPendingJobsWithNoDependenciesInCreatedOrder - migration job takes precedence`() {
     val plainSpec = FullSpec(jobSpec(id = "1", factoryKey = "f1", queueKey = "q", createTime = 0), emptyList(), emptyList())
@@ -0,0 +1,144 @@
+package org.stalker.securesms.keyvalue
+
+import org.junit.Ignore
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import kotlin.random.Random
+
+/**
+ * Measures [KeyValueStore] read throughput while other threads keep writing, the way the main thread reads settings while jobs write to
+ * the store. The same load is run against a stand-in for the old store, where every read takes the store lock and every write is
+ * persisted on its own. Not run as part of the normal test suite -- remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class KeyValueStoreBenchmark {
+
+  @Test
+  fun `concurrent readers and writers`() {
+    for (readers in listOf(1, 4, 8)) {
+      val locking = run(LockingStore(SlowStorage()), readers)
+      val storage = SlowStorage()
+      val snapshot = run(SnapshotStore(KeyValueStore(storage)), readers)
+
+      println("readers: $readers")
+      println("  locking:  ${locking.reads / DURATION_SECONDS} reads/s, ${locking.writes / DURATION_SECONDS} writes/s")
+      println("  snapshot: ${snapshot.reads / DURATION_SECONDS} reads/s, ${snapshot.writes / DURATION_SECONDS} writes/s, ${storage.transactions.get()} transactions")
+    }
+  }
+
+  private fun run(store: BenchmarkStore, readerCount: Int): Result {
+    val executor = Executors.newFixedThreadPool(readerCount + WRITER_COUNT)
+    val running = AtomicBoolean(true)
+    val reads = AtomicLong()
+    val writes = AtomicLong()
+    val done = CountDownLatch(readerCount + WRITER_COUNT)
+
+    repeat(KEY_COUNT) { store.write("key-$it", it.toLong()) }
+    store.flush()
+
+    repeat(readerCount) { reader ->
+      executor.execute {
+        val random = Random(reader)
+        var count = 0L
+        while (running.get()) {
+          store.read("key-${random.nextInt(KEY_COUNT)}")
+          count++
+        }
+        reads.addAndGet(count)
+        done.countDown()
+      }
+    }
+
+    repeat(WRITER_COUNT) { writer ->
+      executor.execute {
+        val random = Random(1000 + writer)
+        var count = 0L
+        while (running.get()) {
+          store.write("key-${random.nextInt(KEY_COUNT)}", random.nextLong())
+          count++
+          LockSupport.parkNanos(WRITE_PAUSE_NANOS)
+        }
+        writes.addAndGet(count)
+        done.countDown()
+      }
+    }
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(DURATION_SECONDS))
+    running.set(false)
+    done.await()
+    store.flush()
+    store.close()
+    executor.shutdown()
+
+    return Result(reads.get(), writes.get())
+  }
+
+  private class Result(val reads: Long, val writes: Long)
+
+  private interface BenchmarkStore {
+    fun read(key: String): Long
+    fun write(key: String, value: Long)
+    fun flush()
+    fun close() = Unit
+  }
+
+  private class SnapshotStore(private val store: KeyValueStore) : BenchmarkStore {
+    override fun read(key: String): Long = store.getLong(key, 0)
+    override fun write(key: String, value: Long) = store.beginWrite().putLong(key, value).apply()
+    override fun flush() = store.blockUntilAllWritesFinished()
+  }
+
+  /**
+   * Equivalent to the old store: every read synchronizes on the store, and each write is persisted separately.
+   */
+  private class LockingStore(private val storage: KeyValuePersistentStorage) : BenchmarkStore {
+    private val executor = Executors.newSingleThreadExecutor()
+    private val dataSet = KeyValueDataSet()
+
+    @Synchronized
+    override fun read(key: String): Long = dataSet.getLong(key, 0)
+
+    @Synchronized
+    override fun write(key: String, value: Long) {
+      val write = KeyValueDataSet().apply { putLong(key, value) }
+      dataSet.putAll(write)
+      executor.execute { storage.writeDataSet(write, emptyList()) }
+    }
+
+    override fun flush() {
+      executor.submit { }.get()
+    }
+
+    override fun close() {
+      executor.shutdown()
+    }
+  }
+
+  /**
+   * Stands in for the database, where each transaction has a fixed cost on top of the rows it writes.
+   */
+  private class SlowStorage : KeyValuePersistentStorage {
+    val transactions = AtomicInteger()
+
+    override fun writeDataSet(dataSet: KeyValueDataSet, removes: Collection<String>) {
+      transactions.incrementAndGet()
+      LockSupport.parkNanos(TRANSACTION_NANOS)
+    }
+
+    override fun getDataSet(): KeyValueDataSet = KeyValueDataSet()
+  }
+
+  companion object {
+    private const val KEY_COUNT = 500
+    private const val WRITER_COUNT = 2
+    private const val DURATION_SECONDS = 3L
+    private const val WRITE_PAUSE_NANOS = 500_000L
+    private const val TRANSACTION_NANOS = 200_000L
+  }
+}
@@ -0,0 +1,131 @@
+package org.stalker.securesms.keyvalue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class KeyValueStoreTest {
+
+  @Test
+  fun `writes are visible right away and persisted after blocking`() {
+    val storage = RecordingStorage()
+    val store = KeyValueStore(storage)
+
+    store.beginWrite().putLong("a", 1).putString("b", "two").apply()
+
+    assertEquals(1, store.getLong("a", 0))
+    assertEquals("two", store.getString("b", null))
+
+    store.blockUntilAllWritesFinished()
+
+    assertEquals(1, storage.persisted.getLong("a", 0))
+    assertEquals("two", storage.persisted.getString("b", null))
+  }
+
+  @Test
+  fun `writes made while a write is in progress are persisted together`() {
+    val storage = RecordingStorage()
+    val store = KeyValueStore(storage)
+
+    storage.blockNextWrite()
+    store.beginWrite().putLong("a", 1).apply()
+    storage.awaitBlockedWrite()
+
+    store.beginWrite().putLong("b", 2).apply()
+    store.beginWrite().putLong("c", 3).apply()
+    store.beginWrite().putLong("b", 4).apply()
+
+    storage.unblock()
+    store.blockUntilAllWritesFinished()
+
+    assertEquals(2, storage.writeCount)
+    assertEquals(1, storage.persisted.getLong("a", 0))
+    assertEquals(4, storage.persisted.getLong("b", 0))
+    assertEquals(3, storage.persisted.getLong("c", 0))
+  }
+
+  @Test
+  fun `coalesced puts and removes keep the last operation for each key`() {
+    val storage = RecordingStorage()
+    storage.persisted.putLong("removed", 1)
+    storage.persisted.putLong("readded", 1)
+
+    val store = KeyValueStore(storage)
+
+    storage.blockNextWrite()
+    store.beginWrite().putLong("unrelated", 1).apply()
+    storage.awaitBlockedWrite()
+
+    store.beginWrite().putLong("removed", 2).apply()
+    store.beginWrite().remove("removed").apply()
+    store.beginWrite().remove("readded").apply()
+    store.beginWrite().putLong("readded", 3).apply()
+
+    storage.unblock()
+    store.blockUntilAllWritesFinished()
+
+    assertFalse(store.containsKey("removed"))
+    assertFalse(storage.persisted.containsKey("removed"))
+    assertEquals(3, store.getLong("readded", 0))
+    assertEquals(3, storage.persisted.getLong("readded", 0))
+  }
+
+  @Test
+  fun `a reader does not see later writes`() {
+    val store = KeyValueStore(RecordingStorage())
+    store.beginWrite().putBoolean("a", true).apply()
+
+    val reader = store.beginRead()
+    store.beginWrite().putBoolean("a", false).putBoolean("b", true).apply()
+
+    assertTrue(reader.getBoolean("a", false))
+    assertFalse(reader.containsKey("b"))
+    assertFalse(store.getBoolean("a", true))
+  }
+
+  private class RecordingStorage : KeyValuePersistentStorage {
+    val persisted = KeyValueDataSet()
+
+    @Volatile
+    var writeCount = 0
+      private set
+
+    @Volatile
+    private var blockNext = false
+    private val blocked = CountDownLatch(1)
+    private val released = CountDownLatch(1)
+
+    fun blockNextWrite() {
+      blockNext = true
+    }
+
+    fun awaitBlockedWrite() {
+      assertTrue(blocked.await(5, TimeUnit.SECONDS))
+    }
+
+    fun unblock() {
+      released.countDown()
+    }
+
+    override fun writeDataSet(dataSet: KeyValueDataSet, removes: Collection<String>) {
+      if (blockNext) {
+        blockNext = false
+        blocked.countDown()
+        released.await()
+      }
+
+      synchronized(persisted) {
+        persisted.putAll(dataSet)
+        persisted.removeAll(removes)
+      }
+      writeCount++
+    }
+
+    override fun getDataSet(): KeyValueDataSet {
+      return KeyValueDataSet().apply { putAll(persisted) }
+    }
+  }
+}
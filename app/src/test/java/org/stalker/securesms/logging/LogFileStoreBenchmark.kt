@@ -0,0 +1,73 @@
+package org.stalker.securesms.logging
+
+import org.junit.Ignore
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stalker.securesms.database.model.LogEntry
+import kotlin.random.Random
+
+/**
+ * Measures write and read throughput of [LogFileStore] with realistic batches of log lines. Not run as part of the normal test suite --
+ * remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class LogFileStoreBenchmark {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun `write and read - 200k lines`() {
+    val store = LogFileStore(temporaryFolder.newFolder("logs"), ByteArray(32))
+    val random = Random(1)
+    val batches: List<List<LogEntry>> = (0 until LINE_COUNT / BATCH_SIZE).map { batch ->
+      (0 until BATCH_SIZE).map { i ->
+        val createdAt = START_TIME + batch * BATCH_SIZE + i
+        LogEntry(createdAt = createdAt, keepLonger = random.nextInt(100) == 0, body = line(random))
+      }
+    }
+    val totalBytes = batches.sumOf { batch -> batch.sumOf { it.body.length.toLong() } }
+
+    val writeStart = System.nanoTime()
+    for (batch in batches) {
+      store.insert(batch, batch.last().createdAt)
+    }
+    val writeNanos = System.nanoTime() - writeStart
+
+    val countStart = System.nanoTime()
+    val count = store.getLogCountBeforeTime(Long.MAX_VALUE)
+    val countNanos = System.nanoTime() - countStart
+
+    val readStart = System.nanoTime()
+    var read = 0
+    store.getAllBeforeTime(Long.MAX_VALUE).use { reader ->
+      while (reader.hasNext()) {
+        reader.next()
+        read++
+      }
+    }
+    val readNanos = System.nanoTime() - readStart
+
+    println("write: ${LINE_COUNT * 1_000_000_000L / writeNanos} lines/s (${totalBytes * 1000 / writeNanos} MB/s)")
+    println("count: $count lines in ${countNanos / 1_000_000} ms")
+    println("read: $read lines in ${readNanos / 1_000_000} ms (${read * 1_000_000_000L / readNanos} lines/s)")
+  }
+
+  private fun line(random: Random): String {
+    val length = 40 + random.nextInt(160)
+    val builder = StringBuilder("[6.43.0] [12345] 2023-11-01 12:00:00.000 PDT I SomeTag: ")
+    while (builder.length < length) {
+      builder.append(WORDS[random.nextInt(WORDS.size)]).append(' ')
+    }
+    return builder.toString()
+  }
+
+  companion object {
+    private const val LINE_COUNT = 200_000
+    private const val BATCH_SIZE = 20
+    private const val START_TIME = 1_700_000_000_000L
+
+    private val WORDS = listOf("job", "finished", "message", "received", "websocket", "connected", "retrying", "recipient", "12", "ms")
+  }
+}
@@ -0,0 +1,173 @@
+package org.stalker.securesms.logging
+
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stalker.securesms.assertIs
+import org.stalker.securesms.database.model.LogEntry
+import java.io.File
+import java.io.RandomAccessFile
+
+class LogFileStoreTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    directory = temporaryFolder.newFolder("logs")
+  }
+
+  @Test
+  fun `getAllBeforeTime - returns inserted lines in order`() {
+    val subject = createStore()
+
+    subject.insert(entries(1L to "one", 2L to "two"), 2)
+    subject.insert(entries(3L to "three"), 3)
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("one", "two", "three")
+  }
+
+  @Test
+  fun `getAllBeforeTime - excludes lines at or after the time`() {
+    val subject = createStore()
+
+    subject.insert(entries(1L to "one", 2L to "two", 3L to "three"), 3)
+
+    subject.readAll(3) assertIs listOf("one", "two")
+    subject.getLogCountBeforeTime(3) assertIs 2
+  }
+
+  @Test
+  fun `getAllBeforeTime - merges keep longer lines by time`() {
+    val subject = createStore()
+
+    subject.insert(
+      listOf(
+        LogEntry(createdAt = 1, keepLonger = false, body = "one"),
+        LogEntry(createdAt = 2, keepLonger = true, body = "two"),
+        LogEntry(createdAt = 3, keepLonger = false, body = "three")
+      ),
+      3
+    )
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("one", "two", "three")
+  }
+
+  @Test
+  fun `reopening - previously written lines are still readable`() {
+    createStore().insert(entries(1L to "one", 2L to "two"), 2)
+
+    val reopened = createStore()
+    reopened.insert(entries(3L to "three"), 3)
+
+    reopened.readAll(Long.MAX_VALUE) assertIs listOf("one", "two", "three")
+    reopened.getLogCountBeforeTime(Long.MAX_VALUE) assertIs 3
+  }
+
+  @Test
+  fun `reopening - truncated final record is ignored`() {
+    createStore().insert(entries(1L to "one"), 1)
+    createStore().insert(entries(2L to "two"), 2)
+
+    val newest = directory.listFiles()!!.maxByOrNull { it.name.substringBefore('-').substringBefore('.').toLong() }!!
+    RandomAccessFile(newest, "rw").use { it.setLength(it.length() - 1) }
+
+    createStore().readAll(Long.MAX_VALUE) assertIs listOf("one")
+  }
+
+  @Test
+  fun `insert - drops oldest segments when over max size`() {
+    val subject = createStore(maxSize = 2048, segmentSize = 512)
+
+    for (i in 0 until 100) {
+      subject.insert(entries(i.toLong() to "line $i ${"x".repeat(50)}"), i.toLong())
+    }
+
+    val lines = subject.readAll(Long.MAX_VALUE)
+    (directory.listFiles()!!.sumOf { it.length() } <= 2048 + 512) assertIs true
+    lines.last() assertIs "line 99 ${"x".repeat(50)}"
+    (lines.size < 100) assertIs true
+  }
+
+  @Test
+  fun `insert - drops segments past their lifespan but not keep longer ones`() {
+    val subject = createStore(segmentSize = 1)
+
+    subject.insert(listOf(LogEntry(createdAt = 1, keepLonger = false, body = "old")), 1)
+    subject.insert(listOf(LogEntry(createdAt = 2, keepLonger = true, body = "old keeper")), 2)
+
+    val now = 2 + LogFileStore.DEFAULT_LIFESPAN + 1
+    subject.insert(listOf(LogEntry(createdAt = now, keepLonger = false, body = "new")), now)
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("old keeper", "new")
+  }
+
+  @Test
+  fun `insert - a segment closed by a failed write is still dropped past its lifespan`() {
+    val subject = createStore()
+    subject.insert(entries(1L to "old"), 1)
+
+    // Swap the directory out for a file, so that creating the keep longer segment fails and the normal one is closed
+    val moved = File(directory.parentFile, "moved")
+    directory.renameTo(moved) assertIs true
+    directory.createNewFile() assertIs true
+    subject.insert(listOf(LogEntry(createdAt = 2, keepLonger = true, body = "lost")), 2)
+    directory.delete() assertIs true
+    moved.renameTo(directory) assertIs true
+
+    subject.trimToSize()
+    subject.insert(entries(System.currentTimeMillis() to "new"), System.currentTimeMillis())
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("new")
+  }
+
+  @Test
+  fun `clearKeepLonger - only removes keep longer lines`() {
+    val subject = createStore()
+
+    subject.insert(
+      listOf(
+        LogEntry(createdAt = 1, keepLonger = false, body = "one"),
+        LogEntry(createdAt = 2, keepLonger = true, body = "two")
+      ),
+      2
+    )
+    subject.clearKeepLonger()
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("one")
+  }
+
+  @Test
+  fun `clearAll - removes everything and can still be written to`() {
+    val subject = createStore()
+
+    subject.insert(entries(1L to "one"), 1)
+    subject.clearAll()
+    subject.insert(entries(2L to "two"), 2)
+
+    subject.readAll(Long.MAX_VALUE) assertIs listOf("two")
+  }
+
+  @Test
+  fun `wrong key - nothing is readable`() {
+    createStore().insert(entries(1L to "one"), 1)
+
+    LogFileStore(directory, ByteArray(32) { 1 }).readAll(Long.MAX_VALUE) assertIs emptyList()
+  }
+
+  private fun createStore(maxSize: Long = LogFileStore.MAX_SIZE, segmentSize: Long = LogFileStore.SEGMENT_SIZE): LogFileStore {
+    return LogFileStore(directory, ByteArray(32), maxSize, segmentSize)
+  }
+
+  private fun LogFileStore.readAll(time: Long): List<String> {
+    return getAllBeforeTime(time).use { reader -> reader.asSequence().toList() }
+  }
+
+  private fun entries(vararg lines: Pair<Long, String>): List<LogEntry> {
+    return lines.map { (createdAt, body) -> LogEntry(createdAt = createdAt, keepLonger = false, body = body) }
+  }
+}
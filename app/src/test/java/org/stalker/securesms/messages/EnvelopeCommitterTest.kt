@@ -0,0 +1,135 @@
+package org.stalker.securesms.messages
+
+import io.mockk.every
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.stalker.securesms.jobmanager.Job
+import org.stalker.securesms.jobmanager.JobManager
+import org.stalker.securesms.messages.MessageDecryptor.FollowUpOperation
+import org.stalker.securesms.messages.protocol.BufferedProtocolStore
+import org.whispersystems.signalservice.api.messages.EnvelopeResponse
+
+class EnvelopeCommitterTest {
+
+  private val responses: List<EnvelopeResponse> = List(4) { mockk() }
+  private val jobs: List<Job> = List(4) { mockk() }
+  private val chains: List<JobManager.Chain> = List(4) { mockk() }
+
+  private val submitted = mutableListOf<Any>()
+  private var held: MutableList<Any>? = null
+
+  private val jobManager: JobManager = mockk {
+    every { holdSubmissions() } answers { held = mutableListOf() }
+    every { releaseSubmissions(any()) } answers {
+      if (firstArg()) {
+        submitted += held!!
+      }
+      held = null
+    }
+    every { add(any<Job>()) } answers { (held ?: submitted) += firstArg<Job>() }
+    every { addAllChains(any()) } answers { (held ?: submitted) += firstArg<List<JobManager.Chain>>() }
+  }
+
+  private val stores = mutableListOf<BufferedProtocolStore>()
+  private val processedWith = mutableListOf<Pair<Int, BufferedProtocolStore>>()
+  private val acked = mutableListOf<Int>()
+
+  private val failures = mutableSetOf<Int>()
+  private var failNextCommit = false
+
+  private val committer = EnvelopeCommitter(
+    jobManager = jobManager,
+    processEnvelope = { store, response ->
+      val index = responses.indexOf(response)
+      processedWith += index to store
+
+      // Like DataMessageProcessor, jobs are added while the envelope is being processed
+      jobManager.add(jobs[index])
+
+      if (failures.remove(index)) {
+        throw IllegalStateException("Failed to process envelope $index")
+      }
+
+      listOf(FollowUpOperation { chains[index] })
+    },
+    sendAck = { acked += responses.indexOf(it) },
+    runInTransaction = { block ->
+      block()
+      if (failNextCommit) {
+        failNextCommit = false
+        throw IllegalStateException("Failed to commit")
+      }
+    },
+    createStore = { mockk<BufferedProtocolStore>(relaxed = true).also { stores += it } },
+    clock = { 0 }
+  )
+
+  @Test
+  fun `commits the whole batch together`() {
+    val processedCount = committer.processInSharedTransaction(responses, maxSize = 10, maxDurationMs = 1000)
+
+    assertEquals(4, processedCount)
+    assertEquals(jobs + listOf<Any>(chains), submitted)
+    assertEquals(listOf(0, 1, 2, 3), acked)
+    assertEquals(1, stores.size)
+  }
+
+  @Test
+  fun `failure mid-batch enqueues each job exactly once`() {
+    failures += 2
+
+    val processedCount = committer.processInSharedTransaction(responses, maxSize = 10, maxDurationMs = 1000)
+
+    assertEquals(3, processedCount)
+    assertEquals(listOf(jobs[0], listOf(chains[0]), jobs[1], listOf(chains[1]), jobs[2], listOf(chains[2])), submitted)
+    assertEquals(listOf(0, 1, 2), acked)
+    assertNoHeldJobs()
+  }
+
+  @Test
+  fun `failure mid-batch retries each envelope with a fresh store`() {
+    failures += 1
+
+    committer.processInSharedTransaction(responses, maxSize = 10, maxDurationMs = 1000)
+
+    val retries = processedWith.drop(2)
+    assertEquals(listOf(0, 1), retries.map { it.first })
+    assertEquals(2, retries.map { it.second }.toSet().size)
+    assertTrue(retries.none { it.second == stores.first() })
+  }
+
+  @Test
+  fun `failure to commit retries only the envelopes in the batch`() {
+    failNextCommit = true
+
+    val processedCount = committer.processInSharedTransaction(responses, maxSize = 2, maxDurationMs = 1000)
+
+    assertEquals(2, processedCount)
+    assertEquals(listOf(0, 1, 0, 1), processedWith.map { it.first })
+    assertEquals(listOf(jobs[0], listOf(chains[0]), jobs[1], listOf(chains[1])), submitted)
+    assertEquals(listOf(0, 1), acked)
+    assertNoHeldJobs()
+  }
+
+  @Test
+  fun `failure in its own transaction drops its jobs and does not ack`() {
+    failures += 0
+
+    try {
+      committer.processInOwnTransaction(responses[0])
+      throw AssertionError("Expected the failure to be rethrown")
+    } catch (e: IllegalStateException) {
+      // Expected
+    }
+
+    assertEquals(emptyList<Any>(), submitted)
+    assertEquals(emptyList<Int>(), acked)
+    assertNoHeldJobs()
+  }
+
+  private fun assertNoHeldJobs() {
+    assertEquals(null, held)
+  }
+}
@@ -0,0 +1,133 @@
+package org.stalker.securesms.notifications.v2
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.stalker.securesms.notifications.profiles.NotificationProfile
+import java.util.concurrent.TimeUnit
+
+class NotificationStateCacheTest {
+
+  private var now = 1000L
+  private val reads: MutableList<Collection<Long>?> = mutableListOf()
+  private val cache = NotificationStateCache { now }
+
+  @Before
+  fun setUp() {
+    mockkObject(NotificationStateProvider)
+    every { NotificationStateProvider.getNotificationMessages(any(), any()) } answers {
+      reads += secondArg<Collection<Long>?>()?.toSet()
+      emptyMap()
+    }
+    every { NotificationStateProvider.constructNotificationState(any<Collection<List<NotificationStateProvider.NotificationMessage>>>(), any()) } returns NotificationState.EMPTY
+  }
+
+  @After
+  fun tearDown() {
+    unmockkObject(NotificationStateProvider)
+  }
+
+  @Test
+  fun `first update reads everything`() {
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null), reads)
+  }
+
+  @Test
+  fun `update without changes reads nothing`() {
+    cache.getState(emptyMap(), null)
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null), reads)
+  }
+
+  @Test
+  fun `update reads only written and invalidated threads`() {
+    cache.getState(emptyMap(), null)
+
+    cache.onConversationWritten(1)
+    cache.onConversationWritten(1)
+    cache.invalidate(2)
+    cache.getState(emptyMap(), null)
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null, setOf(1L, 2L)), reads)
+  }
+
+  @Test
+  fun `update reads threads that became or stopped being sticky`() {
+    val sticky = mapOf(ConversationId.forConversation(3) to DefaultMessageNotifier.StickyThread(ConversationId.forConversation(3), 30, 100))
+
+    cache.getState(emptyMap(), null)
+    cache.getState(sticky, null)
+    cache.getState(sticky, null)
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null, setOf(3L), setOf(3L)), reads)
+  }
+
+  @Test
+  fun `profile change reads everything`() {
+    val profile = mockk<NotificationProfile> {
+      every { id } returns 7
+    }
+
+    cache.getState(emptyMap(), null)
+    cache.getState(emptyMap(), profile)
+    cache.getState(emptyMap(), profile)
+
+    assertEquals(listOf(null, null), reads)
+  }
+
+  @Test
+  fun `bulk write reads everything`() {
+    cache.getState(emptyMap(), null)
+    cache.onAllConversationsWritten()
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null, null), reads)
+  }
+
+  @Test
+  fun `marking everything read drops the cached messages`() {
+    val unread = mockk<NotificationStateProvider.NotificationMessage>()
+    val states: MutableList<Collection<List<NotificationStateProvider.NotificationMessage>>> = mutableListOf()
+    var markedRead = false
+
+    every { NotificationStateProvider.getNotificationMessages(any(), any()) } answers {
+      reads += secondArg<Collection<Long>?>()?.toSet()
+      if (markedRead) emptyMap() else mapOf(1L to listOf(unread))
+    }
+    every { NotificationStateProvider.constructNotificationState(any<Collection<List<NotificationStateProvider.NotificationMessage>>>(), any()) } answers {
+      states += firstArg<Collection<List<NotificationStateProvider.NotificationMessage>>>().toList()
+      NotificationState.EMPTY
+    }
+
+    cache.getState(emptyMap(), null)
+
+    // ThreadTable.setAllThreadsRead doesn't say which threads it marked, so it reports a bulk write
+    markedRead = true
+    cache.onAllConversationsWritten()
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null, null), reads)
+    assertEquals(listOf(listOf(listOf(unread)), emptyList()), states)
+  }
+
+  @Test
+  fun `everything is read again after a while`() {
+    cache.getState(emptyMap(), null)
+    now += TimeUnit.MINUTES.toMillis(1)
+    cache.getState(emptyMap(), null)
+    now += TimeUnit.HOURS.toMillis(1)
+    cache.getState(emptyMap(), null)
+
+    assertEquals(listOf(null, null), reads)
+  }
+}
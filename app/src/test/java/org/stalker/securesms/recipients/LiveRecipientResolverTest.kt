@@ -0,0 +1,90 @@
+package org.stalker.securesms.recipients
+
+import android.app.Application
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.shadows.ShadowLooper
+import org.stalker.securesms.database.RecipientTable
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class LiveRecipientResolverTest {
+
+  private val scheduled = ArrayDeque<Runnable>()
+  private val executor = Executor { scheduled.addLast(it) }
+  private val recipientTable: RecipientTable = mockk(relaxed = true)
+
+  private var inTransaction = false
+  private val resolver = LiveRecipientResolver(executor, recipientTable, 0) { inTransaction }
+
+  @Test
+  fun `miss inside a transaction is resolved inline while a drain is pending`() {
+    val outside = resolving(1)
+    val inside = resolving(2)
+
+    resolver.enqueue(outside)
+    assertEquals(1, scheduled.size)
+
+    inTransaction = true
+    resolver.enqueue(inside)
+
+    verify(exactly = 1) { inside.resolve() }
+    assertEquals("No new drain should be scheduled", 1, scheduled.size)
+
+    inTransaction = false
+    scheduled.removeFirst().run()
+
+    verify(exactly = 1) { outside.resolve() }
+    verify(exactly = 1) { inside.resolve() }
+    verify(exactly = 0) { recipientTable.getRecords(any()) }
+  }
+
+  @Test
+  fun `misses outside a transaction are resolved together`() {
+    val first = resolving(1)
+    val second = resolving(2)
+
+    resolver.enqueue(first)
+    resolver.enqueue(second)
+    assertEquals(1, scheduled.size)
+
+    scheduled.removeFirst().run()
+
+    verify(exactly = 1) { recipientTable.getRecords(listOf(RecipientId.from(1), RecipientId.from(2))) }
+  }
+
+  @Test
+  fun `with a coalesce window, the drain is handed to the executor only once the window has passed`() {
+    val handedOff = mutableListOf<Runnable>()
+    val delayedResolver = LiveRecipientResolver({ synchronized(handedOff) { handedOff += it } }, recipientTable, 50) { false }
+
+    delayedResolver.enqueue(resolving(1))
+    val looper = shadowOf(ShadowLooper.getAllLoopers().first { it.thread.name == "signal-recipient-resolver" })
+
+    looper.idleFor(49, TimeUnit.MILLISECONDS)
+    assertEquals(0, synchronized(handedOff) { handedOff.size })
+
+    looper.idleFor(1, TimeUnit.MILLISECONDS)
+    assertEquals(1, synchronized(handedOff) { handedOff.size })
+  }
+
+  private fun resolving(id: Long): LiveRecipient {
+    val recipient: Recipient = mockk {
+      every { isResolving } returns true
+    }
+
+    return mockk(relaxed = true) {
+      every { getId() } returns RecipientId.from(id)
+      every { get() } returns recipient
+    }
+  }
+}
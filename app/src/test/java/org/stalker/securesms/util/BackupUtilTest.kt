@@ -1,5 +1,6 @@
 package org.stalker.securesms.util
 
+import android.net.Uri
 import androidx.documentfile.provider.DocumentFile
 import org.junit.Assert.assertEquals
 import org.junit.Assert.assertNotNull
@@ -10,6 +11,7 @@ import org.mockito.Mockito.doReturn
 import org.mockito.Mockito.mock
 import org.signal.core.util.logging.Log
 import org.stalker.securesms.testutil.EmptyLogger
+import java.io.IOException
 
 class BackupUtilTest {
 
@@ -70,6 +72,65 @@ class BackupUtilTest {
     assertNotNull(info)
   }
 
+  @Test
+  fun `Given only full backups, when I getBackupsToDelete, then I expect all but the newest two`() {
+    val backups = listOf(backup("c.backup"), backup("b.backup"), backup("a.backup"))
+
+    val toDelete = BackupUtil.getBackupsToDelete(backups, null) { null }
+
+    assertEquals(listOf("a.backup"), toDelete.map { it.fileName })
+  }
+
+  @Test
+  fun `Given a kept delta against an older base, when I getBackupsToDelete, then I expect its base to be kept`() {
+    val backups = listOf(backup("d2.backup"), backup("b.backup"), backup("d1.backup"), backup("a.backup"), backup("old.backup"))
+    val bases = mapOf("d2.backup" to "a.backup", "d1.backup" to "a.backup")
+
+    val toDelete = BackupUtil.getBackupsToDelete(backups, "b.backup") { bases[it.fileName] }
+
+    assertEquals(listOf("d1.backup", "old.backup"), toDelete.map { it.fileName })
+  }
+
+  @Test
+  fun `Given the base named by the manifest, when I getBackupsToDelete, then I expect it to be kept`() {
+    val backups = listOf(backup("d2.backup"), backup("d1.backup"), backup("a.backup"))
+    val bases = mapOf("d2.backup" to "a.backup", "d1.backup" to "a.backup")
+
+    val toDelete = BackupUtil.getBackupsToDelete(backups, "a.backup") { bases[it.fileName] }
+
+    assertEquals(emptyList<String>(), toDelete.map { it.fileName })
+  }
+
+  @Test
+  fun `Given a kept delta whose base is gone, when I getBackupsToDelete, then I expect it to be deleted`() {
+    val backups = listOf(backup("d.backup"), backup("b.backup"))
+
+    val toDelete = BackupUtil.getBackupsToDelete(backups, null) { if (it.fileName == "d.backup") "a.backup" else null }
+
+    assertEquals(listOf("d.backup"), toDelete.map { it.fileName })
+  }
+
+  @Test
+  fun `Given a kept backup whose header can't be read, when I getBackupsToDelete, then I expect it to be kept`() {
+    val backups = listOf(backup("d.backup"), backup("b.backup"), backup("a.backup"))
+
+    val toDelete = BackupUtil.getBackupsToDelete(backups, null) { if (it.fileName == "d.backup") throw IOException() else null }
+
+    assertEquals(listOf("a.backup"), toDelete.map { it.fileName })
+  }
+
+  @Test
+  fun `Given a document uri, when I get the file name, then I expect only the name of the file`() {
+    assertEquals("a.backup", backup("primary:Signal/Backups/a.backup").fileName)
+    assertEquals("a.backup", backup("primary:a.backup").fileName)
+  }
+
+  private fun backup(lastPathSegment: String): BackupUtil.BackupInfo {
+    val uri = mock(Uri::class.java)
+    doReturn(lastPathSegment).`when`(uri).lastPathSegment
+    return BackupUtil.BackupInfo(0, 0, uri)
+  }
+
   private fun givenFileExists() {
     doReturn(true).`when`(documentFile).exists()
   }
@@ -0,0 +1,79 @@
+package org.stalker.securesms.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentLRUCacheTest {
+
+  @Test
+  public void putIfAbsent_returnsExistingValue() {
+    ConcurrentLRUCache<String, String> subject = new ConcurrentLRUCache<>(10);
+
+    assertNull(subject.putIfAbsent("a", "1"));
+    assertEquals("1", subject.putIfAbsent("a", "2"));
+    assertEquals("1", subject.get("a"));
+  }
+
+  @Test
+  public void put_overMaxSize_evictsLeastRecentlyAccessed() {
+    ConcurrentLRUCache<Integer, Integer> subject = new ConcurrentLRUCache<>(100);
+
+    for (int i = 0; i < 100; i++) {
+      subject.put(i, i);
+    }
+
+    // Touch the oldest entry so it survives eviction
+    subject.get(0);
+
+    for (int i = 100; i < 200; i++) {
+      subject.put(i, i);
+    }
+
+    assertTrue(subject.size() <= 110);
+    assertTrue(subject.containsKey(0));
+    assertFalse(subject.containsKey(1));
+    assertTrue(subject.containsKey(199));
+  }
+
+  @Test
+  public void remove_removesEntry() {
+    ConcurrentLRUCache<String, String> subject = new ConcurrentLRUCache<>(10);
+
+    subject.put("a", "1");
+    subject.remove("a");
+
+    assertNull(subject.get("a"));
+  }
+
+  @Test
+  public void concurrentAccess_staysBounded() throws InterruptedException {
+    ConcurrentLRUCache<Integer, Integer> subject = new ConcurrentLRUCache<>(1000);
+    CountDownLatch                       latch   = new CountDownLatch(8);
+    List<Thread>                         threads = new ArrayList<>();
+
+    for (int t = 0; t < 8; t++) {
+      int offset = t * 10_000;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          subject.putIfAbsent(offset + i, i);
+          subject.get(offset + i / 2);
+        }
+        latch.countDown();
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    latch.await();
+
+    assertTrue(subject.size() <= 1100 + 8);
+  }
+}
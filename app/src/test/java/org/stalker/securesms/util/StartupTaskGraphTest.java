@@ -0,0 +1,158 @@
+package org.stalker.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StartupTaskGraphTest {
+
+  private final ExecutorService  executor = Executors.newCachedThreadPool();
+  private final StartupTaskGraph graph    = new StartupTaskGraph(() -> 0);
+  private final List<String>     finished = Collections.synchronizedList(new ArrayList<>());
+  private final Thread           caller   = Thread.currentThread();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void serial_runsEverythingOnTheCallingThreadInOrder() {
+    graph.add("a", Collections.emptyList(), false, record("a", true));
+    graph.add("b", Collections.emptyList(), true, record("b", true));
+    graph.add("c", Collections.singletonList("a"), false, record("c", true));
+
+    graph.execute(executor, true, new NoopListener());
+
+    assertEquals(Arrays.asList("a", "b", "c"), finished);
+  }
+
+  @Test
+  public void concurrent_runsTasksAfterTheirDependencies() {
+    graph.add("db", Collections.emptyList(), false, record("db", false));
+    graph.add("rx", Collections.emptyList(), true, record("rx", true));
+    graph.add("logging", Collections.singletonList("db"), true, record("logging", true, "db"));
+    graph.add("security", Collections.singletonList("logging"), false, record("security", false, "logging"));
+    graph.add("deps", Arrays.asList("logging", "rx"), true, record("deps", true, "logging", "rx"));
+    graph.add("migrations", graph.getNames(), true, record("migrations", true, "db", "rx", "logging", "security", "deps"));
+    graph.add("rtc", Collections.singletonList("migrations"), false, record("rtc", false, "migrations"));
+    graph.add("theme", Collections.singletonList("migrations"), true, record("theme", true, "migrations"));
+
+    graph.execute(executor, false, new NoopListener());
+
+    assertEquals(8, finished.size());
+    assertTrue(graph.isEmpty());
+  }
+
+  @Test
+  public void concurrent_runsIndependentBackgroundTasksAtTheSameTime() {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Runnable       waitForBoth = () -> {
+      bothStarted.countDown();
+      try {
+        assertTrue("Tasks didn't run at the same time.", bothStarted.await(5, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    };
+
+    graph.add("a", Collections.emptyList(), false, waitForBoth);
+    graph.add("b", Collections.emptyList(), false, waitForBoth);
+
+    graph.execute(executor, false, new NoopListener());
+  }
+
+  @Test
+  public void concurrent_rethrowsBackgroundFailuresWithoutRunningDependents() {
+    graph.add("a", Collections.emptyList(), false, () -> { throw new IllegalStateException("Failed!"); });
+    graph.add("b", Collections.singletonList("a"), true, record("b", true));
+    graph.add("c", Collections.singletonList("a"), false, record("c", false));
+
+    try {
+      graph.execute(executor, false, new NoopListener());
+      fail("Expected a failure!");
+    } catch (IllegalStateException e) {
+      assertEquals("Failed!", e.getMessage());
+    }
+
+    assertTrue(finished.isEmpty());
+  }
+
+  @Test
+  public void listener_isToldAboutEveryTask() {
+    List<String> started = Collections.synchronizedList(new ArrayList<>());
+    List<String> ended   = Collections.synchronizedList(new ArrayList<>());
+
+    graph.add("a", Collections.emptyList(), false, () -> {});
+    graph.add("b", Collections.singletonList("a"), true, () -> {});
+
+    graph.execute(executor, false, new StartupTaskGraph.Listener() {
+      @Override
+      public void onTaskStarted(@NonNull String name) {
+        started.add(name);
+      }
+
+      @Override
+      public void onTaskFinished(@NonNull String name, boolean onCallingThread, long wallNanos, long cpuNanos) {
+        assertEquals(name.equals("b"), onCallingThread);
+        assertTrue(wallNanos >= 0);
+        ended.add(name);
+      }
+    });
+
+    assertEquals(Arrays.asList("a", "b"), started);
+    assertEquals(Arrays.asList("a", "b"), ended);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_rejectsDependenciesThatWerentAdded() {
+    graph.add("a", Collections.singletonList("b"), true, () -> {});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_rejectsDuplicateNames() {
+    graph.add("a", Collections.emptyList(), true, () -> {});
+    graph.add("a", Collections.emptyList(), false, () -> {});
+  }
+
+  private @NonNull Runnable record(@NonNull String name, boolean onCallingThread, @NonNull String... dependencies) {
+    return () -> {
+      for (String dependency : dependencies) {
+        assertTrue(name + " ran before " + dependency, finished.contains(dependency));
+      }
+
+      if (onCallingThread) {
+        assertEquals(caller, Thread.currentThread());
+      } else {
+        assertNotEquals(caller, Thread.currentThread());
+      }
+
+      assertFalse(finished.contains(name));
+      finished.add(name);
+    };
+  }
+
+  private static final class NoopListener implements StartupTaskGraph.Listener {
+    @Override
+    public void onTaskStarted(@NonNull String name) {}
+
+    @Override
+    public void onTaskFinished(@NonNull String name, boolean onCallingThread, long wallNanos, long cpuNanos) {}
+  }
+}
@@ -31,18 +31,27 @@ class StartupBenchmarks {
     measureStartup(5, CompilationMode.Partial())
   }
 
+  /**
+   * Same as [coldStartBaselineProfile], but with the blocking startup tasks run one at a time on the main thread, the way they were before
+   * they declared dependencies. Compare the two to see what running them concurrently buys.
+   */
+  @Test
+  fun coldStartBaselineProfileSerial() {
+    measureStartup(5, CompilationMode.Partial(), setupType = "cold-start-serial")
+  }
+
   @OptIn(ExperimentalMetricApi::class)
-  private fun measureStartup(iterations: Int, compilationMode: CompilationMode) {
+  private fun measureStartup(iterations: Int, compilationMode: CompilationMode, setupType: String = "cold-start") {
     var setup = false
     benchmarkRule.measureRepeated(
       packageName = "org.stalker.securesms",
-      metrics = listOf(StartupTimingMetric(), TraceSectionMetric("ConversationListDataSource#load")),
+      metrics = listOf(StartupTimingMetric(), TraceSectionMetric("AppStartup#blocking"), TraceSectionMetric("ConversationListDataSource#load")),
       iterations = iterations,
       startupMode = StartupMode.COLD,
       compilationMode = compilationMode,
       setupBlock = {
         if (!setup) {
-          BenchmarkSetup.setup("cold-start", device)
+          BenchmarkSetup.setup(setupType, device)
 
           killProcess()
           dropKernelPageCache()
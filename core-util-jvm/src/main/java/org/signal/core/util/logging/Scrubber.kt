@@ -77,6 +77,21 @@ object Scrubber {
   private val CALL_LINK_PATTERN = Pattern.compile("([bBcCdDfFgGhHkKmMnNpPqQrRsStTxXzZ]{4})(-[bBcCdDfFgGhHkKmMnNpPqQrRsStTxXzZ]{4}){7}")
   private const val CALL_LINK_CENSOR_SUFFIX = "-XXXX-XXXX-XXXX-XXXX-XXXX-XXXX-XXXX"
 
+  private const val HAS_PLUS_OR_PERCENT = 1
+  private const val HAS_DIGIT_RUN_7 = 1 shl 1
+  private const val HAS_DIGIT_RUN_11 = 1 shl 2
+  private const val HAS_AT = 1 shl 3
+  private const val HAS_BANG = 1 shl 4
+  private const val HAS_COLON = 1 shl 5
+  private const val HAS_COLON_3 = 1 shl 6
+  private const val HAS_HYPHEN = 1 shl 7
+  private const val HAS_DOT = 1 shl 8
+
+  /** Don't let a single huge log line pin a huge buffer to a thread forever. */
+  private const val MAX_RETAINED_BUFFER_SIZE = 16 * 1024
+
+  private val STATE: ThreadLocal<ScrubState> = ThreadLocal.withInitial { ScrubState() }
+
   @JvmStatic
   @Volatile
   var identifierHmacKeyProvider: () -> ByteArray? = { null }
@@ -87,46 +102,187 @@ object Scrubber {
 
   @JvmStatic
   fun scrub(input: CharSequence): CharSequence {
-    return input
-      .scrubE164()
-      .scrubE164Zero()
-      .scrubEmail()
-      .scrubGroupsV1()
-      .scrubGroupsV2()
-      .scrubPnis()
-      .scrubUuids()
-      .scrubDomains()
-      .scrubIpv4()
-      .scrubIpv6()
-      .scrubCallLinkKeys()
-  }
-
-  private fun CharSequence.scrubE164(): CharSequence {
-    return scrub(this, E164_PATTERN) { matcher, output ->
+    var features: Int = scan(input)
+
+    if (features == 0) {
+      return input
+    }
+
+    val state: ScrubState = STATE.get()!!
+    var current: CharSequence = input
+    var updated: CharSequence
+
+    if (features.has(HAS_PLUS_OR_PERCENT or HAS_DIGIT_RUN_7)) {
+      updated = current.scrubE164(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_DIGIT_RUN_11)) {
+      updated = current.scrubE164Zero(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_AT)) {
+      updated = current.scrubEmail(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_BANG)) {
+      updated = current.scrubGroupsV1(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_BANG)) {
+      updated = current.scrubGroupsV2(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_COLON)) {
+      updated = current.scrubPnis(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_HYPHEN)) {
+      updated = current.scrubUuids(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_DOT)) {
+      updated = current.scrubDomains(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_DOT)) {
+      updated = current.scrubIpv4(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_COLON_3)) {
+      updated = current.scrubIpv6(state)
+      if (updated !== current) {
+        current = updated
+        features = scan(current)
+      }
+    }
+
+    if (features.has(HAS_HYPHEN)) {
+      current = current.scrubCallLinkKeys(state)
+    }
+
+    return if (current === input) {
+      input
+    } else {
+      val output = current.toString()
+      state.trim()
+      output
+    }
+  }
+
+  /**
+   * Walks the input once, recording which of the characters that our patterns depend on are present. Every pattern has at least one
+   * feature it can't match without, so any pattern whose features are missing can be skipped entirely. Most log lines end up skipping
+   * most (or all) of the patterns.
+   *
+   * Matches are rare, so when a pass does rewrite the text we just rescan it. That keeps the gating exact, and later passes see the same
+   * text they always have.
+   */
+  private fun scan(input: CharSequence): Int {
+    var features = 0
+    var digitRun = 0
+    var colons = 0
+
+    for (i in 0 until input.length) {
+      val c = input[i]
+
+      if (c in '0'..'9') {
+        digitRun++
+        if (digitRun >= 7) {
+          features = features or HAS_DIGIT_RUN_7
+        }
+        if (digitRun >= 11) {
+          features = features or HAS_DIGIT_RUN_11
+        }
+        continue
+      }
+
+      digitRun = 0
+
+      when (c) {
+        '+', '%' -> features = features or HAS_PLUS_OR_PERCENT
+        '@' -> features = features or HAS_AT
+        '!' -> features = features or HAS_BANG
+        '-' -> features = features or HAS_HYPHEN
+        '.' -> features = features or HAS_DOT
+        ':' -> {
+          colons++
+          features = features or HAS_COLON
+          if (colons >= 3) {
+            features = features or HAS_COLON_3
+          }
+        }
+      }
+    }
+
+    return features
+  }
+
+  private fun Int.has(required: Int): Boolean {
+    return (this and required) == required
+  }
+
+  private fun CharSequence.scrubE164(state: ScrubState): CharSequence {
+    return scrub(this, state.e164, state) { matcher, output ->
       output
         .append("E164:")
         .append(hash(matcher.group(2)))
     }
   }
 
-  private fun CharSequence.scrubE164Zero(): CharSequence {
-    return scrub(this, E164_ZERO_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubE164Zero(state: ScrubState): CharSequence {
+    return scrub(this, state.e164Zero, state) { matcher, output ->
       output
         .append("E164:")
         .append(hash(matcher.group(1)))
     }
   }
 
-  private fun CharSequence.scrubEmail(): CharSequence {
-    return scrub(this, CRUDE_EMAIL_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubEmail(state: ScrubState): CharSequence {
+    return scrub(this, state.email, state) { matcher, output ->
       output
         .append(matcher.group(1))
         .append(EMAIL_CENSOR)
     }
   }
 
-  private fun CharSequence.scrubGroupsV1(): CharSequence {
-    return scrub(this, GROUP_ID_V1_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubGroupsV1(state: ScrubState): CharSequence {
+    return scrub(this, state.groupV1, state) { matcher, output ->
       output
         .append(matcher.group(1))
         .append(GROUP_ID_V1_CENSOR)
@@ -134,8 +290,8 @@ object Scrubber {
     }
   }
 
-  private fun CharSequence.scrubGroupsV2(): CharSequence {
-    return scrub(this, GROUP_ID_V2_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubGroupsV2(state: ScrubState): CharSequence {
+    return scrub(this, state.groupV2, state) { matcher, output ->
       output
         .append(matcher.group(1))
         .append(GROUP_ID_V2_CENSOR)
@@ -143,16 +299,16 @@ object Scrubber {
     }
   }
 
-  private fun CharSequence.scrubPnis(): CharSequence {
-    return scrub(this, PNI_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubPnis(state: ScrubState): CharSequence {
+    return scrub(this, state.pni, state) { matcher, output ->
       output
         .append("PNI:")
         .append(hash(matcher.group(1)))
     }
   }
 
-  private fun CharSequence.scrubUuids(): CharSequence {
-    return scrub(this, UUID_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubUuids(state: ScrubState): CharSequence {
+    return scrub(this, state.uuid, state) { matcher, output ->
       if (matcher.group(1) != null && matcher.group(1)!!.isNotEmpty()) {
         output
           .append(matcher.group(1))
@@ -166,8 +322,8 @@ object Scrubber {
     }
   }
 
-  private fun CharSequence.scrubDomains(): CharSequence {
-    return scrub(this, DOMAIN_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubDomains(state: ScrubState): CharSequence {
+    return scrub(this, state.domain, state) { matcher, output ->
       val match: String = matcher.group(0)!!
       if (matcher.groupCount() == 2 && TOP_100_TLDS.contains(matcher.group(2)!!.lowercase()) && !match.endsWith("signal.org")) {
         output
@@ -179,16 +335,16 @@ object Scrubber {
     }
   }
 
-  private fun CharSequence.scrubIpv4(): CharSequence {
-    return scrub(this, IPV4_PATTERN) { _, output -> output.append(IPV4_CENSOR) }
+  private fun CharSequence.scrubIpv4(state: ScrubState): CharSequence {
+    return scrub(this, state.ipv4, state) { _, output -> output.append(IPV4_CENSOR) }
   }
 
-  private fun CharSequence.scrubIpv6(): CharSequence {
-    return scrub(this, IPV6_PATTERN) { _, output -> output.append(IPV6_CENSOR) }
+  private fun CharSequence.scrubIpv6(state: ScrubState): CharSequence {
+    return scrub(this, state.ipv6, state) { _, output -> output.append(IPV6_CENSOR) }
   }
 
-  private fun CharSequence.scrubCallLinkKeys(): CharSequence {
-    return scrub(this, CALL_LINK_PATTERN) { matcher, output ->
+  private fun CharSequence.scrubCallLinkKeys(state: ScrubState): CharSequence {
+    return scrub(this, state.callLink, state) { matcher, output ->
       val match = matcher.group(1)
       output
         .append(match)
@@ -196,24 +352,28 @@ object Scrubber {
     }
   }
 
-  private fun scrub(input: CharSequence, pattern: Pattern, processMatch: MatchProcessor): CharSequence {
-    val output = StringBuilder(input.length)
-    val matcher: Matcher = pattern.matcher(input)
+  /**
+   * Runs the matcher over the input, writing into whichever of the thread's reusable buffers isn't currently holding the input.
+   * If there are no matches, the input is returned as-is and nothing is copied.
+   */
+  private fun scrub(input: CharSequence, matcher: Matcher, state: ScrubState, processMatch: MatchProcessor): CharSequence {
+    matcher.reset(input)
+
+    if (!matcher.find()) {
+      return input
+    }
+
+    val output: StringBuilder = state.bufferOtherThan(input)
     var lastEndingPos = 0
 
-    while (matcher.find()) {
+    do {
       output.append(input, lastEndingPos, matcher.start())
       processMatch(matcher, output)
       lastEndingPos = matcher.end()
-    }
+    } while (matcher.find())
 
-    return if (lastEndingPos == 0) {
-      // there were no matches, save copying all the data
-      input
-    } else {
-      output.append(input, lastEndingPos, input.length)
-      output
-    }
+    output.append(input, lastEndingPos, input.length)
+    return output
   }
 
   private fun hash(value: String): String {
@@ -225,4 +385,40 @@ object Scrubber {
     val hash = CryptoUtil.hmacSha256(key, value.toByteArray())
     return "<${Hex.toStringCondensed(hash).take(5)}>"
   }
+
+  /**
+   * Per-thread matchers and a pair of buffers that the passes alternate between, so that scrubbing a line doesn't need to allocate
+   * anything beyond the final output string.
+   */
+  private class ScrubState {
+    val e164: Matcher = E164_PATTERN.matcher("")
+    val e164Zero: Matcher = E164_ZERO_PATTERN.matcher("")
+    val email: Matcher = CRUDE_EMAIL_PATTERN.matcher("")
+    val groupV1: Matcher = GROUP_ID_V1_PATTERN.matcher("")
+    val groupV2: Matcher = GROUP_ID_V2_PATTERN.matcher("")
+    val pni: Matcher = PNI_PATTERN.matcher("")
+    val uuid: Matcher = UUID_PATTERN.matcher("")
+    val domain: Matcher = DOMAIN_PATTERN.matcher("")
+    val ipv4: Matcher = IPV4_PATTERN.matcher("")
+    val ipv6: Matcher = IPV6_PATTERN.matcher("")
+    val callLink: Matcher = CALL_LINK_PATTERN.matcher("")
+
+    private var first = StringBuilder()
+    private var second = StringBuilder()
+
+    fun bufferOtherThan(input: CharSequence): StringBuilder {
+      val buffer = if (input === first) second else first
+      buffer.setLength(0)
+      return buffer
+    }
+
+    fun trim() {
+      if (first.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+        first = StringBuilder()
+      }
+      if (second.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+        second = StringBuilder()
+      }
+    }
+  }
 }
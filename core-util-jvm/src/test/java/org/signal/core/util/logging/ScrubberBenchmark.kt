@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.signal.core.util.logging
+
+import org.junit.BeforeClass
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Measures [Scrubber.scrub] against a mix of the kinds of lines we actually log. Not run as part of the normal test suite --
+ * remove the [Ignore] and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+class ScrubberBenchmark {
+
+  @Test
+  fun `typical lines`() {
+    benchmark("typical", TYPICAL_LINES)
+  }
+
+  @Test
+  fun `lines with nothing to scrub`() {
+    benchmark("clean", CLEAN_LINES)
+  }
+
+  @Test
+  fun `adversarial lines`() {
+    benchmark("adversarial", ADVERSARIAL_LINES)
+  }
+
+  private fun benchmark(name: String, lines: List<String>) {
+    for (i in 0 until WARMUP) {
+      Scrubber.scrub(lines[i % lines.size])
+    }
+
+    val start = System.nanoTime()
+    var totalLength = 0L
+    for (i in 0 until ITERATIONS) {
+      totalLength += Scrubber.scrub(lines[i % lines.size]).length
+    }
+    val elapsed = System.nanoTime() - start
+
+    println("[$name] ${elapsed / ITERATIONS} ns/line (output chars: $totalLength)")
+  }
+
+  companion object {
+    private const val WARMUP = 100_000
+    private const val ITERATIONS = 1_000_000
+
+    private val CLEAN_LINES = listOf(
+      "[main] D ConversationFragment: Loaded 50 items in 12 ms",
+      "[JobRunner-1] I JobManager: Job finished with result SUCCESS",
+      "[signal-websocket] I WebSocketConnection: onMessage() was called",
+      "[main] W ApplicationContext: onStart()"
+    )
+
+    private val TYPICAL_LINES = CLEAN_LINES + listOf(
+      "[JobRunner-2] I PushProcessMessageJob: [1697123456789] Processing message from RecipientId::1234",
+      "[JobRunner-3] I JobController: [JOB::12345678-1234-1234-1234-123456789012][SendDeliveryReceiptJob] Job finished with result SUCCESS in 12 ms.",
+      "[signal-websocket] I WebSocketConnection: Connecting to wss://chat.signal.org/v1/websocket/",
+      "[main] I DnsResolver: Resolved cdn.example.com to 192.168.1.1"
+    )
+
+    private val ADVERSARIAL_LINES = listOf(
+      "a".repeat(2_000) + "@" + "b".repeat(2_000),
+      "1".repeat(4_000),
+      ":".repeat(4_000),
+      "a.".repeat(2_000),
+      "bcdf-".repeat(800),
+      "+15551234567 test@example.com __signal_group__v2__!abcdef PNI:12345678-1234-1234-1234-123456789012 fe80::1:2:3 example.com"
+    )
+  }
+}
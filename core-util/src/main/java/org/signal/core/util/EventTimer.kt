@@ -22,6 +22,7 @@ import kotlin.time.DurationUnit
 class EventTimer {
 
   private val durationsByGroup: MutableMap<String, MutableList<Long>> = mutableMapOf()
+  private val counters: MutableMap<String, Long> = mutableMapOf()
 
   private val startTime = System.nanoTime()
   private var lastTimeNanos: Long = startTime
@@ -38,6 +39,14 @@ class EventTimer {
     lastTimeNanos = now
   }
 
+  /**
+   * Records a count that isn't an event, but is useful context for the timings, like how much other work was going on at the same time.
+   * Shows up at the end of the summary.
+   */
+  fun count(name: String, value: Long) {
+    counters[name] = value
+  }
+
   /**
    * Stops the timer and returns a mapping of group -> [EventMetrics], which will tell you various statistics around timings for that group.
    */
@@ -53,10 +62,10 @@ class EventTimer {
         )
       }
 
-    return EventTimerResults(data)
+    return EventTimerResults(data, counters.toMap())
   }
 
-  class EventTimerResults(data: Map<String, EventMetrics>) : Map<String, EventMetrics> by data {
+  class EventTimerResults(data: Map<String, EventMetrics>, val counters: Map<String, Long> = emptyMap()) : Map<String, EventMetrics> by data {
     val summary by lazy {
       val builder = StringBuilder()
 
@@ -66,6 +75,10 @@ class EventTimer {
         builder.append("[${entry.key}] totalTime: ${entry.value.totalTime.roundedString(2)}, count: ${entry.value.eventCount}, p50: ${entry.value.p(50)}, p90: ${entry.value.p(90)}, p99: ${entry.value.p(99)} ")
       }
 
+      for (entry in counters) {
+        builder.append("[${entry.key}] ${entry.value} ")
+      }
+
       builder.toString()
     }
   }
@@ -0,0 +1,93 @@
+package org.signal.core.util
+
+/**
+ * Folds characters into keys such that whenever a pattern from [SqlUtil.buildCaseInsensitiveGlobPattern] matches a character of text
+ * against a character of the query, the text character folds to one of the keys [foldMatching] gives for the query character.
+ *
+ * That lets an in-memory index over folded text find at least everything the GLOB would.
+ */
+object GlobFolding {
+
+  /** The characters [SqlUtil.buildCaseInsensitiveGlobPattern] knows accented forms of. */
+  private val ACCENTED_CHARACTERS: List<String> = ('a'..'z').map { it.toString() } + listOf("α", "ε", "η", "ι", "ο", "σ", "ς", "υ", "ω")
+
+  private val folds: Map<Int, Int> by lazy {
+    val folds: MutableMap<Int, Int> = HashMap()
+
+    for (character in ACCENTED_CHARACTERS) {
+      val codePoint = character.codePointAt(0)
+      val key = folds[codePoint] ?: codePoint
+
+      for (member in getCharacterClassMembers(character)) {
+        folds.putIfAbsent(member, key)
+      }
+    }
+
+    folds
+  }
+
+  /** Keys for the characters most text is made of, so they don't have to be looked up one by one. */
+  private val foldTable: IntArray by lazy {
+    IntArray(FOLD_TABLE_SIZE) { computeFold(it) }
+  }
+
+  private const val FOLD_TABLE_SIZE = 0x3000
+
+  /**
+   * The key for a single character of text.
+   */
+  @JvmStatic
+  fun fold(codePoint: Int): Int {
+    return if (codePoint in 0 until FOLD_TABLE_SIZE) foldTable[codePoint] else computeFold(codePoint)
+  }
+
+  private fun computeFold(codePoint: Int): Int {
+    val lowercase = Character.toLowerCase(codePoint)
+    return folds[codePoint] ?: folds[lowercase] ?: lowercase
+  }
+
+  /**
+   * Every key a character of text can fold to if the GLOB character class built for [codePoint] matches it.
+   */
+  @JvmStatic
+  fun foldMatching(codePoint: Int): IntArray {
+    return getCharacterClassMembers(StringUtil.codePointToString(codePoint)).map { fold(it) }.distinct().toIntArray()
+  }
+
+  /**
+   * Expands the character class built for [character] into the characters it matches, reading ranges the way SQLite does.
+   */
+  private fun getCharacterClassMembers(character: String): List<Int> {
+    val characterClass = SqlUtil.buildCaseInsensitiveGlobCharacterClass(character)
+    val codePoints: MutableList<Int> = ArrayList(characterClass.length)
+
+    var offset = 0
+    while (offset < characterClass.length) {
+      val codePoint = characterClass.codePointAt(offset)
+      codePoints += codePoint
+      offset += Character.charCount(codePoint)
+    }
+
+    val members: MutableList<Int> = ArrayList()
+    var prior = -1
+    var i = 0
+
+    while (i < codePoints.size) {
+      val codePoint = codePoints[i]
+
+      if (codePoint == '-'.code && prior > 0 && i + 1 < codePoints.size) {
+        for (member in prior + 1..codePoints[i + 1]) {
+          members += member
+        }
+        prior = -1
+        i += 2
+      } else {
+        members += codePoint
+        prior = codePoint
+        i++
+      }
+    }
+
+    return members
+  }
+}
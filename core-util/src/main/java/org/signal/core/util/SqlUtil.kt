@@ -178,9 +178,7 @@ object SqlUtil {
     while (i < len) {
       val point = StringUtil.codePointToString(query.codePointAt(i))
       pattern.append("[")
-      pattern.append(point.lowercase(Locale.getDefault()))
-      pattern.append(point.uppercase(Locale.getDefault()))
-      pattern.append(getAccentuatedCharRegex(point.lowercase(Locale.getDefault())))
+      pattern.append(buildCaseInsensitiveGlobCharacterClass(point))
       pattern.append("]")
       i++
     }
@@ -188,6 +186,14 @@ object SqlUtil {
     return "*$pattern*"
   }
 
+  /**
+   * The contents of the character class [buildCaseInsensitiveGlobPattern] uses to match [point], without the surrounding brackets.
+   */
+  internal fun buildCaseInsensitiveGlobCharacterClass(point: String): String {
+    val lowercase = point.lowercase(Locale.getDefault())
+    return lowercase + point.uppercase(Locale.getDefault()) + getAccentuatedCharRegex(lowercase)
+  }
+
   private fun getAccentuatedCharRegex(query: String): String {
     return when (query) {
       "a" -> "À-Åà-åĀ-ąǍǎǞ-ǡǺ-ǻȀ-ȃȦȧȺɐ-ɒḀḁẚẠ-ặ"
@@ -0,0 +1,44 @@
+package org.signal.core.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class GlobFoldingTest {
+
+  @Test
+  fun `case and accents fold to the same key`() {
+    val key = GlobFolding.fold('e'.code)
+
+    for (character in listOf('E', 'é', 'É', 'ë', 'ẽ')) {
+      assertEquals("$character", key, GlobFolding.fold(character.code))
+    }
+  }
+
+  @Test
+  fun `both sigmas fold to the same key`() {
+    assertEquals(GlobFolding.fold('σ'.code), GlobFolding.fold('ς'.code))
+    assertEquals(GlobFolding.fold('σ'.code), GlobFolding.fold('Σ'.code))
+  }
+
+  @Test
+  fun `characters without accents fold to themselves`() {
+    assertArrayEquals(intArrayOf('1'.code), GlobFolding.foldMatching('1'.code))
+    assertArrayEquals(intArrayOf(' '.code), GlobFolding.foldMatching(' '.code))
+  }
+
+  @Test
+  fun `every character a GLOB character class matches folds to one of its keys`() {
+    for (query in "abcdefghijklmnopqrstuvwxyzAEIOUÀéÑßαεηιοσςυωΣΩ") {
+      val characterClass = Regex("[${SqlUtil.buildCaseInsensitiveGlobCharacterClass(query.toString())}]")
+      val keys = GlobFolding.foldMatching(query.code).toSet()
+
+      for (codePoint in 0..0x2FFF) {
+        if (characterClass.matches(StringUtil.codePointToString(codePoint))) {
+          assertTrue("$query should match ${StringUtil.codePointToString(codePoint)}", GlobFolding.fold(codePoint) in keys)
+        }
+      }
+    }
+  }
+}
@@ -1,15 +1,36 @@
 package org.whispersystems.signalservice.api;
 
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+
 import java.io.Closeable;
+import java.util.Collection;
 
 /**
  * An interface to allow the injection of a lock that will be used to keep interactions with
  * ecryptions/decryptions thread-safe.
+ *
+ * {@link #acquire()} is the global lock, and excludes all other session work. The address-scoped
+ * variants only need to exclude work on the same addresses, and by default fall back to the global
+ * lock.
  */
 public interface SignalSessionLock {
 
   Lock acquire();
 
+  /**
+   * Acquires a lock covering all sessions for the name of the provided address.
+   */
+  default Lock acquire(SignalProtocolAddress address) {
+    return acquire();
+  }
+
+  /**
+   * Acquires a lock covering all sessions for the names of all of the provided addresses.
+   */
+  default Lock acquire(Collection<SignalProtocolAddress> addresses) {
+    return acquire();
+  }
+
   interface Lock extends Closeable {
     @Override
     void close();
@@ -0,0 +1,202 @@
+package org.whispersystems.signalservice.api;
+
+import org.signal.libsignal.protocol.SignalProtocolAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link SignalSessionLock} that lets session work for different addresses run in parallel.
+ *
+ * Address names are hashed onto a fixed number of reentrant stripes, so every device of a recipient shares a stripe. The global lock
+ * ({@link #acquire()}) takes every stripe, so it still excludes all other session work, and is what should be used for operations that
+ * span many addresses, like identity changes or archiving all sessions.
+ *
+ * To stay deadlock-free:
+ * - A thread that holds an address lock must not ask for the global lock. Doing so throws instead of risking a deadlock.
+ * - Locks for multiple addresses never wait while holding a stripe. If a stripe is busy, everything taken so far is released and we
+ *   try again once it frees up.
+ * - While the global lock is held, address locks are free.
+ */
+public final class StripedSessionLock implements SignalSessionLock {
+
+  public static final int DEFAULT_STRIPE_COUNT = 64;
+
+  private static final Lock NO_OP = () -> {};
+
+  private final ReentrantLock   globalLock;
+  private final ReentrantLock[] stripes;
+  private final ThreadLocal<int[]> addressHolds;
+
+  /** Guarded by {@link #globalLock}. */
+  private int globalHolds;
+
+  public StripedSessionLock() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  public StripedSessionLock(int stripeCount) {
+    this.globalLock   = new ReentrantLock();
+    this.stripes      = new ReentrantLock[stripeCount];
+    this.addressHolds = new ThreadLocal<int[]>() {
+      @Override
+      protected int[] initialValue() {
+        return new int[1];
+      }
+    };
+
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  @Override
+  public Lock acquire() {
+    if (addressHolds.get()[0] > 0 && !globalLock.isHeldByCurrentThread()) {
+      throw new IllegalStateException("Tried to acquire the global session lock while holding an address lock!");
+    }
+
+    globalLock.lock();
+
+    if (globalHolds++ == 0) {
+      for (ReentrantLock stripe : stripes) {
+        stripe.lock();
+      }
+    }
+
+    return this::releaseGlobal;
+  }
+
+  @Override
+  public Lock acquire(SignalProtocolAddress address) {
+    return acquire(address.getName());
+  }
+
+  @Override
+  public Lock acquire(Collection<SignalProtocolAddress> addresses) {
+    List<String> names = new ArrayList<>(addresses.size());
+    for (SignalProtocolAddress address : addresses) {
+      names.add(address.getName());
+    }
+    return acquireAll(names);
+  }
+
+  /**
+   * Acquires the lock for a single address name (e.g. a ServiceId string).
+   */
+  public Lock acquire(String addressName) {
+    if (globalLock.isHeldByCurrentThread()) {
+      return NO_OP;
+    }
+
+    ReentrantLock stripe = stripes[stripeIndex(addressName)];
+    int[]         holds  = addressHolds.get();
+
+    stripe.lock();
+    holds[0]++;
+
+    return () -> {
+      holds[0]--;
+      stripe.unlock();
+    };
+  }
+
+  /**
+   * Acquires the lock for all of the provided address names.
+   */
+  public Lock acquireAll(Collection<String> addressNames) {
+    if (globalLock.isHeldByCurrentThread() || addressNames.isEmpty()) {
+      return NO_OP;
+    }
+
+    int[] indices = stripeIndices(addressNames);
+
+    if (indices.length == 1) {
+      return acquire(addressNames.iterator().next());
+    }
+
+    while (true) {
+      int contended = tryLockAll(indices);
+
+      if (contended < 0) {
+        break;
+      }
+
+      stripes[contended].lock();
+      stripes[contended].unlock();
+    }
+
+    int[] holds = addressHolds.get();
+    holds[0] += indices.length;
+
+    return () -> {
+      holds[0] -= indices.length;
+      for (int i = indices.length - 1; i >= 0; i--) {
+        stripes[indices[i]].unlock();
+      }
+    };
+  }
+
+  /**
+   * True if the current thread holds the global lock or any address lock.
+   */
+  public boolean isHeldByCurrentThread() {
+    return globalLock.isHeldByCurrentThread() || addressHolds.get()[0] > 0;
+  }
+
+  /**
+   * Locks all of the stripes at the given (sorted) indices, or none of them.
+   *
+   * @return -1 if everything was locked, otherwise the index of the stripe that was busy.
+   */
+  private int tryLockAll(int[] indices) {
+    for (int i = 0; i < indices.length; i++) {
+      if (!stripes[indices[i]].tryLock()) {
+        for (int j = i - 1; j >= 0; j--) {
+          stripes[indices[j]].unlock();
+        }
+        return indices[i];
+      }
+    }
+    return -1;
+  }
+
+  private void releaseGlobal() {
+    if (--globalHolds == 0) {
+      for (int i = stripes.length - 1; i >= 0; i--) {
+        stripes[i].unlock();
+      }
+    }
+
+    globalLock.unlock();
+  }
+
+  private int[] stripeIndices(Collection<String> addressNames) {
+    int[] indices = new int[addressNames.size()];
+    int   i       = 0;
+
+    for (String name : addressNames) {
+      indices[i++] = stripeIndex(name);
+    }
+
+    Arrays.sort(indices);
+
+    int unique = 0;
+    for (int j = 0; j < indices.length; j++) {
+      if (j == 0 || indices[j] != indices[j - 1]) {
+        indices[unique++] = indices[j];
+      }
+    }
+
+    return Arrays.copyOf(indices, unique);
+  }
+
+  private int stripeIndex(String addressName) {
+    int hash = addressName.hashCode();
+    hash ^= (hash >>> 16);
+    return (hash & Integer.MAX_VALUE) % stripes.length;
+  }
+}
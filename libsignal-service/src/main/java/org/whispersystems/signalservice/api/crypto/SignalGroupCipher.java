@@ -4,6 +4,7 @@ import org.signal.libsignal.protocol.DuplicateMessageException;
 import org.signal.libsignal.protocol.InvalidMessageException;
 import org.signal.libsignal.protocol.LegacyMessageException;
 import org.signal.libsignal.protocol.NoSessionException;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.groups.GroupCipher;
 import org.signal.libsignal.protocol.message.CiphertextMessage;
 import org.whispersystems.signalservice.api.SignalSessionLock;
@@ -15,16 +16,18 @@ import java.util.UUID;
  */
 public class SignalGroupCipher {
 
-  private final SignalSessionLock lock;
-  private final GroupCipher       cipher;
+  private final SignalSessionLock     lock;
+  private final GroupCipher           cipher;
+  private final SignalProtocolAddress senderAddress;
 
-  public SignalGroupCipher(SignalSessionLock lock, GroupCipher cipher) {
-    this.lock   = lock;
-    this.cipher = cipher;
+  public SignalGroupCipher(SignalSessionLock lock, GroupCipher cipher, SignalProtocolAddress senderAddress) {
+    this.lock          = lock;
+    this.cipher        = cipher;
+    this.senderAddress = senderAddress;
   }
 
   public CiphertextMessage encrypt(UUID distributionId, byte[] paddedPlaintext) throws NoSessionException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(senderAddress)) {
       return cipher.encrypt(distributionId, paddedPlaintext);
     }
   }
@@ -32,7 +35,7 @@ public class SignalGroupCipher {
   public byte[] decrypt(byte[] senderKeyMessageBytes)
       throws LegacyMessageException, DuplicateMessageException, InvalidMessageException, NoSessionException
   {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(senderAddress)) {
       return cipher.decrypt(senderKeyMessageBytes);
     }
   }
@@ -22,13 +22,13 @@ public class SignalGroupSessionBuilder {
   }
 
   public void process(SignalProtocolAddress sender, SenderKeyDistributionMessage senderKeyDistributionMessage) {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(sender)) {
       builder.process(sender, senderKeyDistributionMessage);
     }
   }
 
   public SenderKeyDistributionMessage create(SignalProtocolAddress sender, UUID distributionId) {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(sender)) {
       return builder.create(sender, distributionId);
     }
   }
@@ -46,7 +46,7 @@ public class SignalSealedSessionCipher {
   public byte[] encrypt(SignalProtocolAddress destinationAddress, UnidentifiedSenderMessageContent content)
       throws InvalidKeyException, UntrustedIdentityException
   {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(destinationAddress)) {
       return cipher.encrypt(destinationAddress, content);
     }
   }
@@ -54,7 +54,7 @@ public class SignalSealedSessionCipher {
   public byte[] multiRecipientEncrypt(List<SignalProtocolAddress> recipients, Map<SignalProtocolAddress, SessionRecord> sessionMap, UnidentifiedSenderMessageContent content)
       throws InvalidKeyException, UntrustedIdentityException, NoSessionException, InvalidRegistrationIdException
   {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(recipients)) {
       List<SessionRecord> recipientSessions = recipients.stream().map(sessionMap::get).collect(Collectors.toList());
 
       if (recipientSessions.contains(null)) {
@@ -65,6 +65,9 @@ public class SignalSealedSessionCipher {
     }
   }
 
+  /**
+   * The sender isn't known until the message is unsealed, so this takes the global lock.
+   */
   public SealedSessionCipher.DecryptionResult decrypt(CertificateValidator validator, byte[] ciphertext, long timestamp) throws InvalidMetadataMessageException, InvalidMetadataVersionException, ProtocolInvalidMessageException, ProtocolInvalidKeyException, ProtocolNoSessionException, ProtocolLegacyMessageException, ProtocolInvalidVersionException, ProtocolDuplicateMessageException, ProtocolInvalidKeyIdException, ProtocolUntrustedIdentityException, SelfSendException {
     try (SignalSessionLock.Lock unused = lock.acquire()) {
       return cipher.decrypt(validator, ciphertext, timestamp);
@@ -72,13 +75,13 @@ public class SignalSealedSessionCipher {
   }
 
   public int getSessionVersion(SignalProtocolAddress remoteAddress) {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(remoteAddress)) {
       return cipher.getSessionVersion(remoteAddress);
     }
   }
 
   public int getRemoteRegistrationId(SignalProtocolAddress remoteAddress) {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(remoteAddress)) {
       return cipher.getRemoteRegistrationId(remoteAddress);
     }
   }
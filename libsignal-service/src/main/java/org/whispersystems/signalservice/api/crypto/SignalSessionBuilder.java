@@ -2,6 +2,7 @@ package org.whispersystems.signalservice.api.crypto;
 
 import org.signal.libsignal.protocol.InvalidKeyException;
 import org.signal.libsignal.protocol.SessionBuilder;
+import org.signal.libsignal.protocol.SignalProtocolAddress;
 import org.signal.libsignal.protocol.UntrustedIdentityException;
 import org.signal.libsignal.protocol.state.PreKeyBundle;
 import org.whispersystems.signalservice.api.SignalSessionLock;
@@ -11,16 +12,18 @@ import org.whispersystems.signalservice.api.SignalSessionLock;
  */
 public class SignalSessionBuilder {
 
-  private final SignalSessionLock lock;
-  private final SessionBuilder    builder;
+  private final SignalSessionLock     lock;
+  private final SessionBuilder        builder;
+  private final SignalProtocolAddress remoteAddress;
 
-  public SignalSessionBuilder(SignalSessionLock lock, SessionBuilder builder) {
-    this.lock    = lock;
-    this.builder = builder;
+  public SignalSessionBuilder(SignalSessionLock lock, SessionBuilder builder, SignalProtocolAddress remoteAddress) {
+    this.lock          = lock;
+    this.builder       = builder;
+    this.remoteAddress = remoteAddress;
   }
 
   public void process(PreKeyBundle preKey) throws InvalidKeyException, UntrustedIdentityException {
-    try (SignalSessionLock.Lock unused = lock.acquire()) {
+    try (SignalSessionLock.Lock unused = lock.acquire(remoteAddress)) {
       builder.process(preKey);
     }
   }
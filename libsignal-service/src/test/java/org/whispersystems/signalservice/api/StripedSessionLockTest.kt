@@ -0,0 +1,144 @@
+package org.whispersystems.signalservice.api
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+class StripedSessionLockTest {
+
+  @Test
+  fun `different addresses can be held at the same time`() {
+    val lock = StripedSessionLock()
+    val acquired = CountDownLatch(1)
+
+    lock.acquire(ALICE).use {
+      thread { lock.acquire(BOB).use { acquired.countDown() } }
+      assertTrue(acquired.await(1, TimeUnit.SECONDS))
+    }
+  }
+
+  @Test
+  fun `the same address is exclusive`() {
+    val lock = StripedSessionLock()
+    val acquired = CountDownLatch(1)
+
+    lock.acquire(ALICE).use {
+      thread { lock.acquire(ALICE).use { acquired.countDown() } }
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS))
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `global lock excludes address locks`() {
+    val lock = StripedSessionLock()
+    val acquired = CountDownLatch(1)
+
+    lock.acquire().use {
+      thread { lock.acquire(BOB).use { acquired.countDown() } }
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS))
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `global lock waits for address locks`() {
+    val lock = StripedSessionLock()
+    val acquired = CountDownLatch(1)
+
+    lock.acquire(ALICE).use {
+      thread { lock.acquire().use { acquired.countDown() } }
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS))
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `address locks are reentrant within the global lock`() {
+    val lock = StripedSessionLock()
+
+    lock.acquire().use {
+      lock.acquire(ALICE).use {
+        lock.acquireAll(listOf(ALICE, BOB)).use {
+          lock.acquire().use {
+            assertTrue(lock.isHeldByCurrentThread)
+          }
+        }
+      }
+      assertTrue(lock.isHeldByCurrentThread)
+    }
+
+    assertFalse(lock.isHeldByCurrentThread)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `global lock cannot be taken while holding an address lock`() {
+    val lock = StripedSessionLock()
+
+    lock.acquire(ALICE).use {
+      lock.acquire().close()
+    }
+  }
+
+  @Test
+  fun `multi-address locks do not deadlock against each other`() {
+    val lock = StripedSessionLock(4)
+    val names = (0 until 16).map { "address-$it" }
+    val failed = AtomicBoolean(false)
+
+    val threads = (0 until 8).map { i ->
+      thread {
+        try {
+          repeat(2_000) { n ->
+            val subset = names.shuffled(kotlin.random.Random(i * 10_000 + n)).take(3)
+            lock.acquireAll(subset).use { }
+          }
+        } catch (e: Throwable) {
+          failed.set(true)
+        }
+      }
+    }
+
+    threads.forEach { it.join(10_000) }
+
+    assertTrue(threads.none { it.isAlive })
+    assertFalse(failed.get())
+    assertFalse(lock.isHeldByCurrentThread)
+  }
+
+  @Test
+  fun `holds are released`() {
+    val lock = StripedSessionLock()
+
+    lock.acquireAll(listOf(ALICE, BOB)).close()
+    lock.acquire(ALICE).close()
+    lock.acquire().close()
+
+    assertFalse(lock.isHeldByCurrentThread)
+
+    val acquired = CountDownLatch(3)
+    thread {
+      lock.acquire(ALICE).use { acquired.countDown() }
+      lock.acquire(BOB).use { acquired.countDown() }
+      lock.acquire().use { acquired.countDown() }
+    }
+    assertTrue(acquired.await(1, TimeUnit.SECONDS))
+    assertEquals(0, acquired.count)
+  }
+
+  private fun thread(block: () -> Unit): Thread {
+    return Thread(block).apply { start() }
+  }
+
+  companion object {
+    private const val ALICE = "alice"
+    private const val BOB = "bob"
+  }
+}
@@ -0,0 +1,140 @@
+package org.signal.microbenchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.signal.libsignal.protocol.SignalProtocolAddress
+import org.whispersystems.signalservice.api.SignalSessionLock
+import org.whispersystems.signalservice.api.StripedSessionLock
+import java.util.UUID
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.locks.ReentrantLock
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Benchmarks for session lock contention when many threads encrypt at once, like the message send executor does.
+ *
+ * Each task takes the lock the same way the ciphers do and then does a fixed amount of crypto work to stand in for an encrypt. Compare
+ * the single global lock to the striped lock to see how much parallelism the striping buys.
+ */
+@RunWith(AndroidJUnit4::class)
+class SessionLockBenchmarks {
+
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(THREAD_COUNT)
+
+  private val recipients: List<SignalProtocolAddress> = (0 until RECIPIENT_COUNT).map { SignalProtocolAddress(UUID.randomUUID().toString(), 1) }
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  @Test
+  fun fanOutSend_globalLock() {
+    val lock = GlobalSessionLock()
+
+    benchmarkRule.measureRepeated {
+      runTasks(recipients.map { address -> Callable { lock.acquire(address).use { work() } } })
+    }
+  }
+
+  @Test
+  fun fanOutSend_stripedLock() {
+    val lock = StripedSessionLock()
+
+    benchmarkRule.measureRepeated {
+      runTasks(recipients.map { address -> Callable { lock.acquire(address).use { work() } } })
+    }
+  }
+
+  @Test
+  fun fanOutSendWithGlobalOperation_globalLock() {
+    val lock = GlobalSessionLock()
+
+    benchmarkRule.measureRepeated {
+      runTasks(fanOutWithGlobalOperation(lock))
+    }
+  }
+
+  @Test
+  fun fanOutSendWithGlobalOperation_stripedLock() {
+    val lock = StripedSessionLock()
+
+    benchmarkRule.measureRepeated {
+      runTasks(fanOutWithGlobalOperation(lock))
+    }
+  }
+
+  @Test
+  fun uncontended_globalLock() {
+    val lock = GlobalSessionLock()
+    val address = recipients.first()
+
+    benchmarkRule.measureRepeated {
+      lock.acquire(address).close()
+    }
+  }
+
+  @Test
+  fun uncontended_stripedLock() {
+    val lock = StripedSessionLock()
+    val address = recipients.first()
+
+    benchmarkRule.measureRepeated {
+      lock.acquire(address).close()
+    }
+  }
+
+  /**
+   * Every recipient gets a send, and one task in the middle takes the global lock, like an identity change would.
+   */
+  private fun fanOutWithGlobalOperation(lock: SignalSessionLock): List<Callable<Unit>> {
+    val tasks: MutableList<Callable<Unit>> = recipients.map { address -> Callable { lock.acquire(address).use { work() } } }.toMutableList()
+    tasks.add(tasks.size / 2, Callable { lock.acquire().use { work() } })
+    return tasks
+  }
+
+  private fun runTasks(tasks: List<Callable<Unit>>) {
+    executor.invokeAll(tasks).forEach { it.get() }
+  }
+
+  private fun work() {
+    val mac = Mac.getInstance("HmacSHA256")
+    mac.init(SecretKeySpec(KEY, "HmacSHA256"))
+    repeat(WORK_ROUNDS) {
+      mac.update(PAYLOAD)
+    }
+    mac.doFinal()
+  }
+
+  companion object {
+    private const val THREAD_COUNT = 16
+    private const val RECIPIENT_COUNT = 64
+    private const val WORK_ROUNDS = 32
+
+    private val KEY = ByteArray(32) { it.toByte() }
+    private val PAYLOAD = ByteArray(1024) { it.toByte() }
+  }
+}
+
+/**
+ * Equivalent to the old process-wide lock, where every acquisition is global.
+ */
+private class GlobalSessionLock : SignalSessionLock {
+  val lock = ReentrantLock()
+
+  override fun acquire(): SignalSessionLock.Lock {
+    lock.lock()
+    return SignalSessionLock.Lock { lock.unlock() }
+  }
+}
@@ -3,46 +3,238 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A placeholder class for efficiently storing lists that are mostly empty space.
- * TODO [greyson][paging]
+ * A list that efficiently stores data that is mostly empty space, and that is cheap to copy.
+ *
+ * The list is broken up into chunks of roughly {@link #CHUNK_SIZE} items. A chunk that only contains nulls is never allocated.
+ * Copying a {@link CompressedList} via {@link #CompressedList(List)} only copies the chunk table -- the chunks themselves are
+ * shared, and are copied lazily the first time either list writes to them (copy-on-write). That means that publishing a new list
+ * after updating a single item only allocates a single chunk, regardless of the size of the list.
+ *
+ * Like the lists it replaces, this is not thread-safe for writes. It is expected that a list is fully populated by one thread
+ * before being handed off to readers, and that it is not written to afterwards.
  */
 public class CompressedList<E> extends AbstractList<E> {
 
-  private final List<E> wrapped;
+  static final int CHUNK_SIZE = 256;
+
+  /** Chunks larger than this are split in half on insert. */
+  private static final int MAX_CHUNK_SIZE = CHUNK_SIZE * 2;
+
+  /** The item storage for each chunk. A null chunk is all nulls. */
+  private Object[][] chunks;
+
+  /** The number of items in each chunk. */
+  private int[] chunkSizes;
+
+  /** The index of the first item of each chunk. */
+  private int[] chunkStarts;
+
+  /** Whether or not this list is the only one referencing a given chunk, and therefore can write to it in place. */
+  private boolean[] owned;
+
+  private int chunkCount;
+  private int size;
 
   public CompressedList(@NonNull List<E> source) {
-    this.wrapped = new ArrayList<>(source);
+    if (source instanceof CompressedList) {
+      CompressedList<E> other = (CompressedList<E>) source;
+
+      this.chunkCount  = other.chunkCount;
+      this.size        = other.size;
+      this.chunks      = Arrays.copyOf(other.chunks, other.chunks.length);
+      this.chunkSizes  = Arrays.copyOf(other.chunkSizes, other.chunkSizes.length);
+      this.chunkStarts = Arrays.copyOf(other.chunkStarts, other.chunkStarts.length);
+      this.owned       = new boolean[other.owned.length];
+
+      // The chunks are now shared, so neither list may write to them in place anymore
+      Arrays.fill(other.owned, false);
+    } else {
+      initEmpty(source.size());
+
+      for (int i = 0, len = source.size(); i < len; i++) {
+        E item = source.get(i);
+        if (item != null) {
+          set(i, item);
+        }
+      }
+    }
   }
 
   public CompressedList(int totalSize) {
-    this.wrapped = new ArrayList<>(totalSize);
+    initEmpty(totalSize);
+  }
+
+  private void initEmpty(int totalSize) {
+    int count = Math.max(1, (totalSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
 
-    for (int i = 0; i < totalSize; i++) {
-      wrapped.add(null);
+    this.chunkCount  = totalSize == 0 ? 0 : count;
+    this.size        = totalSize;
+    this.chunks      = new Object[count][];
+    this.chunkSizes  = new int[count];
+    this.chunkStarts = new int[count];
+    this.owned       = new boolean[count];
+
+    for (int i = 0; i < chunkCount; i++) {
+      chunkStarts[i] = i * CHUNK_SIZE;
+      chunkSizes[i]  = Math.min(CHUNK_SIZE, totalSize - chunkStarts[i]);
     }
   }
 
   @Override
   public int size() {
-    return wrapped.size();
+    return size;
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E get(int index) {
-    return wrapped.get(index);
+    checkIndex(index, size);
+
+    int      chunk = findChunk(index);
+    Object[] items = chunks[chunk];
+
+    return items == null ? null : (E) items[index - chunkStarts[chunk]];
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public E set(int globalIndex, E element) {
-    return wrapped.set(globalIndex, element);
+    checkIndex(globalIndex, size);
+
+    int chunk = findChunk(globalIndex);
+
+    if (chunks[chunk] == null && element == null) {
+      return null;
+    }
+
+    Object[] items    = requireWritableChunk(chunk);
+    int      local    = globalIndex - chunkStarts[chunk];
+    E        previous = (E) items[local];
+
+    items[local] = element;
+
+    return previous;
   }
 
   @Override
   public void add(int index, E element) {
-    wrapped.add(index, element);
+    checkIndex(index, size + 1);
+
+    if (chunkCount == 0) {
+      initEmpty(1);
+      set(0, element);
+      return;
+    }
+
+    int chunk = index == size ? chunkCount - 1 : findChunk(index);
+    int local = index - chunkStarts[chunk];
+
+    Object[] previous = chunks[chunk];
+    Object[] items    = new Object[chunkSizes[chunk] + 1];
+
+    if (previous != null) {
+      System.arraycopy(previous, 0, items, 0, local);
+      System.arraycopy(previous, local, items, local + 1, chunkSizes[chunk] - local);
+    }
+    items[local] = element;
+
+    chunks[chunk] = items;
+    owned[chunk]  = true;
+    chunkSizes[chunk]++;
+    size++;
+    modCount++;
+
+    for (int i = chunk + 1; i < chunkCount; i++) {
+      chunkStarts[i]++;
+    }
+
+    if (chunkSizes[chunk] > MAX_CHUNK_SIZE) {
+      splitChunk(chunk);
+    }
+  }
+
+  /**
+   * Returns the chunk's storage, first copying it (or allocating it, if it's an all-null chunk) if it is shared with another list.
+   */
+  private @NonNull Object[] requireWritableChunk(int chunk) {
+    if (!owned[chunk]) {
+      Object[] previous = chunks[chunk];
+
+      chunks[chunk] = previous == null ? new Object[chunkSizes[chunk]] : Arrays.copyOf(previous, chunkSizes[chunk]);
+      owned[chunk]  = true;
+    }
+
+    return chunks[chunk];
+  }
+
+  private void splitChunk(int chunk) {
+    ensureChunkCapacity(chunkCount + 1);
+
+    int      total     = chunkSizes[chunk];
+    int      leftSize  = total / 2;
+    int      rightSize = total - leftSize;
+    Object[] items     = chunks[chunk];
+
+    int tail = chunkCount - chunk - 1;
+    System.arraycopy(chunks, chunk + 1, chunks, chunk + 2, tail);
+    System.arraycopy(chunkSizes, chunk + 1, chunkSizes, chunk + 2, tail);
+    System.arraycopy(chunkStarts, chunk + 1, chunkStarts, chunk + 2, tail);
+    System.arraycopy(owned, chunk + 1, owned, chunk + 2, tail);
+
+    chunks[chunk]     = Arrays.copyOfRange(items, 0, leftSize);
+    chunks[chunk + 1] = Arrays.copyOfRange(items, leftSize, total);
+
+    chunkSizes[chunk]     = leftSize;
+    chunkSizes[chunk + 1] = rightSize;
+
+    chunkStarts[chunk + 1] = chunkStarts[chunk] + leftSize;
+
+    owned[chunk]     = true;
+    owned[chunk + 1] = true;
+
+    chunkCount++;
+  }
+
+  private void ensureChunkCapacity(int required) {
+    if (chunks.length >= required) {
+      return;
+    }
+
+    int capacity = Math.max(required, chunks.length + (chunks.length >> 1) + 1);
+
+    chunks      = Arrays.copyOf(chunks, capacity);
+    chunkSizes  = Arrays.copyOf(chunkSizes, capacity);
+    chunkStarts = Arrays.copyOf(chunkStarts, capacity);
+    owned       = Arrays.copyOf(owned, capacity);
+  }
+
+  /**
+   * Finds the chunk that contains the item at the given index via a binary search over the chunk start positions.
+   */
+  private int findChunk(int index) {
+    int low  = 0;
+    int high = chunkCount - 1;
+
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+
+      if (chunkStarts[mid] <= index) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    return low;
+  }
+
+  private static void checkIndex(int index, int bound) {
+    if (index < 0 || index >= bound) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+    }
   }
 }
@@ -0,0 +1,111 @@
+package org.signal.paging;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the cost of publishing a single-item update, the way {@link FixedSizePagingController} does, for lists of various sizes.
+ * Compares {@link CompressedList} against a full {@link ArrayList} copy, which is what the paging library used to do.
+ *
+ * Not run as part of the normal test suite -- remove the {@link Ignore} and run it locally.
+ */
+@Ignore("Benchmark. Run manually.")
+public class CompressedListBenchmark {
+
+  private static final int WARMUP     = 200;
+  private static final int ITERATIONS = 2_000;
+
+  @Test
+  public void update_10k() {
+    benchmark(10_000);
+  }
+
+  @Test
+  public void update_100k() {
+    benchmark(100_000);
+  }
+
+  @Test
+  public void update_1m() {
+    benchmark(1_000_000);
+  }
+
+  private static void benchmark(int size) {
+    CompressedList<Object> compressed = new CompressedList<>(size);
+    List<Object>           array      = new ArrayList<>(size);
+
+    for (int i = 0; i < size; i++) {
+      array.add(null);
+    }
+
+    // Roughly a screen's worth of loaded data in the middle of the list
+    for (int i = size / 2; i < size / 2 + 200; i++) {
+      compressed.set(i, i);
+      array.set(i, i);
+    }
+
+    Result compressedResult = measure(size, compressed, CompressedList::new);
+    Result arrayResult      = measure(size, array, ArrayList::new);
+
+    System.out.println(String.format("[%,d rows] CompressedList: %,d ns/update, %,d bytes/update | ArrayList: %,d ns/update, %,d bytes/update",
+                                     size,
+                                     compressedResult.nanosPerUpdate,
+                                     compressedResult.bytesPerUpdate,
+                                     arrayResult.nanosPerUpdate,
+                                     arrayResult.bytesPerUpdate));
+  }
+
+  private static Result measure(int size, List<Object> initial, Copier copier) {
+    List<Object> current = initial;
+
+    for (int i = 0; i < WARMUP; i++) {
+      current = update(current, copier, size / 2 + (i % 200));
+    }
+
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      current = update(current, copier, size / 2 + (i % 200));
+    }
+
+    long nanos = System.nanoTime() - startNanos;
+    long bytes = allocatedBytes() - startBytes;
+
+    return new Result(nanos / ITERATIONS, bytes / ITERATIONS);
+  }
+
+  private static List<Object> update(List<Object> current, Copier copier, int position) {
+    List<Object> updated = copier.copy(current);
+    updated.set(position, new Object());
+    return updated;
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    } else {
+      return 0;
+    }
+  }
+
+  private interface Copier {
+    List<Object> copy(List<Object> source);
+  }
+
+  private static final class Result {
+    private final long nanosPerUpdate;
+    private final long bytesPerUpdate;
+
+    private Result(long nanosPerUpdate, long bytesPerUpdate) {
+      this.nanosPerUpdate = nanosPerUpdate;
+      this.bytesPerUpdate = bytesPerUpdate;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package org.signal.paging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompressedListTest {
+
+  @Test
+  public void init_withSize_allNull() {
+    CompressedList<String> subject = new CompressedList<>(1000);
+
+    assertEquals(1000, subject.size());
+    for (int i = 0; i < subject.size(); i++) {
+      assertNull(subject.get(i));
+    }
+  }
+
+  @Test
+  public void init_fromList_matchesSource() {
+    List<String> source = Arrays.asList("a", null, "c", null, "e");
+
+    CompressedList<String> subject = new CompressedList<>(source);
+
+    assertEquals(source, subject);
+  }
+
+  @Test
+  public void set_returnsPreviousValue() {
+    CompressedList<String> subject = new CompressedList<>(10);
+
+    assertNull(subject.set(3, "a"));
+    assertEquals("a", subject.set(3, "b"));
+    assertEquals("b", subject.get(3));
+  }
+
+  @Test
+  public void copy_writesToCopyDoNotAffectOriginal() {
+    CompressedList<String> original = new CompressedList<>(1000);
+    original.set(5, "a");
+
+    CompressedList<String> copy = new CompressedList<>(original);
+    copy.set(5, "b");
+    copy.set(600, "c");
+
+    assertEquals("a", original.get(5));
+    assertNull(original.get(600));
+    assertEquals("b", copy.get(5));
+    assertEquals("c", copy.get(600));
+  }
+
+  @Test
+  public void copy_writesToOriginalDoNotAffectCopy() {
+    CompressedList<String> original = new CompressedList<>(1000);
+    original.set(5, "a");
+
+    CompressedList<String> copy = new CompressedList<>(original);
+    original.set(5, "b");
+
+    assertEquals("a", copy.get(5));
+    assertEquals("b", original.get(5));
+  }
+
+  @Test
+  public void add_toEmptyList() {
+    CompressedList<String> subject = new CompressedList<>(0);
+
+    subject.add(0, "a");
+    subject.add(0, "b");
+    subject.add(2, "c");
+
+    assertEquals(Arrays.asList("b", "a", "c"), subject);
+  }
+
+  @Test
+  public void add_doesNotAffectCopy() {
+    CompressedList<String> original = new CompressedList<>(Arrays.asList("a", "b", "c"));
+    CompressedList<String> copy     = new CompressedList<>(original);
+
+    copy.add(1, "d");
+
+    assertEquals(Arrays.asList("a", "b", "c"), original);
+    assertEquals(Arrays.asList("a", "d", "b", "c"), copy);
+  }
+
+  @Test
+  public void add_manyInsertsAcrossChunks_matchesArrayList() {
+    Random                 random   = new Random(42);
+    List<Integer>          expected = new ArrayList<>(Collections.nCopies(2000, null));
+    CompressedList<Integer> subject = new CompressedList<>(2000);
+
+    for (int i = 0; i < 3000; i++) {
+      int position = random.nextInt(expected.size() + 1);
+      expected.add(position, i);
+      subject.add(position, i);
+
+      if (i % 7 == 0) {
+        int setPosition = random.nextInt(expected.size());
+        expected.set(setPosition, -i);
+        subject.set(setPosition, -i);
+      }
+
+      if (i % 100 == 0) {
+        subject = new CompressedList<>(subject);
+      }
+    }
+
+    assertEquals(expected.size(), subject.size());
+    assertEquals(expected, subject);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void get_outOfBounds_throws() {
+    new CompressedList<String>(10).get(10);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void add_outOfBounds_throws() {
+    new CompressedList<String>(10).add(11, "a");
+  }
+}